@@ -79,4 +79,19 @@ public class Constants {
    * Group ID for retrieving friend requests.
    */
   public static final String FRIEND_REQUESTS = "@friendrequests";
+
+  /**
+   * Property naming the directory uploaded files are stored in.
+   */
+  public static final String UPLOAD_PATH = "upload_path";
+
+  /**
+   * Property naming the URL prefix the download servlet is mapped to.
+   */
+  public static final String DOWNLOAD_PATH = "download_path";
+
+  /**
+   * Path prefix of immutable, content-addressed download URLs.
+   */
+  public static final String BLOB_PATH = "blobs/";
 }
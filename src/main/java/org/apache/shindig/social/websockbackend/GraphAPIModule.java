@@ -27,6 +27,8 @@ import org.apache.shindig.social.opensocial.service.PersonHandler;
 import org.apache.shindig.social.websockbackend.service.AutoCompleteHandler;
 import org.apache.shindig.social.websockbackend.service.ExtMessageHandler;
 import org.apache.shindig.social.websockbackend.service.ExtPersonHandler;
+import org.apache.shindig.social.websockbackend.service.GroupMembershipHandler;
+import org.apache.shindig.social.websockbackend.service.MediaItemCounterHandler;
 import org.apache.shindig.social.websockbackend.service.OrganizationHandler;
 import org.apache.shindig.social.websockbackend.service.ProcessMiningHandler;
 import org.apache.shindig.social.websockbackend.service.SkillHandler;
@@ -58,6 +60,12 @@ public class GraphAPIModule extends SocialApiGuiceModule {
     // process mining handler
     handlers.add(ProcessMiningHandler.class);
 
+    // media item counter handler
+    handlers.add(MediaItemCounterHandler.class);
+
+    // group membership handler
+    handlers.add(GroupMembershipHandler.class);
+
     // replacements
     handlers.remove(PersonHandler.class);
     handlers.add(ExtPersonHandler.class);
@@ -40,8 +40,12 @@ import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
 import org.apache.shindig.social.websockbackend.events.ShindigEventType;
 import org.apache.shindig.social.websockbackend.spi.IExtMessageService;
 import org.apache.shindig.social.websockbackend.spi.IExtPersonService;
+import org.apache.shindig.social.websockbackend.spi.IFileService;
 import org.apache.shindig.social.websockbackend.spi.IFriendService;
 import org.apache.shindig.social.websockbackend.spi.IGraphService;
+import org.apache.shindig.social.websockbackend.spi.IGroupMembershipService;
+import org.apache.shindig.social.websockbackend.spi.IMediaItemCounterService;
+import org.apache.shindig.social.websockbackend.spi.IMessageThreadService;
 import org.apache.shindig.social.websockbackend.spi.IOrganizationService;
 import org.apache.shindig.social.websockbackend.spi.IProcessMiningService;
 import org.apache.shindig.social.websockbackend.spi.ISkillService;
@@ -60,6 +64,7 @@ import org.apache.shindig.social.websockbackend.spi.WsNativeProcessMiningSPI;
 import org.apache.shindig.social.websockbackend.spi.WsNativeSkillSPI;
 import org.apache.shindig.social.websockbackend.spi.cypher.WsCypherActivitySPI;
 import org.apache.shindig.social.websockbackend.spi.cypher.WsCypherActivityStreamSPI;
+import org.apache.shindig.social.websockbackend.spi.cypher.WsCypherFileSPI;
 import org.apache.shindig.social.websockbackend.spi.cypher.WsCypherGraphSPI;
 import org.apache.shindig.social.websockbackend.spi.cypher.WsCypherGroupSPI;
 import org.apache.shindig.social.websockbackend.spi.cypher.WsCypherMessageSPI;
@@ -137,6 +142,7 @@ public class GuiceModule extends AbstractModule {
         this.bind(AlbumService.class).to(WsNativeAlbumSPI.class);
         this.bind(AppDataService.class).to(WsNativeAppDataSPI.class);
         this.bind(MediaItemService.class).to(WsNativeMediaItemSPI.class);
+        this.bind(IMediaItemCounterService.class).to(WsNativeMediaItemSPI.class);
       } else {
         // Native version
         logger.info("binding native back-end routines");
@@ -156,11 +162,17 @@ public class GuiceModule extends AbstractModule {
         this.bind(IExtPersonService.class).to(WsNativePersonSPI.class);
         this.bind(IFriendService.class).to(WsNativeFriendSPI.class);
         this.bind(IGraphService.class).to(WsNativeGraphSPI.class);
+        this.bind(IMediaItemCounterService.class).to(WsNativeMediaItemSPI.class);
         this.bind(ISkillService.class).to(WsNativeSkillSPI.class);
         this.bind(IOrganizationService.class).to(WsNativeOrganizationService.class);
         this.bind(IProcessMiningService.class).to(WsNativeProcessMiningSPI.class);
       }
 
+      // group memberships, file metadata and message threads are only available via Cypher
+      this.bind(IGroupMembershipService.class).to(WsCypherGroupSPI.class);
+      this.bind(IFileService.class).to(WsCypherFileSPI.class);
+      this.bind(IMessageThreadService.class).to(WsCypherMessageSPI.class);
+
       // TODO:?
       // those authorization classes might have to be extended later
       this.bind(OAuthDataStore.class).to(SampleOAuthDataStore.class);
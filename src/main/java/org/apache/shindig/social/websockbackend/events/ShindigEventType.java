@@ -33,5 +33,8 @@ public enum ShindigEventType {
   MESSAGE_SENT, MESSAGE_CREATED, MESSAGE_UPDATED, MESSAGE_DELETED,
   
   // skill service
-  SKILL_ADDED, SKILL_REMOVED;
+  SKILL_ADDED, SKILL_REMOVED,
+
+  // friend service
+  FRIENDSHIP_REQUESTED, FRIENDSHIP_CONFIRMED, FRIENDSHIP_DENIED;
 }
@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.model.dto;
+
+import java.util.Map;
+
+/**
+ * Metadata of an uploaded file using a key-value map for internal property storage. The file's
+ * contents are not stored in the map.
+ */
+public class FileMetadataDTO extends ADataTransferObject {
+  private static final String ID_FIELD = "id";
+  private static final String NAME_FIELD = "name";
+  private static final String CONTENT_TYPE_FIELD = "contentType";
+  private static final String SIZE_FIELD = "size";
+  private static final String OWNER_FIELD = "owner";
+  private static final String CREATED_FIELD = "created";
+  private static final String LOCATION_FIELD = "location";
+  private static final String DIGEST_FIELD = "digest";
+  private static final String URL_FIELD = "url";
+
+  /**
+   * Creates an empty file metadata transfer object.
+   */
+  public FileMetadataDTO() {
+    super();
+  }
+
+  /**
+   * Creates a file metadata transfer object using the given map for internal property storage. The
+   * given map must not be null.
+   *
+   * @param props
+   *          map to use for internal property storage
+   */
+  public FileMetadataDTO(Map<String, Object> props) {
+    super(props);
+  }
+
+  /**
+   * @return ID of the file
+   */
+  public String getId() {
+    return (String) this.fProperties.get(FileMetadataDTO.ID_FIELD);
+  }
+
+  /**
+   * @param id
+   *          new ID of the file
+   */
+  public void setId(String id) {
+    this.fProperties.put(FileMetadataDTO.ID_FIELD, id);
+  }
+
+  /**
+   * @return original name of the file
+   */
+  public String getName() {
+    return (String) this.fProperties.get(FileMetadataDTO.NAME_FIELD);
+  }
+
+  /**
+   * @param name
+   *          new original name of the file
+   */
+  public void setName(String name) {
+    this.fProperties.put(FileMetadataDTO.NAME_FIELD, name);
+  }
+
+  /**
+   * @return MIME type of the file
+   */
+  public String getContentType() {
+    return (String) this.fProperties.get(FileMetadataDTO.CONTENT_TYPE_FIELD);
+  }
+
+  /**
+   * @param contentType
+   *          new MIME type of the file
+   */
+  public void setContentType(String contentType) {
+    this.fProperties.put(FileMetadataDTO.CONTENT_TYPE_FIELD, contentType);
+  }
+
+  /**
+   * @return size of the file in bytes or -1 if it is unknown
+   */
+  public long getSize() {
+    long size = -1;
+
+    final Object value = this.fProperties.get(FileMetadataDTO.SIZE_FIELD);
+    if (value != null) {
+      size = ((Number) value).longValue();
+    }
+
+    return size;
+  }
+
+  /**
+   * @param size
+   *          new size of the file in bytes
+   */
+  public void setSize(long size) {
+    this.fProperties.put(FileMetadataDTO.SIZE_FIELD, size);
+  }
+
+  /**
+   * @return ID of the person who uploaded the file
+   */
+  public String getOwner() {
+    return (String) this.fProperties.get(FileMetadataDTO.OWNER_FIELD);
+  }
+
+  /**
+   * @param owner
+   *          new ID of the person who uploaded the file
+   */
+  public void setOwner(String owner) {
+    this.fProperties.put(FileMetadataDTO.OWNER_FIELD, owner);
+  }
+
+  /**
+   * @return upload time in milliseconds since the epoch or 0 if it is unknown
+   */
+  public long getCreated() {
+    long created = 0;
+
+    final Object value = this.fProperties.get(FileMetadataDTO.CREATED_FIELD);
+    if (value != null) {
+      created = ((Number) value).longValue();
+    }
+
+    return created;
+  }
+
+  /**
+   * @param created
+   *          new upload time in milliseconds since the epoch
+   */
+  public void setCreated(long created) {
+    this.fProperties.put(FileMetadataDTO.CREATED_FIELD, created);
+  }
+
+  /**
+   * @return location of the file's contents relative to the storage directory
+   */
+  public String getLocation() {
+    return (String) this.fProperties.get(FileMetadataDTO.LOCATION_FIELD);
+  }
+
+  /**
+   * @param location
+   *          new location of the file's contents relative to the storage directory
+   */
+  public void setLocation(String location) {
+    this.fProperties.put(FileMetadataDTO.LOCATION_FIELD, location);
+  }
+
+  /**
+   * @return URL the file can be downloaded from
+   */
+  public String getUrl() {
+    return (String) this.fProperties.get(FileMetadataDTO.URL_FIELD);
+  }
+
+  /**
+   * @param url
+   *          new URL the file can be downloaded from
+   */
+  public void setUrl(String url) {
+    this.fProperties.put(FileMetadataDTO.URL_FIELD, url);
+  }
+
+  /**
+   * @return hexadecimal SHA-256 digest of the file's contents or null if it is unknown
+   */
+  public String getDigest() {
+    return (String) this.fProperties.get(FileMetadataDTO.DIGEST_FIELD);
+  }
+
+  /**
+   * @param digest
+   *          new hexadecimal SHA-256 digest of the file's contents
+   */
+  public void setDigest(String digest) {
+    this.fProperties.put(FileMetadataDTO.DIGEST_FIELD, digest);
+  }
+}
@@ -20,6 +20,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.bind.DatatypeConverter;
+
 import org.apache.shindig.social.websockbackend.model.IProcessCycle;
 
 public class ProcessCycleDTO extends ADataTransferObject implements IProcessCycle {
@@ -48,6 +50,31 @@ public class ProcessCycleDTO extends ADataTransferObject implements IProcessCycl
     super(props);
   }
 
+  /**
+   * Converts a date given in milliseconds since the epoch, either as a number or a string, or as an
+   * ISO 8601 string to milliseconds. Returns null for null or empty values.
+   *
+   * @param value
+   *          date to convert
+   * @return date in milliseconds or null
+   * @throws IllegalArgumentException
+   *           if the value is not a valid date
+   */
+  public static Long toTime(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value == null || value.toString().isEmpty()) {
+      return null;
+    }
+
+    final String date = value.toString();
+    if (date.matches("-?\\d+")) {
+      return Long.parseLong(date);
+    }
+    return DatatypeConverter.parseDateTime(date).getTimeInMillis();
+  }
+
   @Override
   public String getType() {
     String type = null;
@@ -144,7 +171,8 @@ public class ProcessCycleDTO extends ADataTransferObject implements IProcessCycl
     */
     
     @SuppressWarnings("unchecked")
-	final List<String> userList = (List<String>)this.fProperties;  
+	final List<String> userList = (List<String>) this.fProperties
+	        .get(ProcessCycleDTO.USERLIST_FIELD);
 
     return userList;
   }
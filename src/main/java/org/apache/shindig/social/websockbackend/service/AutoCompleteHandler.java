@@ -24,32 +24,40 @@ import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.Service;
 import org.apache.shindig.social.opensocial.service.SocialRequestItem;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.websockbackend.spi.IExtPersonService;
 import org.apache.shindig.social.websockbackend.spi.ISkillService;
 
 import com.google.inject.Inject;
 
 /**
  * SCHub-specific service handler for autocompletion requests based on text fragments. Currently,
- * autocompletion is only available for skills.
+ * autocompletion is available for skills and people's names.
  */
 @Service(name = "autocomplete", path = "/{type}")
 public class AutoCompleteHandler {
   private final ISkillService fSkillSPI;
+  private final IExtPersonService fPersonSPI;
 
   /**
-   * Creates an autocompletion handler using the given skill service. A NullPointerException is
-   * thrown if the given handler is null.
+   * Creates an autocompletion handler using the given skill and person services. A
+   * NullPointerException is thrown if any of the given services is null.
    *
    * @param skillService
    *          skill autocompletion service
+   * @param personService
+   *          person name autocompletion service
    */
   @Inject
-  public AutoCompleteHandler(ISkillService skillService) {
+  public AutoCompleteHandler(ISkillService skillService, IExtPersonService personService) {
     if (skillService == null) {
       throw new NullPointerException("skill service was null");
     }
+    if (personService == null) {
+      throw new NullPointerException("person service was null");
+    }
 
     this.fSkillSPI = skillService;
+    this.fPersonSPI = personService;
   }
 
   /**
@@ -73,4 +81,27 @@ public class AutoCompleteHandler {
 
     return result;
   }
+
+  /**
+   * Handles a GET-request with the parameters represented by the given request item and returns
+   * compact records of people whose names match the fragment, containing their ID, display name and
+   * thumbnail URL. Throws a NullPointerException if the given request item is null. This
+   * GET-request only has the "fragment" as an optional URL parameter.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return person autocompletion suggestions
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/people")
+  public Future<?> getPeopleAutocomp(final SocialRequestItem request) throws ProtocolException {
+    final CollectionOptions collOpts = new CollectionOptions(request);
+    final SecurityToken token = request.getToken();
+
+    final String fragment = request.getParameter("fragment");
+    final Future<?> result = this.fPersonSPI.getPeopleAutocomp(fragment, collOpts, token);
+
+    return result;
+  }
 }
@@ -33,6 +33,7 @@ import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.CollectionOptionsFactory;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.spi.IExtMessageService;
+import org.apache.shindig.social.websockbackend.spi.IMessageThreadService;
 
 import com.google.inject.Inject;
 
@@ -43,13 +44,17 @@ import com.google.inject.Inject;
  */
 @Service(name = "messages", path = "/{userId}+/{msgCollId}/{messageIds}+")
 public class ExtMessageHandler {
+  private static final String THREAD_COLLECTION = "@thread";
+
   private final IExtMessageService service;
+  private final IMessageThreadService threadService;
   private final CollectionOptionsFactory collectionOptionsFactory;
 
   @Inject
-  public ExtMessageHandler(IExtMessageService service,
+  public ExtMessageHandler(IExtMessageService service, IMessageThreadService threadService,
           CollectionOptionsFactory collectionOptionsFactory) {
     this.service = service;
+    this.threadService = threadService;
     this.collectionOptionsFactory = collectionOptionsFactory;
   }
 
@@ -97,6 +102,14 @@ public class ExtMessageHandler {
       final Set<String> fields = request.getFields(MessageCollection.Field.ALL_FIELDS);
       return this.service.getMessageCollections(user, fields, options, request.getToken());
     }
+    if (ExtMessageHandler.THREAD_COLLECTION.equals(msgCollId)) {
+      // Return the whole conversation the given message is part of
+      HandlerPreconditions.requireNotEmpty(messageIds, "No message ID specified");
+      HandlerPreconditions.requireSingular(messageIds, "Multiple message IDs not supported");
+
+      return this.threadService.getThread(user, messageIds.get(0), request.getToken());
+    }
+
     // If messageIds are specified return them, otherwise return entries in the given collection.
     final Set<String> fields = request.getFields(Message.Field.ALL_FIELDS);
     return this.service.getMessages(user, msgCollId, fields, messageIds, options,
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.service;
+
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.Operation;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.Service;
+import org.apache.shindig.social.opensocial.service.SocialRequestItem;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.websockbackend.spi.IGroupMembershipService;
+
+import com.google.inject.Inject;
+
+/**
+ * Service handler letting users join and leave groups.
+ */
+@Service(name = "groupMembers", path = "/{userId}/{groupId}")
+public class GroupMembershipHandler {
+  private final IGroupMembershipService fMembershipSPI;
+
+  /**
+   * Creates a group membership handler using the given group membership service. Throws a
+   * NullPointerException if the given service is null.
+   *
+   * @param membershipService
+   *          group membership service to use
+   */
+  @Inject
+  public GroupMembershipHandler(IGroupMembershipService membershipService) {
+    if (membershipService == null) {
+      throw new NullPointerException("group membership service was null");
+    }
+
+    this.fMembershipSPI = membershipService;
+  }
+
+  /**
+   * Makes a user a member of a group. This POST-request requires the userId and the groupId as
+   * path parameters. The user must be set as the "viewer" in the attached security token.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return empty future
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "POST", path = "/{userId}/{groupId}")
+  public Future<?> joinGroup(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+
+    final Set<UserId> userIds = request.getUsers();
+    final UserId userId = userIds.iterator().next();
+
+    final String groupId = request.getParameter("groupId");
+    final Future<?> result = this.fMembershipSPI.joinGroup(userId, groupId, token);
+
+    return result;
+  }
+
+  /**
+   * Removes a user from a group. This DELETE-request requires the userId and the groupId as path
+   * parameters. The user must be set as the "viewer" in the attached security token.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return empty future
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "DELETE", path = "/{userId}/{groupId}")
+  public Future<?> leaveGroup(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+
+    final Set<UserId> userIds = request.getUsers();
+    final UserId userId = userIds.iterator().next();
+
+    final String groupId = request.getParameter("groupId");
+    final Future<?> result = this.fMembershipSPI.leaveGroup(userId, groupId, token);
+
+    return result;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.service;
+
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.Operation;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.Service;
+import org.apache.shindig.social.opensocial.service.SocialRequestItem;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.websockbackend.spi.IMediaItemCounterService;
+
+import com.google.inject.Inject;
+
+/**
+ * Service handler incrementing the view, vote and comment counters of media items.
+ */
+@Service(name = "mediaItemCounters", path = "/{userId}/{albumId}/{mediaItemId}/{field}")
+public class MediaItemCounterHandler {
+  private static final long MAX_DELTA = 100;
+
+  private final IMediaItemCounterService fCounterSPI;
+
+  /**
+   * Creates a media item counter handler using the given counter service. Throws a
+   * NullPointerException if the given service is null.
+   *
+   * @param counterService
+   *          media item counter service to use
+   */
+  @Inject
+  public MediaItemCounterHandler(IMediaItemCounterService counterService) {
+    if (counterService == null) {
+      throw new NullPointerException("media item counter service was null");
+    }
+
+    this.fCounterSPI = counterService;
+  }
+
+  /**
+   * Increments a counter of a media item. This POST-request requires the userId of the owner, the
+   * albumId, the mediaItemId and the counter field as path parameters. The optional "delta"
+   * parameter defaults to 1 and may be at most 100, the application is taken from the "appId"
+   * parameter.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return empty future
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "POST", path = "/{userId}/{albumId}/{mediaItemId}/{field}")
+  public Future<?> increment(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+
+    final Set<UserId> userIds = request.getUsers();
+    final UserId userId = userIds.iterator().next();
+
+    long delta = 1;
+    final String deltaString = request.getParameter("delta");
+    if (deltaString != null && !deltaString.isEmpty()) {
+      try {
+        delta = Long.parseLong(deltaString);
+      } catch (final NumberFormatException e) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid delta", e);
+      }
+    }
+    if (delta < 1 || delta > MediaItemCounterHandler.MAX_DELTA) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "delta must be between 1 and "
+              + MediaItemCounterHandler.MAX_DELTA);
+    }
+
+    final Future<?> result = this.fCounterSPI.incrementCounter(userId, request.getAppId(),
+            request.getParameter("albumId"), request.getParameter("mediaItemId"),
+            request.getParameter("field"), delta, token);
+
+    return result;
+  }
+}
@@ -19,11 +19,14 @@ package org.apache.shindig.social.websockbackend.service;
 import java.util.Set;
 import java.util.concurrent.Future;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.shindig.protocol.Operation;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.Service;
 import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.service.SocialRequestItem;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.spi.IOrganizationService;
 
@@ -81,4 +84,46 @@ public class OrganizationHandler {
 
     return this.fOrgs.getHierarchyPath(userId, target, fields, request.getToken());
   }
+
+  /**
+   * Handles a GET-request with the parameters represented by the given request item and returns a
+   * page of the people managed by the specified person directly or indirectly, each followed by
+   * their own team. The optional "depth" parameter limits the number of levels below the person
+   * and has to be positive. Throws a NullPointerException if the given request item is null.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return page of the specified person's subordinates
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{userId}+/subordinates")
+  public Future<?> getSubordinates(final SocialRequestItem request) throws ProtocolException {
+    Set<String> fields = request.getFields();
+    if (fields.isEmpty()) {
+      fields = OrganizationHandler.DEF_FIELDS;
+    }
+
+    final CollectionOptions collOpts = new CollectionOptions(request);
+    final UserId userId = request.getUsers().iterator().next();
+
+    final String depthString = request.getParameter("depth");
+    int depth = Integer.MAX_VALUE;
+
+    if (depthString != null) {
+      try {
+        depth = Integer.parseInt(depthString);
+      } catch (final NumberFormatException e) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid depth: "
+                + depthString, e);
+      }
+
+      if (depth < 1) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+                "depth must be positive: " + depthString);
+      }
+    }
+
+    return this.fOrgs.getSubordinates(userId, depth, collOpts, fields, request.getToken());
+  }
 }
@@ -16,10 +16,14 @@
  */
 package org.apache.shindig.social.websockbackend.service;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Future;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.HandlerPreconditions;
 import org.apache.shindig.protocol.Operation;
@@ -31,7 +35,12 @@ import org.apache.shindig.social.opensocial.service.SocialRequestItem;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.model.IProcessCycle;
+import org.apache.shindig.social.websockbackend.model.dto.ProcessCycleDTO;
 import org.apache.shindig.social.websockbackend.spi.IProcessMiningService;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import com.google.inject.Inject;
 
@@ -71,6 +80,84 @@ public class ProcessMiningHandler {
     return result;
   }
   
+  /**
+   * Accepts process cycles of a document type in bulk and acknowledges them before they are
+   * created. The body may be a JSON array of cycles or newline delimited JSON, each line holding a
+   * cycle or an array of cycles. Dates can be given in milliseconds or in ISO 8601 format.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return number of accepted and pending cycles
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "POST", path = "/{docType}/batch", bodyParam = "cycles")
+  public Future<?> addProcessCycles(final SocialRequestItem request) throws ProtocolException {
+    final String docType = request.getParameter("docType");
+    final String body = request.getParameter("cycles");
+
+    if (body == null || body.trim().isEmpty()) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "no process cycles given");
+    }
+
+    return this.fProcessMiningSPI.addProcessCycles(docType, parseCycles(body),
+            request.getToken());
+  }
+
+  private List<IProcessCycle> parseCycles(String body) throws ProtocolException {
+    final List<IProcessCycle> cycles = new ArrayList<IProcessCycle>();
+    final JSONTokener tokener = new JSONTokener(body);
+
+    try {
+      // read consecutive values, separated by line breaks or other white space
+      while (tokener.nextClean() != 0) {
+        tokener.back();
+        final Object value = tokener.nextValue();
+
+        if (value instanceof JSONArray) {
+          final JSONArray array = (JSONArray) value;
+          for (int i = 0; i < array.length(); ++i) {
+            cycles.add(toCycle(array.getJSONObject(i)));
+          }
+        } else if (value instanceof JSONObject) {
+          cycles.add(toCycle((JSONObject) value));
+        } else {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+                  "process cycle object expected, got: " + value);
+        }
+      }
+    } catch (final JSONException e) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, e.getMessage(), e);
+    } catch (final IllegalArgumentException e) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid date", e);
+    }
+
+    return cycles;
+  }
+
+  private IProcessCycle toCycle(JSONObject json) throws JSONException {
+    final ProcessCycleDTO cycle = new ProcessCycleDTO();
+    cycle.setDocId(json.optString("docId", null));
+    cycle.setType(json.optString("type", null));
+
+    final Long start = ProcessCycleDTO.toTime(json.isNull("startDate") ? null : json
+            .get("startDate"));
+    final Long end = ProcessCycleDTO.toTime(json.isNull("endDate") ? null : json.get("endDate"));
+    cycle.setStartDate(start != null ? new Date(start) : null);
+    cycle.setEndDate(end != null ? new Date(end) : null);
+
+    final JSONArray users = json.optJSONArray("userList");
+    if (users != null) {
+      final List<String> userList = new ArrayList<String>();
+      for (int i = 0; i < users.length(); ++i) {
+        userList.add(users.getString(i));
+      }
+      cycle.setUserList(userList);
+    }
+
+    return cycle;
+  }
+
   @Operation(httpMethods = "GET")
   public Future<?> get(SocialRequestItem request) throws ProtocolException {	  
 	final CollectionOptions collOpts = new CollectionOptions(request);
@@ -99,4 +186,148 @@ public class ProcessMiningHandler {
     final Future<?> result = this.fProcessMiningSPI.deleteProcessCycles(docType, token);
     return result;
   }
+
+  /**
+   * Returns statistics of the durations of a document type's finished cycles: their number,
+   * minimum, maximum, mean and the percentiles requested via the comma separated "percentiles"
+   * parameter (default: 50,90,99). The optional "from" and "to" parameters restrict the cycles to
+   * those that ended in that period, given in milliseconds since the epoch.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return duration statistics in milliseconds
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{docType}/durations")
+  public Future<?> getDurations(final SocialRequestItem request) throws ProtocolException {
+    final String docType = request.getParameter("docType");
+
+    return this.fProcessMiningSPI.getDurations(docType, getPercentiles(request),
+            getLong(request, "from", Long.MIN_VALUE), getLong(request, "to", Long.MAX_VALUE),
+            request.getToken());
+  }
+
+  /**
+   * Returns the number, minimum and maximum of the durations of all of a document type's finished
+   * cycles and estimates of the percentiles requested via the comma separated "percentiles"
+   * parameter (default: 50,90,99). Unlike "durations", the percentiles are read from a sketch kept
+   * up to date as cycles are added, so no cycles are scanned.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return approximate duration statistics in milliseconds
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{docType}/quantiles")
+  public Future<?> getDurationQuantiles(final SocialRequestItem request)
+          throws ProtocolException {
+    final String docType = request.getParameter("docType");
+
+    return this.fProcessMiningSPI.getDurationQuantiles(docType, getPercentiles(request),
+            request.getToken());
+  }
+
+  private List<Double> getPercentiles(SocialRequestItem request) throws ProtocolException {
+    final List<Double> percentiles = new ArrayList<Double>();
+    final String percentileString = request.getParameter("percentiles");
+
+    if (percentileString != null && !percentileString.isEmpty()) {
+      for (final String percentile : percentileString.split(",")) {
+        double value = 0;
+        try {
+          value = Double.parseDouble(percentile.trim());
+        } catch (final NumberFormatException e) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid percentile: "
+                  + percentile, e);
+        }
+        if (Double.isNaN(value)) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid percentile: "
+                  + percentile);
+        }
+        percentiles.add(value);
+      }
+    } else {
+      percentiles.add(50.0);
+      percentiles.add(90.0);
+      percentiles.add(99.0);
+    }
+    return percentiles;
+  }
+
+  /**
+   * Returns the number of a document type's cycles that ended in each consecutive bucket of the
+   * length given by the "bucket" parameter in milliseconds (default: one day). The optional "from"
+   * and "to" parameters restrict the period, given in milliseconds since the epoch.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return bucket length, start of the first bucket and number of cycles per bucket
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{docType}/throughput")
+  public Future<?> getThroughput(final SocialRequestItem request) throws ProtocolException {
+    final String docType = request.getParameter("docType");
+
+    return this.fProcessMiningSPI.getThroughput(docType, getLong(request, "bucket", 86400000L),
+            getLong(request, "from", Long.MIN_VALUE), getLong(request, "to", Long.MAX_VALUE),
+            request.getToken());
+  }
+
+  /**
+   * Returns how often each user was involved in a document type's cycles, most involved users
+   * first. The optional "from" and "to" parameters restrict the period, given in milliseconds since
+   * the epoch.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return number of involvements per user ID
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{docType}/participation")
+  public Future<?> getParticipation(final SocialRequestItem request) throws ProtocolException {
+    final String docType = request.getParameter("docType");
+
+    return this.fProcessMiningSPI.getParticipation(docType,
+            getLong(request, "from", Long.MIN_VALUE), getLong(request, "to", Long.MAX_VALUE),
+            request.getToken());
+  }
+
+  /**
+   * Returns the directly-follows graph of a document type's cycles: how often the work on a
+   * document was handed from one user to the next and the mean delay of these handoffs, most
+   * frequent first. The graph is updated with the cycles added since it was last requested. The
+   * optional "minCount" parameter omits rare handoffs (default: 1).
+   *
+   * @param request
+   *          item containing information about the request
+   * @return number of cycles and handoffs between users
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{docType}/handoffs")
+  public Future<?> getHandoffs(final SocialRequestItem request) throws ProtocolException {
+    final String docType = request.getParameter("docType");
+
+    return this.fProcessMiningSPI.getHandoffs(docType, getLong(request, "minCount", 1),
+            request.getToken());
+  }
+
+  private long getLong(SocialRequestItem request, String name, long defValue)
+          throws ProtocolException {
+    final String value = request.getParameter(name);
+
+    if (value != null && !value.isEmpty()) {
+      try {
+        return Long.parseLong(value);
+      } catch (final NumberFormatException e) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid " + name + ": "
+                + value, e);
+      }
+    }
+    return defValue;
+  }
 }
@@ -17,7 +17,10 @@
 package org.apache.shindig.social.websockbackend.service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
 
@@ -26,19 +29,24 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.Operation;
 import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
 import org.apache.shindig.protocol.Service;
 import org.apache.shindig.social.opensocial.model.Organization;
 import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.service.SocialRequestItem;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.opensocial.spi.UserId.Type;
 import org.apache.shindig.social.websockbackend.model.IExtOrgPerson;
 import org.apache.shindig.social.websockbackend.model.IExtOrganization;
+import org.apache.shindig.social.websockbackend.spi.FriendGraphReplica;
 import org.apache.shindig.social.websockbackend.spi.IExtPersonService;
 import org.apache.shindig.social.websockbackend.spi.IGraphService;
+import org.apache.shindig.social.websockbackend.spi.MembershipIndex;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
 import com.google.inject.Inject;
 
 /**
@@ -51,6 +59,8 @@ public class UserHandler {
           Person.Field.NAME.toString());
   private final IExtPersonService fPersonSPI;
   private final IGraphService fGraphService;
+  private final MembershipIndex fIndex;
+  private final FriendGraphReplica fReplica;
 
   /**
    * Creates an extended person handler using the given extended person service and graph service to
@@ -61,8 +71,28 @@ public class UserHandler {
    * @param graphService
    *          graph service to use
    */
-  @Inject
   public UserHandler(IExtPersonService people, IGraphService graphService) {
+    this(people, graphService, null, null);
+  }
+
+  /**
+   * Creates an extended person handler using the given extended person service and graph service to
+   * retrieve data, the given membership index for friend and group set queries and the given
+   * friendship graph replica for degrees of separation. Throws a NullPointerException if the given
+   * service is null.
+   *
+   * @param people
+   *          extended person service to use
+   * @param graphService
+   *          graph service to use
+   * @param index
+   *          membership index to use, may be null
+   * @param replica
+   *          friendship graph replica to use, may be null
+   */
+  @Inject
+  public UserHandler(IExtPersonService people, IGraphService graphService, MembershipIndex index,
+          FriendGraphReplica replica) {
     if (people == null) {
       throw new NullPointerException("extended person service was null");
     }
@@ -72,6 +102,8 @@ public class UserHandler {
 
     this.fGraphService = graphService;
     this.fPersonSPI = people;
+    this.fIndex = index;
+    this.fReplica = replica;
   }
 
   /**
@@ -248,6 +280,144 @@ public class UserHandler {
     return result;
   }
 
+  /**
+   * Handles a GET-request with the parameters represented by the given request item and returns the
+   * number of friendships separating the user from the target user, -1 if they are not connected.
+   * Throws a NullPointerException if the given request item is null.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return map containing the distance
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{userId}+/separation/{targetId}")
+  public Future<?> getSeparation(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+    final UserId userId = request.getUsers().iterator().next();
+    final UserId targetId = new UserId(Type.userId, request.getParameter("targetId"));
+
+    Integer distance = null;
+    if (this.fReplica != null && this.fReplica.isReady()) {
+      distance = this.fReplica.getSeparation(userId.getUserId(token), targetId.getUserId(token));
+    }
+
+    // count the people on the path otherwise
+    if (distance == null) {
+      final Set<String> fields = ImmutableSet.of(Person.Field.ID.toString());
+
+      try {
+        final RestfulCollection<Person> path = this.fGraphService.getShortestPath(userId,
+                targetId, new CollectionOptions(), fields, token).get();
+        distance = path.getEntry().size() - 1;
+      } catch (final ProtocolException e) {
+        throw e;
+      } catch (final Exception e) {
+        throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "could not determine separation", e);
+      }
+    }
+
+    final Map<String, Object> result = new HashMap<String, Object>();
+    result.put("distance", distance);
+    return Futures.immediateFuture(result);
+  }
+
+  /**
+   * Handles a GET-request with the parameters represented by the given request item and returns the
+   * friends the user has in common with the target user. Throws a NullPointerException if the given
+   * request item is null.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return people mutual friends
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{userId}+/mutual/{targetId}")
+  public Future<?> getMutual(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+    final String userId = request.getUsers().iterator().next().getUserId(token);
+    final String targetId = request.getParameter("targetId");
+
+    return getIndexed(getIndex().getMutualFriends(userId, targetId), request);
+  }
+
+  /**
+   * Handles a GET-request with the parameters represented by the given request item and returns the
+   * friends of the user who are members of the given group. Throws a NullPointerException if the
+   * given request item is null.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return people friends in the group
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{userId}+/groupfriends/{groupId}")
+  public Future<?> getGroupFriends(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+    final String userId = request.getUsers().iterator().next().getUserId(token);
+    final String groupId = request.getParameter("groupId");
+
+    return getIndexed(getIndex().getFriendsInGroup(userId, groupId), request);
+  }
+
+  /**
+   * Handles a GET-request with the parameters represented by the given request item and returns the
+   * members of the given group who are not yet friends of the user. Throws a NullPointerException
+   * if the given request item is null.
+   *
+   * @param request
+   *          item containing information about the request
+   * @return people group members who are not friends
+   * @throws ProtocolException
+   *           if the request is flawed
+   */
+  @Operation(httpMethods = "GET", path = "/{userId}+/groupstrangers/{groupId}")
+  public Future<?> getGroupStrangers(final SocialRequestItem request) throws ProtocolException {
+    final SecurityToken token = request.getToken();
+    final String userId = request.getUsers().iterator().next().getUserId(token);
+    final String groupId = request.getParameter("groupId");
+
+    return getIndexed(getIndex().getMembersNotFriends(userId, groupId), request);
+  }
+
+  private MembershipIndex getIndex() throws ProtocolException {
+    if (this.fIndex == null || !this.fIndex.isEnabled()) {
+      throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+              "membership queries are not available");
+    }
+    return this.fIndex;
+  }
+
+  private Future<?> getIndexed(List<String> ids, SocialRequestItem request)
+          throws ProtocolException {
+    final CollectionOptions collOpts = new CollectionOptions(request);
+
+    if (ids.isEmpty()) {
+      final RestfulCollection<Person> empty = new RestfulCollection<Person>(
+              new ArrayList<Person>());
+      empty.setStartIndex(collOpts.getFirst());
+      empty.setItemsPerPage(collOpts.getMax());
+      return Futures.immediateFuture(empty);
+    }
+
+    // limit default fields for people
+    Set<String> fields = request.getFields();
+    if (fields.isEmpty()) {
+      fields = UserHandler.DEF_FIELDS;
+    }
+
+    final Set<UserId> userIds = new HashSet<UserId>();
+    for (final String id : ids) {
+      userIds.add(new UserId(Type.userId, id));
+    }
+
+    return this.fPersonSPI.getPeople(userIds, new GroupId(GroupId.Type.self, null), collOpts,
+            fields, request.getToken());
+  }
+
   /**
    * Handles a POST-request with the parameters represented by the given request item, creates the
    * contained person an returns it. Throws a NullPointerException if the given request item is
@@ -0,0 +1,488 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.AuthInfo;
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.servlet.InjectedServlet;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.dto.FileMetadataDTO;
+import org.apache.shindig.social.websockbackend.spi.IFileService;
+import org.apache.shindig.social.websockbackend.util.ContentStore;
+import org.apache.shindig.social.websockbackend.util.ThumbnailGenerator;
+
+import com.google.inject.Inject;
+
+/**
+ * Servlet exposing an end point to download uploaded files from the file system by their ID,
+ * supporting conditional and single range requests. File contents are handed to the container using
+ * channel transfers. Downloads by ID require a security token whose viewer or owner owns the file.
+ * Stored contents can also be downloaded as immutable resources by their digest under "blobs/" and
+ * thumbnails of images under "thumbs/". These URLs are not checked: a SHA-256 digest can't be
+ * guessed, so they work like links that are only handed out to the uploader, and can be embedded
+ * and cached without a token. Only images other than SVG are displayed inline; all other contents
+ * are sent as attachments of type "application/octet-stream", so uploaded markup can't run in this
+ * origin. Needs to be enabled by setting "downloads_enabled" to "true" and including a definition
+ * in the web.xml file.
+ */
+public class DownloadServlet extends InjectedServlet {
+  public static final String DOWNLOADS_ENABLED = "downloads_enabled";
+
+  private static final String DEFAULT_TYPE = "application/octet-stream";
+  private static final String IMAGE_TYPES = "image/";
+  private static final String SVG_TYPE = "image/svg+xml";
+  private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+  private static final long serialVersionUID = 4906012744917390527L;
+
+  private final Logger fLogger;
+
+  private IFileService fFileSPI;
+  private ThumbnailGenerator fThumbnails;
+
+  private boolean fEnabled;
+  private File fUploadDir;
+  private ContentStore fStore;
+
+  /**
+   * Creates an empty servlet. Proper initialization requires a file service and a configuration
+   * object to be set.
+   */
+  public DownloadServlet() {
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+  }
+
+  /**
+   * Sets the file service to use, preferably via dependency injection. Throws a
+   * NullPointerException if the given service is null
+   *
+   * @param fileService
+   *          file service to use
+   */
+  @Inject
+  public void setFileSPI(IFileService fileService) {
+    if (fileService == null) {
+      throw new NullPointerException("file service was null");
+    }
+
+    this.fFileSPI = fileService;
+  }
+
+  /**
+   * Sets the thumbnail generator providing image thumbnails, preferably via dependency injection.
+   *
+   * @param thumbnails
+   *          thumbnail generator to use
+   */
+  @Inject
+  public void setThumbnailGenerator(ThumbnailGenerator thumbnails) {
+    this.fThumbnails = thumbnails;
+  }
+
+  /**
+   * Sets the configuration object to read from, preferably via dependency injection, determining
+   * whether the servlet is enabled and where files are stored.
+   *
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public void setConfig(WebsockConfig config) {
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(DownloadServlet.DOWNLOADS_ENABLED));
+
+    final String uploadPath = config.getProperty(Constants.UPLOAD_PATH);
+    if (uploadPath != null && !uploadPath.isEmpty()) {
+      this.fUploadDir = new File(uploadPath);
+
+      if (this.fEnabled) {
+        try {
+          this.fStore = new ContentStore(this.fUploadDir);
+        } catch (final IOException e) {
+          this.fLogger.log(Level.SEVERE, "could not initialize upload directory", e);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+          throws IOException {
+    serve(request, response, true);
+  }
+
+  @Override
+  protected void doHead(HttpServletRequest request, HttpServletResponse response)
+          throws IOException {
+    serve(request, response, false);
+  }
+
+  private void serve(HttpServletRequest request, HttpServletResponse response, boolean body)
+          throws IOException {
+    if (!this.fEnabled || this.fStore == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "downloads are disabled");
+      return;
+    }
+
+    // file ID from path
+    String fileId = request.getPathInfo();
+    if (fileId != null && fileId.startsWith("/")) {
+      fileId = fileId.substring(1);
+    }
+    if (fileId == null || fileId.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    // content-addressed contents don't need a metadata lookup
+    if (fileId.startsWith(Constants.BLOB_PATH)) {
+      serveBlob(fileId.substring(Constants.BLOB_PATH.length()), request, response, body);
+      return;
+    }
+    if (fileId.startsWith(ThumbnailGenerator.THUMB_PATH)) {
+      serveThumbnail(fileId.substring(ThumbnailGenerator.THUMB_PATH.length()), request, response,
+              body);
+      return;
+    }
+
+    final SecurityToken token = new AuthInfo(request).getSecurityToken();
+    if (token == null || token.getViewerId() == null || token.isAnonymous()) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "authentication required");
+      return;
+    }
+
+    FileMetadataDTO meta = null;
+    try {
+      meta = this.fFileSPI.getFile(fileId, token).get();
+    } catch (final ProtocolException e) {
+      response.sendError(e.getCode(), e.getMessage());
+      return;
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "could not retrieve file metadata", e);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      return;
+    }
+
+    final File file = resolve(meta);
+    if (file == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    long lastModified = meta.getCreated();
+    if (lastModified <= 0) {
+      lastModified = file.lastModified();
+    }
+    // HTTP dates only have a resolution of seconds
+    lastModified -= lastModified % 1000;
+
+    String etag = null;
+    if (meta.getDigest() != null) {
+      etag = "\"" + meta.getDigest() + "\"";
+    } else {
+      etag = "\"" + fileId + '-' + file.length() + '-' + lastModified + "\"";
+    }
+
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified);
+
+    if (notModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    setContentHeaders(response, meta.getContentType(), meta.getName());
+
+    send(file, request, response, body, etag, lastModified);
+  }
+
+  private void serveBlob(String name, HttpServletRequest request, HttpServletResponse response,
+          boolean body) throws IOException {
+    // digest with an optional extension
+    final int dot = name.indexOf('.');
+    final String digest = dot == -1 ? name : name.substring(0, dot);
+
+    final File file = this.fStore.getFile(digest);
+    if (file == null || !file.isFile()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    long lastModified = file.lastModified();
+    lastModified -= lastModified % 1000;
+    final String etag = "\"" + digest + "\"";
+
+    // contents behind a digest can never change
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified);
+    response.setHeader("Cache-Control", DownloadServlet.IMMUTABLE);
+
+    if (notModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    // the extension is chosen by whoever builds the URL
+    setContentHeaders(response, URLConnection.getFileNameMap().getContentTypeFor(name), null);
+
+    send(file, request, response, body, etag, lastModified);
+  }
+
+  private void serveThumbnail(String name, HttpServletRequest request,
+          HttpServletResponse response, boolean body) throws IOException {
+    // "{size}/{digest}.jpg"
+    final int slash = name.indexOf('/');
+    final int dot = name.indexOf('.');
+    if (this.fThumbnails == null || slash == -1 || dot < slash) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    File file = null;
+    try {
+      final int size = Integer.parseInt(name.substring(0, slash));
+      file = this.fThumbnails.getThumbnail(name.substring(slash + 1, dot), size);
+    } catch (final NumberFormatException e) {
+      file = null;
+    }
+
+    if (file == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    long lastModified = file.lastModified();
+    lastModified -= lastModified % 1000;
+    final String etag = "\"" + name.replace('/', '-') + "\"";
+
+    // thumbnails of immutable contents don't change either
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified);
+    response.setHeader("Cache-Control", DownloadServlet.IMMUTABLE);
+
+    if (notModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    // the extension is chosen by whoever builds the URL
+    setContentHeaders(response, URLConnection.getFileNameMap().getContentTypeFor(name), null);
+
+    send(file, request, response, body, etag, lastModified);
+  }
+
+  private void send(File file, HttpServletRequest request, HttpServletResponse response,
+          boolean body, String etag, long lastModified) throws IOException {
+    final long length = file.length();
+
+    response.setHeader("Accept-Ranges", "bytes");
+
+    // determine requested range
+    long start = 0;
+    long end = length - 1;
+
+    final String range = request.getHeader("Range");
+    if (range != null && rangeApplies(request, etag, lastModified)) {
+      final long[] bounds = parseRange(range, length);
+
+      if (bounds == null) {
+        response.setHeader("Content-Range", "bytes */" + length);
+        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      } else if (bounds.length == 2) {
+        start = bounds[0];
+        end = bounds[1];
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader("Content-Range", "bytes " + start + '-' + end + '/' + length);
+      }
+    }
+
+    final long count = end - start + 1;
+    response.setHeader("Content-Length", Long.toString(Math.max(count, 0)));
+
+    if (!body || count <= 0) {
+      return;
+    }
+
+    // hand the file's contents to the container
+    try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+      final WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+
+      long position = start;
+      long remaining = count;
+      while (remaining > 0) {
+        final long sent = channel.transferTo(position, remaining, out);
+        if (sent <= 0) {
+          break;
+        }
+
+        position += sent;
+        remaining -= sent;
+      }
+    }
+  }
+
+  private static void setContentHeaders(HttpServletResponse response, String contentType,
+          String fileName) {
+    String type = contentType != null ? contentType.trim().toLowerCase(Locale.ENGLISH) : "";
+    final int params = type.indexOf(';');
+    if (params != -1) {
+      type = type.substring(0, params).trim();
+    }
+
+    // anything else could contain scripts
+    final boolean inline = type.startsWith(DownloadServlet.IMAGE_TYPES)
+            && !type.equals(DownloadServlet.SVG_TYPE);
+
+    response.setContentType(inline ? type : DownloadServlet.DEFAULT_TYPE);
+    response.setHeader("X-Content-Type-Options", "nosniff");
+
+    String disposition = inline ? "inline" : "attachment";
+    if (fileName != null) {
+      disposition += "; filename=\"" + fileName.replaceAll("[\"\\r\\n]", "") + "\"";
+    }
+    response.setHeader("Content-Disposition", disposition);
+  }
+
+  private File resolve(FileMetadataDTO meta) throws IOException {
+    if (meta == null || meta.getLocation() == null) {
+      return null;
+    }
+
+    // don't leave the upload directory
+    final File file = new File(this.fUploadDir, meta.getLocation()).getCanonicalFile();
+    if (!file.getPath().startsWith(this.fUploadDir.getCanonicalPath() + File.separator)
+            || !file.isFile()) {
+      return null;
+    }
+
+    return file;
+  }
+
+  private boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return matches(ifNoneMatch, etag);
+    }
+
+    try {
+      final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+      return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+    } catch (final IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private boolean rangeApplies(HttpServletRequest request, String etag, long lastModified) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+
+    if (ifRange.trim().startsWith("\"")) {
+      return ifRange.trim().equals(etag);
+    }
+
+    try {
+      return request.getDateHeader("If-Range") == lastModified;
+    } catch (final IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static boolean matches(String header, String etag) {
+    for (final String tag : header.split(",")) {
+      final String trimmed = tag.trim();
+
+      if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Parses a byte range header. Returns the first and last byte of a satisfiable single range, an
+   * empty array if the header should be ignored and null if the range is not satisfiable.
+   */
+  private static long[] parseRange(String header, long length) {
+    final long[] ignore = new long[0];
+
+    if (!header.startsWith("bytes=") || header.indexOf(',') != -1) {
+      // only single byte ranges are supported
+      return ignore;
+    }
+
+    final String spec = header.substring("bytes=".length()).trim();
+    final int dash = spec.indexOf('-');
+    if (dash == -1) {
+      return ignore;
+    }
+
+    try {
+      long start;
+      long end;
+
+      if (dash == 0) {
+        // suffix range
+        final long suffix = Long.parseLong(spec.substring(1));
+        if (suffix <= 0) {
+          return null;
+        }
+        start = Math.max(length - suffix, 0);
+        end = length - 1;
+      } else {
+        start = Long.parseLong(spec.substring(0, dash));
+
+        if (dash == spec.length() - 1) {
+          end = length - 1;
+        } else {
+          end = Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+        }
+
+        if (end < start) {
+          return start >= length ? null : ignore;
+        }
+      }
+
+      if (start >= length) {
+        return null;
+      }
+
+      return new long[] { start, end };
+    } catch (final NumberFormatException e) {
+      return ignore;
+    }
+  }
+}
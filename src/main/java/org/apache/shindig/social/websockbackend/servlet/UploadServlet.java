@@ -0,0 +1,359 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.AuthInfo;
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.servlet.InjectedServlet;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.dto.FileMetadataDTO;
+import org.apache.shindig.social.websockbackend.spi.IFileService;
+import org.apache.shindig.social.websockbackend.util.ContentStore;
+import org.apache.shindig.social.websockbackend.util.MultipartReader;
+import org.apache.shindig.social.websockbackend.util.ThumbnailGenerator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.inject.Inject;
+
+/**
+ * Servlet exposing an end point for multipart file uploads. Files are streamed directly to the
+ * configured upload directory, where identical contents are only stored once, while only their
+ * metadata is stored in the graph. If any part of a request fails, files already stored for it
+ * are removed again. Files can be deleted by their owners. Needs to be enabled by setting
+ * "uploads_enabled" to "true", "upload_target" to "filesystem" and including a definition in the
+ * web.xml file.
+ */
+public class UploadServlet extends InjectedServlet {
+  public static final String UPLOADS_ENABLED = "uploads_enabled";
+  public static final String MAX_UPLOAD_SIZE = "max_upload_size";
+  public static final String UPLOAD_TARGET = "upload_target";
+
+  public static final String FILESYSTEM_TARGET = "filesystem";
+
+  private static final Pattern EXTENSION_PATTERN = Pattern.compile("\\.[a-z0-9]{1,10}");
+
+  private static final long DEF_MAX_UPLOAD_SIZE = 1048576;
+
+  private static final long serialVersionUID = -3312487420458730312L;
+
+  private final Logger fLogger;
+
+  private IFileService fFileSPI;
+  private ThumbnailGenerator fThumbnails;
+
+  private boolean fEnabled;
+  private boolean fFileSystem;
+  private long fMaxSize;
+  private File fUploadDir;
+  private ContentStore fStore;
+  private String fDownloadPath;
+
+  /**
+   * Creates an empty servlet. Proper initialization requires a file service and a configuration
+   * object to be set.
+   */
+  public UploadServlet() {
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+  }
+
+  /**
+   * Sets the file service to use, preferably via dependency injection. Throws a
+   * NullPointerException if the given service is null
+   *
+   * @param fileService
+   *          file service to use
+   */
+  @Inject
+  public void setFileSPI(IFileService fileService) {
+    if (fileService == null) {
+      throw new NullPointerException("file service was null");
+    }
+
+    this.fFileSPI = fileService;
+  }
+
+  /**
+   * Sets the thumbnail generator to notify of uploaded images, preferably via dependency injection.
+   *
+   * @param thumbnails
+   *          thumbnail generator to use
+   */
+  @Inject
+  public void setThumbnailGenerator(ThumbnailGenerator thumbnails) {
+    this.fThumbnails = thumbnails;
+  }
+
+  /**
+   * Sets the configuration object to read from, preferably via dependency injection, determining
+   * whether the servlet is enabled, where files are stored and how large they may be.
+   *
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public void setConfig(WebsockConfig config) {
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(UploadServlet.UPLOADS_ENABLED));
+    this.fFileSystem = UploadServlet.FILESYSTEM_TARGET.equals(config
+            .getProperty(UploadServlet.UPLOAD_TARGET));
+
+    this.fMaxSize = UploadServlet.DEF_MAX_UPLOAD_SIZE;
+    final String maxSize = config.getProperty(UploadServlet.MAX_UPLOAD_SIZE);
+    if (maxSize != null && !maxSize.isEmpty()) {
+      this.fMaxSize = Long.parseLong(maxSize);
+    }
+
+    final String uploadPath = config.getProperty(Constants.UPLOAD_PATH);
+    if (uploadPath != null && !uploadPath.isEmpty()) {
+      this.fUploadDir = new File(uploadPath);
+
+      if (this.fEnabled && this.fFileSystem) {
+        try {
+          this.fStore = new ContentStore(this.fUploadDir);
+        } catch (final IOException e) {
+          this.fLogger.log(Level.SEVERE, "could not initialize upload directory", e);
+        }
+      }
+    }
+
+    this.fDownloadPath = config.getProperty(Constants.DOWNLOAD_PATH);
+    if (this.fDownloadPath == null) {
+      this.fDownloadPath = "";
+    }
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response)
+          throws IOException {
+    if (!this.fEnabled) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "uploads are disabled");
+      return;
+    }
+    if (!this.fFileSystem || this.fStore == null) {
+      response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED,
+              "only the file system upload target is supported");
+      return;
+    }
+
+    final SecurityToken token = new AuthInfo(request).getSecurityToken();
+    if (token == null || token.getViewerId() == null || token.isAnonymous()) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "authentication required");
+      return;
+    }
+
+    final String boundary = MultipartReader.getBoundary(request.getContentType());
+    if (boundary == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "multipart/form-data expected");
+      return;
+    }
+
+    final JSONArray files = new JSONArray();
+    final List<FileMetadataDTO> stored = new ArrayList<FileMetadataDTO>();
+
+    try {
+      final MultipartReader reader = new MultipartReader(request.getInputStream(), boundary);
+
+      while (reader.nextPart()) {
+        // only handle file parts
+        final String fileName = reader.getFileName();
+        if (fileName == null || fileName.isEmpty()) {
+          continue;
+        }
+
+        final FileMetadataDTO file = storeFile(reader, fileName, token);
+        if (file == null) {
+          rollback(stored, token);
+          response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                  "maximum file size is " + this.fMaxSize + " bytes");
+          return;
+        }
+        stored.add(file);
+
+        final JSONObject json = new JSONObject();
+        json.put("id", file.getId());
+        json.put("name", file.getName());
+        json.put("contentType", file.getContentType());
+        json.put("size", file.getSize());
+        json.put("url", file.getUrl());
+        if (this.fThumbnails != null && file.getContentType() != null
+                && file.getContentType().startsWith("image/")) {
+          json.put("thumbnailUrl", this.fThumbnails.getThumbnailUrl(file.getUrl()));
+        }
+        files.put(json);
+      }
+
+      final JSONObject result = new JSONObject();
+      result.put("files", files);
+
+      response.setContentType("application/json;charset=UTF-8");
+      response.getWriter().write(result.toString());
+    } catch (final IOException e) {
+      this.fLogger.log(Level.WARNING, "upload failed", e);
+      rollback(stored, token);
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "upload failed", e);
+      rollback(stored, token);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  private void rollback(List<FileMetadataDTO> stored, SecurityToken token) {
+    // remove metadata and release contents of files stored for a failed request
+    for (final FileMetadataDTO file : stored) {
+      try {
+        this.fFileSPI.deleteFile(file.getId(), token).get();
+        this.fStore.release(file.getDigest());
+      } catch (final Exception e) {
+        this.fLogger.log(Level.SEVERE, "could not remove file " + file.getId(), e);
+      }
+    }
+    stored.clear();
+  }
+
+  private FileMetadataDTO storeFile(MultipartReader reader, String fileName, SecurityToken token)
+          throws Exception {
+    // stream into the store, deduplicating identical contents
+    final ContentStore.Blob blob = this.fStore.store(reader.getInputStream(), this.fMaxSize);
+    if (blob == null) {
+      return null;
+    }
+
+    // store metadata
+    final FileMetadataDTO file = new FileMetadataDTO();
+    file.setName(fileName);
+    file.setContentType(reader.getContentType());
+    file.setSize(blob.getSize());
+    file.setOwner(token.getViewerId());
+    file.setCreated(System.currentTimeMillis());
+    file.setLocation(blob.getLocation());
+    file.setDigest(blob.getDigest());
+
+    try {
+      this.fFileSPI.createFile(file, token).get();
+    } catch (final Exception e) {
+      this.fStore.release(blob.getDigest());
+      throw e;
+    }
+
+    file.setUrl(getBlobUrl(this.fDownloadPath, blob.getDigest(), fileName));
+
+    if (this.fThumbnails != null) {
+      this.fThumbnails.submit(blob.getDigest(), file.getContentType());
+    }
+    return file;
+  }
+
+  @Override
+  protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+          throws IOException {
+    if (!this.fEnabled || this.fStore == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "uploads are disabled");
+      return;
+    }
+
+    final SecurityToken token = new AuthInfo(request).getSecurityToken();
+    if (token == null || token.getViewerId() == null || token.isAnonymous()) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "authentication required");
+      return;
+    }
+
+    // file ID from path
+    String fileId = request.getPathInfo();
+    if (fileId != null && fileId.startsWith("/")) {
+      fileId = fileId.substring(1);
+    }
+    if (fileId == null || fileId.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    try {
+      final FileMetadataDTO file = this.fFileSPI.getFile(fileId, token).get();
+      if (file == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      if (!token.getViewerId().equals(file.getOwner())) {
+        response.sendError(HttpServletResponse.SC_FORBIDDEN, "only the owner may delete a file");
+        return;
+      }
+
+      this.fFileSPI.deleteFile(fileId, token).get();
+
+      // shared contents are only deleted with their last reference
+      if (file.getDigest() != null) {
+        this.fStore.release(file.getDigest());
+      } else if (file.getLocation() != null) {
+        // don't leave the upload directory
+        final File stored = new File(this.fUploadDir, file.getLocation()).getCanonicalFile();
+        if (stored.getPath().startsWith(this.fUploadDir.getCanonicalPath() + File.separator)) {
+          stored.delete();
+        } else {
+          this.fLogger.log(Level.WARNING, "not deleting " + stored
+                  + " outside of the upload directory");
+        }
+      }
+    } catch (final ProtocolException e) {
+      response.sendError(e.getCode(), e.getMessage());
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "deletion failed", e);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  /**
+   * Creates the immutable download URL for stored contents, keeping the original file name's
+   * extension so the content type can be derived from it.
+   *
+   * @param downloadPath
+   *          URL prefix the download servlet is mapped to
+   * @param digest
+   *          digest of the contents
+   * @param fileName
+   *          original file name
+   * @return download URL of the contents
+   */
+  public static String getBlobUrl(String downloadPath, String digest, String fileName) {
+    String extension = "";
+
+    final int dot = fileName == null ? -1 : fileName.lastIndexOf('.');
+    if (dot != -1) {
+      extension = fileName.substring(dot).toLowerCase(Locale.ENGLISH);
+
+      if (!UploadServlet.EXTENSION_PATTERN.matcher(extension).matches()) {
+        extension = "";
+      }
+    }
+
+    return downloadPath + Constants.BLOB_PATH + digest + extension;
+  }
+}
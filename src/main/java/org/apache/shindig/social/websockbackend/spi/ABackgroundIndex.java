@@ -0,0 +1,360 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Abstract in-memory index built from all people on the server. It is enabled by a configuration
+ * key, whose ".page" and ".reload" suffixes configure the number of people requested at once and
+ * the milliseconds between rebuilds in the background. Changes recorded while a new index is
+ * loaded are applied to it once it is complete. Until the first load has completed, there is no
+ * index.
+ *
+ * @param <I>
+ *          type of the index
+ * @param <C>
+ *          type of the recorded changes
+ */
+public abstract class ABackgroundIndex<I, C> implements IEventListener, Runnable {
+  private static final String PAGE_SIZE = ".page";
+  private static final String RELOAD = ".reload";
+
+  private static final int DEF_PAGE_SIZE = 1000;
+  private static final long DEF_RELOAD = 3600000;
+
+  private static final String ID_FIELD = Person.Field.ID.toString();
+
+  /**
+   * Query handler the data is requested with.
+   */
+  protected final IQueryHandler fQueryHandler;
+
+  /**
+   * Logger of the concrete index.
+   */
+  protected final Logger fLogger;
+
+  /**
+   * Whether the index is enabled.
+   */
+  protected final boolean fEnabled;
+
+  /**
+   * Number of people or queries requested at once.
+   */
+  protected final int fPageSize;
+
+  private final long fReload;
+  private final String fName;
+
+  private volatile I fIndex;
+
+  // changes made while a new index is loaded, applied to it afterwards
+  private final List<C> fChanges;
+  private boolean fLoading;
+
+  /**
+   * Creates an index loading its data using the given query handler and configured by the given
+   * configuration object under the given key. Throws a NullPointerException if the query handler
+   * or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param key
+   *          configuration key enabling the index
+   * @param name
+   *          name of the index for logging and its loader thread
+   */
+  protected ABackgroundIndex(IQueryHandler qHandler, WebsockConfig config, String key,
+          String name) {
+    if (qHandler == null) {
+      throw new NullPointerException("query handler was null");
+    }
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+    this.fName = name;
+    this.fChanges = new ArrayList<C>();
+
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(key));
+
+    int pageSize = ABackgroundIndex.DEF_PAGE_SIZE;
+    final String pageString = config.getProperty(key + ABackgroundIndex.PAGE_SIZE);
+    if (pageString != null && !pageString.isEmpty()) {
+      pageSize = Integer.parseInt(pageString);
+    }
+    this.fPageSize = pageSize;
+
+    long reload = ABackgroundIndex.DEF_RELOAD;
+    final String reloadString = config.getProperty(key + ABackgroundIndex.RELOAD);
+    if (reloadString != null && !reloadString.isEmpty()) {
+      reload = Long.parseLong(reloadString);
+    }
+    this.fReload = reload;
+  }
+
+  /**
+   * Registers the index for the given events and starts loading it in the background if it is
+   * enabled. Has to be called at the end of the concrete index's constructor.
+   *
+   * @param eventBus
+   *          event bus to listen to, may be null
+   * @param types
+   *          types of events to listen for
+   */
+  protected void start(ShindigEventBus eventBus, ShindigEventType... types) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    if (eventBus != null) {
+      for (final ShindigEventType type : types) {
+        eventBus.addListener(type, this);
+      }
+    }
+
+    final Thread loader = new Thread(this, this.fName);
+    loader.setDaemon(true);
+    loader.setPriority(Thread.MIN_PRIORITY);
+    loader.start();
+  }
+
+  /**
+   * @return whether the index has been loaded and can be used
+   */
+  public boolean isReady() {
+    return this.fIndex != null;
+  }
+
+  /**
+   * @return current index or null if it has not been loaded yet
+   */
+  protected I getIndex() {
+    return this.fIndex;
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        load();
+      } catch (final Exception e) {
+        this.fLogger.log(Level.SEVERE, "could not load " + this.fName, e);
+      }
+
+      if (this.fReload <= 0) {
+        return;
+      }
+
+      try {
+        Thread.sleep(this.fReload);
+      } catch (final InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Loads a new index from the server and replaces the current one once it is complete.
+   *
+   * @throws ProtocolException
+   *           if the data can't be retrieved
+   */
+  public void load() throws ProtocolException {
+    synchronized (this.fChanges) {
+      this.fLoading = true;
+      this.fChanges.clear();
+    }
+
+    try {
+      final long start = System.currentTimeMillis();
+      I index = build();
+
+      synchronized (this.fChanges) {
+        for (final C change : this.fChanges) {
+          index = apply(index, change);
+        }
+        this.fChanges.clear();
+        this.fLoading = false;
+        this.fIndex = index;
+      }
+
+      this.fLogger.log(Level.INFO, "loaded " + this.fName + " in "
+              + (System.currentTimeMillis() - start) + "ms");
+    } catch (final ProtocolException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not load " + this.fName, e);
+    } finally {
+      synchronized (this.fChanges) {
+        this.fLoading = false;
+      }
+    }
+  }
+
+  /**
+   * Builds a new index from the server's data.
+   *
+   * @return new index
+   * @throws Exception
+   *           if the data can't be retrieved
+   */
+  protected abstract I build() throws Exception;
+
+  /**
+   * Applies a change to an index, either modifying it or returning a changed copy.
+   *
+   * @param index
+   *          index to change
+   * @param change
+   *          change to apply
+   * @return changed index
+   */
+  protected abstract I apply(I index, C change);
+
+  /**
+   * Applies a change to the current index and remembers it for an index being loaded.
+   *
+   * @param change
+   *          change to apply
+   */
+  protected void record(C change) {
+    synchronized (this.fChanges) {
+      if (this.fLoading) {
+        this.fChanges.add(change);
+      }
+
+      final I index = this.fIndex;
+      if (index != null) {
+        this.fIndex = apply(index, change);
+      }
+    }
+  }
+
+  /**
+   * Enumerates all people sorted by ID, requesting them in pages.
+   *
+   * @param fields
+   *          fields to request, the ID is always included
+   * @return all people with the requested fields
+   * @throws Exception
+   *           if the data can't be retrieved
+   */
+  protected List<Map<String, Object>> getAllPeople(List<String> fields) throws Exception {
+    final List<String> fieldList = new ArrayList<String>(fields);
+    if (!fieldList.contains(ABackgroundIndex.ID_FIELD)) {
+      fieldList.add(ABackgroundIndex.ID_FIELD);
+    }
+
+    final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+    int first = 0;
+    while (true) {
+      final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+      query.setPayload(ShindigNativeQueries.GET_ALL_PEOPLE_QUERY);
+      query.setParameter(WebsockConstants.SORT_FIELD, ABackgroundIndex.ID_FIELD);
+      query.setParameter(WebsockConstants.SUBSET_START, first);
+      query.setParameter(WebsockConstants.SUBSET_SIZE, this.fPageSize);
+      query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+
+      final List<Map<String, Object>> page = ABackgroundIndex.toMaps(sendQuery(query).get());
+      people.addAll(page);
+      first += page.size();
+
+      if (page.size() < this.fPageSize) {
+        return people;
+      }
+    }
+  }
+
+  /**
+   * Enumerates the IDs of all people, requesting them in pages.
+   *
+   * @return IDs of all people sorted
+   * @throws Exception
+   *           if the data can't be retrieved
+   */
+  protected List<String> getAllIds() throws Exception {
+    final List<String> ids = new ArrayList<String>();
+    for (final Map<String, Object> person : getAllPeople(new ArrayList<String>())) {
+      ids.add(person.get(ABackgroundIndex.ID_FIELD).toString());
+    }
+    return ids;
+  }
+
+  /**
+   * @param query
+   *          query to send
+   * @return callback of the query
+   */
+  protected IQueryCallback sendQuery(WebsockQuery query) {
+    return this.fQueryHandler.sendQuery(query);
+  }
+
+  /**
+   * @param result
+   *          result of a query
+   * @return maps in a list result, empty list otherwise
+   */
+  @SuppressWarnings("unchecked")
+  protected static List<Map<String, Object>> toMaps(Object result) {
+    if (result instanceof ListResult && ((ListResult) result).getResults() != null) {
+      return (List<Map<String, Object>>) ((ListResult) result).getResults();
+    }
+    return new ArrayList<Map<String, Object>>();
+  }
+
+  /**
+   * @param result
+   *          result of a query for people
+   * @return IDs of the people in a list result, empty list otherwise
+   */
+  protected static List<String> toIds(Object result) {
+    final List<String> ids = new ArrayList<String>();
+    for (final Map<String, Object> person : ABackgroundIndex.toMaps(result)) {
+      ids.add(person.get(ABackgroundIndex.ID_FIELD).toString());
+    }
+    return ids;
+  }
+}
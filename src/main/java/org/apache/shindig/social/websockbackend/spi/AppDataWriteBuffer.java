@@ -0,0 +1,397 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Write-behind buffer for application data updates. Updates for the same user, group and
+ * application are merged key by key in memory and sent to the server in batches once a configured
+ * number of entries is pending or the flush interval has passed. Flushing is done by a worker
+ * thread, on demand and on shutdown. Values being written remain visible as pending until their
+ * write has completed. Failed updates are retried a few times with later flushes.
+ */
+public class AppDataWriteBuffer implements Runnable {
+  /**
+   * Listener notified when buffered values have been written to the server.
+   */
+  public interface IWriteListener {
+    /**
+     * Called after values for the given user and application have been written.
+     *
+     * @param userId
+     *          ID of the user the data belongs to
+     * @param appId
+     *          ID of the application the data belongs to
+     */
+    public void written(String userId, String appId);
+  }
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final IQueryHandler fQueryHandler;
+  private final IWriteListener fListener;
+
+  // all guarded by the lock of the pending updates
+  private final Map<Key, Map<String, Object>> fPending;
+  private final Map<Key, Map<String, Object>> fInFlight;
+  private final Map<Key, Integer> fAttempts;
+  private final Object fFlushLock;
+
+  private final int fMaxEntries;
+  private final long fInterval;
+
+  private final Logger fLogger;
+
+  private volatile boolean fActive;
+
+  /**
+   * Creates a write-behind buffer sending its updates using the given query handler, flushing when
+   * the given number of entries is reached or the given interval has passed. The query handler must
+   * not be null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param maxEntries
+   *          number of pending user/application entries triggering a flush
+   * @param interval
+   *          maximum time between flushes in milliseconds
+   */
+  public AppDataWriteBuffer(IQueryHandler qHandler, int maxEntries, long interval) {
+    this(qHandler, maxEntries, interval, null);
+  }
+
+  /**
+   * Creates a write-behind buffer sending its updates using the given query handler, flushing when
+   * the given number of entries is reached or the given interval has passed and notifying the given
+   * listener of completed writes. The query handler must not be null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param maxEntries
+   *          number of pending user/application entries triggering a flush
+   * @param interval
+   *          maximum time between flushes in milliseconds
+   * @param listener
+   *          listener to notify of completed writes, may be null
+   */
+  public AppDataWriteBuffer(IQueryHandler qHandler, int maxEntries, long interval,
+          IWriteListener listener) {
+    if (qHandler == null) {
+      throw new NullPointerException("query handler was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fListener = listener;
+    this.fPending = new LinkedHashMap<Key, Map<String, Object>>();
+    this.fInFlight = new HashMap<Key, Map<String, Object>>();
+    this.fAttempts = new HashMap<Key, Integer>();
+    this.fFlushLock = new Object();
+
+    this.fMaxEntries = maxEntries;
+    this.fInterval = interval;
+
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+  }
+
+  /**
+   * Starts the flushing worker thread and registers a hook flushing all pending updates on
+   * shutdown.
+   */
+  public void start() {
+    this.fActive = true;
+
+    final Thread worker = new Thread(this, "app data write-behind");
+    worker.setDaemon(true);
+    worker.start();
+
+    // hook for clean shutdown
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        AppDataWriteBuffer.this.stop();
+      }
+    });
+  }
+
+  /**
+   * Stops the worker thread and flushes all remaining updates.
+   */
+  public void stop() {
+    this.fActive = false;
+    synchronized (this.fPending) {
+      this.fPending.notify();
+    }
+
+    flush();
+  }
+
+  /**
+   * Merges the given values into the pending updates for the given user, group and application.
+   * Values that are already pending for the same keys are overwritten.
+   *
+   * @param userId
+   *          ID of the user the data belongs to
+   * @param groupId
+   *          group ID string or null
+   * @param appId
+   *          ID of the application the data belongs to
+   * @param values
+   *          values to store
+   */
+  public void put(String userId, String groupId, String appId, Map<String, Object> values) {
+    final Key key = new Key(userId, groupId, appId);
+
+    synchronized (this.fPending) {
+      Map<String, Object> data = this.fPending.get(key);
+
+      if (data == null) {
+        data = new HashMap<String, Object>();
+        this.fPending.put(key, data);
+      }
+      data.putAll(values);
+
+      // trigger early flush
+      if (this.fPending.size() >= this.fMaxEntries) {
+        this.fPending.notify();
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the values still pending for the given user and application, regardless of
+   * the group they were written for, or null if there are none. Values that are currently being
+   * written are included, overridden by newer values.
+   *
+   * @param userId
+   *          ID of the user the data belongs to
+   * @param appId
+   *          ID of the application the data belongs to
+   * @return copy of pending values or null
+   */
+  public Map<String, Object> getPending(String userId, String appId) {
+    Map<String, Object> values = null;
+
+    synchronized (this.fPending) {
+      values = collect(this.fInFlight, userId, appId, values);
+      values = collect(this.fPending, userId, appId, values);
+    }
+
+    return values;
+  }
+
+  private static Map<String, Object> collect(Map<Key, Map<String, Object>> entries,
+          String userId, String appId, Map<String, Object> values) {
+    for (final Entry<Key, Map<String, Object>> entryE : entries.entrySet()) {
+      if (entryE.getKey().matches(userId, appId)) {
+        if (values == null) {
+          values = new HashMap<String, Object>();
+        }
+        values.putAll(entryE.getValue());
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * Sends all pending updates to the server. Updates are dispatched all at once and then awaited.
+   * Updates that fail, including ones that could not be dispatched, are requeued unless newer
+   * values have been put in the meantime, and dropped after a few failed attempts.
+   */
+  public void flush() {
+    synchronized (this.fFlushLock) {
+      // take pending updates to desynchronize
+      final Map<Key, Map<String, Object>> batch;
+      synchronized (this.fPending) {
+        if (this.fPending.isEmpty()) {
+          return;
+        }
+
+        batch = new LinkedHashMap<Key, Map<String, Object>>(this.fPending);
+        this.fPending.clear();
+
+        // keep visible to readers while being written
+        this.fInFlight.putAll(batch);
+      }
+
+      // dispatch
+      final List<Key> keys = new ArrayList<Key>(batch.size());
+      final List<IQueryCallback> callbacks = new ArrayList<IQueryCallback>(batch.size());
+      for (final Entry<Key, Map<String, Object>> batchE : batch.entrySet()) {
+        final Key key = batchE.getKey();
+
+        final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ShindigNativeQueries.UPDATE_APP_DATA_QUERY);
+
+        query.setParameter(ShindigNativeQueries.USER_ID, key.fUserId);
+        query.setParameter(ShindigNativeQueries.GROUP_ID, key.fGroupId);
+        query.setParameter(ShindigNativeQueries.APP_ID, key.fAppId);
+
+        query.setParameter(ShindigNativeQueries.APP_DATA, batchE.getValue());
+
+        // every key needs a result so it leaves the in-flight updates
+        IQueryCallback callback = null;
+        try {
+          callback = this.fQueryHandler.sendQuery(query);
+        } catch (final Exception e) {
+          this.fLogger.log(Level.SEVERE, "failed to dispatch application data", e);
+        }
+
+        keys.add(key);
+        callbacks.add(callback);
+      }
+
+      // wait for results, requeue failed updates
+      for (int i = 0; i < callbacks.size(); ++i) {
+        final Key key = keys.get(i);
+        final IQueryCallback callback = callbacks.get(i);
+
+        boolean written = false;
+        if (callback != null) {
+          try {
+            callback.get();
+            written = true;
+          } catch (final Exception e) {
+            this.fLogger.log(Level.SEVERE, "failed to write back application data", e);
+          }
+        }
+
+        // values on the server from here on, stale copies must go before they stop being pending
+        if (written && this.fListener != null) {
+          try {
+            this.fListener.written(key.fUserId, key.fAppId);
+          } catch (final Exception e) {
+            this.fLogger.log(Level.WARNING, "write listener failed", e);
+          }
+        }
+
+        synchronized (this.fPending) {
+          this.fInFlight.remove(key);
+
+          if (written) {
+            this.fAttempts.remove(key);
+          } else {
+            requeue(key, batch.get(key));
+          }
+        }
+      }
+    }
+  }
+
+  private void requeue(Key key, Map<String, Object> values) {
+    synchronized (this.fPending) {
+      final Integer attempts = this.fAttempts.get(key);
+      final int failed = attempts == null ? 1 : attempts + 1;
+      if (failed >= AppDataWriteBuffer.MAX_ATTEMPTS) {
+        this.fAttempts.remove(key);
+        this.fLogger.log(Level.SEVERE, "dropped application data of " + key.fUserId + " for "
+                + key.fAppId + " after " + failed + " attempts");
+        return;
+      }
+      this.fAttempts.put(key, failed);
+
+      Map<String, Object> data = this.fPending.get(key);
+
+      if (data == null) {
+        this.fPending.put(key, values);
+      } else {
+        // don't overwrite newer values
+        for (final Entry<String, Object> valE : values.entrySet()) {
+          if (!data.containsKey(valE.getKey())) {
+            data.put(valE.getKey(), valE.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    while (this.fActive) {
+      try {
+        // wait for the interval to pass or the size limit to be reached
+        synchronized (this.fPending) {
+          if (this.fPending.size() < this.fMaxEntries) {
+            this.fPending.wait(this.fInterval);
+          }
+        }
+
+        flush();
+      } catch (final InterruptedException e) {
+        this.fLogger.log(Level.SEVERE, "write-behind loop interrupted", e);
+        return;
+      } catch (final Exception e) {
+        // keep the worker alive, failed updates have been requeued
+        this.fLogger.log(Level.SEVERE, "write-behind flush failed", e);
+      }
+    }
+  }
+
+  private static class Key {
+    private final String fUserId;
+    private final String fGroupId;
+    private final String fAppId;
+
+    public Key(String userId, String groupId, String appId) {
+      this.fUserId = userId;
+      this.fGroupId = groupId;
+      this.fAppId = appId;
+    }
+
+    public boolean matches(String userId, String appId) {
+      return equal(this.fUserId, userId) && equal(this.fAppId, appId);
+    }
+
+    private static boolean equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 17;
+      hash = 31 * hash + (this.fUserId == null ? 0 : this.fUserId.hashCode());
+      hash = 31 * hash + (this.fGroupId == null ? 0 : this.fGroupId.hashCode());
+      hash = 31 * hash + (this.fAppId == null ? 0 : this.fAppId.hashCode());
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      final Key other = (Key) obj;
+      return equal(this.fUserId, other.fUserId) && equal(this.fGroupId, other.fGroupId)
+              && equal(this.fAppId, other.fAppId);
+    }
+  }
+}
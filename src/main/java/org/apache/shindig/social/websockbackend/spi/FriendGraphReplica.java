@@ -0,0 +1,509 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.util.CsrGraph;
+import org.apache.shindig.social.websockbackend.util.IntList;
+import org.apache.shindig.social.websockbackend.util.LandmarkIndex;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * In-memory read replica of the friendship graph for local traversals. All people are enumerated
+ * and their friend lists requested in pages, building a compressed sparse row graph over dense
+ * numbers assigned to their IDs. The replica is rebuilt periodically in the background and kept up
+ * to date with changes made through this back-end in between. Distances to a few landmark users
+ * bound path lengths and often answer shortest path requests without a search; they are recomputed
+ * in the background after changes. Until the first load has completed, traversal methods return
+ * null.
+ */
+@Singleton
+public class FriendGraphReplica extends ABackgroundIndex<FriendGraphReplica.Replica, String[]> {
+  private static final String REPLICA = "shindig.graph.replica";
+  private static final String THREADS = "shindig.graph.replica.threads";
+  private static final String THRESHOLD = "shindig.graph.replica.parallel";
+  private static final String LANDMARKS = "shindig.graph.replica.landmarks";
+  private static final String LANDMARK_INTERVAL = "shindig.graph.replica.landmarks.interval";
+
+  private static final int DEF_THRESHOLD = 1024;
+  private static final int DEF_LANDMARKS = 8;
+  private static final long DEF_LANDMARK_INTERVAL = 60000;
+
+  private static final String ID_FIELD = Person.Field.ID.toString();
+  private static final String FRIENDS_GROUP = '@' + GroupId.Type.friends.toString();
+
+  // marks changes adding a friendship
+  private static final String ADDED = "+";
+
+  private final int fThreshold;
+  private final ForkJoinPool fPool;
+
+  private final int fLandmarkCount;
+  private final long fLandmarkInterval;
+  private final AtomicBoolean fLandmarksPending;
+  private volatile long fLandmarkTime;
+
+  /**
+   * Creates a friendship graph replica loading its data using the given query handler, configured
+   * by the given configuration object and listening for deleted people and friendship changes on
+   * the given event bus. If the replica is enabled, loading starts in the background. Throws a
+   * NullPointerException if the query handler or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public FriendGraphReplica(IQueryHandler qHandler, WebsockConfig config,
+          ShindigEventBus eventBus) {
+    super(qHandler, config, FriendGraphReplica.REPLICA, "friend graph replica");
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    final String threadString = config.getProperty(FriendGraphReplica.THREADS);
+    if (threadString != null && !threadString.isEmpty()) {
+      threads = Integer.parseInt(threadString);
+    }
+
+    int threshold = FriendGraphReplica.DEF_THRESHOLD;
+    final String thresholdString = config.getProperty(FriendGraphReplica.THRESHOLD);
+    if (thresholdString != null && !thresholdString.isEmpty()) {
+      threshold = Integer.parseInt(thresholdString);
+    }
+    this.fThreshold = threshold;
+
+    int landmarks = FriendGraphReplica.DEF_LANDMARKS;
+    final String landmarkString = config.getProperty(FriendGraphReplica.LANDMARKS);
+    if (landmarkString != null && !landmarkString.isEmpty()) {
+      landmarks = Integer.parseInt(landmarkString);
+    }
+    this.fLandmarkCount = landmarks;
+
+    long interval = FriendGraphReplica.DEF_LANDMARK_INTERVAL;
+    final String intervalString = config.getProperty(FriendGraphReplica.LANDMARK_INTERVAL);
+    if (intervalString != null && !intervalString.isEmpty()) {
+      interval = Long.parseLong(intervalString);
+    }
+    this.fLandmarkInterval = interval;
+    this.fLandmarksPending = new AtomicBoolean();
+
+    this.fPool = this.fEnabled && threads > 1 ? new ForkJoinPool(threads) : null;
+
+    start(eventBus, ShindigEventType.PROFILE_DELETED, ShindigEventType.FRIENDSHIP_CONFIRMED,
+            ShindigEventType.FRIENDSHIP_DENIED);
+  }
+
+  @Override
+  protected Replica build() throws Exception {
+    final Replica replica = new Replica();
+
+    // enumerate everyone first, so numbers follow the order friend lists are added in
+    final List<String> ids = getAllIds();
+    for (final String id : ids) {
+      replica.getNumber(id);
+    }
+
+    // request friend lists in pipelined pages
+    final CsrGraph.Builder builder = new CsrGraph.Builder();
+    final IntList neighbors = new IntList();
+    final List<IQueryCallback> callbacks = new ArrayList<IQueryCallback>(this.fPageSize);
+
+    for (int offset = 0; offset < ids.size(); offset += this.fPageSize) {
+      final int end = Math.min(offset + this.fPageSize, ids.size());
+
+      callbacks.clear();
+      for (int i = offset; i < end; ++i) {
+        callbacks.add(sendQuery(friendQuery(ids.get(i))));
+      }
+
+      for (final IQueryCallback callback : callbacks) {
+        neighbors.clear();
+        for (final String friend : ABackgroundIndex.toIds(callback.get())) {
+          // people created during the load are added by the next one
+          final Integer number = replica.getExisting(friend);
+          if (number != null && number < ids.size()) {
+            neighbors.add(number);
+          }
+        }
+        builder.addVertex(neighbors.toArray(), neighbors.size());
+      }
+    }
+
+    replica.fGraph = builder.build();
+    if (this.fLandmarkCount > 0) {
+      replica.fLandmarks = LandmarkIndex.build(replica.fGraph, this.fLandmarkCount);
+      this.fLandmarkTime = System.currentTimeMillis();
+    }
+
+    return replica;
+  }
+
+  @Override
+  protected Replica apply(Replica replica, String[] change) {
+    replica.apply(change);
+    return replica;
+  }
+
+  private WebsockQuery friendQuery(String userId) {
+    final List<String> userIds = new ArrayList<String>();
+    userIds.add(userId);
+
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID_LIST, userIds);
+    query.setParameter(ShindigNativeQueries.GROUP_ID, FriendGraphReplica.FRIENDS_GROUP);
+    query.setParameter(ShindigNativeQueries.FIELD_LIST, idFields());
+    return query;
+  }
+
+  private List<String> idFields() {
+    final List<String> fieldList = new ArrayList<String>();
+    fieldList.add(FriendGraphReplica.ID_FIELD);
+    return fieldList;
+  }
+
+  /**
+   * Returns the IDs of the people reachable from the given users over at most the given number of
+   * friendships, excluding the users themselves and, if requested, their direct friends. Returns
+   * null if the replica is not available.
+   *
+   * @param userIds
+   *          IDs of the users to start from
+   * @param depth
+   *          maximum number of friendships
+   * @param unknown
+   *          whether to exclude direct friends
+   * @return IDs of the people found or null
+   */
+  public List<String> getFriendsOfFriends(Set<String> userIds, int depth, boolean unknown) {
+    final Replica replica = getIndex();
+    if (replica == null) {
+      return null;
+    }
+
+    final IntList sources = new IntList();
+    for (final String userId : userIds) {
+      final Integer number = replica.getExisting(userId);
+      if (number != null) {
+        sources.add(number);
+      }
+    }
+
+    final int[] found = replica.fGraph.getNeighborhood(sources.toArray(), depth, unknown,
+            this.fPool, this.fThreshold);
+    return replica.toIds(found);
+  }
+
+  /**
+   * Returns the IDs of the people on a shortest path of friendships between two users, including
+   * both of them. Returns an empty list if there is no such path and null if the replica is not
+   * available.
+   *
+   * @param userId
+   *          ID of the user to start at
+   * @param targetId
+   *          ID of the user to reach
+   * @return IDs of the people on the path, empty list or null
+   */
+  public List<String> getShortestPath(String userId, String targetId) {
+    final Replica replica = getIndex();
+    if (replica == null) {
+      return null;
+    }
+
+    final Integer source = replica.getExisting(userId);
+    final Integer target = replica.getExisting(targetId);
+    if (source == null || target == null) {
+      return new ArrayList<String>();
+    }
+
+    try {
+      int maxLength = Integer.MAX_VALUE;
+      int[] viaLandmark = null;
+
+      // the path over a landmark is a shortest one if it is as long as the lower bound
+      final LandmarkIndex landmarks = getLandmarks(replica);
+      if (landmarks != null) {
+        final int lower = landmarks.getLowerBound(source, target);
+        if (lower == LandmarkIndex.UNREACHABLE) {
+          return new ArrayList<String>();
+        }
+
+        viaLandmark = landmarks.getPathVia(source, target);
+        if (viaLandmark != null) {
+          if (viaLandmark.length - 1 == lower) {
+            return replica.toIds(viaLandmark);
+          }
+          maxLength = viaLandmark.length - 1;
+        }
+      }
+
+      int[] path = replica.fGraph.getShortestPath(source, target, maxLength);
+      if (path == null) {
+        path = viaLandmark;
+      }
+      return path == null ? new ArrayList<String>() : replica.toIds(path);
+    } catch (final IllegalStateException e) {
+      // modified concurrently, leave it to the server
+      return null;
+    }
+  }
+
+  /**
+   * Determines the number of friendships separating two users, answering from the landmark
+   * distances alone where they determine it. Returns -1 if the users are not connected and null if
+   * the replica is not available.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param targetId
+   *          ID of the second user
+   * @return degree of separation, -1 or null
+   */
+  public Integer getSeparation(String userId, String targetId) {
+    final Replica replica = getIndex();
+    if (replica == null) {
+      return null;
+    }
+
+    final Integer source = replica.getExisting(userId);
+    final Integer target = replica.getExisting(targetId);
+    if (source == null || target == null) {
+      return -1;
+    }
+
+    final LandmarkIndex landmarks = getLandmarks(replica);
+    if (landmarks != null) {
+      final int exact = landmarks.getExactDistance(source, target);
+      if (exact == LandmarkIndex.UNREACHABLE) {
+        return -1;
+      } else if (exact >= 0) {
+        return exact;
+      }
+    }
+
+    final List<String> path = getShortestPath(userId, targetId);
+    if (path == null) {
+      return null;
+    }
+    return path.size() - 1;
+  }
+
+  private LandmarkIndex getLandmarks(final Replica replica) {
+    final LandmarkIndex landmarks = replica.fLandmarks;
+    if (landmarks != null && landmarks.isCurrent()) {
+      return landmarks;
+    }
+
+    // recompute outdated distances in the background, at most once per interval
+    if (this.fLandmarkCount > 0
+            && System.currentTimeMillis() - this.fLandmarkTime >= this.fLandmarkInterval
+            && this.fLandmarksPending.compareAndSet(false, true)) {
+      final Thread builder = new Thread("friend graph landmarks") {
+        @Override
+        public void run() {
+          try {
+            replica.fLandmarks = LandmarkIndex.build(replica.fGraph,
+                    FriendGraphReplica.this.fLandmarkCount);
+          } catch (final Exception e) {
+            FriendGraphReplica.this.fLogger.log(Level.WARNING, "could not compute landmarks", e);
+          } finally {
+            FriendGraphReplica.this.fLandmarkTime = System.currentTimeMillis();
+            FriendGraphReplica.this.fLandmarksPending.set(false);
+          }
+        }
+      };
+      builder.setDaemon(true);
+      builder.setPriority(Thread.MIN_PRIORITY);
+      builder.start();
+    }
+
+    return null;
+  }
+
+  /**
+   * Reloads the friend list of the given user from the server, for example because a friend
+   * request may have been confirmed.
+   *
+   * @param userId
+   *          ID of the user
+   * @throws ProtocolException
+   *           if the friend list can't be retrieved
+   */
+  public void refreshUser(String userId) throws ProtocolException {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    List<String> friends = null;
+    try {
+      friends = ABackgroundIndex.toIds(sendQuery(friendQuery(userId)).get());
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve friends", e);
+    }
+
+    final String[] change = new String[friends.size() + 1];
+    change[0] = userId;
+    for (int i = 0; i < friends.size(); ++i) {
+      change[i + 1] = friends.get(i);
+    }
+    record(change);
+  }
+
+  /**
+   * Removes a friendship between two users from the replica.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param otherId
+   *          ID of the second user
+   */
+  public void removeFriendship(String userId, String otherId) {
+    if (this.fEnabled) {
+      record(new String[] { null, userId, otherId, null });
+    }
+  }
+
+  /**
+   * Adds a friendship between two users to the replica.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param otherId
+   *          ID of the second user
+   */
+  public void addFriendship(String userId, String otherId) {
+    if (this.fEnabled) {
+      record(new String[] { null, userId, otherId, FriendGraphReplica.ADDED });
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (event.getType() == ShindigEventType.PROFILE_DELETED
+            && event.getPayload() instanceof Person) {
+      // no friends left
+      record(new String[] { ((Person) event.getPayload()).getId() });
+    } else if (event.getPayload() instanceof String[]
+            && ((String[]) event.getPayload()).length >= 2) {
+      // payload: user ID, target ID
+      final String[] params = (String[]) event.getPayload();
+
+      if (event.getType() == ShindigEventType.FRIENDSHIP_CONFIRMED) {
+        addFriendship(params[0], params[1]);
+      } else if (event.getType() == ShindigEventType.FRIENDSHIP_DENIED) {
+        removeFriendship(params[0], params[1]);
+      }
+    }
+  }
+
+  /**
+   * Graph together with the mapping between user IDs and vertex numbers.
+   */
+  static class Replica {
+    private final Map<String, Integer> fNumbers = new HashMap<String, Integer>();
+    private final List<String> fIds = new ArrayList<String>();
+    private CsrGraph fGraph;
+    private volatile LandmarkIndex fLandmarks;
+
+    int getNumber(String id) {
+      synchronized (this.fNumbers) {
+        Integer number = this.fNumbers.get(id);
+
+        if (number == null) {
+          number = this.fIds.size();
+          this.fNumbers.put(id, number);
+          this.fIds.add(id);
+        }
+
+        return number;
+      }
+    }
+
+    Integer getExisting(String id) {
+      synchronized (this.fNumbers) {
+        return this.fNumbers.get(id);
+      }
+    }
+
+    List<String> toIds(int[] numbers) {
+      final List<String> ids = new ArrayList<String>(numbers.length);
+
+      synchronized (this.fNumbers) {
+        for (final int number : numbers) {
+          ids.add(this.fIds.get(number));
+        }
+      }
+
+      return ids;
+    }
+
+    /**
+     * Applies a change, either a user ID followed by the user's friends or null followed by two IDs
+     * of users who became friends or are no longer friends and a marker for new friendships.
+     */
+    void apply(String[] change) {
+      if (change[0] == null && change[3] != null) {
+        this.fGraph.addEdge(getNumber(change[1]), getNumber(change[2]));
+        return;
+      }
+      if (change[0] == null) {
+        final Integer first = getExisting(change[1]);
+        final Integer second = getExisting(change[2]);
+        if (first != null && second != null) {
+          this.fGraph.removeEdge(first, second);
+        }
+        return;
+      }
+
+      final int[] neighbors = new int[change.length - 1];
+      for (int i = 1; i < change.length; ++i) {
+        neighbors[i - 1] = getNumber(change[i]);
+      }
+      this.fGraph.setNeighbors(getNumber(change[0]), neighbors);
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.util.LruCache;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Cache for the IDs of the people with pending friend requests to users. Cached sets are never
+ * modified; requests, confirmations and denials replace them with updated copies. Friendship
+ * events are handled the same way, so changes made elsewhere are applied as well; applying a change
+ * twice has no effect.
+ */
+@Singleton
+public class FriendRequestCache implements IEventListener {
+  private static final String CACHE = "shindig.friends.requests.cache";
+  private static final String CACHE_SIZE = "shindig.friends.requests.cache.size";
+  private static final String CACHE_TTL = "shindig.friends.requests.cache.ttl";
+
+  private static final int DEF_CACHE_SIZE = 10000;
+  private static final long DEF_CACHE_TTL = 300000;
+
+  private final boolean fEnabled;
+  private final LruCache<String, Set<String>> fRequests;
+
+  // incremented on changes, keeps results of concurrent queries from being cached
+  private final AtomicLong fEpoch;
+
+  /**
+   * Creates a friend request cache configured by the given configuration object and listening for
+   * friendship changes on the given event bus. Throws a NullPointerException if the configuration
+   * object is null.
+   *
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public FriendRequestCache(WebsockConfig config, ShindigEventBus eventBus) {
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fEpoch = new AtomicLong();
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(FriendRequestCache.CACHE));
+
+    int size = FriendRequestCache.DEF_CACHE_SIZE;
+    final String sizeString = config.getProperty(FriendRequestCache.CACHE_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long ttl = FriendRequestCache.DEF_CACHE_TTL;
+    final String ttlString = config.getProperty(FriendRequestCache.CACHE_TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+
+    this.fRequests = new LruCache<String, Set<String>>(size, ttl);
+
+    if (this.fEnabled && eventBus != null) {
+      eventBus.addListener(ShindigEventType.FRIENDSHIP_REQUESTED, this);
+      eventBus.addListener(ShindigEventType.FRIENDSHIP_CONFIRMED, this);
+      eventBus.addListener(ShindigEventType.FRIENDSHIP_DENIED, this);
+      eventBus.addListener(ShindigEventType.PROFILE_DELETED, this);
+    }
+  }
+
+  /**
+   * @return whether caching is enabled
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * @return current epoch to pass to put operations
+   */
+  public long getEpoch() {
+    return this.fEpoch.get();
+  }
+
+  /**
+   * Returns the cached IDs of the people with pending requests to a user or null if there are none.
+   *
+   * @param userId
+   *          ID of the user
+   * @return unmodifiable set of requesting people's IDs or null
+   */
+  public Set<String> getRequests(String userId) {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    return this.fRequests.get(userId);
+  }
+
+  /**
+   * Caches the IDs of all people with pending requests to a user, unless there was a change since
+   * the given epoch was retrieved.
+   *
+   * @param userId
+   *          ID of the user
+   * @param requesterIds
+   *          IDs of the requesting people
+   * @param epoch
+   *          epoch retrieved before the requests were retrieved
+   */
+  public void putRequests(String userId, Set<String> requesterIds, long epoch) {
+    if (this.fEnabled) {
+      synchronized (this.fEpoch) {
+        if (this.fEpoch.get() == epoch) {
+          this.fRequests.put(userId, Collections.unmodifiableSet(new TreeSet<String>(
+                  requesterIds)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies a person requesting a friendship with a target user.
+   *
+   * @param userId
+   *          ID of the requesting person
+   * @param targetId
+   *          ID of the person the request was sent to
+   */
+  public void addRequest(String userId, String targetId) {
+    update(targetId, userId, true);
+  }
+
+  /**
+   * Applies a person confirming a target's request or denying or revoking a friendship or request
+   * between them, leaving no pending request in either direction.
+   *
+   * @param userId
+   *          ID of the confirming or denying person
+   * @param targetId
+   *          ID of the other person
+   */
+  public void removeRequests(String userId, String targetId) {
+    update(userId, targetId, false);
+    update(targetId, userId, false);
+  }
+
+  private void update(String userId, String requesterId, boolean add) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final Set<String> requests = this.fRequests.get(userId);
+      if (requests == null || requests.contains(requesterId) == add) {
+        return;
+      }
+
+      final Set<String> newRequests = new TreeSet<String>(requests);
+      if (add) {
+        newRequests.add(requesterId);
+      } else {
+        newRequests.remove(requesterId);
+      }
+      this.fRequests.put(userId, Collections.unmodifiableSet(newRequests));
+    }
+  }
+
+  /**
+   * Removes the cached requests to the given user.
+   *
+   * @param userId
+   *          ID of the user
+   */
+  public void invalidate(String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fRequests.remove(userId);
+    }
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  public void clear() {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fRequests.clear();
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (event.getType() == ShindigEventType.PROFILE_DELETED) {
+      // requests by the person can't be found without scanning all entries
+      clear();
+      return;
+    }
+
+    if (!(event.getPayload() instanceof String[])) {
+      return;
+    }
+
+    final String[] params = (String[]) event.getPayload();
+    if (params.length < 2) {
+      if (params.length > 0) {
+        invalidate(params[0]);
+      }
+      return;
+    }
+
+    if (event.getType() == ShindigEventType.FRIENDSHIP_REQUESTED) {
+      addRequest(params[0], params[1]);
+    } else {
+      removeRequests(params[0], params[1]);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.opensocial.model.Group;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.util.LruCache;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Cache for the groups of users and the IDs of groups' members, which change rarely. Group lists
+ * expire after a configured time and can be invalidated explicitly per user; member lists are kept
+ * by the membership index and share its expiration. Deleted people are removed automatically.
+ */
+@Singleton
+public class GroupMembershipCache implements IEventListener {
+  private static final String CACHE = "shindig.groups.cache";
+  private static final String CACHE_SIZE = "shindig.groups.cache.size";
+  private static final String CACHE_TTL = "shindig.groups.cache.ttl";
+
+  private static final int DEF_CACHE_SIZE = 10000;
+  private static final long DEF_CACHE_TTL = 300000;
+
+  // separates the user ID from the rest of group list keys
+  private static final char KEY_SEPARATOR = '\u0000';
+
+  private final MembershipIndex fIndex;
+
+  private final boolean fEnabled;
+  private final LruCache<String, RestfulCollection<Group>> fGroupLists;
+
+  // incremented on invalidation, keeps results of concurrent queries from being cached
+  private final AtomicLong fEpoch;
+
+  /**
+   * Creates a group membership cache configured by the given configuration object, resolving
+   * members using the given membership index and listening for deleted people on the given event
+   * bus. Throws a NullPointerException if the configuration object or membership index is null.
+   *
+   * @param config
+   *          configuration object to use
+   * @param index
+   *          membership index holding member lists
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public GroupMembershipCache(WebsockConfig config, MembershipIndex index,
+          ShindigEventBus eventBus) {
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+    if (index == null) {
+      throw new NullPointerException("membership index was null");
+    }
+
+    this.fIndex = index;
+    this.fEpoch = new AtomicLong();
+
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(GroupMembershipCache.CACHE));
+
+    int size = GroupMembershipCache.DEF_CACHE_SIZE;
+    final String sizeString = config.getProperty(GroupMembershipCache.CACHE_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long ttl = GroupMembershipCache.DEF_CACHE_TTL;
+    final String ttlString = config.getProperty(GroupMembershipCache.CACHE_TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+
+    this.fGroupLists = new LruCache<String, RestfulCollection<Group>>(size, ttl);
+
+    if (this.fEnabled && eventBus != null) {
+      eventBus.addListener(ShindigEventType.PROFILE_DELETED, this);
+    }
+  }
+
+  /**
+   * @return whether caching is enabled
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * @return current invalidation epoch to pass to put operations
+   */
+  public long getEpoch() {
+    return this.fEpoch.get();
+  }
+
+  /**
+   * Returns the cached result of a group list request of a user or null if there is none.
+   *
+   * @param userId
+   *          ID of the user
+   * @param request
+   *          string describing the request's options and fields
+   * @return cached groups or null
+   */
+  public RestfulCollection<Group> getGroups(String userId, String request) {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    return this.fGroupLists.get(userId + GroupMembershipCache.KEY_SEPARATOR + request);
+  }
+
+  /**
+   * Caches the result of a group list request of a user, unless there was an invalidation since
+   * the given epoch was retrieved.
+   *
+   * @param userId
+   *          ID of the user
+   * @param request
+   *          string describing the request's options and fields
+   * @param groups
+   *          groups to cache
+   * @param epoch
+   *          epoch retrieved before the groups were requested
+   */
+  public void putGroups(String userId, String request, RestfulCollection<Group> groups, long epoch) {
+    if (this.fEnabled) {
+      synchronized (this.fEpoch) {
+        if (this.fEpoch.get() == epoch) {
+          this.fGroupLists.put(userId + GroupMembershipCache.KEY_SEPARATOR + request, groups);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the IDs of all members of the given group, loading and caching them if necessary.
+   * Returns null if caching is disabled.
+   *
+   * @param groupId
+   *          ID of the group
+   * @return unmodifiable set of member IDs or null
+   * @throws ProtocolException
+   *           if the members can't be loaded
+   */
+  public Set<String> getMembers(String groupId) throws ProtocolException {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    return this.fIndex.getMemberIds(groupId);
+  }
+
+  /**
+   * Determines whether a user is a member of a group using the cached member set, loading it if
+   * necessary. Returns null if caching is disabled.
+   *
+   * @param groupId
+   *          ID of the group
+   * @param userId
+   *          ID of the user
+   * @return whether the user is a member or null
+   * @throws ProtocolException
+   *           if the members can't be loaded
+   */
+  public Boolean isMember(String groupId, String userId) throws ProtocolException {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    return this.fIndex.isMember(groupId, userId);
+  }
+
+  /**
+   * Removes all cached group lists of the given user, for example because the user joined or left
+   * a group.
+   *
+   * @param userId
+   *          ID of the user
+   */
+  public void invalidateUser(String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final String prefix = userId + GroupMembershipCache.KEY_SEPARATOR;
+      for (final String key : this.fGroupLists.keys()) {
+        if (key.startsWith(prefix)) {
+          this.fGroupLists.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Records a user joining a group, updating the group's cached members and removing the user's
+   * cached group lists.
+   *
+   * @param groupId
+   *          ID of the group
+   * @param userId
+   *          ID of the user
+   */
+  public void addMember(String groupId, String userId) {
+    this.fIndex.addMember(groupId, userId);
+    invalidateUser(userId);
+  }
+
+  /**
+   * Records a user leaving a group, updating the group's cached members and removing the user's
+   * cached group lists.
+   *
+   * @param groupId
+   *          ID of the group
+   * @param userId
+   *          ID of the user
+   */
+  public void removeMember(String groupId, String userId) {
+    this.fIndex.removeMember(groupId, userId);
+    invalidateUser(userId);
+  }
+
+  /**
+   * Removes all cached group lists.
+   */
+  public void clear() {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fGroupLists.clear();
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (event.getType() != ShindigEventType.PROFILE_DELETED
+            || !(event.getPayload() instanceof Person)) {
+      return;
+    }
+
+    // the membership index removes the person from member lists itself
+    invalidateUser(((Person) event.getPayload()).getId());
+  }
+}
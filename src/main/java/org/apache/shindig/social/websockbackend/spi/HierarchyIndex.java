@@ -0,0 +1,305 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.social.opensocial.model.Organization;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.IExtOrganization;
+import org.apache.shindig.social.websockbackend.model.dto.OrganizationDTO;
+import org.apache.shindig.social.websockbackend.util.HierarchyTree;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+
+/**
+ * In-memory index of the management hierarchy for answering hierarchy path and subtree requests
+ * locally. All people are requested in pages together with their organizations, whose manager IDs
+ * form a {@link HierarchyTree} over dense numbers assigned to their IDs. The index is reloaded
+ * periodically in the background and updated with profile changes made through this back-end in
+ * between by rebuilding the tree, which is cheap compared to how rarely managers change. Until the
+ * first load has completed, requests return null.
+ */
+@Singleton
+public class HierarchyIndex extends ABackgroundIndex<HierarchyIndex.Hierarchy, String[]> {
+  private static final String INDEX = "shindig.hierarchy.index";
+
+  private static final String ID_FIELD = Person.Field.ID.toString();
+  private static final String ORGS_FIELD = Person.Field.ORGANIZATIONS.toString();
+
+  /**
+   * Creates a hierarchy index loading its data using the given query handler, configured by the
+   * given configuration object and listening for profile changes on the given event bus. If the
+   * index is enabled, loading starts in the background. Throws a NullPointerException if the query
+   * handler or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public HierarchyIndex(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    super(qHandler, config, HierarchyIndex.INDEX, "hierarchy index");
+
+    start(eventBus, ShindigEventType.PROFILE_CREATED, ShindigEventType.PROFILE_UPDATED,
+            ShindigEventType.PROFILE_DELETED);
+  }
+
+  @Override
+  protected Hierarchy build() throws Exception {
+    final List<String> fieldList = new ArrayList<String>();
+    fieldList.add(HierarchyIndex.ORGS_FIELD);
+
+    final List<String> ids = new ArrayList<String>();
+    final List<String> managerIds = new ArrayList<String>();
+    for (final Map<String, Object> person : getAllPeople(fieldList)) {
+      ids.add(person.get(HierarchyIndex.ID_FIELD).toString());
+      managerIds.add(getManagerId(person));
+    }
+
+    final Map<String, Integer> numbers = new HashMap<String, Integer>();
+    for (int i = 0; i < ids.size(); ++i) {
+      numbers.put(ids.get(i), i);
+    }
+
+    final int[] managers = new int[ids.size()];
+    for (int i = 0; i < managers.length; ++i) {
+      final Integer manager = managerIds.get(i) == null ? null : numbers.get(managerIds.get(i));
+      managers[i] = manager == null ? -1 : manager;
+    }
+
+    return new Hierarchy(numbers, ids.toArray(new String[ids.size()]), managers);
+  }
+
+  @Override
+  protected Hierarchy apply(Hierarchy hierarchy, String[] change) {
+    return hierarchy.apply(change);
+  }
+
+  private String getManagerId(Map<String, Object> person) {
+    @SuppressWarnings("unchecked")
+    final List<Map<String, Object>> orgs = (List<Map<String, Object>>) person
+            .get(HierarchyIndex.ORGS_FIELD);
+
+    final List<Organization> organizations = new ArrayList<Organization>();
+    if (orgs != null) {
+      for (final Map<String, Object> org : orgs) {
+        organizations.add(new OrganizationDTO(org));
+      }
+    }
+    return getManagerId(organizations);
+  }
+
+  private String getManagerId(List<Organization> organizations) {
+    // the primary organization's manager takes precedence
+    String managerId = null;
+    for (final Organization org : organizations) {
+      if (org instanceof IExtOrganization && ((IExtOrganization) org).getManagerId() != null) {
+        if (Boolean.TRUE.equals(org.getPrimary())) {
+          return ((IExtOrganization) org).getManagerId();
+        } else if (managerId == null) {
+          managerId = ((IExtOrganization) org).getManagerId();
+        }
+      }
+    }
+    return managerId;
+  }
+
+  /**
+   * Returns the IDs of the people on the hierarchical path between two users, going up from the
+   * first one to their lowest common manager and down to the second one, including both ends. Like
+   * the server's results, consecutive people are separated by
+   * {@link WsNativeOrganizationService#MANAGED_BY_ID} for steps up and
+   * {@link WsNativeOrganizationService#MANAGER_OF_ID} for steps down. Returns an empty list if they
+   * are not in the same hierarchy and null if the index is not available or doesn't know one of the
+   * users.
+   *
+   * @param userId
+   *          ID of the user to start at
+   * @param targetId
+   *          ID of the user to reach
+   * @return IDs of the people on the path with relation markers, empty list or null
+   */
+  public List<String> getPath(String userId, String targetId) {
+    final Hierarchy hierarchy = getIndex();
+    if (hierarchy == null) {
+      return null;
+    }
+
+    final Integer source = hierarchy.fNumbers.get(userId);
+    final Integer target = hierarchy.fNumbers.get(targetId);
+    if (source == null || target == null) {
+      return null;
+    }
+
+    final int[] path = hierarchy.fTree.getPath(source, target);
+    final List<String> ids = new ArrayList<String>();
+    if (path != null) {
+      for (int i = 0; i < path.length; ++i) {
+        if (i > 0) {
+          final boolean up = hierarchy.fTree.getManager(path[i - 1]) == path[i];
+          ids.add(up ? WsNativeOrganizationService.MANAGED_BY_ID
+                  : WsNativeOrganizationService.MANAGER_OF_ID);
+        }
+        ids.add(hierarchy.fIds[path[i]]);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Returns the IDs of the people managed by a user directly or indirectly, up to the given number
+   * of levels below the user, in preorder, i.e. each person is followed by their own team. Returns
+   * an empty list for unknown users and null if the index is not available.
+   *
+   * @param userId
+   *          ID of the manager
+   * @param depth
+   *          maximum number of levels below the user
+   * @return IDs of the subordinates, empty list or null
+   */
+  public List<String> getSubordinates(String userId, int depth) {
+    final Hierarchy hierarchy = getIndex();
+    if (hierarchy == null) {
+      return null;
+    }
+
+    final List<String> ids = new ArrayList<String>();
+    final Integer number = hierarchy.fNumbers.get(userId);
+    if (number != null) {
+      for (final int subordinate : hierarchy.fTree.getSubordinates(number, depth)) {
+        ids.add(hierarchy.fIds[subordinate]);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Sets or removes the manager of a user.
+   *
+   * @param userId
+   *          ID of the user
+   * @param managerId
+   *          ID of the user's new manager or null
+   */
+  public void setManager(String userId, String managerId) {
+    if (this.fEnabled) {
+      record(new String[] { userId, managerId });
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (!(event.getPayload() instanceof Person)) {
+      return;
+    }
+
+    final Person person = (Person) event.getPayload();
+    if (event.getType() == ShindigEventType.PROFILE_DELETED) {
+      // people managed by the deleted person are left without a manager
+      record(new String[] { person.getId() });
+    } else if (person.getOrganizations() != null) {
+      setManager(person.getId(), getManagerId(person.getOrganizations()));
+    }
+  }
+
+  /**
+   * Hierarchy tree together with the mapping between user IDs and vertex numbers. Changes create a
+   * new instance, so requests can use a consistent state without locking.
+   */
+  static class Hierarchy {
+    private final Map<String, Integer> fNumbers;
+    private final String[] fIds;
+    private final int[] fManagers;
+    private final HierarchyTree fTree;
+
+    Hierarchy(Map<String, Integer> numbers, String[] ids, int[] managers) {
+      this.fNumbers = numbers;
+      this.fIds = ids;
+      this.fManagers = managers;
+      this.fTree = new HierarchyTree(managers);
+    }
+
+    /**
+     * Applies a change, either a user ID followed by the ID of the user's manager or null, or just
+     * the ID of a deleted user.
+     */
+    Hierarchy apply(String[] change) {
+      final Integer number = this.fNumbers.get(change[0]);
+
+      if (change.length == 1) {
+        if (number == null) {
+          return this;
+        }
+
+        final int[] managers = this.fManagers.clone();
+        managers[number] = -1;
+        for (int v = 0; v < managers.length; ++v) {
+          if (managers[v] == number) {
+            managers[v] = -1;
+          }
+        }
+        return new Hierarchy(this.fNumbers, this.fIds, managers);
+      }
+
+      final Integer manager = change[1] == null ? null : this.fNumbers.get(change[1]);
+      if (number != null && (change[1] == null && this.fManagers[number] < 0
+              || manager != null && this.fManagers[number] == manager)) {
+        // unchanged
+        return this;
+      }
+
+      // add unknown people with the next free numbers
+      Map<String, Integer> numbers = this.fNumbers;
+      String[] ids = this.fIds;
+      final List<String> added = new ArrayList<String>();
+      if (number == null) {
+        added.add(change[0]);
+      }
+      if (change[1] != null && manager == null) {
+        added.add(change[1]);
+      }
+      if (!added.isEmpty()) {
+        numbers = new HashMap<String, Integer>(this.fNumbers);
+        ids = Arrays.copyOf(this.fIds, this.fIds.length + added.size());
+        for (int i = 0; i < added.size(); ++i) {
+          numbers.put(added.get(i), this.fIds.length + i);
+          ids[this.fIds.length + i] = added.get(i);
+        }
+      }
+
+      final int[] managers = Arrays.copyOf(this.fManagers, ids.length);
+      Arrays.fill(managers, this.fManagers.length, managers.length, -1);
+      managers[numbers.get(change[0])] = change[1] == null ? -1 : numbers.get(change[1]);
+      return new Hierarchy(numbers, ids, managers);
+    }
+  }
+}
@@ -51,6 +51,24 @@ public interface IExtPersonService extends PersonService {
   public Future<RestfulCollection<Person>> getAllPeople(CollectionOptions collectionOptions,
           Set<String> fields, SecurityToken token) throws ProtocolException;
 
+  /**
+   * Retrieves compact records of the people whose names or IDs match the given fragment, each word
+   * of which has to start a word of the name or ID. Records contain the person's ID, display name
+   * and thumbnail URL, if available. None of the parameters may be null.
+   *
+   * @param fragment
+   *          name fragment to complete
+   * @param collectionOptions
+   *          options concerning pagination
+   * @param token
+   *          security token
+   * @return compact records of matching people
+   * @throws ProtocolException
+   *           if the retrieval fails
+   */
+  public Future<RestfulCollection<Map<String, Object>>> getPeopleAutocomp(String fragment,
+          CollectionOptions collectionOptions, SecurityToken token) throws ProtocolException;
+
   /**
    * Creates a new user from the given person object. This should only be working if done by an
    * authorized user. None of the parameters may be null.
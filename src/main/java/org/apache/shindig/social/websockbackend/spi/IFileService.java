@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.concurrent.Future;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.social.websockbackend.model.dto.FileMetadataDTO;
+
+/**
+ * Interface for a service storing metadata of uploaded files. The files' contents are stored
+ * elsewhere.
+ */
+public interface IFileService {
+  /**
+   * Stores the metadata of a newly uploaded file, linking it to its owner and assigning it a new
+   * unique ID which is set in the given object. The given metadata must not be null and must
+   * contain an owner.
+   *
+   * @param file
+   *          metadata of the uploaded file
+   * @param token
+   *          security token of the request
+   * @return metadata containing the file's new ID
+   */
+  public Future<FileMetadataDTO> createFile(FileMetadataDTO file, SecurityToken token);
+
+  /**
+   * Retrieves the metadata of the file with the given ID, if it exists. Requires an authenticated
+   * security token whose viewer or owner is the file's owner.
+   *
+   * @param fileId
+   *          ID of the file
+   * @param token
+   *          security token of the request
+   * @return metadata of the file or null if it doesn't exist
+   */
+  public Future<FileMetadataDTO> getFile(String fileId, SecurityToken token);
+
+  /**
+   * Deletes the metadata of the file with the given ID, if it exists.
+   *
+   * @param fileId
+   *          ID of the file
+   * @param token
+   *          security token of the request
+   * @return void future
+   */
+  public Future<Void> deleteFile(String fileId, SecurityToken token);
+}
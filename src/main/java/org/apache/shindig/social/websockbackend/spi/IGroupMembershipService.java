@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.concurrent.Future;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.opensocial.spi.UserId;
+
+/**
+ * Interface for a service letting users join and leave groups.
+ */
+public interface IGroupMembershipService {
+  /**
+   * Makes the given user a member of the given group. Users can only join groups themselves.
+   *
+   * @param userId
+   *          ID of the user joining the group
+   * @param groupId
+   *          ID of the group
+   * @param token
+   *          security token of the request
+   * @return empty future
+   * @throws ProtocolException
+   *           if the user or group doesn't exist or the request is not permitted
+   */
+  public Future<Void> joinGroup(UserId userId, String groupId, SecurityToken token)
+          throws ProtocolException;
+
+  /**
+   * Removes the given user from the given group. Users can only leave groups themselves.
+   *
+   * @param userId
+   *          ID of the user leaving the group
+   * @param groupId
+   *          ID of the group
+   * @param token
+   *          security token of the request
+   * @return empty future
+   * @throws ProtocolException
+   *           if the request is not permitted
+   */
+  public Future<Void> leaveGroup(UserId userId, String groupId, SecurityToken token)
+          throws ProtocolException;
+}
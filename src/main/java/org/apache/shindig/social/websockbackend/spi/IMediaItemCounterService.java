@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.concurrent.Future;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.social.opensocial.spi.UserId;
+
+/**
+ * Interface for a service incrementing the view, vote and comment counters of media items.
+ */
+public interface IMediaItemCounterService {
+  /**
+   * Adds the given delta to a counter of a media item, which is one of the fields "numViews",
+   * "numVotes" and "numComments".
+   *
+   * @param userId
+   *          ID of the media item's owner
+   * @param appId
+   *          ID of the application the media item belongs to
+   * @param albumId
+   *          ID of the album the media item belongs to
+   * @param mediaItemId
+   *          ID of the media item
+   * @param field
+   *          counter field to increment
+   * @param delta
+   *          value to add
+   * @param token
+   *          security token
+   * @return empty future
+   */
+  public Future<Void> incrementCounter(UserId userId, String appId, String albumId,
+          String mediaItemId, String field, long delta, SecurityToken token);
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.concurrent.Future;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.opensocial.model.Message;
+import org.apache.shindig.social.opensocial.spi.UserId;
+
+/**
+ * Interface for a service retrieving complete conversations formed by messages replying to each
+ * other.
+ */
+public interface IMessageThreadService {
+  /**
+   * Retrieves the thread the given message is part of, consisting of the message the thread
+   * starts with and all direct and indirect replies to it, ordered by the time they were sent.
+   * Only messages the user sent or received are returned; each message contains the ID of the
+   * message it replies to.
+   *
+   * @param userId
+   *          ID of the user requesting the thread
+   * @param messageId
+   *          ID of any message in the thread
+   * @param token
+   *          security token of the request
+   * @return messages in the thread
+   * @throws ProtocolException
+   *           if the retrieval fails
+   */
+  public Future<RestfulCollection<Message>> getThread(UserId userId, String messageId,
+          SecurityToken token) throws ProtocolException;
+}
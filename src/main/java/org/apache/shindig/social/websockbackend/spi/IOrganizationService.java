@@ -20,7 +20,10 @@ import java.util.Set;
 import java.util.concurrent.Future;
 
 import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.UserId;
 
 /**
@@ -44,4 +47,28 @@ public interface IOrganizationService {
    */
   public Future<RestfulCollection<Object>> getHierarchyPath(UserId userId, String target,
           Set<String> fields, SecurityToken token);
+
+  /**
+   * Retrieves the people managed by a person directly or indirectly, up to the given number of
+   * levels below them, in preorder: each person is followed by their own team. Only the requested
+   * page is retrieved, so large organizations can be walked through page by page. The given user
+   * ID must not be null.
+   *
+   * @param userId
+   *          ID of the manager
+   * @param depth
+   *          maximum number of levels below the manager
+   * @param options
+   *          options for paging
+   * @param fields
+   *          list of fields to retrieve for people
+   * @param token
+   *          security token of the request
+   * @return requested page of subordinates
+   * @throws ProtocolException
+   *           if the subtree can't be determined
+   */
+  public Future<RestfulCollection<Person>> getSubordinates(UserId userId, int depth,
+          CollectionOptions options, Set<String> fields, SecurityToken token)
+          throws ProtocolException;
 }
@@ -1,6 +1,7 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 import org.apache.shindig.auth.SecurityToken;
@@ -15,8 +16,111 @@ public interface IProcessMiningService {
   public Future<Void> addProcessCycle(String docId, String docType, String start, String end,
           List<String> userList, SecurityToken token);
   
+  /**
+   * Accepts process cycles of a document type for creation in the background, in batches together
+   * with other cycles. The result acknowledges how many cycles were accepted and how many are still
+   * waiting to be created, including these.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param cycles
+   *          cycles to create
+   * @param token
+   *          security token of the request
+   * @return number of accepted and pending cycles
+   */
+  public Future<Map<String, Object>> addProcessCycles(String docType, List<IProcessCycle> cycles,
+          SecurityToken token);
+
   public Future<RestfulCollection<IProcessCycle>> getProcessCycles(String docType,
           CollectionOptions collectionOptions, SecurityToken token);
   
   public Future<Void> deleteProcessCycles(String docType, SecurityToken token);
+
+  /**
+   * Computes statistics of the durations of the finished cycles of a document type that ended in
+   * the given period: their number, minimum, maximum, mean and the requested percentiles.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param percentiles
+   *          percentiles to compute, between 0 and 100
+   * @param from
+   *          beginning of the period in milliseconds, inclusive
+   * @param to
+   *          end of the period in milliseconds, exclusive
+   * @param token
+   *          security token of the request
+   * @return duration statistics in milliseconds
+   */
+  public Future<Map<String, Object>> getDurations(String docType, List<Double> percentiles,
+          long from, long to, SecurityToken token);
+
+  /**
+   * Estimates percentiles of the durations of all finished cycles of a document type from a sketch
+   * that is kept up to date as cycles are added, returning their exact number, minimum and maximum
+   * as well.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param percentiles
+   *          percentiles to estimate, between 0 and 100
+   * @param token
+   *          security token of the request
+   * @return approximate duration statistics in milliseconds
+   */
+  public Future<Map<String, Object>> getDurationQuantiles(String docType,
+          List<Double> percentiles, SecurityToken token);
+
+  /**
+   * Counts the cycles of a document type finished in consecutive time buckets of the given length,
+   * starting at the beginning of the given period or the earliest end date if it is unbounded.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param bucket
+   *          length of a bucket in milliseconds
+   * @param from
+   *          beginning of the period in milliseconds, inclusive
+   * @param to
+   *          end of the period in milliseconds, exclusive
+   * @param token
+   *          security token of the request
+   * @return bucket length, start of the first bucket and number of cycles per bucket
+   */
+  public Future<Map<String, Object>> getThroughput(String docType, long bucket, long from,
+          long to, SecurityToken token);
+
+  /**
+   * Counts how often each user was involved in the cycles of a document type that ended in the
+   * given period or started in it and are unfinished, most involved users first.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param from
+   *          beginning of the period in milliseconds, inclusive
+   * @param to
+   *          end of the period in milliseconds, exclusive
+   * @param token
+   *          security token of the request
+   * @return number of involvements per user ID
+   */
+  public Future<Map<String, Long>> getParticipation(String docType, long from, long to,
+          SecurityToken token);
+
+  /**
+   * Computes the directly-follows graph of the cycles of a document type: how often the work on a
+   * document was handed from one user to the next and the mean delay of these handoffs, most
+   * frequent handoffs first.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param minCount
+   *          minimum number of handoffs between two users to be included
+   * @param token
+   *          security token of the request
+   * @return number of cycles and handoffs between users
+   */
+  public Future<Map<String, Object>> getHandoffs(String docType, long minCount,
+          SecurityToken token);
 }
@@ -0,0 +1,631 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.shindig.social.opensocial.model.MediaItem;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Buffer for increments of media items' view, vote and comment counters. Increments are
+ * accumulated in memory in striped counters, so concurrent increments of the same media item rarely
+ * contend, and the aggregated deltas are written to the server periodically. Media items are
+ * identified by their ID alone, which is unique.
+ *
+ * The native procedures have no atomic increment, so a flush reads the stored values and writes the
+ * incremented ones. Other writes of counter values must hold the write lock to not be overwritten.
+ * This only covers writes of this instance; counters must not be incremented on several nodes.
+ */
+public class MediaItemCounterBuffer implements Runnable {
+  /**
+   * Counter fields in the order of their cells.
+   */
+  private static final String[] FIELDS = { MediaItem.Field.NUM_VIEWS.toString(),
+          MediaItem.Field.NUM_VOTES.toString(), MediaItem.Field.NUM_COMMENTS.toString() };
+
+  // cells per stripe, keeping stripes on separate cache lines
+  private static final int STRIPE_WIDTH = 8;
+
+  // marks cells of counters that have been taken by a flush
+  private static final long RETIRED = Long.MIN_VALUE;
+
+  private final IQueryHandler fQueryHandler;
+
+  private final ConcurrentMap<String, Counters> fCounters;
+  private final Map<String, long[]> fInFlight;
+  private final Object fFlushLock;
+
+  private final int fStripes;
+  private final int fMaxEntries;
+  private final long fInterval;
+
+  private final Logger fLogger;
+
+  private volatile boolean fActive;
+
+  /**
+   * Creates a counter buffer sending its updates using the given query handler, flushing when the
+   * given number of media items have pending increments or the given interval has passed. The query
+   * handler must not be null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param maxEntries
+   *          number of media items with pending increments triggering a flush
+   * @param interval
+   *          maximum time between flushes in milliseconds
+   */
+  public MediaItemCounterBuffer(IQueryHandler qHandler, int maxEntries, long interval) {
+    if (qHandler == null) {
+      throw new NullPointerException("query handler was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fCounters = new ConcurrentHashMap<String, Counters>();
+    this.fInFlight = new HashMap<String, long[]>();
+    this.fFlushLock = new Object();
+
+    // power of two number of stripes matching the number of processors
+    int stripes = 1;
+    while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64) {
+      stripes <<= 1;
+    }
+    this.fStripes = stripes;
+
+    this.fMaxEntries = maxEntries;
+    this.fInterval = interval;
+
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+  }
+
+  /**
+   * Starts the flushing worker thread and registers a hook flushing all pending increments on
+   * shutdown.
+   */
+  public void start() {
+    this.fActive = true;
+
+    final Thread worker = new Thread(this, "media item counters");
+    worker.setDaemon(true);
+    worker.start();
+
+    // hook for clean shutdown
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        MediaItemCounterBuffer.this.stop();
+      }
+    });
+  }
+
+  /**
+   * Stops the worker thread and flushes all remaining increments.
+   */
+  public void stop() {
+    this.fActive = false;
+    synchronized (this.fCounters) {
+      this.fCounters.notify();
+    }
+
+    flush();
+  }
+
+  /**
+   * Returns the lock held by flushes while reading and writing counter values. Writes setting
+   * counter values have to hold it as well, so flushes don't overwrite them with stale sums.
+   *
+   * @return lock for writing counter values
+   */
+  public Object getWriteLock() {
+    return this.fFlushLock;
+  }
+
+  /**
+   * @param field
+   *          media item field
+   * @return whether the given field is a buffered counter
+   */
+  public static boolean isCounter(String field) {
+    return index(field) != -1;
+  }
+
+  /**
+   * @param values
+   *          media item properties to write
+   * @return whether the given properties contain a counter field
+   */
+  public static boolean setsCounters(Map<String, Object> values) {
+    for (final String field : MediaItemCounterBuffer.FIELDS) {
+      if (values.containsKey(field)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Adds the given delta to a counter of a media item. Throws an IllegalArgumentException if the
+   * field is not a counter field.
+   *
+   * @param userId
+   *          ID of the media item's owner
+   * @param appId
+   *          ID of the application the media item belongs to
+   * @param albumId
+   *          ID of the album the media item belongs to
+   * @param mediaItemId
+   *          ID of the media item
+   * @param field
+   *          counter field
+   * @param delta
+   *          value to add
+   */
+  public void increment(String userId, String appId, String albumId, String mediaItemId,
+          String field, long delta) {
+    final int index = index(field);
+    if (index == -1) {
+      throw new IllegalArgumentException("not a counter field: " + field);
+    }
+
+    add(new Target(userId, appId, albumId, mediaItemId), index, delta);
+  }
+
+  /**
+   * Adds the given delta to a counter of a media item on the server right away, bypassing the
+   * buffer. Throws an IllegalArgumentException if the field is not a counter field.
+   *
+   * @param userId
+   *          ID of the media item's owner
+   * @param appId
+   *          ID of the application the media item belongs to
+   * @param albumId
+   *          ID of the album the media item belongs to
+   * @param mediaItemId
+   *          ID of the media item
+   * @param field
+   *          counter field
+   * @param delta
+   *          value to add
+   * @return whether the increment was written
+   */
+  public boolean write(String userId, String appId, String albumId, String mediaItemId,
+          String field, long delta) {
+    final int index = index(field);
+    if (index == -1) {
+      throw new IllegalArgumentException("not a counter field: " + field);
+    }
+
+    final long[] deltas = new long[MediaItemCounterBuffer.FIELDS.length];
+    deltas[index] = delta;
+
+    synchronized (this.fFlushLock) {
+      return write(Collections.singletonMap(mediaItemId, new Target(userId, appId, albumId,
+              mediaItemId)), Collections.singletonMap(mediaItemId, deltas)).isEmpty();
+    }
+  }
+
+  private void add(Target target, int index, long delta) {
+    final int stripe = stripe();
+
+    while (true) {
+      Counters counters = this.fCounters.get(target.fMediaItemId);
+      if (counters == null) {
+        counters = new Counters(target, this.fStripes);
+        final Counters existing = this.fCounters.putIfAbsent(target.fMediaItemId, counters);
+
+        if (existing != null) {
+          counters = existing;
+        } else if (this.fCounters.size() >= this.fMaxEntries) {
+          // trigger early flush
+          synchronized (this.fCounters) {
+            this.fCounters.notify();
+          }
+        }
+      }
+
+      if (counters.add(stripe, index, delta)) {
+        return;
+      }
+
+      // taken by a flush in the meantime, start over with fresh counters
+      this.fCounters.remove(target.fMediaItemId, counters);
+    }
+  }
+
+  /**
+   * Returns the increments of the given media item's counters that have not been written yet,
+   * in the order views, votes, comments, or null if there are none.
+   *
+   * @param mediaItemId
+   *          ID of the media item
+   * @return pending increments or null
+   */
+  public long[] getPending(String mediaItemId) {
+    // flushes move deltas to the in-flight ones under the same lock
+    synchronized (this.fInFlight) {
+      long[] pending = null;
+
+      final Counters counters = this.fCounters.get(mediaItemId);
+      if (counters != null) {
+        pending = counters.sum();
+      }
+
+      // increments being written are still pending
+      final long[] inFlight = this.fInFlight.get(mediaItemId);
+      if (inFlight != null) {
+        if (pending == null) {
+          pending = new long[MediaItemCounterBuffer.FIELDS.length];
+        }
+        for (int i = 0; i < pending.length; ++i) {
+          pending[i] += inFlight[i];
+        }
+      }
+
+      return pending;
+    }
+  }
+
+  /**
+   * Adds the pending increments of the media item described by the given properties to its
+   * counter values in place. Counters that are not contained in the given field set are left out.
+   *
+   * @param mediaItem
+   *          properties of the media item
+   * @param fields
+   *          requested fields or null for all fields
+   */
+  public void overlay(Map<String, Object> mediaItem, Set<String> fields) {
+    final Object id = mediaItem.get(MediaItem.Field.ID.toString());
+    if (id == null) {
+      return;
+    }
+
+    final long[] pending = getPending(id.toString());
+    if (pending == null) {
+      return;
+    }
+
+    for (int i = 0; i < pending.length; ++i) {
+      final String field = MediaItemCounterBuffer.FIELDS[i];
+
+      if (pending[i] != 0 && (fields == null || fields.contains(field))) {
+        mediaItem.put(field, Long.toString(parse(mediaItem.get(field)) + pending[i]));
+      }
+    }
+  }
+
+  /**
+   * Discards all pending increments of the given media item, for example because it has been
+   * deleted.
+   *
+   * @param mediaItemId
+   *          ID of the media item
+   */
+  public void discard(String mediaItemId) {
+    final Counters counters = this.fCounters.remove(mediaItemId);
+
+    if (counters != null) {
+      counters.retire();
+    }
+  }
+
+  /**
+   * Writes all pending increments to the server. The current counter values of all affected media
+   * items are requested at once, then all incremented values are written at once. Increments that
+   * could not be written are added back to the buffer.
+   */
+  public void flush() {
+    synchronized (this.fFlushLock) {
+      // take counters, late increments go to fresh counters
+      final Map<String, Target> targets = new HashMap<String, Target>();
+      final Map<String, long[]> batch = new HashMap<String, long[]>();
+
+      for (final Entry<String, Counters> countE : this.fCounters.entrySet()) {
+        final Counters counters = countE.getValue();
+
+        // readers see the deltas either in the counters or in flight
+        synchronized (this.fInFlight) {
+          if (!this.fCounters.remove(countE.getKey(), counters)) {
+            continue;
+          }
+
+          final long[] deltas = counters.retire();
+          if (!isZero(deltas)) {
+            targets.put(countE.getKey(), counters.fTarget);
+            batch.put(countE.getKey(), deltas);
+            this.fInFlight.put(countE.getKey(), deltas);
+          }
+        }
+      }
+
+      if (batch.isEmpty()) {
+        return;
+      }
+
+      try {
+        write(targets, batch);
+      } catch (final RuntimeException e) {
+        this.fLogger.log(Level.SEVERE, "failed to flush media item counters", e);
+
+        // requeue whatever is still unsettled
+        for (final Entry<String, long[]> batchE : batch.entrySet()) {
+          settle(batchE.getKey(), targets.get(batchE.getKey()), batchE.getValue());
+        }
+      }
+    }
+  }
+
+  private List<String> write(Map<String, Target> targets, Map<String, long[]> batch) {
+    final List<String> failed = new ArrayList<String>();
+    final List<String> ids = new ArrayList<String>(batch.keySet());
+
+    // request current values
+    final List<IQueryCallback> reads = new ArrayList<IQueryCallback>(ids.size());
+    for (final String id : ids) {
+      final WebsockQuery query = createQuery(ShindigNativeQueries.GET_MEDIA_ITEM_QUERY,
+              targets.get(id));
+      query.setParameter(ShindigNativeQueries.FIELD_LIST,
+              Arrays.asList(MediaItemCounterBuffer.FIELDS));
+
+      reads.add(this.fQueryHandler.sendQuery(query));
+    }
+
+    // write incremented values
+    final List<String> written = new ArrayList<String>(ids.size());
+    final List<IQueryCallback> writes = new ArrayList<IQueryCallback>(ids.size());
+    for (int i = 0; i < ids.size(); ++i) {
+      final String id = ids.get(i);
+      final long[] deltas = batch.get(id);
+
+      try {
+        final SingleResult result = (SingleResult) reads.get(i).get();
+        if (result == null) {
+          // media item no longer exists
+          settle(id, null, null);
+          continue;
+        }
+
+        final Map<String, Object> current = result.getResults();
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (int j = 0; j < deltas.length; ++j) {
+          if (deltas[j] != 0) {
+            final String field = MediaItemCounterBuffer.FIELDS[j];
+            values.put(field, Long.toString(parse(current.get(field)) + deltas[j]));
+          }
+        }
+
+        final WebsockQuery query = createQuery(ShindigNativeQueries.UPDATE_MEDIA_ITEM_QUERY,
+                targets.get(id));
+        query.setParameter(ShindigNativeQueries.MEDIA_ITEM_OBJECT, values);
+
+        writes.add(this.fQueryHandler.sendQuery(query));
+        written.add(id);
+      } catch (final Exception e) {
+        this.fLogger.log(Level.SEVERE, "failed to read media item counters", e);
+        settle(id, targets.get(id), deltas);
+        failed.add(id);
+      }
+    }
+
+    // wait for results, stop overlaying written increments as soon as they're stored
+    for (int i = 0; i < writes.size(); ++i) {
+      final String id = written.get(i);
+
+      try {
+        writes.get(i).get();
+        settle(id, null, null);
+      } catch (final Exception e) {
+        this.fLogger.log(Level.SEVERE, "failed to write media item counters", e);
+        settle(id, targets.get(id), batch.get(id));
+        failed.add(id);
+      }
+    }
+
+    return failed;
+  }
+
+  private void settle(String mediaItemId, Target target, long[] failed) {
+    // failed increments move back to the counters without readers seeing them twice, increments
+    // written directly were never in flight and aren't requeued
+    synchronized (this.fInFlight) {
+      if (this.fInFlight.remove(mediaItemId) != null && failed != null) {
+        requeue(target, failed);
+      }
+    }
+  }
+
+  private WebsockQuery createQuery(String procedure, Target target) {
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(procedure);
+
+    query.setParameter(ShindigNativeQueries.USER_ID, target.fUserId);
+    query.setParameter(ShindigNativeQueries.APP_ID, target.fAppId);
+    query.setParameter(ShindigNativeQueries.ALBUM_ID, target.fAlbumId);
+    query.setParameter(ShindigNativeQueries.MEDIA_ITEM_ID, target.fMediaItemId);
+
+    return query;
+  }
+
+  private void requeue(Target target, long[] deltas) {
+    for (int i = 0; i < deltas.length; ++i) {
+      if (deltas[i] != 0) {
+        add(target, i, deltas[i]);
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (this.fActive) {
+        // wait for the interval to pass or the size limit to be reached
+        synchronized (this.fCounters) {
+          if (this.fCounters.size() < this.fMaxEntries) {
+            this.fCounters.wait(this.fInterval);
+          }
+        }
+
+        flush();
+      }
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "counter flushing loop interrupted", e);
+    }
+  }
+
+  private int stripe() {
+    // spread thread IDs over the stripes
+    int hash = (int) Thread.currentThread().getId();
+    hash ^= (hash >>> 16);
+    hash *= 0x85ebca6b;
+    hash ^= (hash >>> 13);
+    return hash & (this.fStripes - 1);
+  }
+
+  private static int index(String field) {
+    for (int i = 0; i < MediaItemCounterBuffer.FIELDS.length; ++i) {
+      if (MediaItemCounterBuffer.FIELDS[i].equals(field)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static long parse(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+
+    if (value != null) {
+      try {
+        return Long.parseLong(value.toString().trim());
+      } catch (final NumberFormatException e) {
+        // treat as unset
+      }
+    }
+
+    return 0;
+  }
+
+  private static boolean isZero(long[] values) {
+    for (final long value : values) {
+      if (value != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static class Target {
+    private final String fUserId;
+    private final String fAppId;
+    private final String fAlbumId;
+    private final String fMediaItemId;
+
+    public Target(String userId, String appId, String albumId, String mediaItemId) {
+      this.fUserId = userId;
+      this.fAppId = appId;
+      this.fAlbumId = albumId;
+      this.fMediaItemId = mediaItemId;
+    }
+  }
+
+  /**
+   * Striped counters of a single media item. Each stripe holds one cell per counter field. Once
+   * retired, the cells are marked and no longer accept increments.
+   */
+  private static class Counters {
+    private final Target fTarget;
+    private final AtomicLongArray fCells;
+    private final int fStripes;
+
+    public Counters(Target target, int stripes) {
+      this.fTarget = target;
+      this.fCells = new AtomicLongArray(stripes * MediaItemCounterBuffer.STRIPE_WIDTH);
+      this.fStripes = stripes;
+    }
+
+    public boolean add(int stripe, int index, long delta) {
+      final int cell = stripe * MediaItemCounterBuffer.STRIPE_WIDTH + index;
+
+      while (true) {
+        final long value = this.fCells.get(cell);
+        if (value == MediaItemCounterBuffer.RETIRED) {
+          return false;
+        }
+
+        if (this.fCells.compareAndSet(cell, value, value + delta)) {
+          return true;
+        }
+      }
+    }
+
+    public long[] sum() {
+      final long[] sums = new long[MediaItemCounterBuffer.FIELDS.length];
+
+      for (int s = 0; s < this.fStripes; ++s) {
+        for (int i = 0; i < sums.length; ++i) {
+          final long value = this.fCells.get(s * MediaItemCounterBuffer.STRIPE_WIDTH + i);
+
+          if (value != MediaItemCounterBuffer.RETIRED) {
+            sums[i] += value;
+          }
+        }
+      }
+
+      return sums;
+    }
+
+    public long[] retire() {
+      final long[] sums = new long[MediaItemCounterBuffer.FIELDS.length];
+
+      for (int s = 0; s < this.fStripes; ++s) {
+        for (int i = 0; i < sums.length; ++i) {
+          final long value = this.fCells.getAndSet(s * MediaItemCounterBuffer.STRIPE_WIDTH + i,
+                  MediaItemCounterBuffer.RETIRED);
+
+          if (value != MediaItemCounterBuffer.RETIRED) {
+            sums[i] += value;
+          }
+        }
+      }
+
+      return sums;
+    }
+  }
+}
@@ -0,0 +1,650 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.util.LruCache;
+import org.apache.shindig.social.websockbackend.util.RoaringBitmap;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Index of friend lists and group memberships as compressed bitmaps over dense numbers assigned to
+ * user IDs, answering set queries like mutual friends or friends in a group with bitmap operations.
+ * Lists are loaded on first use and reloaded after a configured time; known changes can be applied
+ * incrementally. If the index is disabled, lists are loaded for every request. Group member lists
+ * are also kept if the group cache is enabled, which uses them to resolve members. Once more than a
+ * configured number of IDs have been numbered, the numbering and all lists are discarded.
+ */
+@Singleton
+public class MembershipIndex implements IEventListener {
+  private static final String INDEX = "shindig.membership.index";
+  private static final String INDEX_SIZE = "shindig.membership.index.size";
+  private static final String INDEX_TTL = "shindig.membership.index.ttl";
+  private static final String INDEX_EXPANSION = "shindig.membership.index.expansion";
+  private static final String INDEX_IDS = "shindig.membership.index.ids";
+  private static final String GROUPS_CACHE = "shindig.groups.cache";
+
+  private static final int DEF_INDEX_SIZE = 100000;
+  private static final long DEF_INDEX_TTL = 600000;
+  private static final int DEF_INDEX_EXPANSION = 500;
+  private static final int DEF_INDEX_IDS = 1000000;
+
+  private static final String ID_FIELD = Person.Field.ID.toString();
+  private static final String FRIENDS_GROUP = '@' + GroupId.Type.friends.toString();
+
+  private final IQueryHandler fQueryHandler;
+  private final Logger fLogger;
+
+  private final boolean fEnabled;
+  private final boolean fKeepMembers;
+  private final int fMaxExpansion;
+  private final int fMaxIds;
+
+  private final int fSize;
+  private final long fTtl;
+
+  // numbering of user IDs and lists using it, replaced as a whole
+  private volatile Generation fGeneration;
+
+  // incremented on invalidation, keeps results of concurrent queries from being cached
+  private final AtomicLong fEpoch;
+
+  /**
+   * Creates a membership index loading lists using the given query handler, configured by the given
+   * configuration object and listening for deleted people and friendship changes on the given
+   * event bus. Throws a NullPointerException if the query handler or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public MembershipIndex(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    if (qHandler == null) {
+      throw new NullPointerException("query handler was null");
+    }
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+    this.fEpoch = new AtomicLong();
+
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(MembershipIndex.INDEX));
+    this.fKeepMembers = this.fEnabled
+            || Boolean.parseBoolean(config.getProperty(MembershipIndex.GROUPS_CACHE));
+
+    int size = MembershipIndex.DEF_INDEX_SIZE;
+    final String sizeString = config.getProperty(MembershipIndex.INDEX_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long ttl = MembershipIndex.DEF_INDEX_TTL;
+    final String ttlString = config.getProperty(MembershipIndex.INDEX_TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+
+    int expansion = MembershipIndex.DEF_INDEX_EXPANSION;
+    final String expString = config.getProperty(MembershipIndex.INDEX_EXPANSION);
+    if (expString != null && !expString.isEmpty()) {
+      expansion = Integer.parseInt(expString);
+    }
+    this.fMaxExpansion = expansion;
+
+    int maxIds = MembershipIndex.DEF_INDEX_IDS;
+    final String idsString = config.getProperty(MembershipIndex.INDEX_IDS);
+    if (idsString != null && !idsString.isEmpty()) {
+      maxIds = Integer.parseInt(idsString);
+    }
+    this.fMaxIds = maxIds;
+
+    this.fSize = size;
+    this.fTtl = ttl;
+    this.fGeneration = new Generation(size, ttl);
+
+    if (this.fKeepMembers && eventBus != null) {
+      eventBus.addListener(ShindigEventType.PROFILE_DELETED, this);
+    }
+    if (this.fEnabled && eventBus != null) {
+      eventBus.addListener(ShindigEventType.FRIENDSHIP_CONFIRMED, this);
+      eventBus.addListener(ShindigEventType.FRIENDSHIP_DENIED, this);
+    }
+  }
+
+  /**
+   * @return whether lists are kept in the index
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * Returns the IDs of all members of the given group.
+   *
+   * @param groupId
+   *          ID of the group
+   * @return unmodifiable set of member IDs
+   * @throws ProtocolException
+   *           if the member list can't be loaded
+   */
+  public Set<String> getMemberIds(String groupId) throws ProtocolException {
+    final Generation gen = current();
+    return Collections.unmodifiableSet(new HashSet<String>(gen.toIds(getMembers(gen, groupId))));
+  }
+
+  /**
+   * Determines whether a user is a member of the given group.
+   *
+   * @param groupId
+   *          ID of the group
+   * @param userId
+   *          ID of the user
+   * @return whether the user is a member
+   * @throws ProtocolException
+   *           if the member list can't be loaded
+   */
+  public boolean isMember(String groupId, String userId) throws ProtocolException {
+    final Generation gen = current();
+    final RoaringBitmap members = getMembers(gen, groupId);
+
+    // unknown IDs can't be members and don't need a number
+    final Integer number = gen.getExisting(userId);
+    return number != null && members.contains(number);
+  }
+
+  /**
+   * Returns the IDs of the friends of a user who are members of the given group.
+   *
+   * @param userId
+   *          ID of the user
+   * @param groupId
+   *          ID of the group
+   * @return IDs of friends in the group
+   * @throws ProtocolException
+   *           if lists can't be loaded
+   */
+  public List<String> getFriendsInGroup(String userId, String groupId) throws ProtocolException {
+    final Generation gen = current();
+    return gen.toIds(RoaringBitmap.and(getFriends(gen, userId), getMembers(gen, groupId)));
+  }
+
+  /**
+   * Returns the IDs of the friends two users have in common.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param otherId
+   *          ID of the second user
+   * @return IDs of mutual friends
+   * @throws ProtocolException
+   *           if lists can't be loaded
+   */
+  public List<String> getMutualFriends(String userId, String otherId) throws ProtocolException {
+    final Generation gen = current();
+    return gen.toIds(RoaringBitmap.and(getFriends(gen, userId), getFriends(gen, otherId)));
+  }
+
+  /**
+   * Counts the friends two users have in common.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param otherId
+   *          ID of the second user
+   * @return number of mutual friends
+   * @throws ProtocolException
+   *           if lists can't be loaded
+   */
+  public int countMutualFriends(String userId, String otherId) throws ProtocolException {
+    final Generation gen = current();
+    return RoaringBitmap.andCardinality(getFriends(gen, userId), getFriends(gen, otherId));
+  }
+
+  /**
+   * Returns the IDs of the members of the given group who are neither the user nor friends of the
+   * user.
+   *
+   * @param userId
+   *          ID of the user
+   * @param groupId
+   *          ID of the group
+   * @return IDs of unknown group members
+   * @throws ProtocolException
+   *           if lists can't be loaded
+   */
+  public List<String> getMembersNotFriends(String userId, String groupId) throws ProtocolException {
+    final Generation gen = current();
+    final RoaringBitmap strangers = RoaringBitmap.andNot(getMembers(gen, groupId),
+            getFriends(gen, userId));
+
+    final Integer number = gen.getExisting(userId);
+    if (number != null) {
+      strangers.remove(number);
+    }
+    return gen.toIds(strangers);
+  }
+
+  /**
+   * Returns the IDs of the people reachable from the given users over at most the given number of
+   * friendships, excluding the users themselves and, if requested, their direct friends. Returns
+   * null if the index is disabled or more friend lists than configured would have to be expanded,
+   * leaving the traversal to the server.
+   *
+   * @param userIds
+   *          IDs of the users to start from
+   * @param depth
+   *          maximum number of friendships
+   * @param unknown
+   *          whether to exclude direct friends
+   * @return IDs of the people found or null
+   * @throws ProtocolException
+   *           if lists can't be loaded
+   */
+  public List<String> getFriendsOfFriends(Set<String> userIds, int depth, boolean unknown)
+          throws ProtocolException {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    final Generation gen = current();
+    RoaringBitmap frontier = new RoaringBitmap();
+    for (final String userId : userIds) {
+      frontier.add(gen.getNumber(userId));
+    }
+    RoaringBitmap visited = frontier.copy();
+
+    RoaringBitmap friends = null;
+    int expanded = 0;
+
+    for (int level = 0; level < depth && !frontier.isEmpty(); ++level) {
+      expanded += frontier.getCardinality();
+      if (expanded > this.fMaxExpansion) {
+        return null;
+      }
+
+      RoaringBitmap next = new RoaringBitmap();
+      for (final int number : frontier.toArray()) {
+        next = RoaringBitmap.or(next, getFriends(gen, gen.getId(number)));
+      }
+
+      frontier = RoaringBitmap.andNot(next, visited);
+      visited = RoaringBitmap.or(visited, frontier);
+
+      if (friends == null) {
+        friends = frontier;
+      }
+    }
+
+    RoaringBitmap result = visited;
+    for (final String userId : userIds) {
+      result.remove(gen.getNumber(userId));
+    }
+    if (unknown && friends != null) {
+      result = RoaringBitmap.andNot(result, friends);
+    }
+
+    return gen.toIds(result);
+  }
+
+  /**
+   * Records a new friendship between two users in the index.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param otherId
+   *          ID of the second user
+   */
+  public void addFriendship(String userId, String otherId) {
+    updateFriendship(userId, otherId, true);
+  }
+
+  /**
+   * Removes a friendship between two users from the index.
+   *
+   * @param userId
+   *          ID of the first user
+   * @param otherId
+   *          ID of the second user
+   */
+  public void removeFriendship(String userId, String otherId) {
+    updateFriendship(userId, otherId, false);
+  }
+
+  private void updateFriendship(String userId, String otherId, boolean added) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final Generation gen = current();
+      update(gen.fFriends, userId, gen.getNumber(otherId), added);
+      update(gen.fFriends, otherId, gen.getNumber(userId), added);
+    }
+  }
+
+  /**
+   * Records a user joining a group in the index.
+   *
+   * @param groupId
+   *          ID of the group
+   * @param userId
+   *          ID of the user
+   */
+  public void addMember(String groupId, String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final Generation gen = current();
+      update(gen.fMembers, groupId, gen.getNumber(userId), true);
+    }
+  }
+
+  /**
+   * Records a user leaving a group in the index.
+   *
+   * @param groupId
+   *          ID of the group
+   * @param userId
+   *          ID of the user
+   */
+  public void removeMember(String groupId, String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final Generation gen = current();
+      final Integer number = gen.getExisting(userId);
+      if (number != null) {
+        update(gen.fMembers, groupId, number, false);
+      }
+    }
+  }
+
+  private void update(LruCache<String, RoaringBitmap> cache, String key, int number,
+          boolean added) {
+    final RoaringBitmap bitmap = cache.get(key);
+    if (bitmap == null) {
+      return;
+    }
+
+    // copy on write, readers may be using the old bitmap
+    final RoaringBitmap copy = bitmap.copy();
+    if (added) {
+      copy.add(number);
+    } else {
+      copy.remove(number);
+    }
+    cache.put(key, copy);
+  }
+
+  /**
+   * Removes a user's friend list from the index so it is reloaded when needed next, for example
+   * because a friend request may have been confirmed.
+   *
+   * @param userId
+   *          ID of the user
+   */
+  public void invalidateFriends(String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      current().fFriends.remove(userId);
+    }
+  }
+
+  /**
+   * Removes a group's member list from the index so it is reloaded when needed next.
+   *
+   * @param groupId
+   *          ID of the group
+   */
+  public void invalidateGroup(String groupId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      current().fMembers.remove(groupId);
+    }
+  }
+
+  /**
+   * Removes all lists from the index and starts a new numbering of user IDs.
+   */
+  public void clear() {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fGeneration = new Generation(this.fSize, this.fTtl);
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (event.getType() == ShindigEventType.PROFILE_DELETED
+            && event.getPayload() instanceof Person) {
+      removePerson(((Person) event.getPayload()).getId());
+    } else if (event.getPayload() instanceof String[]
+            && ((String[]) event.getPayload()).length >= 2) {
+      // payload: user ID, target ID
+      final String[] params = (String[]) event.getPayload();
+
+      if (event.getType() == ShindigEventType.FRIENDSHIP_CONFIRMED) {
+        addFriendship(params[0], params[1]);
+      } else if (event.getType() == ShindigEventType.FRIENDSHIP_DENIED) {
+        removeFriendship(params[0], params[1]);
+      }
+    }
+  }
+
+  private void removePerson(String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final Generation gen = current();
+      gen.fFriends.remove(userId);
+
+      final Integer number = gen.getExisting(userId);
+      if (number == null) {
+        return;
+      }
+
+      for (final String key : gen.fFriends.keys()) {
+        update(gen.fFriends, key, number, false);
+      }
+      for (final String key : gen.fMembers.keys()) {
+        update(gen.fMembers, key, number, false);
+      }
+    }
+  }
+
+  private Generation current() {
+    final Generation gen = this.fGeneration;
+    if (gen.size() <= this.fMaxIds) {
+      return gen;
+    }
+
+    // discard everything numbered so far, lists are reloaded using a new numbering
+    synchronized (this.fEpoch) {
+      if (this.fGeneration.size() > this.fMaxIds) {
+        this.fEpoch.incrementAndGet();
+        this.fGeneration = new Generation(this.fSize, this.fTtl);
+      }
+      return this.fGeneration;
+    }
+  }
+
+  private RoaringBitmap getFriends(Generation gen, String userId) throws ProtocolException {
+    RoaringBitmap friends = gen.fFriends.get(userId);
+
+    if (friends == null) {
+      final long epoch = this.fEpoch.get();
+      final List<String> userIds = new ArrayList<String>();
+      userIds.add(userId);
+
+      friends = load(gen, userIds, MembershipIndex.FRIENDS_GROUP);
+      cache(gen, gen.fFriends, userId, friends, epoch, this.fEnabled);
+    }
+
+    return friends;
+  }
+
+  private RoaringBitmap getMembers(Generation gen, String groupId) throws ProtocolException {
+    RoaringBitmap members = gen.fMembers.get(groupId);
+
+    if (members == null) {
+      final long epoch = this.fEpoch.get();
+
+      members = load(gen, new ArrayList<String>(), groupId);
+      cache(gen, gen.fMembers, groupId, members, epoch, this.fKeepMembers);
+    }
+
+    return members;
+  }
+
+  private void cache(Generation gen, LruCache<String, RoaringBitmap> cache, String key,
+          RoaringBitmap bitmap, long epoch, boolean keep) {
+    if (keep) {
+      synchronized (this.fEpoch) {
+        if (this.fEpoch.get() == epoch && this.fGeneration == gen) {
+          cache.put(key, bitmap);
+        }
+      }
+    }
+  }
+
+  private RoaringBitmap load(Generation gen, List<String> userIds, String group)
+          throws ProtocolException {
+    // only request IDs
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID_LIST, userIds);
+    query.setParameter(ShindigNativeQueries.GROUP_ID, group);
+
+    final List<String> fieldList = new ArrayList<String>();
+    fieldList.add(MembershipIndex.ID_FIELD);
+    query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+
+    ListResult result = null;
+    try {
+      result = (ListResult) this.fQueryHandler.sendQuery(query).get();
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve friends or group members", e);
+    }
+
+    final RoaringBitmap bitmap = new RoaringBitmap();
+    if (result != null && result.getResults() != null) {
+      @SuppressWarnings("unchecked")
+      final List<Map<String, Object>> mapList = (List<Map<String, Object>>) result.getResults();
+
+      for (final Map<String, Object> person : mapList) {
+        bitmap.add(gen.getNumber(person.get(MembershipIndex.ID_FIELD).toString()));
+      }
+    }
+
+    return bitmap;
+  }
+
+  /**
+   * Dense numbering of user IDs together with the lists using it.
+   */
+  private static class Generation {
+    private final Map<String, Integer> fNumbers = new HashMap<String, Integer>();
+    private final List<String> fIds = new ArrayList<String>();
+
+    private final LruCache<String, RoaringBitmap> fFriends;
+    private final LruCache<String, RoaringBitmap> fMembers;
+
+    Generation(int size, long ttl) {
+      this.fFriends = new LruCache<String, RoaringBitmap>(size, ttl);
+      this.fMembers = new LruCache<String, RoaringBitmap>(size, ttl);
+    }
+
+    int size() {
+      synchronized (this.fNumbers) {
+        return this.fIds.size();
+      }
+    }
+
+    int getNumber(String id) {
+      synchronized (this.fNumbers) {
+        Integer number = this.fNumbers.get(id);
+
+        if (number == null) {
+          number = this.fIds.size();
+          this.fNumbers.put(id, number);
+          this.fIds.add(id);
+        }
+
+        return number;
+      }
+    }
+
+    Integer getExisting(String id) {
+      synchronized (this.fNumbers) {
+        return this.fNumbers.get(id);
+      }
+    }
+
+    String getId(int number) {
+      synchronized (this.fNumbers) {
+        return this.fIds.get(number);
+      }
+    }
+
+    List<String> toIds(RoaringBitmap bitmap) {
+      final int[] numbers = bitmap.toArray();
+      final List<String> ids = new ArrayList<String>(numbers.length);
+
+      synchronized (this.fNumbers) {
+        for (final int number : numbers) {
+          ids.add(this.fIds.get(number));
+        }
+      }
+
+      return ids;
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.shindig.social.opensocial.model.Message;
+import org.apache.shindig.social.opensocial.model.MessageCollection;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.util.LruCache;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Cache for users' complete, title-sorted message collection lists including their total and
+ * unread message counters. Cached lists are never modified; new, deleted and read messages replace
+ * them with copies with updated counters if the change can be determined and invalidate them
+ * otherwise. Only changes made through this node's message service are applied; changes made
+ * elsewhere are picked up when entries expire after a configurable time, reconciling the counters
+ * with the server.
+ */
+@Singleton
+public class MessageCounterCache {
+  private static final String CACHE = "shindig.messages.counters";
+  private static final String CACHE_SIZE = "shindig.messages.counters.size";
+  private static final String CACHE_TTL = "shindig.messages.counters.ttl";
+
+  private static final int DEF_CACHE_SIZE = 10000;
+  private static final long DEF_CACHE_TTL = 60000;
+
+  private static final String ID_FIELD = MessageCollection.Field.ID.toString();
+  private static final String TITLE_FIELD = MessageCollection.Field.TITLE.toString();
+  private static final String TOTAL_FIELD = MessageCollection.Field.TOTAL.toString();
+  private static final String UNREAD_FIELD = MessageCollection.Field.UNREAD.toString();
+
+  private final boolean fEnabled;
+  private final LruCache<String, List<Map<String, Object>>> fCollections;
+
+  // incremented on changes, keeps results of concurrent queries from being cached
+  private final AtomicLong fEpoch;
+
+  /**
+   * Creates a message counter cache configured by the given configuration object. Throws a
+   * NullPointerException if the configuration object is null.
+   *
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public MessageCounterCache(WebsockConfig config) {
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fEpoch = new AtomicLong();
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(MessageCounterCache.CACHE));
+
+    int size = MessageCounterCache.DEF_CACHE_SIZE;
+    final String sizeString = config.getProperty(MessageCounterCache.CACHE_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long ttl = MessageCounterCache.DEF_CACHE_TTL;
+    final String ttlString = config.getProperty(MessageCounterCache.CACHE_TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+
+    this.fCollections = new LruCache<String, List<Map<String, Object>>>(size, ttl);
+  }
+
+  /**
+   * @return whether caching is enabled
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * @return current epoch to pass to put operations
+   */
+  public long getEpoch() {
+    return this.fEpoch.get();
+  }
+
+  /**
+   * Returns the cached message collections of a user sorted by title or null if there are none.
+   *
+   * @param userId
+   *          ID of the user
+   * @return unmodifiable list of message collection maps or null
+   */
+  public List<Map<String, Object>> getCollections(String userId) {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    return this.fCollections.get(userId);
+  }
+
+  /**
+   * Caches the complete message collections of a user sorted by title, unless there was a change
+   * since the given epoch was retrieved.
+   *
+   * @param userId
+   *          ID of the user
+   * @param collections
+   *          message collection maps to cache, not modified afterwards
+   * @param epoch
+   *          epoch retrieved before the collections were requested
+   */
+  public void putCollections(String userId, List<Map<String, Object>> collections, long epoch) {
+    if (this.fEnabled) {
+      synchronized (this.fEpoch) {
+        if (this.fEpoch.get() == epoch) {
+          this.fCollections.put(userId, Collections.unmodifiableList(collections));
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies a new message, adding an unread message to each recipient's inbox. Where the sender's
+   * copy is filed is up to the server, so the sender's collections are reloaded.
+   *
+   * @param senderId
+   *          ID of the user who sent the message
+   * @param message
+   *          message that was created
+   */
+  public void messageCreated(String senderId, Message message) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fCollections.remove(senderId);
+
+      if (message.getRecipients() != null) {
+        for (final String recipient : message.getRecipients()) {
+          if (!recipient.equals(senderId)) {
+            add(recipient, null, 1, 1);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies a message being deleted from a user's message collection.
+   *
+   * @param userId
+   *          ID of the user
+   * @param collectionId
+   *          ID of the collection
+   * @param message
+   *          message as it was before its deletion
+   */
+  public void messageDeleted(String userId, String collectionId, Message message) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      if (message.getStatus() == null) {
+        this.fCollections.remove(userId);
+      } else {
+        add(userId, collectionId, -1, message.getStatus() == Message.Status.NEW ? -1 : 0);
+      }
+    }
+  }
+
+  /**
+   * Applies the status of a message in a user's message collection being changed.
+   *
+   * @param userId
+   *          ID of the user
+   * @param collectionId
+   *          ID of the collection
+   * @param oldStatus
+   *          previous status of the message, null if unknown
+   * @param newStatus
+   *          new status of the message
+   */
+  public void statusChanged(String userId, String collectionId, Message.Status oldStatus,
+          Message.Status newStatus) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      if (oldStatus == null || newStatus == null) {
+        this.fCollections.remove(userId);
+      } else if (oldStatus == Message.Status.NEW && newStatus != Message.Status.NEW) {
+        add(userId, collectionId, 0, -1);
+      } else if (oldStatus != Message.Status.NEW && newStatus == Message.Status.NEW) {
+        add(userId, collectionId, 0, 1);
+      }
+    }
+  }
+
+  // collection ID null for the inbox
+  private void add(String userId, String collectionId, int total, int unread) {
+    final List<Map<String, Object>> collections = this.fCollections.get(userId);
+    if (collections == null) {
+      return;
+    }
+
+    final int index = indexOf(collections, collectionId);
+    if (index < 0) {
+      this.fCollections.remove(userId);
+      return;
+    }
+
+    final Map<String, Object> collection = new HashMap<String, Object>(collections.get(index));
+    final int newTotal = getCount(collection, MessageCounterCache.TOTAL_FIELD) + total;
+    final int newUnread = getCount(collection, MessageCounterCache.UNREAD_FIELD) + unread;
+    if (newTotal < 0 || newUnread < 0 || newUnread > newTotal) {
+      // out of sync, reload
+      this.fCollections.remove(userId);
+      return;
+    }
+
+    collection.put(MessageCounterCache.TOTAL_FIELD, newTotal);
+    collection.put(MessageCounterCache.UNREAD_FIELD, newUnread);
+
+    final List<Map<String, Object>> newCollections = new ArrayList<Map<String, Object>>(
+            collections);
+    newCollections.set(index, collection);
+    this.fCollections.put(userId, Collections.unmodifiableList(newCollections));
+  }
+
+  private int indexOf(List<Map<String, Object>> collections, String collectionId) {
+    for (int i = 0; i < collections.size(); ++i) {
+      final Map<String, Object> collection = collections.get(i);
+      final Object id = collection.get(MessageCounterCache.ID_FIELD);
+
+      if (collectionId != null) {
+        if (collectionId.equals(id)) {
+          return i;
+        }
+      } else if (MessageCollection.INBOX.equals(id)
+              || Constants.INBOX_NAME.equals(collection.get(MessageCounterCache.TITLE_FIELD))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int getCount(Map<String, Object> collection, String field) {
+    final Object value = collection.get(field);
+    return value instanceof Number ? ((Number) value).intValue() : 0;
+  }
+
+  /**
+   * Removes the cached message collections of the given user.
+   *
+   * @param userId
+   *          ID of the user
+   */
+  public void invalidate(String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fCollections.remove(userId);
+    }
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  public void clear() {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fCollections.clear();
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.shindig.social.opensocial.model.Message;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.dto.ADataTransferObject;
+import org.apache.shindig.social.websockbackend.model.dto.MessageDTO;
+import org.apache.shindig.social.websockbackend.util.LruCache;
+import org.apache.shindig.social.websockbackend.util.MessageThread;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Cache for message threads keyed by the ID of their root message, with the root of each cached
+ * message being looked up by message ID. Cached threads are never modified; replies created
+ * locally or announced by message events replace them with copies including the reply.
+ */
+@Singleton
+public class MessageThreadCache implements IEventListener {
+  private static final String CACHE = "shindig.messages.threads";
+  private static final String CACHE_SIZE = "shindig.messages.threads.size";
+  private static final String CACHE_TTL = "shindig.messages.threads.ttl";
+
+  private static final int DEF_CACHE_SIZE = 1000;
+  private static final long DEF_CACHE_TTL = 300000;
+
+  // root entries kept per cached thread
+  private static final int ROOTS_PER_THREAD = 20;
+
+  private static final String USER_ID_PROPERTY = "userId";
+
+  private static final String ID_FIELD = Message.Field.ID.toString();
+  private static final String REPLY_FIELD = Message.Field.IN_REPLY_TO.toString();
+  private static final String SENDER_FIELD = Message.Field.SENDER_ID.toString();
+
+  private final boolean fEnabled;
+  private final LruCache<String, MessageThread> fThreads;
+  private final LruCache<String, String> fRoots;
+
+  // incremented on changes, keeps results of concurrent queries from being cached
+  private final AtomicLong fEpoch;
+
+  /**
+   * Creates a message thread cache configured by the given configuration object and listening for
+   * new messages on the given event bus. Throws a NullPointerException if the configuration object
+   * is null.
+   *
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public MessageThreadCache(WebsockConfig config, ShindigEventBus eventBus) {
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fEpoch = new AtomicLong();
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(MessageThreadCache.CACHE));
+
+    int size = MessageThreadCache.DEF_CACHE_SIZE;
+    final String sizeString = config.getProperty(MessageThreadCache.CACHE_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long ttl = MessageThreadCache.DEF_CACHE_TTL;
+    final String ttlString = config.getProperty(MessageThreadCache.CACHE_TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+
+    this.fThreads = new LruCache<String, MessageThread>(size, ttl);
+    this.fRoots = new LruCache<String, String>(size * MessageThreadCache.ROOTS_PER_THREAD, ttl);
+
+    if (this.fEnabled && eventBus != null) {
+      eventBus.addListener(ShindigEventType.MESSAGE_CREATED, this);
+    }
+  }
+
+  /**
+   * @return whether caching is enabled
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * @return current epoch to pass to put operations
+   */
+  public long getEpoch() {
+    return this.fEpoch.get();
+  }
+
+  /**
+   * Returns the cached thread containing the given message or null if there is none.
+   *
+   * @param messageId
+   *          ID of any message in the thread
+   * @return cached thread or null
+   */
+  public MessageThread getThread(String messageId) {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    final String rootId = this.fRoots.get(messageId);
+    if (rootId == null) {
+      return null;
+    }
+
+    final MessageThread thread = this.fThreads.get(rootId);
+    return thread != null && thread.contains(messageId) ? thread : null;
+  }
+
+  /**
+   * Caches a complete thread, unless a message was created since the given epoch was retrieved.
+   *
+   * @param thread
+   *          thread to cache
+   * @param epoch
+   *          epoch retrieved before the thread was requested
+   */
+  public void putThread(MessageThread thread, long epoch) {
+    if (this.fEnabled) {
+      synchronized (this.fEpoch) {
+        if (this.fEpoch.get() == epoch) {
+          store(thread);
+        }
+      }
+    }
+  }
+
+  private void store(MessageThread thread) {
+    this.fThreads.put(thread.getRootId(), thread);
+
+    for (final Map<String, Object> message : thread.getMessages()) {
+      this.fRoots.put(message.get(MessageThreadCache.ID_FIELD).toString(), thread.getRootId());
+    }
+  }
+
+  /**
+   * Applies a new message, adding it to the cached thread of the message it replies to.
+   *
+   * @param message
+   *          property map of the new message, not modified afterwards
+   */
+  public void messageCreated(Map<String, Object> message) {
+    final Object parentId = message.get(MessageThreadCache.REPLY_FIELD);
+    if (!this.fEnabled || parentId == null) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final MessageThread thread = getThread(parentId.toString());
+      if (thread != null) {
+        final MessageThread newThread = thread.withReply(message);
+        if (newThread != null && newThread != thread) {
+          this.fThreads.put(newThread.getRootId(), newThread);
+          this.fRoots.put(message.get(MessageThreadCache.ID_FIELD).toString(),
+                  newThread.getRootId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  public void clear() {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fThreads.clear();
+      this.fRoots.clear();
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (!(event.getPayload() instanceof Message)) {
+      return;
+    }
+
+    final Map<String, Object> message = new HashMap<String, Object>();
+    if (event.getPayload() instanceof ADataTransferObject) {
+      message.putAll(((ADataTransferObject) event.getPayload()).propertyMap());
+    } else {
+      new MessageDTO(message).setData((Message) event.getPayload());
+    }
+
+    // the sender is only given as a property by some services
+    final Map<String, String> props = event.getProperties();
+    if (message.get(MessageThreadCache.SENDER_FIELD) == null && props != null) {
+      message.put(MessageThreadCache.SENDER_FIELD,
+              props.get(MessageThreadCache.USER_ID_PROPERTY));
+    }
+
+    // applying a known message has no effect
+    messageCreated(message);
+  }
+}
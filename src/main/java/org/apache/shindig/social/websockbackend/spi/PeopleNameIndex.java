@@ -0,0 +1,248 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
+import org.apache.shindig.social.websockbackend.util.PrefixIndex;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+
+/**
+ * In-memory index of people's display names, formatted names and IDs for completing name fragments
+ * into compact person records. All people are enumerated in pages; the index is rebuilt
+ * periodically in the background and kept up to date with profile events in between. Until the
+ * first load has completed, completions return null.
+ */
+@Singleton
+public class PeopleNameIndex extends
+        ABackgroundIndex<PeopleNameIndex.Index, Map.Entry<String, String[]>> {
+  /**
+   * Fields of the person records returned.
+   */
+  public static final String ID_FIELD = Person.Field.ID.toString();
+  public static final String DISPLAY_NAME_FIELD = Person.Field.DISPLAY_NAME.toString();
+  public static final String THUMBNAIL_FIELD = Person.Field.THUMBNAIL_URL.toString();
+
+  private static final String INDEX = "shindig.people.autocomplete";
+
+  private static final String NAME_FIELD = Person.Field.NAME.toString();
+
+  /**
+   * Creates a name index loading its data using the given query handler, configured by the given
+   * configuration object and listening for profile changes on the given event bus. If the index is
+   * enabled, loading starts in the background. Throws a NullPointerException if the query handler
+   * or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public PeopleNameIndex(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    super(qHandler, config, PeopleNameIndex.INDEX, "people name index");
+
+    start(eventBus, ShindigEventType.PROFILE_CREATED, ShindigEventType.PROFILE_UPDATED,
+            ShindigEventType.PROFILE_DELETED);
+  }
+
+  @Override
+  protected Index build() throws Exception {
+    final List<String> fieldList = new ArrayList<String>();
+    fieldList.add(PeopleNameIndex.DISPLAY_NAME_FIELD);
+    fieldList.add(PeopleNameIndex.NAME_FIELD);
+    fieldList.add(PeopleNameIndex.THUMBNAIL_FIELD);
+
+    final Index index = new Index();
+    for (final Map<String, Object> person : getAllPeople(fieldList)) {
+      final String[] record = PeopleNameIndex.toRecord(new PersonDTO(person));
+      index.set(record[0], record);
+    }
+    return index;
+  }
+
+  @Override
+  protected Index apply(Index index, Map.Entry<String, String[]> change) {
+    index.set(change.getKey(), change.getValue());
+    return index;
+  }
+
+  // ID, display name, formatted name and thumbnail URL
+  private static String[] toRecord(Person person) {
+    final String formatted = person.getName() != null ? person.getName().getFormatted() : null;
+    return new String[] { person.getId(), person.getDisplayName(), formatted,
+            person.getThumbnailUrl() };
+  }
+
+  /**
+   * Converts a person to the compact record returned by completions, falling back to the formatted
+   * name or ID if there is no display name.
+   *
+   * @param person
+   *          person to convert
+   * @return record with ID, display name and thumbnail URL
+   */
+  public static Map<String, Object> toCompact(Person person) {
+    return PeopleNameIndex.toCompact(PeopleNameIndex.toRecord(person));
+  }
+
+  private static Map<String, Object> toCompact(String[] record) {
+    final Map<String, Object> compact = new LinkedHashMap<String, Object>();
+    compact.put(PeopleNameIndex.ID_FIELD, record[0]);
+    compact.put(PeopleNameIndex.DISPLAY_NAME_FIELD, PeopleNameIndex.getLabel(record));
+    if (record[3] != null) {
+      compact.put(PeopleNameIndex.THUMBNAIL_FIELD, record[3]);
+    }
+    return compact;
+  }
+
+  private static String getLabel(String[] record) {
+    if (record[1] != null && !record[1].isEmpty()) {
+      return record[1];
+    }
+    return record[2] != null && !record[2].isEmpty() ? record[2] : record[0];
+  }
+
+  /**
+   * Completes a name fragment, each of whose words needs to start a word of a person's display
+   * name, formatted name or ID. People whose name starts with the whole fragment come first, the
+   * others are sorted by name. Returns null if the index is not available.
+   *
+   * @param fragment
+   *          fragment to complete
+   * @param limit
+   *          maximum number of people to return
+   * @return compact records of the people found or null
+   */
+  public List<Map<String, Object>> complete(String fragment, int limit) {
+    final Index index = getIndex();
+    if (index == null) {
+      return null;
+    }
+
+    final int[] found = index.fWords.find(fragment);
+    final List<String[]> records = new ArrayList<String[]>(found.length);
+    synchronized (index.fRecords) {
+      for (final int number : found) {
+        // skip people deleted since the lookup
+        final String[] record = index.fRecords.get(number);
+        if (record != null) {
+          records.add(record);
+        }
+      }
+    }
+
+    final String start = fragment.trim().toLowerCase(Locale.ENGLISH);
+    Collections.sort(records, new Comparator<String[]>() {
+      @Override
+      public int compare(String[] r1, String[] r2) {
+        final String l1 = PeopleNameIndex.getLabel(r1).toLowerCase(Locale.ENGLISH);
+        final String l2 = PeopleNameIndex.getLabel(r2).toLowerCase(Locale.ENGLISH);
+
+        final boolean s1 = l1.startsWith(start);
+        if (s1 != l2.startsWith(start)) {
+          return s1 ? -1 : 1;
+        }
+        return l1.compareTo(l2);
+      }
+    });
+
+    final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < records.size() && i < limit; ++i) {
+      people.add(PeopleNameIndex.toCompact(records.get(i)));
+    }
+    return people;
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (!(event.getPayload() instanceof Person)) {
+      return;
+    }
+
+    final Person person = (Person) event.getPayload();
+    if (event.getType() == ShindigEventType.PROFILE_DELETED) {
+      record(person.getId(), null);
+    } else {
+      record(person.getId(), PeopleNameIndex.toRecord(person));
+    }
+  }
+
+  private void record(String userId, String[] record) {
+    record(new AbstractMap.SimpleImmutableEntry<String, String[]>(userId, record));
+  }
+
+  /**
+   * Word index together with the records of the people and the mapping between their IDs and
+   * document numbers.
+   */
+  static class Index {
+    private final Map<String, Integer> fNumbers = new HashMap<String, Integer>();
+    private final List<String[]> fRecords = new ArrayList<String[]>();
+    private final PrefixIndex fWords = new PrefixIndex();
+
+    void set(String id, String[] record) {
+      Integer number = null;
+
+      synchronized (this.fRecords) {
+        number = this.fNumbers.get(id);
+
+        if (number == null) {
+          if (record == null) {
+            return;
+          }
+
+          number = this.fRecords.size();
+          this.fNumbers.put(id, number);
+          this.fRecords.add(record);
+        } else if (record != null) {
+          this.fRecords.set(number, record);
+        }
+      }
+
+      if (record == null) {
+        // only remove the record once it can no longer be found
+        this.fWords.set(number, (String[]) null);
+        synchronized (this.fRecords) {
+          this.fRecords.set(number, null);
+        }
+      } else {
+        this.fWords.set(number, record[0], record[1], record[2]);
+      }
+    }
+  }
+}
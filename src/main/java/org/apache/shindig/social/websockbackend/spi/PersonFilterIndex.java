@@ -0,0 +1,295 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.dto.ADataTransferObject;
+import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
+import org.apache.shindig.social.websockbackend.util.ValueIndex;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+
+/**
+ * In-memory index over configurable person fields, resolving "equals", "startsWith", "contains"
+ * and "present" filters to the IDs of the matching people and sorting them by those fields, so
+ * only the requested page needs to be fetched from the server. All people are enumerated in pages;
+ * the index is rebuilt periodically in the background and kept up to date with profile events in
+ * between. Until the first load has completed, lookups return null.
+ */
+@Singleton
+public class PersonFilterIndex extends
+        ABackgroundIndex<PersonFilterIndex.Index, Map.Entry<String, Map<String, Object>>> {
+  private static final String INDEX = "shindig.people.filter";
+  private static final String FIELDS = "shindig.people.filter.fields";
+
+  private static final String DEF_FIELDS = "id,displayName,formatted,givenName,familyName,"
+          + "nickname,preferredUsername";
+
+  private static final String ID_FIELD = Person.Field.ID.toString();
+  private static final String NAME_FIELD = Person.Field.NAME.toString();
+
+  private final Set<String> fFields;
+
+  /**
+   * Creates a filter index loading its data using the given query handler, configured by the given
+   * configuration object and listening for profile changes on the given event bus. If the index is
+   * enabled, loading starts in the background. Throws a NullPointerException if the query handler
+   * or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public PersonFilterIndex(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    super(qHandler, config, PersonFilterIndex.INDEX, "person filter index");
+
+    String fieldString = config.getProperty(PersonFilterIndex.FIELDS);
+    if (fieldString == null || fieldString.isEmpty()) {
+      fieldString = PersonFilterIndex.DEF_FIELDS;
+    }
+    this.fFields = new LinkedHashSet<String>();
+    for (final String field : fieldString.split(",")) {
+      if (!field.trim().isEmpty()) {
+        this.fFields.add(field.trim());
+      }
+    }
+
+    start(eventBus, ShindigEventType.PROFILE_CREATED, ShindigEventType.PROFILE_UPDATED,
+            ShindigEventType.PROFILE_DELETED);
+  }
+
+  /**
+   * @param field
+   *          name of a person field
+   * @return whether filters and sorting on the field can be resolved locally
+   */
+  public boolean isIndexed(String field) {
+    return this.fFields.contains(field);
+  }
+
+  @Override
+  protected Index build() throws Exception {
+    // name fields are only returned as part of the name
+    final List<String> fieldList = new ArrayList<String>(this.fFields);
+    fieldList.add(PersonFilterIndex.NAME_FIELD);
+
+    final Index index = new Index(this.fFields);
+    for (final Map<String, Object> person : getAllPeople(fieldList)) {
+      index.set(person.get(PersonFilterIndex.ID_FIELD).toString(), person);
+    }
+    return index;
+  }
+
+  @Override
+  protected Index apply(Index index, Map.Entry<String, Map<String, Object>> change) {
+    index.set(change.getKey(), change.getValue());
+    return index;
+  }
+
+  /**
+   * Finds the IDs of the people matching a filter on an indexed field. Returns null if the index is
+   * not available, the field is not indexed or the operation is not supported.
+   *
+   * @param field
+   *          field to filter by
+   * @param operation
+   *          filter operation, "contains" if null
+   * @param value
+   *          value to filter with, may only be null for "present"
+   * @return IDs of the matching people or null
+   */
+  public List<String> find(String field, FilterOperation operation, String value) {
+    final Index index = getIndex();
+    if (index == null || !this.fFields.contains(field)) {
+      return null;
+    }
+
+    final FilterOperation op = operation != null ? operation : FilterOperation.contains;
+    if (value == null && op != FilterOperation.present) {
+      return null;
+    }
+
+    final ValueIndex values = index.fValues.get(field);
+    int[] found = null;
+    switch (op) {
+    case equals:
+      found = values.equal(value);
+      break;
+
+    case startsWith:
+      found = values.startsWith(value);
+      break;
+
+    case contains:
+      found = values.contains(value);
+      break;
+
+    case present:
+      found = values.present();
+      break;
+
+    default:
+      return null;
+    }
+
+    final List<String> ids = new ArrayList<String>(found.length);
+    synchronized (index.fIds) {
+      for (final int number : found) {
+        ids.add(index.fIds.get(number));
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Sorts the IDs of people by the value of an indexed field, people without a value coming last
+   * and people with the same value sorted by ID. Returns false without sorting if the index is not
+   * available or the field is not indexed.
+   *
+   * @param ids
+   *          IDs of the people to sort
+   * @param field
+   *          field to sort by
+   * @param descending
+   *          whether to sort in descending order
+   * @return whether the IDs were sorted
+   */
+  public boolean sort(List<String> ids, String field, final boolean descending) {
+    final Index index = getIndex();
+    if (index == null || !this.fFields.contains(field)) {
+      return false;
+    }
+
+    final ValueIndex values = index.fValues.get(field);
+    final Map<String, String> keys = new HashMap<String, String>();
+    synchronized (index.fIds) {
+      for (final String id : ids) {
+        final Integer number = index.fNumbers.get(id);
+        keys.put(id, number != null ? values.get(number) : null);
+      }
+    }
+
+    Collections.sort(ids, new Comparator<String>() {
+      @Override
+      public int compare(String id1, String id2) {
+        final String key1 = keys.get(id1);
+        final String key2 = keys.get(id2);
+
+        int result = 0;
+        if (key1 == null || key2 == null) {
+          result = key1 == key2 ? 0 : key1 == null ? 1 : -1;
+        } else {
+          result = descending ? key2.compareTo(key1) : key1.compareTo(key2);
+        }
+        return result != 0 ? result : id1.compareTo(id2);
+      }
+    });
+    return true;
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (!(event.getPayload() instanceof Person)) {
+      return;
+    }
+
+    final Person person = (Person) event.getPayload();
+    if (event.getType() == ShindigEventType.PROFILE_DELETED) {
+      record(person.getId(), null);
+    } else if (person instanceof ADataTransferObject) {
+      record(person.getId(), ((ADataTransferObject) person).propertyMap());
+    } else {
+      final PersonDTO dto = new PersonDTO();
+      dto.setData(person);
+      record(person.getId(), dto.propertyMap());
+    }
+  }
+
+  private void record(String userId, Map<String, Object> person) {
+    record(new AbstractMap.SimpleImmutableEntry<String, Map<String, Object>>(userId, person));
+  }
+
+  /**
+   * Value indices of all fields together with the mapping between the people's IDs and document
+   * numbers.
+   */
+  static class Index {
+    private final Map<String, Integer> fNumbers = new HashMap<String, Integer>();
+    private final List<String> fIds = new ArrayList<String>();
+    private final Map<String, ValueIndex> fValues = new HashMap<String, ValueIndex>();
+
+    Index(Set<String> fields) {
+      for (final String field : fields) {
+        this.fValues.put(field, new ValueIndex());
+      }
+    }
+
+    void set(String id, Map<String, Object> person) {
+      Integer number = null;
+
+      synchronized (this.fIds) {
+        number = this.fNumbers.get(id);
+
+        if (number == null) {
+          if (person == null) {
+            return;
+          }
+
+          number = this.fIds.size();
+          this.fNumbers.put(id, number);
+          this.fIds.add(id);
+        }
+      }
+
+      for (final Map.Entry<String, ValueIndex> valuesE : this.fValues.entrySet()) {
+        String value = null;
+
+        // only simple values can be filtered by
+        if (person != null) {
+          final Object object = person.get(valuesE.getKey());
+          if (object instanceof String || object instanceof Number || object instanceof Boolean) {
+            value = object.toString();
+          }
+        }
+
+        valuesE.getValue().set(number, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.dto.ProcessCycleDTO;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Ingestion buffer for process cycles submitted in bulk. Cycles are accepted into a bounded queue
+ * and sent to the server by a worker thread in batches once a configured number of cycles is
+ * pending or the flush interval has passed. All queries of a batch are dispatched at once and then
+ * awaited; created cycles are appended to the process cycle store and failed ones are retried a
+ * few times with later batches. The worker thread is only started once cycles are added and
+ * started again if it has been interrupted.
+ */
+@Singleton
+public class ProcessCycleIngestBuffer implements Runnable {
+  private static final String BATCH_SIZE = "shindig.processmining.ingest.batch";
+  private static final String INTERVAL = "shindig.processmining.ingest.interval";
+  private static final String CAPACITY = "shindig.processmining.ingest.capacity";
+
+  private static final int DEF_BATCH_SIZE = 1000;
+  private static final long DEF_INTERVAL = 1000;
+  private static final int DEF_CAPACITY = 100000;
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final IQueryHandler fQueryHandler;
+  private final ProcessCycleStore fStore;
+  private final Logger fLogger;
+
+  private final int fBatchSize;
+  private final long fInterval;
+  private final int fCapacity;
+
+  private final Deque<Pending> fPending;
+  private final Object fFlushLock;
+
+  private volatile boolean fActive;
+
+  // both guarded by the lock of the pending cycles
+  private boolean fStarted;
+  private boolean fHooked;
+
+  /**
+   * Creates an ingestion buffer sending cycles using the given query handler, configured by the
+   * given configuration object and appending created cycles to the given store. The worker thread
+   * is started when the first cycles are added. Throws a NullPointerException if the query handler
+   * or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param store
+   *          process cycle store to append to, may be null
+   */
+  @Inject
+  public ProcessCycleIngestBuffer(IQueryHandler qHandler, WebsockConfig config,
+          ProcessCycleStore store) {
+    if (qHandler == null) {
+      throw new NullPointerException("query handler was null");
+    }
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fStore = store;
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+
+    this.fPending = new ArrayDeque<Pending>();
+    this.fFlushLock = new Object();
+
+    int batchSize = ProcessCycleIngestBuffer.DEF_BATCH_SIZE;
+    final String batchString = config.getProperty(ProcessCycleIngestBuffer.BATCH_SIZE);
+    if (batchString != null && !batchString.isEmpty()) {
+      batchSize = Integer.parseInt(batchString);
+    }
+    this.fBatchSize = Math.max(batchSize, 1);
+
+    long interval = ProcessCycleIngestBuffer.DEF_INTERVAL;
+    final String intString = config.getProperty(ProcessCycleIngestBuffer.INTERVAL);
+    if (intString != null && !intString.isEmpty()) {
+      interval = Long.parseLong(intString);
+    }
+    this.fInterval = interval;
+
+    int capacity = ProcessCycleIngestBuffer.DEF_CAPACITY;
+    final String capString = config.getProperty(ProcessCycleIngestBuffer.CAPACITY);
+    if (capString != null && !capString.isEmpty()) {
+      capacity = Integer.parseInt(capString);
+    }
+    this.fCapacity = capacity;
+  }
+
+  private void start() {
+    this.fStarted = true;
+    this.fActive = true;
+
+    final Thread worker = new Thread(this, "process cycle ingestion");
+    worker.setDaemon(true);
+    worker.start();
+
+    // hook for clean shutdown
+    if (!this.fHooked) {
+      this.fHooked = true;
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          ProcessCycleIngestBuffer.this.stop();
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops the worker thread and sends all remaining cycles.
+   */
+  public void stop() {
+    this.fActive = false;
+    synchronized (this.fPending) {
+      this.fPending.notify();
+    }
+
+    flush();
+  }
+
+  /**
+   * Queues the given cycles of a document type for creation. Either all or none of them are
+   * accepted.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param cycles
+   *          cycles to create in their map form
+   * @return number of cycles pending after adding these
+   * @throws ProtocolException
+   *           if the buffer can't take all of the cycles
+   */
+  public int add(String docType, List<Map<String, Object>> cycles) throws ProtocolException {
+    synchronized (this.fPending) {
+      if (this.fPending.size() + cycles.size() > this.fCapacity) {
+        throw new ProtocolException(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "too many process cycles pending, try again later");
+      }
+
+      for (final Map<String, Object> cycle : cycles) {
+        this.fPending.add(new Pending(docType, cycle));
+      }
+
+      if (!this.fStarted) {
+        start();
+      }
+
+      // trigger early flush
+      if (this.fPending.size() >= this.fBatchSize) {
+        this.fPending.notify();
+      }
+
+      return this.fPending.size();
+    }
+  }
+
+  /**
+   * @return number of cycles that have not been sent yet
+   */
+  public int getPending() {
+    synchronized (this.fPending) {
+      return this.fPending.size();
+    }
+  }
+
+  /**
+   * Sends all cycles pending at the time of the call to the server in batches. Cycles failing in
+   * the process are queued again for a later flush. Stops early if queries can't be dispatched.
+   */
+  public void flush() {
+    synchronized (this.fFlushLock) {
+      int remaining = getPending();
+
+      while (remaining > 0) {
+        final int size = Math.min(remaining, this.fBatchSize);
+        final int sent = sendBatch(size);
+
+        // nothing left or the server can't be reached
+        if (sent < size) {
+          break;
+        }
+        remaining -= sent;
+      }
+    }
+  }
+
+  private int sendBatch(int size) {
+    // take a batch to desynchronize
+    final List<Pending> batch = new ArrayList<Pending>(size);
+    synchronized (this.fPending) {
+      while (batch.size() < size && !this.fPending.isEmpty()) {
+        batch.add(this.fPending.poll());
+      }
+    }
+
+    // dispatch
+    final List<IQueryCallback> callbacks = new ArrayList<IQueryCallback>(batch.size());
+    for (final Pending pending : batch) {
+      final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+      query.setPayload(ShindigNativeQueries.ADD_PROCESS_CYCLE_QUERY);
+
+      query.setParameter(ShindigNativeQueries.PROCESS_CYCLE_DOC_TYPE, pending.fDocType);
+      query.setParameter(ShindigNativeQueries.PROCESS_CYCLE_OBJECT, pending.fCycle);
+
+      try {
+        callbacks.add(this.fQueryHandler.sendQuery(query));
+      } catch (final Exception e) {
+        this.fLogger.log(Level.SEVERE, "failed to dispatch process cycles", e);
+        break;
+      }
+    }
+
+    // put back what couldn't be dispatched, keeping the order
+    final List<Pending> undispatched = batch.subList(callbacks.size(), batch.size());
+    synchronized (this.fPending) {
+      for (int i = undispatched.size() - 1; i >= 0; --i) {
+        final Pending pending = undispatched.get(i);
+
+        if (++pending.fAttempts < ProcessCycleIngestBuffer.MAX_ATTEMPTS) {
+          this.fPending.addFirst(pending);
+        } else {
+          this.fLogger.log(Level.SEVERE, "dropped process cycle of type " + pending.fDocType
+                  + " after " + pending.fAttempts + " attempts");
+        }
+      }
+    }
+
+    // wait for results, requeue failed cycles
+    int failed = 0;
+    for (int i = 0; i < callbacks.size(); ++i) {
+      final Pending pending = batch.get(i);
+
+      try {
+        final SingleResult result = (SingleResult) callbacks.get(i).get();
+
+        if (this.fStore != null) {
+          @SuppressWarnings("unchecked")
+          final Map<String, Object> map = result == null ? null : (Map<String, Object>) result
+                  .getResults();
+          this.fStore.add(pending.fDocType, new ProcessCycleDTO(map != null ? map
+                  : pending.fCycle));
+        }
+      } catch (final Exception e) {
+        ++failed;
+
+        if (++pending.fAttempts < ProcessCycleIngestBuffer.MAX_ATTEMPTS) {
+          synchronized (this.fPending) {
+            this.fPending.add(pending);
+          }
+        } else {
+          this.fLogger.log(Level.SEVERE, "dropped process cycle of type " + pending.fDocType
+                  + " after " + pending.fAttempts + " attempts", e);
+        }
+      }
+    }
+
+    if (failed > 0) {
+      this.fLogger.log(Level.WARNING, failed + " of " + callbacks.size()
+              + " process cycles could not be created");
+    }
+
+    return callbacks.size();
+  }
+
+  @Override
+  public void run() {
+    while (this.fActive) {
+      try {
+        // wait for the interval to pass or a batch to be complete
+        synchronized (this.fPending) {
+          if (this.fPending.size() < this.fBatchSize) {
+            this.fPending.wait(this.fInterval);
+          }
+        }
+
+        flush();
+      } catch (final InterruptedException e) {
+        this.fLogger.log(Level.SEVERE, "ingestion loop interrupted", e);
+
+        // let the next addition start a new worker
+        synchronized (this.fPending) {
+          this.fStarted = false;
+        }
+        return;
+      } catch (final Exception e) {
+        // keep the worker alive, failed cycles have been requeued
+        this.fLogger.log(Level.SEVERE, "ingestion flush failed", e);
+      }
+    }
+  }
+
+  /**
+   * Cycle waiting to be sent together with its document type and the number of failed attempts.
+   */
+  private static class Pending {
+    private final String fDocType;
+    private final Map<String, Object> fCycle;
+    private int fAttempts;
+
+    Pending(String docType, Map<String, Object> cycle) {
+      this.fDocType = docType;
+      this.fCycle = cycle;
+    }
+  }
+}
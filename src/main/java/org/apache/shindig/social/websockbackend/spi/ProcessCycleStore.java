@@ -0,0 +1,429 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.IProcessCycle;
+import org.apache.shindig.social.websockbackend.util.CycleColumns;
+import org.apache.shindig.social.websockbackend.util.FollowsGraph;
+import org.apache.shindig.social.websockbackend.util.QuantileSketch;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Keeps the process cycles of each document type aggregates are requested for in columnar form.
+ * A document type's cycles are loaded in pages on first use and reloaded once they have expired;
+ * cycles added through this back-end in between are appended. A quantile sketch of the durations
+ * of finished cycles is built in the same pass and updated as cycles are added. The
+ * directly-follows graph of a document type is kept as well and only extended by the cycles
+ * appended since it was requested last. Configured document types are loaded on startup.
+ */
+@Singleton
+public class ProcessCycleStore {
+  private static final String PAGE_SIZE = "shindig.processmining.store.page";
+  private static final String TTL = "shindig.processmining.store.ttl";
+  private static final String THREADS = "shindig.processmining.store.threads";
+  private static final String THRESHOLD = "shindig.processmining.store.parallel";
+  private static final String SKETCH_K = "shindig.processmining.store.sketch";
+  private static final String PRELOAD = "shindig.processmining.store.preload";
+
+  private static final int DEF_PAGE_SIZE = 1000;
+  private static final long DEF_TTL = 600000;
+  private static final int DEF_THRESHOLD = 16384;
+
+  private static final String START_FIELD = "startDate";
+  private static final String END_FIELD = "endDate";
+  private static final String USERLIST_FIELD = "userList";
+
+  private final IQueryHandler fQueryHandler;
+  private final Logger fLogger;
+
+  private final int fPageSize;
+  private final long fTtl;
+  private final int fThreshold;
+  private final ForkJoinPool fPool;
+  private final int fSketchK;
+
+  private final Map<String, Entry> fEntries;
+
+  /**
+   * Creates a process cycle store loading cycles using the given query handler, configured by the
+   * given configuration object. Throws a NullPointerException if the query handler or
+   * configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public ProcessCycleStore(IQueryHandler qHandler, WebsockConfig config) {
+    if (qHandler == null) {
+      throw new NullPointerException("query handler was null");
+    }
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+    this.fEntries = new ConcurrentHashMap<String, Entry>();
+
+    int pageSize = ProcessCycleStore.DEF_PAGE_SIZE;
+    final String pageString = config.getProperty(ProcessCycleStore.PAGE_SIZE);
+    if (pageString != null && !pageString.isEmpty()) {
+      pageSize = Integer.parseInt(pageString);
+    }
+    this.fPageSize = pageSize;
+
+    long ttl = ProcessCycleStore.DEF_TTL;
+    final String ttlString = config.getProperty(ProcessCycleStore.TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+    this.fTtl = ttl;
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    final String threadString = config.getProperty(ProcessCycleStore.THREADS);
+    if (threadString != null && !threadString.isEmpty()) {
+      threads = Integer.parseInt(threadString);
+    }
+    this.fPool = threads > 1 ? new ForkJoinPool(threads) : null;
+
+    int threshold = ProcessCycleStore.DEF_THRESHOLD;
+    final String thresholdString = config.getProperty(ProcessCycleStore.THRESHOLD);
+    if (thresholdString != null && !thresholdString.isEmpty()) {
+      threshold = Integer.parseInt(thresholdString);
+    }
+    this.fThreshold = threshold;
+
+    int sketchK = QuantileSketch.DEFAULT_K;
+    final String sketchString = config.getProperty(ProcessCycleStore.SKETCH_K);
+    if (sketchString != null && !sketchString.isEmpty()) {
+      sketchK = Integer.parseInt(sketchString);
+    }
+    this.fSketchK = sketchK;
+
+    final String preload = config.getProperty(ProcessCycleStore.PRELOAD);
+    if (preload != null && !preload.trim().isEmpty()) {
+      preload(preload.split(","));
+    }
+  }
+
+  private void preload(final String[] docTypes) {
+    final Thread loader = new Thread("process cycle preloading") {
+      @Override
+      public void run() {
+        for (final String docType : docTypes) {
+          try {
+            getEntry(docType.trim());
+          } catch (final Exception e) {
+            ProcessCycleStore.this.fLogger.log(Level.SEVERE, "could not preload process cycles",
+                    e);
+          }
+        }
+      }
+    };
+    loader.setDaemon(true);
+    loader.setPriority(Thread.MIN_PRIORITY);
+    loader.start();
+  }
+
+  /**
+   * @return pool to scan large ranges of cycles in parallel with or null
+   */
+  public ForkJoinPool getPool() {
+    return this.fPool;
+  }
+
+  /**
+   * @return minimum number of cycles per parallel task
+   */
+  public int getThreshold() {
+    return this.fThreshold;
+  }
+
+  /**
+   * Returns the cycles of the given document type, loading them if they are not available or have
+   * expired.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @return columnar cycles of the document type
+   * @throws ProtocolException
+   *           if the cycles can't be retrieved
+   */
+  public CycleColumns getColumns(String docType) throws ProtocolException {
+    return getEntry(docType).fColumns;
+  }
+
+  private Entry getEntry(String docType) throws ProtocolException {
+    Entry entry = this.fEntries.get(docType);
+
+    if (entry == null || entry.isExpired(this.fTtl)) {
+      synchronized (this) {
+        entry = this.fEntries.get(docType);
+
+        if (entry == null || entry.isExpired(this.fTtl)) {
+          entry = load(docType);
+          this.fEntries.put(docType, entry);
+        }
+      }
+    }
+
+    return entry;
+  }
+
+  /**
+   * Returns the sketch of the durations of the finished cycles of the given document type, loading
+   * them if they are not available or have expired. The sketch keeps being updated as cycles are
+   * added.
+   *
+   * @param docType
+   *          document type of the cycles
+   * @return sketch of the cycles' durations in milliseconds
+   * @throws ProtocolException
+   *           if the cycles can't be retrieved
+   */
+  public QuantileSketch getDurationSketch(String docType) throws ProtocolException {
+    return getEntry(docType).fDurations;
+  }
+
+  /*
+   * Only cycles added since the graph was last requested are scanned. The graph returned is not
+   * modified afterwards.
+   */
+  private FollowsGraph getFollowsGraph(Entry entry) {
+    synchronized (entry) {
+      final int size = entry.fColumns.size();
+
+      if (entry.fFollows == null || entry.fFollowsSize < size) {
+        final FollowsGraph added = entry.fColumns.getFollowsGraph(entry.fFollowsSize, size,
+                this.fPool, this.fThreshold);
+
+        // copy on write, earlier graphs may still be in use
+        if (entry.fFollows != null) {
+          final FollowsGraph graph = new FollowsGraph(entry.fFollows);
+          graph.addAll(added);
+          entry.fFollows = graph;
+        } else {
+          entry.fFollows = added;
+        }
+        entry.fFollowsSize = size;
+      }
+
+      return entry.fFollows;
+    }
+  }
+
+  /**
+   * Returns the handoffs between users in the cycles of the given document type that occurred at
+   * least the given number of times, most frequent first, loading the cycles if they are not
+   * available or have expired. The users' names are resolved from the same cycles the
+   * directly-follows graph was built from. The result contains the number of cycles as "cycles" and
+   * the handoffs as "handoffs", each with "from", "to", "count" and, if known, "meanDelay".
+   *
+   * @param docType
+   *          document type of the cycles
+   * @param minCount
+   *          minimum number of handoffs between two users
+   * @return number of cycles and handoffs
+   * @throws ProtocolException
+   *           if the cycles can't be retrieved
+   */
+  public Map<String, Object> getHandoffs(String docType, long minCount)
+          throws ProtocolException {
+    // one entry, it may expire in between
+    final Entry entry = getEntry(docType);
+    final FollowsGraph graph = getFollowsGraph(entry);
+
+    final List<FollowsGraph.Edge> edges = new ArrayList<FollowsGraph.Edge>();
+    for (final FollowsGraph.Edge edge : graph.getEdges()) {
+      if (edge.getCount() >= minCount) {
+        edges.add(edge);
+      }
+    }
+
+    // most frequent handoffs first
+    Collections.sort(edges, new Comparator<FollowsGraph.Edge>() {
+      @Override
+      public int compare(FollowsGraph.Edge edge1, FollowsGraph.Edge edge2) {
+        return Long.compare(edge2.getCount(), edge1.getCount());
+      }
+    });
+
+    final List<Map<String, Object>> handoffs = new ArrayList<Map<String, Object>>();
+    for (final FollowsGraph.Edge edge : edges) {
+      final Map<String, Object> handoff = new LinkedHashMap<String, Object>();
+      handoff.put("from", entry.fColumns.getUser(edge.getFrom()));
+      handoff.put("to", entry.fColumns.getUser(edge.getTo()));
+      handoff.put("count", edge.getCount());
+      if (edge.getMeanDelay() != FollowsGraph.NONE) {
+        handoff.put("meanDelay", edge.getMeanDelay());
+      }
+      handoffs.add(handoff);
+    }
+
+    final Map<String, Object> result = new LinkedHashMap<String, Object>();
+    result.put("cycles", graph.getCycleCount());
+    result.put("handoffs", handoffs);
+    return result;
+  }
+
+  private Entry load(String docType) throws ProtocolException {
+    final long start = System.currentTimeMillis();
+    final Entry entry = new Entry(new CycleColumns(), new QuantileSketch(this.fSketchK));
+
+    try {
+      int first = 0;
+      while (true) {
+        final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ShindigNativeQueries.GET_PROCESS_CYCLES_QUERY);
+        query.setParameter(ShindigNativeQueries.PROCESS_CYCLE_DOC_TYPE, docType);
+        query.setParameter(WebsockConstants.SORT_FIELD, ProcessCycleStore.END_FIELD);
+        query.setParameter(WebsockConstants.SUBSET_START, first);
+        query.setParameter(WebsockConstants.SUBSET_SIZE, this.fPageSize);
+
+        final ListResult page = (ListResult) this.fQueryHandler.sendQuery(query).get();
+
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> mapList = page == null ? null
+                : (List<Map<String, Object>>) page.getResults();
+        if (mapList == null) {
+          break;
+        }
+
+        for (final Map<String, Object> cycle : mapList) {
+          append(entry, cycle);
+        }
+        first += mapList.size();
+
+        if (mapList.size() < this.fPageSize) {
+          break;
+        }
+      }
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not load process cycles", e);
+    }
+
+    this.fLogger.log(Level.FINE, "loaded " + entry.fColumns.size() + " process cycles of type "
+            + docType + " in " + (System.currentTimeMillis() - start) + "ms");
+    return entry;
+  }
+
+  private void append(Entry entry, Map<String, Object> cycle) {
+    final Object start = cycle.get(ProcessCycleStore.START_FIELD);
+    final Object end = cycle.get(ProcessCycleStore.END_FIELD);
+    final Object users = cycle.get(ProcessCycleStore.USERLIST_FIELD);
+
+    List<String> userList = null;
+    if (users instanceof List) {
+      userList = new ArrayList<String>();
+      for (final Object user : (List<?>) users) {
+        userList.add(user.toString());
+      }
+    }
+
+    entry.add(start instanceof Number ? ((Number) start).longValue() : CycleColumns.NONE,
+            end instanceof Number ? ((Number) end).longValue() : CycleColumns.NONE, userList);
+  }
+
+  /**
+   * Appends a newly created cycle to the cycles of its document type if they are loaded.
+   *
+   * @param docType
+   *          document type of the cycle
+   * @param cycle
+   *          cycle that was created
+   */
+  public void add(String docType, IProcessCycle cycle) {
+    final Entry entry = docType == null ? null : this.fEntries.get(docType);
+
+    if (entry != null && cycle != null) {
+      entry.add(cycle.getStartDate() != null ? cycle.getStartDate().getTime()
+              : CycleColumns.NONE, cycle.getEndDate() != null ? cycle.getEndDate().getTime()
+              : CycleColumns.NONE, cycle.getUserList());
+    }
+  }
+
+  /**
+   * Drops the cycles of the given document type, for example because they were deleted.
+   *
+   * @param docType
+   *          document type of the cycles
+   */
+  public void remove(String docType) {
+    if (docType != null) {
+      this.fEntries.remove(docType);
+    }
+  }
+
+  /**
+   * Cycles of one document type together with the time they were loaded, the sketch of their
+   * durations and their directly-follows graph up to a number of cycles.
+   */
+  private static class Entry {
+    private final CycleColumns fColumns;
+    private final QuantileSketch fDurations;
+    private final long fLoaded;
+
+    private FollowsGraph fFollows;
+    private int fFollowsSize;
+
+    Entry(CycleColumns columns, QuantileSketch durations) {
+      this.fColumns = columns;
+      this.fDurations = durations;
+      this.fLoaded = System.currentTimeMillis();
+    }
+
+    void add(long start, long end, List<String> users) {
+      this.fColumns.add(start, end, users);
+
+      if (start != CycleColumns.NONE && end != CycleColumns.NONE) {
+        this.fDurations.update(end - start);
+      }
+    }
+
+    boolean isExpired(long ttl) {
+      return ttl > 0 && System.currentTimeMillis() - this.fLoaded > ttl;
+    }
+  }
+}
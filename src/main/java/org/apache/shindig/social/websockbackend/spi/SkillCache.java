@@ -0,0 +1,338 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.util.LruCache;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Cache for the complete, name-sorted skill sets of users, including the people who linked each
+ * skill. Cached lists are never modified; links added or removed replace them with updated copies
+ * if the result can be determined from the cached data and invalidate them otherwise, for example
+ * for skills that were not linked to the user before or lose their last link. Skill events are
+ * handled the same way, so changes made elsewhere are applied as well; applying a change twice has
+ * no effect.
+ */
+@Singleton
+public class SkillCache implements IEventListener {
+  private static final String CACHE = "shindig.skills.cache";
+  private static final String CACHE_SIZE = "shindig.skills.cache.size";
+  private static final String CACHE_TTL = "shindig.skills.cache.ttl";
+
+  private static final int DEF_CACHE_SIZE = 10000;
+  private static final long DEF_CACHE_TTL = 300000;
+
+  private static final String NAME_FIELD = "name";
+  private static final String PEOPLE_FIELD = "people";
+  private static final String ID_FIELD = Person.Field.ID.toString();
+
+  private final boolean fEnabled;
+  private final LruCache<String, List<Map<String, Object>>> fSkills;
+
+  // incremented on changes, keeps results of concurrent queries from being cached
+  private final AtomicLong fEpoch;
+
+  /**
+   * Creates a skill cache configured by the given configuration object and listening for skill
+   * changes on the given event bus. Throws a NullPointerException if the configuration object is
+   * null.
+   *
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public SkillCache(WebsockConfig config, ShindigEventBus eventBus) {
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fEpoch = new AtomicLong();
+    this.fEnabled = Boolean.parseBoolean(config.getProperty(SkillCache.CACHE));
+
+    int size = SkillCache.DEF_CACHE_SIZE;
+    final String sizeString = config.getProperty(SkillCache.CACHE_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long ttl = SkillCache.DEF_CACHE_TTL;
+    final String ttlString = config.getProperty(SkillCache.CACHE_TTL);
+    if (ttlString != null && !ttlString.isEmpty()) {
+      ttl = Long.parseLong(ttlString);
+    }
+
+    this.fSkills = new LruCache<String, List<Map<String, Object>>>(size, ttl);
+
+    if (this.fEnabled && eventBus != null) {
+      eventBus.addListener(ShindigEventType.SKILL_ADDED, this);
+      eventBus.addListener(ShindigEventType.SKILL_REMOVED, this);
+    }
+  }
+
+  /**
+   * @return whether caching is enabled
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * @return current epoch to pass to put operations
+   */
+  public long getEpoch() {
+    return this.fEpoch.get();
+  }
+
+  /**
+   * Returns the cached skill sets of a user sorted by name or null if there are none.
+   *
+   * @param userId
+   *          ID of the user
+   * @return unmodifiable list of skill set maps or null
+   */
+  public List<Map<String, Object>> getSkills(String userId) {
+    if (!this.fEnabled) {
+      return null;
+    }
+
+    return this.fSkills.get(userId);
+  }
+
+  /**
+   * Caches the complete skill sets of a user sorted by name, unless there was a change since the
+   * given epoch was retrieved.
+   *
+   * @param userId
+   *          ID of the user
+   * @param skills
+   *          skill set maps to cache, not modified afterwards
+   * @param epoch
+   *          epoch retrieved before the skills were requested
+   */
+  public void putSkills(String userId, List<Map<String, Object>> skills, long epoch) {
+    if (this.fEnabled) {
+      synchronized (this.fEpoch) {
+        if (this.fEpoch.get() == epoch) {
+          this.fSkills.put(userId, Collections.unmodifiableList(skills));
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies a person linking a skill to a user.
+   *
+   * @param userId
+   *          ID of the user the skill was linked to
+   * @param skill
+   *          name of the skill
+   * @param linkerId
+   *          ID of the person who linked the skill
+   */
+  public void addLink(String userId, String skill, String linkerId) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final List<Map<String, Object>> skills = this.fSkills.get(userId);
+      if (skills == null) {
+        return;
+      }
+
+      final int index = indexOf(skills, skill);
+      final Map<String, Object> linker = findPerson(skills, linkerId);
+      if (index < 0 || linker == null) {
+        // new skill or unknown person, can't be built from cached data
+        this.fSkills.remove(userId);
+        return;
+      }
+
+      final List<Map<String, Object>> people = getPeople(skills.get(index));
+      if (indexOfPerson(people, linkerId) >= 0) {
+        return;
+      }
+
+      final List<Map<String, Object>> newPeople = new ArrayList<Map<String, Object>>(people);
+      newPeople.add(linker);
+      replace(userId, skills, index, newPeople);
+    }
+  }
+
+  /**
+   * Applies a person removing their link between a skill and a user.
+   *
+   * @param userId
+   *          ID of the user the skill was linked to
+   * @param skill
+   *          name of the skill
+   * @param linkerId
+   *          ID of the person who removed their link
+   */
+  public void removeLink(String userId, String skill, String linkerId) {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+
+      final List<Map<String, Object>> skills = this.fSkills.get(userId);
+      if (skills == null) {
+        return;
+      }
+
+      final int index = indexOf(skills, skill);
+      if (index < 0) {
+        return;
+      }
+
+      final List<Map<String, Object>> people = getPeople(skills.get(index));
+      final int personIndex = indexOfPerson(people, linkerId);
+      if (personIndex < 0) {
+        return;
+      }
+
+      if (people.size() == 1) {
+        // whether the server keeps unlinked skills can't be told from cached data
+        this.fSkills.remove(userId);
+        return;
+      }
+
+      final List<Map<String, Object>> newPeople = new ArrayList<Map<String, Object>>(people);
+      newPeople.remove(personIndex);
+      replace(userId, skills, index, newPeople);
+    }
+  }
+
+  private void replace(String userId, List<Map<String, Object>> skills, int index,
+          List<Map<String, Object>> people) {
+    final List<Map<String, Object>> newSkills = new ArrayList<Map<String, Object>>(skills);
+
+    final Map<String, Object> skillSet = new HashMap<String, Object>(skills.get(index));
+    skillSet.put(SkillCache.PEOPLE_FIELD, people);
+    newSkills.set(index, skillSet);
+
+    this.fSkills.put(userId, Collections.unmodifiableList(newSkills));
+  }
+
+  private int indexOf(List<Map<String, Object>> skills, String skill) {
+    for (int i = 0; i < skills.size(); ++i) {
+      if (skill != null && skill.equals(skills.get(i).get(SkillCache.NAME_FIELD))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Map<String, Object>> getPeople(Map<String, Object> skillSet) {
+    final Object people = skillSet.get(SkillCache.PEOPLE_FIELD);
+
+    if (people instanceof List) {
+      return (List<Map<String, Object>>) people;
+    }
+    return Collections.emptyList();
+  }
+
+  private int indexOfPerson(List<Map<String, Object>> people, String personId) {
+    for (int i = 0; i < people.size(); ++i) {
+      final Object id = people.get(i).get(SkillCache.ID_FIELD);
+      if (id != null && id.toString().equals(personId)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private Map<String, Object> findPerson(List<Map<String, Object>> skills, String personId) {
+    for (final Map<String, Object> skillSet : skills) {
+      final List<Map<String, Object>> people = getPeople(skillSet);
+      final int index = indexOfPerson(people, personId);
+      if (index >= 0) {
+        return people.get(index);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes the cached skill sets of the given user.
+   *
+   * @param userId
+   *          ID of the user
+   */
+  public void invalidate(String userId) {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fSkills.remove(userId);
+    }
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  public void clear() {
+    synchronized (this.fEpoch) {
+      this.fEpoch.incrementAndGet();
+      this.fSkills.clear();
+    }
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (!(event.getPayload() instanceof String[])) {
+      return;
+    }
+
+    final String[] params = (String[]) event.getPayload();
+    final SecurityToken token = event.getToken();
+    if (params.length < 2 || token == null || token.getViewerId() == null) {
+      // linker unknown
+      if (params.length > 0) {
+        invalidate(params[0]);
+      }
+      return;
+    }
+
+    if (event.getType() == ShindigEventType.SKILL_ADDED) {
+      addLink(params[0], params[1], token.getViewerId());
+    } else if (event.getType() == ShindigEventType.SKILL_REMOVED) {
+      removeLink(params[0], params[1], token.getViewerId());
+    }
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.util.FuzzyPrefixIndex;
+import org.apache.shindig.social.websockbackend.util.PostingIndex;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * In-memory inverted index from normalized skill names to the people they are linked to, weighted
+ * by the number of people who linked them. All people are enumerated and their skills requested in
+ * pages; the index is rebuilt periodically in the background and a user's skills are reloaded when
+ * skill events concerning them arrive, so it requires events to be enabled to stay current. The
+ * skill names also form a vocabulary for completing fragments with typos, ranked by the number of
+ * people having each skill. Until the first load has completed, searches return null.
+ */
+@Singleton
+public class SkillIndex extends
+        ABackgroundIndex<SkillIndex.Index, Map.Entry<String, Map<String, Integer>>> {
+  private static final String INDEX = "shindig.skills.index";
+  private static final String DISTANCE = "shindig.skills.index.distance";
+  private static final String EXACT_PREFIX = "shindig.skills.index.prefix";
+
+  private static final int DEF_DISTANCE = 2;
+  private static final int DEF_EXACT_PREFIX = 1;
+
+  // number of characters per allowed edit
+  private static final int CHARS_PER_EDIT = 3;
+
+  private static final String NAME_FIELD = "name";
+  private static final String PEOPLE_FIELD = "people";
+
+  private static final String ALL_SEPARATOR = ",";
+  private static final String ANY_SEPARATOR = "|";
+
+  private final int fDistance;
+  private final int fExactPrefix;
+
+  /**
+   * Creates a skill index loading its data using the given query handler, configured by the given
+   * configuration object and listening for skill changes on the given event bus. If the index is
+   * enabled, loading starts in the background. Throws a NullPointerException if the query handler
+   * or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to listen to, may be null
+   */
+  @Inject
+  public SkillIndex(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    super(qHandler, config, SkillIndex.INDEX, "skill index");
+
+    int distance = SkillIndex.DEF_DISTANCE;
+    final String distanceString = config.getProperty(SkillIndex.DISTANCE);
+    if (distanceString != null && !distanceString.isEmpty()) {
+      distance = Integer.parseInt(distanceString);
+    }
+    this.fDistance = distance;
+
+    int exactPrefix = SkillIndex.DEF_EXACT_PREFIX;
+    final String prefixString = config.getProperty(SkillIndex.EXACT_PREFIX);
+    if (prefixString != null && !prefixString.isEmpty()) {
+      exactPrefix = Integer.parseInt(prefixString);
+    }
+    this.fExactPrefix = exactPrefix;
+
+    start(eventBus, ShindigEventType.SKILL_ADDED, ShindigEventType.SKILL_REMOVED,
+            ShindigEventType.PROFILE_DELETED);
+  }
+
+  @Override
+  protected Index build() throws Exception {
+    final Index index = new Index();
+    final List<String> ids = getAllIds();
+
+    // request skills in pipelined pages
+    final List<IQueryCallback> callbacks = new ArrayList<IQueryCallback>(this.fPageSize);
+    for (int offset = 0; offset < ids.size(); offset += this.fPageSize) {
+      final int end = Math.min(offset + this.fPageSize, ids.size());
+
+      callbacks.clear();
+      for (int i = offset; i < end; ++i) {
+        callbacks.add(sendQuery(skillQuery(ids.get(i))));
+      }
+
+      for (int i = offset; i < end; ++i) {
+        index.set(ids.get(i), toSkills(callbacks.get(i - offset).get()));
+      }
+    }
+
+    return index;
+  }
+
+  @Override
+  protected Index apply(Index index, Map.Entry<String, Map<String, Integer>> change) {
+    index.set(change.getKey(), change.getValue());
+    return index;
+  }
+
+  private WebsockQuery skillQuery(String userId) {
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_SKILLS_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID, userId);
+    return query;
+  }
+
+  private Map<String, Integer> toSkills(Object result) {
+    final Map<String, Integer> skills = new HashMap<String, Integer>();
+
+    for (final Map<String, Object> skillSet : ABackgroundIndex.toMaps(result)) {
+      final Object name = skillSet.get(SkillIndex.NAME_FIELD);
+      if (name == null) {
+        continue;
+      }
+
+      // weighted by the number of people who linked the skill
+      final Object people = skillSet.get(SkillIndex.PEOPLE_FIELD);
+      final int links = people instanceof List ? ((List<?>) people).size() : 0;
+      skills.put(name.toString(), Math.max(links, 1));
+    }
+
+    return skills;
+  }
+
+  /**
+   * Normalizes a skill name for lookups, ignoring case and surrounding or repeated whitespace.
+   *
+   * @param skill
+   *          name of the skill
+   * @return normalized name
+   */
+  public static String normalize(String skill) {
+    return skill.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Finds the people having the skills in the given expression, ranked by the number of links to
+   * the matching skills, most first. Skills separated by "|" are alternatives, skills separated by
+   * "," are all required. Returns null if the index is not available.
+   *
+   * @param expression
+   *          skill names separated by "," or "|"
+   * @return IDs of the people found or null
+   */
+  public List<String> find(String expression) {
+    final Index index = getIndex();
+    if (index == null) {
+      return null;
+    }
+
+    final boolean any = expression.contains(SkillIndex.ANY_SEPARATOR);
+    final String[] names = any ? expression.split("\\" + SkillIndex.ANY_SEPARATOR) : expression
+            .split(SkillIndex.ALL_SEPARATOR);
+
+    final Set<String> skills = new LinkedHashSet<String>();
+    for (final String name : names) {
+      final String skill = normalize(name);
+      if (!skill.isEmpty()) {
+        skills.add(skill);
+      }
+    }
+
+    return index.toIds(index.fPostings.find(skills, !any));
+  }
+
+  /**
+   * Completes a fragment of a skill name, allowing an edit per three characters up to the
+   * configured maximum. Skills requiring fewer edits come first, then the ones most people have.
+   * Returns null if the index is not available.
+   *
+   * @param fragment
+   *          fragment to complete
+   * @param limit
+   *          maximum number of skill names to return
+   * @return skill names or null
+   */
+  public List<String> complete(String fragment, int limit) {
+    final Index index = getIndex();
+    if (index == null) {
+      return null;
+    }
+
+    final String normalized = normalize(fragment);
+    final int distance = Math.min(this.fDistance, normalized.length() / SkillIndex.CHARS_PER_EDIT);
+    return index.fVocabulary.complete(normalized, distance, this.fExactPrefix, limit);
+  }
+
+  /**
+   * Reloads the skills of the given user from the server.
+   *
+   * @param userId
+   *          ID of the user
+   * @throws ProtocolException
+   *           if the skills can't be retrieved
+   */
+  public void refreshUser(String userId) throws ProtocolException {
+    if (!this.fEnabled) {
+      return;
+    }
+
+    Map<String, Integer> skills = null;
+    try {
+      skills = toSkills(sendQuery(skillQuery(userId)).get());
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve skills", e);
+    }
+
+    record(userId, skills);
+  }
+
+  @Override
+  public void handleEvent(IShindigEvent event) {
+    if (event.getType() == ShindigEventType.PROFILE_DELETED
+            && event.getPayload() instanceof Person) {
+      record(((Person) event.getPayload()).getId(), null);
+    } else if (event.getPayload() instanceof String[]
+            && ((String[]) event.getPayload()).length > 0) {
+      // the number of links can't be told from the event, reload them
+      try {
+        refreshUser(((String[]) event.getPayload())[0]);
+      } catch (final Exception e) {
+        this.fLogger.log(Level.WARNING, "could not update skill index", e);
+      }
+    }
+  }
+
+  private void record(String userId, Map<String, Integer> skills) {
+    record(new AbstractMap.SimpleImmutableEntry<String, Map<String, Integer>>(userId, skills));
+  }
+
+  /**
+   * Postings and vocabulary together with the mapping between user IDs and document numbers.
+   */
+  static class Index {
+    private final Map<String, Integer> fNumbers = new HashMap<String, Integer>();
+    private final List<String> fIds = new ArrayList<String>();
+    private final PostingIndex fPostings = new PostingIndex();
+    private final FuzzyPrefixIndex fVocabulary = new FuzzyPrefixIndex();
+
+    void set(String id, Map<String, Integer> skills) {
+      Integer number = null;
+
+      synchronized (this.fNumbers) {
+        number = this.fNumbers.get(id);
+
+        if (number == null) {
+          if (skills == null || skills.isEmpty()) {
+            return;
+          }
+
+          number = this.fIds.size();
+          this.fNumbers.put(id, number);
+          this.fIds.add(id);
+        }
+      }
+
+      // several spellings of a skill are merged
+      final Map<String, Integer> terms = new HashMap<String, Integer>();
+      final Map<String, String> names = new HashMap<String, String>();
+      if (skills != null) {
+        for (final Map.Entry<String, Integer> skillE : skills.entrySet()) {
+          final String term = SkillIndex.normalize(skillE.getKey());
+          final Integer known = terms.get(term);
+          terms.put(term, known == null ? skillE.getValue() : known + skillE.getValue());
+          names.put(term, skillE.getKey().trim());
+        }
+      }
+
+      final Map<String, Integer> old = this.fPostings.set(number, terms);
+
+      // popularities of the skills gained and lost
+      if (old != null) {
+        for (final String term : old.keySet()) {
+          if (!terms.containsKey(term)) {
+            this.fVocabulary.put(term, null, this.fPostings.getFrequency(term));
+          }
+        }
+      }
+      for (final String term : terms.keySet()) {
+        this.fVocabulary.put(term, names.get(term), this.fPostings.getFrequency(term));
+      }
+    }
+
+    List<String> toIds(int[] numbers) {
+      final List<String> ids = new ArrayList<String>(numbers.length);
+
+      synchronized (this.fNumbers) {
+        for (final int number : numbers) {
+          ids.add(this.fIds.get(number));
+        }
+      }
+
+      return ids;
+    }
+  }
+}
@@ -17,10 +17,14 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +36,8 @@ import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.social.opensocial.spi.AppDataService;
 import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.util.LruCache;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.inject.Inject;
@@ -50,24 +56,116 @@ import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
  */
 @Singleton
 public class WsNativeAppDataSPI implements AppDataService {
+  private static final String WRITE_BEHIND = "shindig.appdata.writebehind";
+  private static final String WRITE_BEHIND_SIZE = "shindig.appdata.writebehind.size";
+  private static final String WRITE_BEHIND_INTERVAL = "shindig.appdata.writebehind.interval";
+
+  private static final String CACHE = "shindig.appdata.cache";
+  private static final String CACHE_SIZE = "shindig.appdata.cache.size";
+  private static final String CACHE_TTL = "shindig.appdata.cache.ttl";
+
+  private static final int DEF_WRITE_BEHIND_SIZE = 500;
+  private static final long DEF_WRITE_BEHIND_INTERVAL = 2000;
+
+  private static final int DEF_CACHE_SIZE = 10000;
+  private static final long DEF_CACHE_TTL = 300000;
+
   private final IQueryHandler fQueryHandler;
   private final Logger fLogger;
 
+  private final AppDataWriteBuffer fWriteBuffer;
+
+  private final LruCache<String, Map<String, Object>> fCache;
+  private final AtomicLong fCacheEpoch;
+
   /**
    * Creates a graph application data service using the given query handler to dispatch queries to a
-   * remote server. Throws a NullPointerException if a parameter is null.
+   * remote server, writing all updates through. Throws a NullPointerException if a parameter is
+   * null.
    *
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsNativeAppDataSPI(IQueryHandler qHandler) {
+    this(qHandler, new WebsockConfig(true));
+  }
+
+  /**
+   * Creates a graph application data service using the given query handler to dispatch queries to a
+   * remote server. If configured, data is cached per user and application and updates are buffered
+   * and written back in batches. Throws a NullPointerException if a parameter is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public WsNativeAppDataSPI(IQueryHandler qHandler, WebsockConfig config) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
 
     this.fQueryHandler = qHandler;
     this.fLogger = Logger.getLogger(this.getClass().getName());
+
+    this.fCacheEpoch = new AtomicLong();
+    if (Boolean.parseBoolean(config.getProperty(WsNativeAppDataSPI.CACHE))) {
+      int size = WsNativeAppDataSPI.DEF_CACHE_SIZE;
+      final String sizeString = config.getProperty(WsNativeAppDataSPI.CACHE_SIZE);
+      if (sizeString != null && !sizeString.isEmpty()) {
+        size = Integer.parseInt(sizeString);
+      }
+
+      long ttl = WsNativeAppDataSPI.DEF_CACHE_TTL;
+      final String ttlString = config.getProperty(WsNativeAppDataSPI.CACHE_TTL);
+      if (ttlString != null && !ttlString.isEmpty()) {
+        ttl = Long.parseLong(ttlString);
+      }
+
+      this.fCache = new LruCache<String, Map<String, Object>>(size, ttl);
+    } else {
+      this.fCache = null;
+    }
+
+    if (Boolean.parseBoolean(config.getProperty(WsNativeAppDataSPI.WRITE_BEHIND))) {
+      int size = WsNativeAppDataSPI.DEF_WRITE_BEHIND_SIZE;
+      final String sizeString = config.getProperty(WsNativeAppDataSPI.WRITE_BEHIND_SIZE);
+      if (sizeString != null && !sizeString.isEmpty()) {
+        size = Integer.parseInt(sizeString);
+      }
+
+      long interval = WsNativeAppDataSPI.DEF_WRITE_BEHIND_INTERVAL;
+      final String intString = config.getProperty(WsNativeAppDataSPI.WRITE_BEHIND_INTERVAL);
+      if (intString != null && !intString.isEmpty()) {
+        interval = Long.parseLong(intString);
+      }
+
+      // cached copies become stale once buffered values are on the server
+      this.fWriteBuffer = new AppDataWriteBuffer(qHandler, size, interval,
+              new AppDataWriteBuffer.IWriteListener() {
+                @Override
+                public void written(String userId, String appId) {
+                  invalidate(userId, appId);
+                }
+              });
+      this.fWriteBuffer.start();
+    } else {
+      this.fWriteBuffer = null;
+    }
+  }
+
+  /**
+   * Writes all buffered application data updates to the server. Does nothing if write-behind
+   * buffering is disabled.
+   */
+  public void flush() {
+    if (this.fWriteBuffer != null) {
+      this.fWriteBuffer.flush();
+    }
   }
 
   @Override
@@ -86,15 +184,43 @@ public class WsNativeAppDataSPI implements AppDataService {
       }
     }
 
+    final List<String> idList = new ArrayList<String>();
+    for (final UserId userId : userIds) {
+      idList.add(userId.getUserId(token));
+    }
+
+    final boolean self = groupId == null || groupId.getType() == GroupId.Type.self;
+
+    Map<String, Map<String, Object>> data = null;
+    if (this.fCache != null && self) {
+      // assemble from cache, fetching all misses at once
+      data = getCachedData(idList, group, appId, fields);
+    } else if (this.fCache != null && fields == null) {
+      // complete data sets for groups can be cached
+      final long epoch = this.fCacheEpoch.get();
+      data = queryData(idList, group, appId, null);
+      cacheData(data, appId, epoch);
+    } else {
+      data = queryData(idList, group, appId, fields);
+    }
+
+    // overlay updates that have not been written back yet, cached data already includes them
+    if (this.fWriteBuffer != null && (this.fCache == null || !self)) {
+      data = overlayPending(data, self ? idList : null, appId, fields);
+    }
+
+    final DataCollection dataColl = new DataCollection(data);
+
+    return Futures.immediateFuture(dataColl);
+  }
+
+  private Map<String, Map<String, Object>> queryData(List<String> idList, String group,
+          String appId, Set<String> fields) {
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_APP_DATA_QUERY);
 
     // set parameters for method
-    final List<String> idList = new ArrayList<String>();
-    for (final UserId userId : userIds) {
-      idList.add(userId.getUserId(token));
-    }
     query.setParameter(ShindigNativeQueries.USER_ID_LIST, idList);
 
     query.setParameter(ShindigNativeQueries.GROUP_ID, group);
@@ -119,10 +245,159 @@ public class WsNativeAppDataSPI implements AppDataService {
     }
 
     @SuppressWarnings("unchecked")
-    final DataCollection dataColl = new DataCollection(
-            (Map<String, Map<String, Object>>) result.getResults());
+    final Map<String, Map<String, Object>> data = (Map<String, Map<String, Object>>) result
+            .getResults();
+    return data;
+  }
 
-    return Futures.immediateFuture(dataColl);
+  private Map<String, Map<String, Object>> getCachedData(List<String> idList, String group,
+          String appId, Set<String> fields) {
+    final Map<String, Map<String, Object>> data = new HashMap<String, Map<String, Object>>();
+    final List<String> misses = new ArrayList<String>();
+
+    for (final String id : idList) {
+      final Map<String, Object> values = this.fCache.get(cacheKey(id, appId));
+
+      if (values != null) {
+        data.put(id, project(withPending(id, appId, values), fields));
+      } else {
+        misses.add(id);
+      }
+    }
+
+    // fetch complete data sets for all misses in one query
+    if (!misses.isEmpty()) {
+      final long epoch = this.fCacheEpoch.get();
+      Map<String, Map<String, Object>> fetched = queryData(misses, group, appId, null);
+      if (fetched == null) {
+        fetched = new HashMap<String, Map<String, Object>>();
+      }
+
+      // also remember people without any data
+      for (final String id : misses) {
+        if (!fetched.containsKey(id)) {
+          fetched.put(id, new HashMap<String, Object>());
+        }
+      }
+      cacheData(fetched, appId, epoch);
+
+      for (final Entry<String, Map<String, Object>> fetchE : fetched.entrySet()) {
+        final Map<String, Object> values = withPending(fetchE.getKey(), appId,
+                fetchE.getValue());
+        if (!values.isEmpty()) {
+          data.put(fetchE.getKey(), project(values, fields));
+        }
+      }
+    }
+
+    return data;
+  }
+
+  private void cacheData(Map<String, Map<String, Object>> data, String appId, long epoch) {
+    if (data == null) {
+      return;
+    }
+
+    for (final Entry<String, Map<String, Object>> dataE : data.entrySet()) {
+      final Map<String, Object> values = new HashMap<String, Object>();
+      if (dataE.getValue() != null) {
+        values.putAll(dataE.getValue());
+      }
+
+      // buffered values will be on the server once they have been written back
+      if (this.fWriteBuffer != null) {
+        final Map<String, Object> pending = this.fWriteBuffer.getPending(dataE.getKey(), appId);
+        if (pending != null) {
+          values.putAll(pending);
+        }
+      }
+
+      // don't cache data that may have been modified while it was retrieved
+      synchronized (this.fCacheEpoch) {
+        if (this.fCacheEpoch.get() == epoch) {
+          this.fCache.put(cacheKey(dataE.getKey(), appId), values);
+        }
+      }
+    }
+  }
+
+  private Map<String, Object> withPending(String userId, String appId,
+          Map<String, Object> values) {
+    if (this.fWriteBuffer != null) {
+      final Map<String, Object> pending = this.fWriteBuffer.getPending(userId, appId);
+
+      if (pending != null) {
+        final Map<String, Object> merged = new HashMap<String, Object>(values);
+        merged.putAll(pending);
+        return merged;
+      }
+    }
+
+    return values;
+  }
+
+  private void invalidate(String userId, String appId) {
+    if (this.fCache != null) {
+      synchronized (this.fCacheEpoch) {
+        this.fCacheEpoch.incrementAndGet();
+        this.fCache.remove(cacheKey(userId, appId));
+      }
+    }
+  }
+
+  private static String cacheKey(String userId, String appId) {
+    return userId + '\u0000' + appId;
+  }
+
+  private static Map<String, Object> project(Map<String, Object> values, Set<String> fields) {
+    final Map<String, Object> projected = new HashMap<String, Object>();
+
+    if (fields == null || fields.isEmpty()) {
+      projected.putAll(values);
+    } else {
+      for (final String field : fields) {
+        if (values.containsKey(field)) {
+          projected.put(field, values.get(field));
+        }
+      }
+    }
+
+    return projected;
+  }
+
+  private Map<String, Map<String, Object>> overlayPending(Map<String, Map<String, Object>> data,
+          List<String> idList, String appId, Set<String> fields) {
+    final Map<String, Map<String, Object>> merged = new HashMap<String, Map<String, Object>>();
+    if (data != null) {
+      merged.putAll(data);
+    }
+
+    // people directly requested and people returned for groups
+    final Set<String> ids = new HashSet<String>(merged.keySet());
+    if (idList != null) {
+      ids.addAll(idList);
+    }
+
+    for (final String id : ids) {
+      final Map<String, Object> pending = this.fWriteBuffer.getPending(id, appId);
+
+      if (pending != null) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        if (merged.get(id) != null) {
+          values.putAll(merged.get(id));
+        }
+
+        for (final Entry<String, Object> pendE : pending.entrySet()) {
+          if (fields == null || fields.isEmpty() || fields.contains(pendE.getKey())) {
+            values.put(pendE.getKey(), pendE.getValue());
+          }
+        }
+
+        merged.put(id, values);
+      }
+    }
+
+    return merged;
   }
 
   @Override
@@ -141,6 +416,9 @@ public class WsNativeAppDataSPI implements AppDataService {
       }
     }
 
+    // pending updates must not be written back after the deletion
+    flush();
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.DELETE_APP_DATA_QUERY);
@@ -165,6 +443,8 @@ public class WsNativeAppDataSPI implements AppDataService {
               "could not delete application data", e);
     }
 
+    invalidate(userId.getUserId(token), appId);
+
     return Futures.immediateFuture(null);
   }
 
@@ -185,6 +465,13 @@ public class WsNativeAppDataSPI implements AppDataService {
       }
     }
 
+    // buffer update if write-behind is enabled
+    if (this.fWriteBuffer != null) {
+      this.fWriteBuffer.put(userId.getUserId(token), group, appId, values);
+      invalidate(userId.getUserId(token), appId);
+      return Futures.immediateFuture(null);
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.UPDATE_APP_DATA_QUERY);
@@ -206,6 +493,8 @@ public class WsNativeAppDataSPI implements AppDataService {
               "could not delete application data", e);
     }
 
+    invalidate(userId.getUserId(token), appId);
+
     return Futures.immediateFuture(null);
   }
 }
@@ -17,6 +17,7 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,7 +33,12 @@ import org.apache.shindig.protocol.RestfulCollection;
 import org.apache.shindig.social.opensocial.model.Name;
 import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.BasicEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
 import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
 import org.apache.shindig.social.websockbackend.util.CollOptsConverter;
 
@@ -50,10 +56,18 @@ import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
  * Neo4j over websocket implementation for the friendship service.
  */
 public class WsNativeFriendSPI implements IFriendService {
+  private static final String EVENTS_ENABLED = "shindig.events.enabled";
+
+  private static final String ID_FIELD = Person.Field.ID.toString();
   private static final String NAME_FIELD = Person.Field.NAME.toString();
   private static final String FORMATTED_FIELD = Name.Field.FORMATTED.toString();
 
   private final IQueryHandler fQueryHandler;
+  private final MembershipIndex fIndex;
+  private final FriendGraphReplica fReplica;
+  private final FriendRequestCache fCache;
+  private final ShindigEventBus fEventBus;
+  private final boolean fFireEvents;
   private final Logger fLogger;
 
   /**
@@ -63,26 +77,60 @@ public class WsNativeFriendSPI implements IFriendService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsNativeFriendSPI(IQueryHandler qHandler) {
+    this(qHandler, null, null, null, null, null);
+  }
+
+  /**
+   * Creates a friendship service using the given query handler to dispatch queries to a remote
+   * server, keeping the given membership index, friendship graph replica and friend request cache
+   * up to date and firing friendship events on the given event bus if events are enabled in the
+   * given configuration.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param index
+   *          membership index to update, may be null
+   * @param replica
+   *          friendship graph replica to update, may be null
+   * @param config
+   *          configuration object to use, may be null
+   * @param eventBus
+   *          event bus to fire events on, may be null
+   * @param cache
+   *          friend request cache to use, may be null
+   */
+  @Inject
+  public WsNativeFriendSPI(IQueryHandler qHandler, MembershipIndex index,
+          FriendGraphReplica replica, WebsockConfig config, ShindigEventBus eventBus,
+          FriendRequestCache cache) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
 
     this.fQueryHandler = qHandler;
+    this.fIndex = index;
+    this.fReplica = replica;
+    this.fCache = cache;
+    this.fEventBus = eventBus;
     this.fLogger = Logger.getLogger(this.getClass().getName());
+
+    this.fFireEvents = config != null && eventBus != null
+            && Boolean.parseBoolean(config.getProperty(WsNativeFriendSPI.EVENTS_ENABLED));
   }
 
   @Override
   public Future<RestfulCollection<Person>> getRequests(UserId userId,
           CollectionOptions collectionOptions, Set<String> fields, final SecurityToken token) {
-    final List<Person> personList = new ArrayList<Person>();
-
     final String sortField = collectionOptions.getSortBy();
     if (sortField == null || sortField.equals(WsNativeFriendSPI.NAME_FIELD)) {
       collectionOptions.setSortBy(WsNativeFriendSPI.FORMATTED_FIELD);
     }
 
+    if (this.fCache != null && this.fCache.isEnabled()) {
+      return getCachedRequests(userId.getUserId(token), collectionOptions, fields, token);
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_FRIEND_REQUESTS_QUERY);
@@ -98,7 +146,78 @@ public class WsNativeFriendSPI implements IFriendService {
       query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
     }
 
-    final IQueryCallback callback = this.fQueryHandler.sendQuery(query);
+    return convertList(this.fQueryHandler.sendQuery(query), token);
+  }
+
+  private Future<RestfulCollection<Person>> getCachedRequests(String userId,
+          CollectionOptions collectionOptions, Set<String> fields, SecurityToken token) {
+    final Set<String> requesterIds = getRequestIds(userId);
+
+    // counts are answered from memory, people are only requested if there are any
+    if (collectionOptions.getMax() == 0 || requesterIds.isEmpty()) {
+      final RestfulCollection<Person> people = new RestfulCollection<Person>(
+              new ArrayList<Person>());
+      people.setItemsPerPage(collectionOptions.getMax());
+      people.setStartIndex(collectionOptions.getFirst());
+      people.setTotalResults(requesterIds.size());
+      return Futures.immediateFuture(people);
+    }
+
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID_LIST, new ArrayList<String>(requesterIds));
+    query.setParameter(ShindigNativeQueries.GROUP_ID, '@' + GroupId.Type.self.toString());
+
+    CollOptsConverter.convert(collectionOptions, query);
+
+    if (fields != null) {
+      final List<String> fieldList = new ArrayList<String>(fields);
+      query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+    }
+
+    return convertList(this.fQueryHandler.sendQuery(query), token);
+  }
+
+  private Set<String> getRequestIds(String userId) {
+    if (this.fCache != null) {
+      final Set<String> cached = this.fCache.getRequests(userId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    final long epoch = this.fCache != null ? this.fCache.getEpoch() : 0;
+
+    final List<String> fieldList = new ArrayList<String>();
+    fieldList.add(WsNativeFriendSPI.ID_FIELD);
+
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_FRIEND_REQUESTS_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID, userId);
+    query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+
+    final Set<String> requesterIds = new HashSet<String>();
+    for (final Person person : getEntries(convertList(this.fQueryHandler.sendQuery(query), null))) {
+      requesterIds.add(person.getId());
+    }
+
+    if (this.fCache != null) {
+      this.fCache.putRequests(userId, requesterIds, epoch);
+    }
+    return requesterIds;
+  }
+
+  private List<Person> getEntries(Future<RestfulCollection<Person>> future) {
+    try {
+      return future.get().getEntry();
+    } catch (final Exception e) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve results", e);
+    }
+  }
+
+  private Future<RestfulCollection<Person>> convertList(IQueryCallback callback,
+          SecurityToken token) {
+    final List<Person> personList = new ArrayList<Person>();
     ListResult result = null;
 
     try {
@@ -145,6 +264,15 @@ public class WsNativeFriendSPI implements IFriendService {
 
   @Override
   public Future<Void> requestFriendship(UserId userId, Person target, SecurityToken token) {
+    // whether this confirms a request by the target, only queried if events need to tell
+    Set<String> requests = null;
+    if (this.fCache != null) {
+      requests = this.fCache.getRequests(userId.getUserId(token));
+    }
+    if (requests == null && this.fFireEvents) {
+      requests = getRequestIds(userId.getUserId(token));
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.REQUEST_FRIENDSHIP_QUERY);
@@ -162,6 +290,42 @@ public class WsNativeFriendSPI implements IFriendService {
               "could not request or confirm friendship", e);
     }
 
+    if (requests == null) {
+      // the request may have confirmed a friendship
+      if (this.fIndex != null) {
+        this.fIndex.invalidateFriends(userId.getUserId(token));
+        this.fIndex.invalidateFriends(target.getId());
+      }
+      if (this.fReplica != null) {
+        this.fReplica.refreshUser(userId.getUserId(token));
+      }
+      if (this.fCache != null) {
+        this.fCache.invalidate(target.getId());
+      }
+      return Futures.immediateFuture(null);
+    }
+
+    final boolean confirms = requests.contains(target.getId());
+    if (confirms) {
+      if (this.fIndex != null) {
+        this.fIndex.addFriendship(userId.getUserId(token), target.getId());
+      }
+      if (this.fReplica != null) {
+        this.fReplica.addFriendship(userId.getUserId(token), target.getId());
+      }
+    }
+
+    if (this.fCache != null) {
+      if (confirms) {
+        this.fCache.removeRequests(userId.getUserId(token), target.getId());
+      } else {
+        this.fCache.addRequest(userId.getUserId(token), target.getId());
+      }
+    }
+    fireEvent(confirms ? ShindigEventType.FRIENDSHIP_CONFIRMED
+            : ShindigEventType.FRIENDSHIP_REQUESTED, userId.getUserId(token), target.getId(),
+            token);
+
     return Futures.immediateFuture(null);
   }
 
@@ -184,6 +348,35 @@ public class WsNativeFriendSPI implements IFriendService {
               "could not deny or revoke friendship", e);
     }
 
+    if (this.fIndex != null) {
+      this.fIndex.removeFriendship(userId.getUserId(token), target.getId());
+    }
+    if (this.fReplica != null) {
+      this.fReplica.removeFriendship(userId.getUserId(token), target.getId());
+    }
+
+    if (this.fCache != null) {
+      this.fCache.removeRequests(userId.getUserId(token), target.getId());
+    }
+    fireEvent(ShindigEventType.FRIENDSHIP_DENIED, userId.getUserId(token), target.getId(), token);
+
     return Futures.immediateFuture(null);
   }
+
+  private void fireEvent(ShindigEventType type, String userId, String targetId,
+          SecurityToken token) {
+    if (this.fFireEvents) {
+      try {
+        final BasicEvent event = new BasicEvent(type);
+
+        final String[] params = { userId, targetId };
+        event.setPayload(params);
+
+        event.setToken(token);
+        this.fEventBus.fireEvent(event);
+      } catch (final Exception e) {
+        this.fLogger.log(Level.WARNING, "failed to send event", e);
+      }
+    }
+  }
 }
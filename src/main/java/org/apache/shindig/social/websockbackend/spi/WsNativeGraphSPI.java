@@ -17,6 +17,9 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,6 +36,7 @@ import org.apache.shindig.social.opensocial.model.Group;
 import org.apache.shindig.social.opensocial.model.Name;
 import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.model.dto.GroupDTO;
 import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
@@ -55,7 +59,11 @@ import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
  */
 @Singleton
 public class WsNativeGraphSPI implements IGraphService {
+  private static final String SELF_GROUP = '@' + GroupId.Type.self.toString();
+
   private final IQueryHandler fQueryHandler;
+  private final MembershipIndex fIndex;
+  private final FriendGraphReplica fReplica;
   private final Logger fLogger;
 
   /**
@@ -65,13 +73,33 @@ public class WsNativeGraphSPI implements IGraphService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsNativeGraphSPI(IQueryHandler qHandler) {
+    this(qHandler, null, null);
+  }
+
+  /**
+   * Creates a GraphSPI using the given query handler to dispatch queries to a remote server, the
+   * given friendship graph replica to run traversals locally once it is loaded and the given
+   * membership index to traverse friend lists locally otherwise. Throws a NullPointerException if
+   * the given query handler is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param index
+   *          membership index to use, may be null
+   * @param replica
+   *          friendship graph replica to use, may be null
+   */
+  @Inject
+  public WsNativeGraphSPI(IQueryHandler qHandler, MembershipIndex index,
+          FriendGraphReplica replica) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
 
     this.fQueryHandler = qHandler;
+    this.fIndex = index;
+    this.fReplica = replica;
     this.fLogger = Logger.getLogger(this.getClass().getName());
   }
 
@@ -132,22 +160,46 @@ public class WsNativeGraphSPI implements IGraphService {
       options.setSortBy(Name.Field.FORMATTED.toString());
     }
 
+    final Set<String> idSet = new HashSet<String>();
+    for (final UserId userId : userIds) {
+      idSet.add(userId.getUserId(token));
+    }
+
+    // traverse replicated or indexed friend lists locally, only requesting the data of the people
+    // found
+    List<String> found = null;
+    if (this.fReplica != null && this.fReplica.isReady()) {
+      found = this.fReplica.getFriendsOfFriends(idSet, depth, unknown);
+    }
+    if (found == null && this.fIndex != null && this.fIndex.isEnabled()) {
+      found = this.fIndex.getFriendsOfFriends(idSet, depth, unknown);
+    }
+
+    if (found != null && found.isEmpty()) {
+      final RestfulCollection<Person> empty = new RestfulCollection<Person>(
+              new ArrayList<Person>());
+      empty.setStartIndex(options.getFirst());
+      empty.setItemsPerPage(options.getMax());
+      return Futures.immediateFuture(empty);
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
-    query.setPayload(ShindigNativeQueries.GET_FOFS_QUERY);
 
     // set options
     CollOptsConverter.convert(options, query);
 
     // set parameters for method
-    final List<String> idList = new ArrayList<String>();
-    for (final UserId userId : userIds) {
-      idList.add(userId.getUserId(token));
+    if (found != null) {
+      query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+      query.setParameter(ShindigNativeQueries.USER_ID_LIST, found);
+      query.setParameter(ShindigNativeQueries.GROUP_ID, WsNativeGraphSPI.SELF_GROUP);
+    } else {
+      query.setPayload(ShindigNativeQueries.GET_FOFS_QUERY);
+      query.setParameter(ShindigNativeQueries.USER_ID_LIST, new ArrayList<String>(idSet));
+      query.setParameter(ShindigNativeQueries.FOF_DEPTH, depth);
+      query.setParameter(ShindigNativeQueries.FOF_UNKNOWN, unknown);
     }
-    query.setParameter(ShindigNativeQueries.USER_ID_LIST, idList);
-
-    query.setParameter(ShindigNativeQueries.FOF_DEPTH, depth);
-    query.setParameter(ShindigNativeQueries.FOF_UNKNOWN, unknown);
 
     if (fields != null) {
       final List<String> fieldList = new ArrayList<String>(fields);
@@ -163,6 +215,16 @@ public class WsNativeGraphSPI implements IGraphService {
   @Override
   public Future<RestfulCollection<Person>> getShortestPath(UserId userId, UserId targetId,
           CollectionOptions options, Set<String> fields, SecurityToken token) {
+    // find the path locally, only requesting the data of the people on it
+    if (this.fReplica != null && this.fReplica.isReady()) {
+      final List<String> path = this.fReplica.getShortestPath(userId.getUserId(token),
+              targetId.getUserId(token));
+
+      if (path != null) {
+        return getPath(path, fields, token);
+      }
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_SHORTEST_PATH_QUERY);
@@ -185,6 +247,48 @@ public class WsNativeGraphSPI implements IGraphService {
     return convertRequested(result, fields, token);
   }
 
+  private Future<RestfulCollection<Person>> getPath(final List<String> path,
+          Set<String> fields, SecurityToken token) throws ProtocolException {
+    final List<Person> people = new ArrayList<Person>();
+
+    if (!path.isEmpty()) {
+      final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+      query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+      query.setParameter(ShindigNativeQueries.USER_ID_LIST, path);
+      query.setParameter(ShindigNativeQueries.GROUP_ID, WsNativeGraphSPI.SELF_GROUP);
+
+      if (fields != null) {
+        final List<String> fieldList = new ArrayList<String>(fields);
+        query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+      }
+
+      final IQueryCallback result = this.fQueryHandler.sendQuery(query);
+
+      try {
+        people.addAll(convertRequested(result, fields, token).get().getEntry());
+      } catch (final ProtocolException e) {
+        throw e;
+      } catch (final Exception e) {
+        throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "could not retrieve results", e);
+      }
+
+      // restore the order along the path
+      Collections.sort(people, new Comparator<Person>() {
+        @Override
+        public int compare(Person p1, Person p2) {
+          return path.indexOf(p1.getId()) - path.indexOf(p2.getId());
+        }
+      });
+    }
+
+    final RestfulCollection<Person> peopleColl = new RestfulCollection<Person>(people);
+    peopleColl.setStartIndex(0);
+    peopleColl.setItemsPerPage(people.size());
+    peopleColl.setTotalResults(people.size());
+    return Futures.immediateFuture(peopleColl);
+  }
+
   @Override
   public Future<RestfulCollection<Group>> getGroupRecommendation(UserId userId, int number,
           CollectionOptions options, Set<String> fields, SecurityToken token) {
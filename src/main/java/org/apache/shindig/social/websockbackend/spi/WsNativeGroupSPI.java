@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -56,6 +57,7 @@ public class WsNativeGroupSPI implements GroupService {
   private static final String TITLE_FIELD = Group.Field.TITLE.toString();
 
   private final IQueryHandler fQueryHandler;
+  private final GroupMembershipCache fCache;
   private final Logger fLogger;
 
   /**
@@ -65,13 +67,28 @@ public class WsNativeGroupSPI implements GroupService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsNativeGroupSPI(IQueryHandler qHandler) {
+    this(qHandler, null);
+  }
+
+  /**
+   * Creates a websocket group service using the given query handler to dispatch queries to a remote
+   * server and the given cache, which may be null, to avoid repeated requests for the same group
+   * lists. Throws a NullPointerException if the given query handler is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param cache
+   *          group membership cache to use
+   */
+  @Inject
+  public WsNativeGroupSPI(IQueryHandler qHandler, GroupMembershipCache cache) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
 
     this.fQueryHandler = qHandler;
+    this.fCache = cache;
     this.fLogger = Logger.getLogger(this.getClass().getName());
   }
 
@@ -85,6 +102,20 @@ public class WsNativeGroupSPI implements GroupService {
       options.setSortBy(WsNativeGroupSPI.TITLE_FIELD);
     }
 
+    // check cache
+    final String user = userId.getUserId(token);
+    String request = null;
+    long epoch = 0;
+    if (this.fCache != null && this.fCache.isEnabled()) {
+      request = describe(options, fields);
+      epoch = this.fCache.getEpoch();
+
+      final RestfulCollection<Group> cached = this.fCache.getGroups(user, request);
+      if (cached != null) {
+        return Futures.immediateFuture(cached);
+      }
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_GROUPS_QUERY);
@@ -93,7 +124,7 @@ public class WsNativeGroupSPI implements GroupService {
     CollOptsConverter.convert(options, query);
 
     // set parameters for method
-    query.setParameter(ShindigNativeQueries.USER_ID, userId.getUserId(token));
+    query.setParameter(ShindigNativeQueries.USER_ID, user);
 
     if (fields != null) {
       final List<String> fieldList = new ArrayList<String>(fields);
@@ -129,6 +160,29 @@ public class WsNativeGroupSPI implements GroupService {
     groups.setItemsPerPage(resultList.getMax());
     groups.setStartIndex(resultList.getFirst());
     groups.setTotalResults(resultList.getTotal());
+
+    if (request != null) {
+      this.fCache.putGroups(user, request, groups, epoch);
+    }
+
     return Futures.immediateFuture(groups);
   }
+
+  private static String describe(CollectionOptions options, Set<String> fields) {
+    final StringBuilder request = new StringBuilder();
+
+    request.append(options.getSortBy()).append('|');
+    request.append(options.getSortOrder()).append('|');
+    request.append(options.getFilter()).append('|');
+    request.append(options.getFilterOperation()).append('|');
+    request.append(options.getFilterValue()).append('|');
+    request.append(options.getFirst()).append('|');
+    request.append(options.getMax()).append('|');
+
+    if (fields != null) {
+      request.append(new TreeSet<String>(fields));
+    }
+
+    return request.toString();
+  }
 }
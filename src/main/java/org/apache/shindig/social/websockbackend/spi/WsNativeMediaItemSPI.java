@@ -36,8 +36,10 @@ import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.MediaItemService;
 import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
 import org.apache.shindig.social.websockbackend.model.dto.MediaItemDTO;
 import org.apache.shindig.social.websockbackend.util.CollOptsConverter;
+import org.apache.shindig.social.websockbackend.util.ThumbnailGenerator;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.inject.Inject;
@@ -56,8 +58,18 @@ import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
  * graph database over a websocket.
  */
 @Singleton
-public class WsNativeMediaItemSPI implements MediaItemService {
+public class WsNativeMediaItemSPI implements MediaItemService, IMediaItemCounterService {
+  private static final String COUNTERS_ENABLED = "shindig.mediaitems.counters";
+  private static final String COUNTERS_SIZE = "shindig.mediaitems.counters.size";
+  private static final String COUNTERS_INTERVAL = "shindig.mediaitems.counters.interval";
+
+  private static final int DEF_COUNTERS_SIZE = 1000;
+  private static final long DEF_COUNTERS_INTERVAL = 1000;
+
   private final IQueryHandler fQueryHandler;
+  private final ThumbnailGenerator fThumbnails;
+  private final MediaItemCounterBuffer fCounters;
+  private final boolean fBuffered;
 
   private final Logger fLogger;
 
@@ -68,15 +80,102 @@ public class WsNativeMediaItemSPI implements MediaItemService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsNativeMediaItemSPI(IQueryHandler qHandler) {
+    this(qHandler, null, new WebsockConfig(true));
+  }
+
+  /**
+   * Creates a websocket media item service using the given query handler to dispatch queries to a
+   * remote server, filling in missing thumbnail URLs of uploaded images using the given thumbnail
+   * generator, which may be null. Counter increments are buffered if configured. Throws a
+   * NullPointerException if the given query handler or configuration object is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param thumbnails
+   *          thumbnail generator to use
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public WsNativeMediaItemSPI(IQueryHandler qHandler, ThumbnailGenerator thumbnails,
+          WebsockConfig config) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
 
     this.fQueryHandler = qHandler;
+    this.fThumbnails = thumbnails;
 
     this.fLogger = Logger.getLogger(this.getClass().getName());
+
+    int size = WsNativeMediaItemSPI.DEF_COUNTERS_SIZE;
+    final String sizeString = config.getProperty(WsNativeMediaItemSPI.COUNTERS_SIZE);
+    if (sizeString != null && !sizeString.isEmpty()) {
+      size = Integer.parseInt(sizeString);
+    }
+
+    long interval = WsNativeMediaItemSPI.DEF_COUNTERS_INTERVAL;
+    final String intString = config.getProperty(WsNativeMediaItemSPI.COUNTERS_INTERVAL);
+    if (intString != null && !intString.isEmpty()) {
+      interval = Long.parseLong(intString);
+    }
+
+    // without buffering, increments are written right away
+    this.fCounters = new MediaItemCounterBuffer(qHandler, size, interval);
+    this.fBuffered = Boolean.parseBoolean(config.getProperty(
+            WsNativeMediaItemSPI.COUNTERS_ENABLED));
+    if (this.fBuffered) {
+      this.fCounters.start();
+    }
+  }
+
+  /**
+   * Adds the given delta to a counter of a media item, which is one of the fields "numViews",
+   * "numVotes" and "numComments". If buffering is enabled, increments are written to the server
+   * periodically, but are immediately reflected in retrieved media items.
+   *
+   * @throws ProtocolException
+   *           if the field is not a counter field or the increment could not be written
+   */
+  @Override
+  public Future<Void> incrementCounter(UserId userId, String appId, String albumId,
+          String mediaItemId, String field, long delta, SecurityToken token)
+          throws ProtocolException {
+    if (!MediaItemCounterBuffer.isCounter(field)) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "not a counter field: "
+              + field);
+    }
+
+    final String owner = userId.getUserId(token);
+
+    if (this.fBuffered) {
+      this.fCounters.increment(owner, appId, albumId, mediaItemId, field, delta);
+    } else if (!this.fCounters.write(owner, appId, albumId, mediaItemId, field, delta)) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not increment media item counter");
+    }
+
+    return Futures.immediateFuture(null);
+  }
+
+  private void addThumbnail(MediaItemDTO mediaItem) {
+    if (this.fThumbnails == null || mediaItem.getThumbnailUrl() != null) {
+      return;
+    }
+
+    final String mimeType = mediaItem.getMimeType();
+    if (mediaItem.getType() == MediaItem.Type.IMAGE
+            || (mimeType != null && mimeType.startsWith("image/"))) {
+      final String thumbUrl = this.fThumbnails.getThumbnailUrl(mediaItem.getUrl());
+
+      if (thumbUrl != null) {
+        mediaItem.setThumbnailUrl(thumbUrl);
+      }
+    }
   }
 
   @Override
@@ -119,12 +218,16 @@ public class WsNativeMediaItemSPI implements MediaItemService {
 
     @SuppressWarnings("unchecked")
     final Map<String, Object> map = (Map<String, Object>) sResult.getResults();
-    mediaItem = new MediaItemDTO(map);
+    this.fCounters.overlay(map, fields);
+    final MediaItemDTO dto = new MediaItemDTO(map);
+    addThumbnail(dto);
+    mediaItem = dto;
 
     return Futures.immediateFuture(mediaItem);
   }
 
-  private Future<RestfulCollection<MediaItem>> converList(IQueryCallback result) {
+  private Future<RestfulCollection<MediaItem>> converList(IQueryCallback result,
+          Set<String> fields) {
     ListResult lResult = null;
 
     try {
@@ -146,8 +249,12 @@ public class WsNativeMediaItemSPI implements MediaItemService {
 
     final List<MediaItem> mediaItems = new LinkedList<MediaItem>();
 
+    MediaItemDTO dto = null;
     for (final Map<String, Object> aMap : mapList) {
-      mediaItems.add(new MediaItemDTO(aMap));
+      this.fCounters.overlay(aMap, fields);
+      dto = new MediaItemDTO(aMap);
+      addThumbnail(dto);
+      mediaItems.add(dto);
     }
 
     final RestfulCollection<MediaItem> rColl = new RestfulCollection<MediaItem>(mediaItems);
@@ -185,7 +292,7 @@ public class WsNativeMediaItemSPI implements MediaItemService {
 
     // execute
     final IQueryCallback callback = this.fQueryHandler.sendQuery(query);
-    return converList(callback);
+    return converList(callback, fields);
   }
 
   @Override
@@ -211,7 +318,7 @@ public class WsNativeMediaItemSPI implements MediaItemService {
 
     // execute
     final IQueryCallback callback = this.fQueryHandler.sendQuery(query);
-    return converList(callback);
+    return converList(callback, fields);
   }
 
   @Override
@@ -255,7 +362,7 @@ public class WsNativeMediaItemSPI implements MediaItemService {
 
     // execute
     final IQueryCallback callback = this.fQueryHandler.sendQuery(query);
-    return converList(callback);
+    return converList(callback, fields);
   }
 
   @Override
@@ -281,6 +388,8 @@ public class WsNativeMediaItemSPI implements MediaItemService {
               "could not delete media item", e);
     }
 
+    this.fCounters.discard(mediaItemId);
+
     return Futures.immediateFuture(null);
   }
 
@@ -299,6 +408,7 @@ public class WsNativeMediaItemSPI implements MediaItemService {
     final Map<String, Object> itMap = new HashMap<String, Object>();
     final MediaItemDTO dto = new MediaItemDTO(itMap);
     dto.setData(mediaItem);
+    addThumbnail(dto);
     dto.stripNullValues();
     query.setParameter(ShindigNativeQueries.MEDIA_ITEM_OBJECT, itMap);
 
@@ -334,9 +444,15 @@ public class WsNativeMediaItemSPI implements MediaItemService {
     dto.stripNullValues();
     query.setParameter(ShindigNativeQueries.MEDIA_ITEM_OBJECT, itMap);
 
-    // execute
+    // execute, without interleaving with the read and write of counters by a flush
     try {
-      this.fQueryHandler.sendQuery(query).get();
+      if (MediaItemCounterBuffer.setsCounters(itMap)) {
+        synchronized (this.fCounters.getWriteLock()) {
+          this.fQueryHandler.sendQuery(query).get();
+        }
+      } else {
+        this.fQueryHandler.sendQuery(query).get();
+      }
     } catch (final Exception e) {
       e.printStackTrace();
       this.fLogger.log(Level.SEVERE, "server error", e);
@@ -17,8 +17,10 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +33,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.SortOrder;
 import org.apache.shindig.social.opensocial.model.Message;
 import org.apache.shindig.social.opensocial.model.MessageCollection;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
@@ -53,6 +56,7 @@ import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
 import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
 import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
 
 /**
@@ -63,6 +67,7 @@ import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
 public class WsNativeMessageSPI implements IExtMessageService {
   private static final String ID_FIELD = MessageCollection.Field.ID.toString();
   private static final String TITLE_FIELD = MessageCollection.Field.TITLE.toString();
+  private static final String STATUS_FIELD = Message.Field.STATUS.toString();
 
   private static final String EVENTS_ENABLED = "shindig.events.enabled";
 
@@ -74,6 +79,8 @@ public class WsNativeMessageSPI implements IExtMessageService {
 
   private final boolean fFireEvents;
 
+  private final MessageCounterCache fCounters;
+
   /**
    * Creates a graph person service using the given query handler to dispatch queries to a remote
    * server. Throws a NullPointerException if the given query handler is null.
@@ -85,8 +92,27 @@ public class WsNativeMessageSPI implements IExtMessageService {
    * @param eventBus
    *          event bus to fire events to
    */
-  @Inject
   public WsNativeMessageSPI(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    this(qHandler, config, eventBus, null);
+  }
+
+  /**
+   * Creates a graph message service using the given query handler to dispatch queries to a remote
+   * server and the given cache for users' message collections and their counters. Throws a
+   * NullPointerException if the query handler, configuration object or event bus is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to fire events to
+   * @param counters
+   *          message counter cache to use, may be null
+   */
+  @Inject
+  public WsNativeMessageSPI(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus,
+          MessageCounterCache counters) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
@@ -102,6 +128,11 @@ public class WsNativeMessageSPI implements IExtMessageService {
     this.fLogger = Logger.getLogger(this.getClass().getName());
 
     this.fFireEvents = Boolean.parseBoolean(config.getProperty(WsNativeMessageSPI.EVENTS_ENABLED));
+    this.fCounters = counters;
+  }
+
+  private boolean countersEnabled() {
+    return this.fCounters != null && this.fCounters.isEnabled();
   }
 
   @Override
@@ -115,6 +146,12 @@ public class WsNativeMessageSPI implements IExtMessageService {
       options.setSortBy(WsNativeMessageSPI.TITLE_FIELD);
     }
 
+    // answer polls for collections and their counters from memory
+    if (countersEnabled() && options.getFilter() == null
+            && WsNativeMessageSPI.TITLE_FIELD.equals(options.getSortBy())) {
+      return getCachedCollections(userId.getUserId(token), options);
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_MESSAGE_COLLECTIONS_QUERY);
@@ -163,6 +200,60 @@ public class WsNativeMessageSPI implements IExtMessageService {
     return Futures.immediateFuture(collColl);
   }
 
+  private Future<RestfulCollection<MessageCollection>> getCachedCollections(String userId,
+          CollectionOptions options) throws ProtocolException {
+    List<Map<String, Object>> mapList = this.fCounters.getCollections(userId);
+
+    if (mapList == null) {
+      final long epoch = this.fCounters.getEpoch();
+
+      final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+      query.setPayload(ShindigNativeQueries.GET_MESSAGE_COLLECTIONS_QUERY);
+      query.setParameter(ShindigNativeQueries.USER_ID, userId);
+      query.setParameter(WebsockConstants.SORT_FIELD, WsNativeMessageSPI.TITLE_FIELD);
+
+      ListResult resultList = null;
+      try {
+        resultList = (ListResult) this.fQueryHandler.sendQuery(query).get();
+      } catch (final Exception e) {
+        e.printStackTrace();
+        this.fLogger.log(Level.SEVERE, "server error", e);
+        throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "could not retrieve results", e);
+      }
+
+      @SuppressWarnings("unchecked")
+      final List<Map<String, Object>> results = (List<Map<String, Object>>) resultList
+              .getResults();
+      mapList = results != null ? results : new ArrayList<Map<String, Object>>();
+      this.fCounters.putCollections(userId, mapList, epoch);
+    }
+
+    if (options.getSortOrder() == SortOrder.descending) {
+      mapList = new ArrayList<Map<String, Object>>(mapList);
+      Collections.reverse(mapList);
+    }
+
+    final int first = Math.min(Math.max(options.getFirst(), 0), mapList.size());
+    int last = mapList.size();
+    if (options.getMax() > 0) {
+      last = (int) Math.min((long) first + options.getMax(), last);
+    }
+
+    // copies, cached maps are shared
+    final List<MessageCollection> collections = new ArrayList<MessageCollection>();
+    for (final Map<String, Object> mcMap : mapList.subList(first, last)) {
+      collections.add(new MessageCollectionDTO(new HashMap<String, Object>(mcMap)));
+    }
+
+    final RestfulCollection<MessageCollection> collColl = new RestfulCollection<MessageCollection>(
+            collections);
+    collColl.setItemsPerPage(options.getMax() > 0 ? options.getMax() : collections.size());
+    collColl.setStartIndex(first);
+    collColl.setTotalResults(mapList.size());
+    return Futures.immediateFuture(collColl);
+  }
+
   @Override
   public Future<MessageCollection> createMessageCollection(UserId userId,
           MessageCollection msgCollection, SecurityToken token) throws ProtocolException {
@@ -197,6 +288,10 @@ public class WsNativeMessageSPI implements IExtMessageService {
     final Map<String, Object> map = (Map<String, Object>) sResult.getResults();
     dto = new MessageCollectionDTO(map);
 
+    if (this.fCounters != null) {
+      this.fCounters.invalidate(userId.getUserId(token));
+    }
+
     return Futures.immediateFuture((MessageCollection) dto);
   }
 
@@ -231,6 +326,10 @@ public class WsNativeMessageSPI implements IExtMessageService {
               "failed to execute query", e);
     }
 
+    if (this.fCounters != null) {
+      this.fCounters.invalidate(userId.getUserId(token));
+    }
+
     return Futures.immediateFuture(null);
   }
 
@@ -259,6 +358,10 @@ public class WsNativeMessageSPI implements IExtMessageService {
               "failed to execute query", e);
     }
 
+    if (this.fCounters != null) {
+      this.fCounters.invalidate(userId.getUserId(token));
+    }
+
     return Futures.immediateFuture(null);
   }
 
@@ -363,6 +466,10 @@ public class WsNativeMessageSPI implements IExtMessageService {
               "could not create message", e);
     }
 
+    if (this.fCounters != null) {
+      this.fCounters.messageCreated(userId.getUserId(token), message);
+    }
+
     // fire event
     if (this.fFireEvents) {
       try {
@@ -410,7 +517,7 @@ public class WsNativeMessageSPI implements IExtMessageService {
           SecurityToken token) throws ProtocolException {
     // get messages before they're deleted
     List<Message> messages = null;
-    if (this.fFireEvents) {
+    if (this.fFireEvents || countersEnabled()) {
       try {
         messages = this.getMessages(userId, msgCollId, null, ids, new CollectionOptions(), token)
                 .get().getList();
@@ -437,6 +544,16 @@ public class WsNativeMessageSPI implements IExtMessageService {
               "could not delete messages", e);
     }
 
+    if (this.fCounters != null) {
+      if (messages != null) {
+        for (final Message m : messages) {
+          this.fCounters.messageDeleted(userId.getUserId(token), msgCollId, m);
+        }
+      } else {
+        this.fCounters.invalidate(userId.getUserId(token));
+      }
+    }
+
     // fire event
     if (this.fFireEvents && messages != null) {
       try {
@@ -472,6 +589,12 @@ public class WsNativeMessageSPI implements IExtMessageService {
     // set time stamp
     message.setUpdated(new Date(System.currentTimeMillis()));
 
+    // the previous status is needed to update unread counters
+    Message.Status oldStatus = null;
+    if (message.getStatus() != null && countersEnabled()) {
+      oldStatus = getStatus(userId, msgCollId, messageId, token);
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.MODIFY_MESSAGE_QUERY);
@@ -497,6 +620,11 @@ public class WsNativeMessageSPI implements IExtMessageService {
               "could not modify message", e);
     }
 
+    if (this.fCounters != null && message.getStatus() != null) {
+      this.fCounters.statusChanged(userId.getUserId(token), msgCollId, oldStatus,
+              message.getStatus());
+    }
+
     // fire event
     if (this.fFireEvents) {
       try {
@@ -524,6 +652,7 @@ public class WsNativeMessageSPI implements IExtMessageService {
           final BasicEvent event = new BasicEvent(ShindigEventType.MESSAGE_UPDATED);
           event.setPayload(newMess);
           event.setToken(token);
+          event.setProperties(props);
           this.fEventBus.fireEvent(event);
         }
       } catch (final Exception e) {
@@ -533,4 +662,24 @@ public class WsNativeMessageSPI implements IExtMessageService {
 
     return Futures.immediateCheckedFuture(null);
   }
+
+  private Message.Status getStatus(UserId userId, String msgCollId, String messageId,
+          SecurityToken token) {
+    final Set<String> fields = new HashSet<String>();
+    fields.add(WsNativeMessageSPI.ID_FIELD);
+    fields.add(WsNativeMessageSPI.STATUS_FIELD);
+
+    try {
+      final List<Message> msgs = this
+              .getMessages(userId, msgCollId, fields, Collections.singletonList(messageId),
+                      new CollectionOptions(), token).get().getList();
+
+      if (!msgs.isEmpty()) {
+        return msgs.get(0).getStatus();
+      }
+    } catch (final Exception e) {
+      this.fLogger.log(Level.WARNING, "could not retrieve message status", e);
+    }
+    return null;
+  }
 }
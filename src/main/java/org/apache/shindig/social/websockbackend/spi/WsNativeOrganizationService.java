@@ -17,6 +17,7 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,9 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.model.dto.RelationshipDTO;
 
@@ -42,21 +46,28 @@ import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
 import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
 
 /**
  * Implementation of the IOrganizationService interface retrieving person data from a remote Neo4j
- * graph database over a websocket.
+ * graph database over a websocket. If a hierarchy index is available, hierarchy paths are
+ * determined locally and only the people on them are requested, in a single query.
  */
 @Singleton
 public class WsNativeOrganizationService implements IOrganizationService {
   public static final String MANAGER_OF_ID = "@manager_of";
   public static final String MANAGED_BY_ID = "@managed_by";
 
+  private static final String ID_FIELD = Person.Field.ID.toString();
+  private static final String SELF_GROUP = '@' + GroupId.Type.self.toString();
+
   private final IQueryHandler fQueryHandler;
 
   private final IExtPersonService fPeople;
 
+  private final HierarchyIndex fIndex;
+
   private final Logger fLogger;
 
   /**
@@ -69,8 +80,26 @@ public class WsNativeOrganizationService implements IOrganizationService {
    * @param people
    *          person service to use
    */
-  @Inject
   public WsNativeOrganizationService(IQueryHandler qHandler, IExtPersonService people) {
+    this(qHandler, people, null);
+  }
+
+  /**
+   * Creates a graph organization service using the given query handler to dispatch queries to a
+   * remote server, converts person objects using the given person service and determines hierarchy
+   * paths using the given index if it is available. Throws a NullPointerException if the given
+   * query handler or person service are null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param people
+   *          person service to use
+   * @param index
+   *          hierarchy index to use, may be null
+   */
+  @Inject
+  public WsNativeOrganizationService(IQueryHandler qHandler, IExtPersonService people,
+          HierarchyIndex index) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
@@ -80,6 +109,7 @@ public class WsNativeOrganizationService implements IOrganizationService {
 
     this.fQueryHandler = qHandler;
     this.fPeople = people;
+    this.fIndex = index;
 
     this.fLogger = Logger.getLogger(this.getClass().getName());
   }
@@ -87,6 +117,13 @@ public class WsNativeOrganizationService implements IOrganizationService {
   @Override
   public Future<RestfulCollection<Object>> getHierarchyPath(UserId userId, String target,
           Set<String> fields, SecurityToken token) {
+    if (this.fIndex != null) {
+      final List<String> path = this.fIndex.getPath(userId.getUserId(token), target);
+      if (path != null) {
+        return getPath(path, fields, token);
+      }
+    }
+
     final List<Object> pathList = new LinkedList<Object>();
 
     // create query
@@ -143,4 +180,112 @@ public class WsNativeOrganizationService implements IOrganizationService {
     return Futures.immediateFuture(resColl);
   }
 
+  private Future<RestfulCollection<Object>> getPath(List<String> path, Set<String> fields,
+          SecurityToken token) {
+    final List<Object> pathList = new ArrayList<Object>();
+
+    final List<String> userIds = new ArrayList<String>();
+    for (final String id : path) {
+      if (!isRelation(id)) {
+        userIds.add(id);
+      }
+    }
+    final Map<String, Map<String, Object>> people = getPeople(userIds, fields);
+
+    // restore the order along the path
+    for (final String id : path) {
+      if (isRelation(id)) {
+        pathList.add(new RelationshipDTO(id));
+      } else if (people.containsKey(id)) {
+        pathList.add(this.fPeople.convertPerson(people.get(id), fields, token));
+      } else {
+        // deleted in the meantime, no longer a valid path
+        pathList.clear();
+        break;
+      }
+    }
+
+    final RestfulCollection<Object> resColl = new RestfulCollection<Object>(pathList);
+    resColl.setItemsPerPage(pathList.size());
+    resColl.setStartIndex(0);
+    resColl.setTotalResults(pathList.size());
+    return Futures.immediateFuture(resColl);
+  }
+
+  @Override
+  public Future<RestfulCollection<Person>> getSubordinates(UserId userId, int depth,
+          CollectionOptions options, Set<String> fields, SecurityToken token)
+          throws ProtocolException {
+    final List<String> subordinates = this.fIndex == null ? null : this.fIndex.getSubordinates(
+            userId.getUserId(token), depth);
+    if (subordinates == null) {
+      throw new ProtocolException(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+              "hierarchy index is not available");
+    }
+
+    // only request the people on the requested page
+    final int first = Math.min(Math.max(options.getFirst(), 0), subordinates.size());
+    final int last = Math.min(first + Math.max(options.getMax(), 0), subordinates.size());
+    final List<String> page = subordinates.subList(first, last);
+
+    final Map<String, Map<String, Object>> people = getPeople(page, fields);
+    final List<Person> personList = new ArrayList<Person>();
+    for (final String id : page) {
+      // skip people deleted in the meantime
+      if (people.containsKey(id)) {
+        personList.add(this.fPeople.convertPerson(people.get(id), fields, token));
+      }
+    }
+
+    final RestfulCollection<Person> peopleColl = new RestfulCollection<Person>(personList);
+    peopleColl.setStartIndex(first);
+    peopleColl.setItemsPerPage(options.getMax());
+    peopleColl.setTotalResults(subordinates.size());
+    return Futures.immediateFuture(peopleColl);
+  }
+
+  private Map<String, Map<String, Object>> getPeople(List<String> userIds, Set<String> fields) {
+    final Map<String, Map<String, Object>> people = new HashMap<String, Map<String, Object>>();
+    if (userIds.isEmpty()) {
+      return people;
+    }
+
+    // request everyone at once
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID_LIST, new ArrayList<String>(userIds));
+    query.setParameter(ShindigNativeQueries.GROUP_ID, WsNativeOrganizationService.SELF_GROUP);
+    query.setParameter(WebsockConstants.SUBSET_SIZE, userIds.size());
+
+    if (fields != null) {
+      final List<String> fieldList = new ArrayList<String>(fields);
+      if (!fieldList.contains(WsNativeOrganizationService.ID_FIELD)) {
+        fieldList.add(WsNativeOrganizationService.ID_FIELD);
+      }
+      query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+    }
+
+    final IQueryCallback result = this.fQueryHandler.sendQuery(query);
+
+    ListResult resultList = null;
+    try {
+      resultList = (ListResult) result.get();
+    } catch (final Exception e) {
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve results", e);
+    }
+
+    @SuppressWarnings("unchecked")
+    final List<Map<String, Object>> mapList = (List<Map<String, Object>>) resultList.getResults();
+    for (final Map<String, Object> entity : mapList) {
+      people.put(entity.get(WsNativeOrganizationService.ID_FIELD).toString(), entity);
+    }
+    return people;
+  }
+
+  private boolean isRelation(String id) {
+    return id.equals(WsNativeOrganizationService.MANAGED_BY_ID)
+            || id.equals(WsNativeOrganizationService.MANAGER_OF_ID);
+  }
 }
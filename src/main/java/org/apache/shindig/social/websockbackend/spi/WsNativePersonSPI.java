@@ -17,8 +17,11 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,6 +35,8 @@ import org.apache.shindig.auth.AnonymousSecurityToken;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.protocol.model.SortOrder;
 import org.apache.shindig.social.core.model.NameImpl;
 import org.apache.shindig.social.opensocial.model.Name;
 import org.apache.shindig.social.opensocial.model.Person;
@@ -67,6 +72,9 @@ public class WsNativePersonSPI implements IExtPersonService {
   private static final String EVENTS_ENABLED = "shindig.events.enabled";
   private static final String PROFILE_URL_PROP = "people.profileurl";
   private static final String INFO_URL_PROP = "people.infourl";
+  private static final String MAX_UNSORTED_IDS = "shindig.people.filter.unsorted";
+
+  private static final int DEF_MAX_UNSORTED_IDS = 1000;
   private static final String ID_VAR = "${ID}";
 
   private static final String ID_FIELD = Person.Field.ID.toString();
@@ -74,6 +82,8 @@ public class WsNativePersonSPI implements IExtPersonService {
   private static final String FORMATTED_FIELD = Name.Field.FORMATTED.toString();
   private static final String PROFILE_URL_FIELD = Person.Field.PROFILE_URL.toString();
   private static final String INFO_URL_FIELD = "infoUrl";
+  private static final String DISPLAY_NAME_FIELD = Person.Field.DISPLAY_NAME.toString();
+  private static final String THUMBNAIL_FIELD = Person.Field.THUMBNAIL_URL.toString();
 
   private static final String BY_SKILLS_FILTER = "@skills";
 
@@ -81,12 +91,22 @@ public class WsNativePersonSPI implements IExtPersonService {
 
   private final ShindigEventBus fEventBus;
 
+  private final GroupMembershipCache fGroupCache;
+
+  private final SkillIndex fSkillIndex;
+
+  private final PeopleNameIndex fNameIndex;
+
+  private final PersonFilterIndex fFilterIndex;
+
   private final Logger fLogger;
 
   private final String fProfileUrl, fInfoUrl;
 
   private final boolean fFireEvents;
 
+  private final int fMaxUnsortedIds;
+
   /**
    * Creates a graph person service using the given query handler to dispatch queries to a remote
    * server and generates context-sensitive data according to the given configuration object. Throws
@@ -99,8 +119,37 @@ public class WsNativePersonSPI implements IExtPersonService {
    * @param eventBus
    *          event bus to fire events to
    */
-  @Inject
   public WsNativePersonSPI(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus) {
+    this(qHandler, config, eventBus, null, null, null, null);
+  }
+
+  /**
+   * Creates a graph person service using the given query handler to dispatch queries to a remote
+   * server and generates context-sensitive data according to the given configuration object.
+   * Members of groups are resolved using the given cache, people are searched by skill using the
+   * given skill index, names are completed using the given name index and filters are resolved
+   * using the given filter index, all of which may be null. Throws a NullPointerException if the
+   * given query handler or configuration are null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to fire events to
+   * @param groupCache
+   *          group membership cache to use
+   * @param skillIndex
+   *          skill index to use
+   * @param nameIndex
+   *          name index to use
+   * @param filterIndex
+   *          filter index to use
+   */
+  @Inject
+  public WsNativePersonSPI(IQueryHandler qHandler, WebsockConfig config, ShindigEventBus eventBus,
+          GroupMembershipCache groupCache, SkillIndex skillIndex, PeopleNameIndex nameIndex,
+          PersonFilterIndex filterIndex) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
@@ -113,12 +162,23 @@ public class WsNativePersonSPI implements IExtPersonService {
 
     this.fQueryHandler = qHandler;
     this.fEventBus = eventBus;
+    this.fGroupCache = groupCache;
+    this.fSkillIndex = skillIndex;
+    this.fNameIndex = nameIndex;
+    this.fFilterIndex = filterIndex;
     this.fLogger = Logger.getLogger(this.getClass().getName());
 
     this.fProfileUrl = config.getProperty(WsNativePersonSPI.PROFILE_URL_PROP);
     this.fInfoUrl = config.getProperty(WsNativePersonSPI.INFO_URL_PROP);
 
     this.fFireEvents = Boolean.parseBoolean(config.getProperty(WsNativePersonSPI.EVENTS_ENABLED));
+
+    int maxIds = WsNativePersonSPI.DEF_MAX_UNSORTED_IDS;
+    final String maxString = config.getProperty(WsNativePersonSPI.MAX_UNSORTED_IDS);
+    if (maxString != null && !maxString.isEmpty()) {
+      maxIds = Integer.parseInt(maxString);
+    }
+    this.fMaxUnsortedIds = maxIds;
   }
 
   @Override
@@ -211,10 +271,28 @@ public class WsNativePersonSPI implements IExtPersonService {
     CollOptsConverter.convert(options, query);
 
     // set parameters for method
-    final List<String> idList = new ArrayList<String>();
+    List<String> idList = new ArrayList<String>();
     for (final UserId userId : userIds) {
       idList.add(userId.getUserId(token));
     }
+
+    // resolve group members locally, only requesting their data
+    if (groupId != null && groupId.getType() == GroupId.Type.objectId && this.fGroupCache != null
+            && this.fGroupCache.isEnabled()) {
+      final Set<String> members = this.fGroupCache.getMembers(group);
+
+      if (members.isEmpty()) {
+        final RestfulCollection<Person> empty = new RestfulCollection<Person>(
+                new ArrayList<Person>());
+        empty.setStartIndex(options.getFirst());
+        empty.setItemsPerPage(options.getMax());
+        return Futures.immediateFuture(empty);
+      }
+
+      idList = new ArrayList<String>(members);
+      group = '@' + GroupId.Type.self.toString();
+    }
+
     query.setParameter(ShindigNativeQueries.USER_ID_LIST, idList);
 
     query.setParameter(ShindigNativeQueries.GROUP_ID, group);
@@ -354,6 +432,35 @@ public class WsNativePersonSPI implements IExtPersonService {
       options.setSortBy(WsNativePersonSPI.FORMATTED_FIELD);
     }
 
+    // search skills locally, only requesting the data of the people found
+    if (WsNativePersonSPI.BY_SKILLS_FILTER.equals(options.getFilter())
+            && options.getFilterValue() != null && this.fSkillIndex != null
+            && this.fSkillIndex.isReady()) {
+      final List<String> found = this.fSkillIndex.find(options.getFilterValue());
+
+      // unsorted results are sent as a whole, large ones are left to the server
+      if (found != null && (sortField == null || found.size() <= this.fMaxUnsortedIds)) {
+        return getByIds(found, sortField == null, options, fields, token);
+      }
+    }
+
+    // resolve filters on indexed fields locally, sorting by them if possible
+    if (options.getFilter() != null
+            && !WsNativePersonSPI.BY_SKILLS_FILTER.equals(options.getFilter())
+            && this.fFilterIndex != null && this.fFilterIndex.isReady()) {
+      final List<String> found = this.fFilterIndex.find(options.getFilter(),
+              options.getFilterOperation(), options.getFilterValue());
+
+      if (found != null) {
+        final boolean sorted = this.fFilterIndex.sort(found, options.getSortBy(),
+                options.getSortOrder() == SortOrder.descending);
+
+        if (sorted || found.size() <= this.fMaxUnsortedIds) {
+          return getByIds(found, sorted, options, fields, token);
+        }
+      }
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
 
@@ -379,6 +486,139 @@ public class WsNativePersonSPI implements IExtPersonService {
     return convertList(result, fields, token);
   }
 
+  private Future<RestfulCollection<Person>> getByIds(List<String> found, boolean ordered,
+          CollectionOptions options, Set<String> fields, SecurityToken token)
+          throws ProtocolException {
+    final int first = Math.min(Math.max(options.getFirst(), 0), found.size());
+    int last = found.size();
+    if (ordered && options.getMax() > 0) {
+      last = (int) Math.min((long) first + options.getMax(), last);
+    }
+
+    // only fetch the requested page if already in order, otherwise let the server sort
+    final List<String> idList = ordered ? found.subList(first, last) : found;
+    if (idList.isEmpty()) {
+      final RestfulCollection<Person> empty = new RestfulCollection<Person>(
+              new ArrayList<Person>());
+      empty.setStartIndex(options.getFirst());
+      empty.setItemsPerPage(options.getMax());
+      empty.setTotalResults(found.size());
+      return Futures.immediateFuture(empty);
+    }
+
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(ShindigNativeQueries.GET_PEOPLE_QUERY);
+    query.setParameter(ShindigNativeQueries.USER_ID_LIST, new ArrayList<String>(idList));
+    query.setParameter(ShindigNativeQueries.GROUP_ID, '@' + GroupId.Type.self.toString());
+
+    if (!ordered) {
+      // the people were already filtered locally
+      options.setFilter(null);
+      options.setFilterOperation(null);
+      options.setFilterValue(null);
+      CollOptsConverter.convert(options, query);
+    }
+
+    if (fields != null) {
+      final List<String> fieldList = new ArrayList<String>(fields);
+      query.setParameter(ShindigNativeQueries.FIELD_LIST, fieldList);
+    }
+
+    final IQueryCallback result = this.fQueryHandler.sendQuery(query);
+    if (!ordered) {
+      return convertList(result, fields, token);
+    }
+
+    List<Person> people = null;
+    try {
+      people = convertList(result, fields, token).get().getEntry();
+    } catch (final ProtocolException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve results", e);
+    }
+
+    // restore the order
+    final Map<String, Integer> ranks = new HashMap<String, Integer>();
+    for (int i = 0; i < idList.size(); ++i) {
+      ranks.put(idList.get(i), i);
+    }
+    Collections.sort(people, new Comparator<Person>() {
+      @Override
+      public int compare(Person p1, Person p2) {
+        return ranks.get(p1.getId()) - ranks.get(p2.getId());
+      }
+    });
+
+    final RestfulCollection<Person> peopleColl = new RestfulCollection<Person>(people);
+    peopleColl.setStartIndex(first);
+    peopleColl.setItemsPerPage(options.getMax() > 0 ? options.getMax() : people.size());
+    peopleColl.setTotalResults(found.size());
+    return Futures.immediateFuture(peopleColl);
+  }
+
+  @Override
+  public Future<RestfulCollection<Map<String, Object>>> getPeopleAutocomp(String fragment,
+          CollectionOptions options, SecurityToken token) throws ProtocolException {
+    final int first = Math.max(options.getFirst(), 0);
+
+    // complete locally, matching every word of the fragment
+    if (fragment != null && this.fNameIndex != null && this.fNameIndex.isReady()) {
+      int limit = Integer.MAX_VALUE;
+      if (options.getMax() > 0) {
+        limit = (int) Math.min((long) first + options.getMax(), Integer.MAX_VALUE);
+      }
+
+      final List<Map<String, Object>> completions = this.fNameIndex.complete(fragment, limit);
+      if (completions != null) {
+        final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>(
+                completions.subList(Math.min(first, completions.size()), completions.size()));
+
+        final RestfulCollection<Map<String, Object>> peopleColl =
+                new RestfulCollection<Map<String, Object>>(people);
+        peopleColl.setItemsPerPage(options.getMax() > 0 ? options.getMax() : people.size());
+        peopleColl.setStartIndex(first);
+        peopleColl.setTotalResults(completions.size());
+        return Futures.immediateFuture(peopleColl);
+      }
+    }
+
+    // otherwise match the beginning of the formatted name on the server
+    options.setFilter(WsNativePersonSPI.FORMATTED_FIELD);
+    options.setFilterOperation(FilterOperation.startsWith);
+    options.setFilterValue(fragment != null ? fragment : "");
+    options.setSortBy(WsNativePersonSPI.FORMATTED_FIELD);
+
+    final Set<String> fields = new HashSet<String>();
+    fields.add(WsNativePersonSPI.ID_FIELD);
+    fields.add(WsNativePersonSPI.DISPLAY_NAME_FIELD);
+    fields.add(WsNativePersonSPI.NAME_FIELD);
+    fields.add(WsNativePersonSPI.THUMBNAIL_FIELD);
+
+    RestfulCollection<Person> found = null;
+    try {
+      found = getAllPeople(options, fields, token).get();
+    } catch (final ProtocolException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve results", e);
+    }
+
+    final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+    for (final Person person : found.getEntry()) {
+      people.add(PeopleNameIndex.toCompact(person));
+    }
+
+    final RestfulCollection<Map<String, Object>> peopleColl =
+            new RestfulCollection<Map<String, Object>>(people);
+    peopleColl.setItemsPerPage(found.getItemsPerPage());
+    peopleColl.setStartIndex(found.getStartIndex());
+    peopleColl.setTotalResults(found.getTotalResults());
+    return Futures.immediateFuture(peopleColl);
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public Future<Person> createPerson(Person person, SecurityToken token) throws ProtocolException {
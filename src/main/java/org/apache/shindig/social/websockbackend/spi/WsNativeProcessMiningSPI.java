@@ -17,7 +17,12 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
@@ -38,6 +43,8 @@ import org.apache.shindig.social.websockbackend.model.IProcessCycle;
 import org.apache.shindig.social.websockbackend.model.dto.MessageCollectionDTO;
 import org.apache.shindig.social.websockbackend.model.dto.ProcessCycleDTO;
 import org.apache.shindig.social.websockbackend.util.CollOptsConverter;
+import org.apache.shindig.social.websockbackend.util.CycleColumns;
+import org.apache.shindig.social.websockbackend.util.QuantileSketch;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.inject.Inject;
@@ -52,50 +59,104 @@ import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
 
 /**
  * Implementation of the process mining service retrieving process cycle data from a remote Neo4j
- * graph database over a websocket.
+ * graph database over a websocket. Aggregates are computed over columnar copies of the cycles kept
+ * by a process cycle store. Cycles added in bulk are created in batches by an ingestion buffer.
  */
 public class WsNativeProcessMiningSPI implements IProcessMiningService {
 	
 	private static final String ENDDATE_FIELD = "endDate";
 
+	private static final int MAX_BUCKETS = 100000;
+
 	private final IQueryHandler fQueryHandler;
+	private final ProcessCycleStore fStore;
+	private final ProcessCycleIngestBuffer fIngestBuffer;
 	private final Logger fLogger;
 
-	@Inject
 	public WsNativeProcessMiningSPI(IQueryHandler qHandler) {
+	    this(qHandler, null, null);
+	}
+
+	/**
+	 * Creates a process mining service using the given query handler to dispatch queries to a
+	 * remote server, the given store to compute aggregates and the given buffer to create cycles
+	 * added in bulk. Throws a NullPointerException if the given query handler is null.
+	 *
+	 * @param qHandler
+	 *          query handler to use
+	 * @param store
+	 *          process cycle store to use, may be null
+	 * @param ingestBuffer
+	 *          ingestion buffer to use, may be null
+	 */
+	@Inject
+	public WsNativeProcessMiningSPI(IQueryHandler qHandler, ProcessCycleStore store,
+	        ProcessCycleIngestBuffer ingestBuffer) {
 	    if (qHandler == null) {
 	      throw new NullPointerException("query handler was null");
 	    }
 	
 	    this.fQueryHandler = qHandler;
+	    this.fStore = store;
+	    this.fIngestBuffer = ingestBuffer;
 	    this.fLogger = Logger.getLogger(this.getClass().getName());
 	}
 	
 	@Override
 	public Future<Void> addProcessCycle(String docId, String docType, String start, String end,
 	          List<String> userList, SecurityToken token) throws ProtocolException {
-	    /*
-	     * // check linking person parameter if (token == null || token.getViewerId() == null ||
-	     * token.getViewerId().isEmpty()) { throw new
-	     * ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
-	     * "viewer ID from security token is required"); }
-	     *
-	     * // create query final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
-	     * query.setPayload(ShindigNativeQueries.ADD_PROCESS_CYCLE_QUERY);
-	     *
-	     * // set parameters for method query.setParameter(ShindigNativeQueries.PROCESS_CYCLE_DOC_ID,
-	     * docId); query.setParameter(key, docType);
-	     *
-	     * // execute final IQueryCallback result = this.fQueryHandler.sendQuery(query);
-	     *
-	     * try { result.get(); } catch(final Exception e) { e.printStackTrace();
-	     * this.fLogger.log(Level.SEVERE, "server error", e); throw new
-	     * ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "failed to execute query",
-	     * e); }
-	     */
-	
+	    final ProcessCycleDTO cycle = new ProcessCycleDTO();
+	    cycle.setDocId(docId);
+	    cycle.setType(docType);
+	    cycle.setUserList(userList);
+
+	    try {
+	      final Long startTime = ProcessCycleDTO.toTime(start);
+	      final Long endTime = ProcessCycleDTO.toTime(end);
+	      cycle.setStartDate(startTime != null ? new Date(startTime) : null);
+	      cycle.setEndDate(endTime != null ? new Date(endTime) : null);
+	    } catch (final IllegalArgumentException e) {
+	      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "invalid date", e);
+	    }
+
+	    if (this.fIngestBuffer != null) {
+	      final List<Map<String, Object>> cycles = new ArrayList<Map<String, Object>>();
+	      cycles.add(cycle.propertyMap());
+	      this.fIngestBuffer.add(docType, cycles);
+	    } else {
+	      addProcessCycle(docType, cycle, token);
+	    }
+
 	    return Futures.immediateFuture(null);
 	}
+
+	@Override
+	public Future<Map<String, Object>> addProcessCycles(String docType, List<IProcessCycle> cycles,
+	        SecurityToken token) throws ProtocolException {
+	    int pending = 0;
+
+	    if (this.fIngestBuffer != null) {
+	      // convert to maps
+	      final List<Map<String, Object>> cycleMaps = new ArrayList<Map<String, Object>>(
+	              cycles.size());
+	      for (final IProcessCycle cycle : cycles) {
+	        final ProcessCycleDTO dto = new ProcessCycleDTO();
+	        dto.setData(cycle);
+	        cycleMaps.add(dto.propertyMap());
+	      }
+
+	      pending = this.fIngestBuffer.add(docType, cycleMaps);
+	    } else {
+	      for (final IProcessCycle cycle : cycles) {
+	        addProcessCycle(docType, cycle, token);
+	      }
+	    }
+
+	    final Map<String, Object> result = new LinkedHashMap<String, Object>();
+	    result.put("accepted", cycles.size());
+	    result.put("pending", pending);
+	    return Futures.immediateFuture(result);
+	}
 	
 	@Override
 	public Future<IProcessCycle> addProcessCycle(String docType, IProcessCycle cycle, SecurityToken token) {
@@ -137,6 +198,10 @@ public class WsNativeProcessMiningSPI implements IProcessMiningService {
 	    final Map<String, Object> map = (Map<String, Object>) sResult.getResults();
 	    dto = new ProcessCycleDTO(map);
 	    
+	    if (this.fStore != null) {
+	      this.fStore.add(docType, dto);
+	    }
+	    
 	    return Futures.immediateFuture((IProcessCycle) dto);
 	}
 	
@@ -216,6 +281,162 @@ public class WsNativeProcessMiningSPI implements IProcessMiningService {
 	              "could not delete process cycles", e);
 	    }
 
+	    if (this.fStore != null) {
+	      this.fStore.remove(docType);
+	    }
+
 	    return Futures.immediateFuture(null);
 	  }
+
+	@Override
+	public Future<Map<String, Object>> getDurations(String docType, List<Double> percentiles,
+	        long from, long to, SecurityToken token) {
+	    final long[] durations = getStore().getColumns(docType).getDurations(from, to,
+	            this.fStore.getPool(), this.fStore.getThreshold());
+	    Arrays.sort(durations);
+
+	    final Map<String, Object> result = new LinkedHashMap<String, Object>();
+	    result.put("count", durations.length);
+
+	    if (durations.length > 0) {
+	      long sum = 0;
+	      for (final long duration : durations) {
+	        sum += duration;
+	      }
+
+	      result.put("min", durations[0]);
+	      result.put("max", durations[durations.length - 1]);
+	      result.put("mean", sum / durations.length);
+
+	      // nearest rank
+	      final Map<String, Long> values = new LinkedHashMap<String, Long>();
+	      for (final Double percentile : percentiles) {
+	        final double p = Math.min(Math.max(percentile, 0), 100);
+	        final int rank = (int) Math.ceil(p / 100 * durations.length);
+	        values.put(getPercentileKey(p), durations[Math.max(rank - 1, 0)]);
+	      }
+	      result.put("percentiles", values);
+	    }
+
+	    return Futures.immediateFuture(result);
+	}
+
+	private String getPercentileKey(double percentile) {
+	    return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String
+	            .valueOf(percentile);
+	}
+
+	@Override
+	public Future<Map<String, Object>> getDurationQuantiles(String docType,
+	        List<Double> percentiles, SecurityToken token) {
+	    final QuantileSketch sketch = getStore().getDurationSketch(docType);
+
+	    final Map<String, Object> result = new LinkedHashMap<String, Object>();
+
+	    // consistent snapshot while cycles are added
+	    synchronized (sketch) {
+	      result.put("count", sketch.getCount());
+
+	      if (sketch.getCount() > 0) {
+	        result.put("min", sketch.getMin());
+	        result.put("max", sketch.getMax());
+
+	        final double[] clamped = new double[percentiles.size()];
+	        final double[] fractions = new double[percentiles.size()];
+	        for (int i = 0; i < fractions.length; ++i) {
+	          clamped[i] = Math.min(Math.max(percentiles.get(i), 0), 100);
+	          fractions[i] = clamped[i] / 100;
+	        }
+	        final long[] quantiles = sketch.getQuantiles(fractions);
+
+	        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+	        for (int i = 0; i < fractions.length; ++i) {
+	          values.put(getPercentileKey(clamped[i]), quantiles[i]);
+	        }
+	        result.put("percentiles", values);
+	      }
+	    }
+
+	    return Futures.immediateFuture(result);
+	}
+
+	@Override
+	public Future<Map<String, Object>> getThroughput(String docType, long bucket, long from,
+	        long to, SecurityToken token) {
+	    if (bucket <= 0) {
+	      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+	              "bucket length must be positive");
+	    }
+
+	    final CycleColumns columns = getStore().getColumns(docType);
+
+	    // limit unbounded periods to the cycles actually present
+	    final long[] range = columns.getEndRange();
+	    long start = from;
+	    long end = to;
+	    if (range != null) {
+	      start = Math.max(start, range[0]);
+	      end = Math.min(end, range[1] + 1);
+	    }
+
+	    long[] counts = new long[0];
+	    if (range != null && start < end) {
+	      if ((end - start) / bucket >= WsNativeProcessMiningSPI.MAX_BUCKETS) {
+	        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+	                "too many buckets, use a longer bucket length");
+	      }
+
+	      counts = columns.getThroughput(start, end, bucket, this.fStore.getPool(),
+	              this.fStore.getThreshold());
+	    }
+
+	    final Map<String, Object> result = new LinkedHashMap<String, Object>();
+	    result.put("bucket", bucket);
+	    result.put("start", start);
+	    result.put("counts", counts);
+	    return Futures.immediateFuture(result);
+	}
+
+	@Override
+	public Future<Map<String, Long>> getParticipation(String docType, long from, long to,
+	        SecurityToken token) {
+	    final CycleColumns columns = getStore().getColumns(docType);
+	    final long[] counts = columns.getParticipation(from, to, this.fStore.getPool(),
+	            this.fStore.getThreshold());
+
+	    final List<Integer> users = new ArrayList<Integer>();
+	    for (int user = 0; user < counts.length; ++user) {
+	      if (counts[user] > 0) {
+	        users.add(user);
+	      }
+	    }
+
+	    // most involved users first
+	    Collections.sort(users, new Comparator<Integer>() {
+	      @Override
+	      public int compare(Integer user1, Integer user2) {
+	        return Long.compare(counts[user2], counts[user1]);
+	      }
+	    });
+
+	    final Map<String, Long> result = new LinkedHashMap<String, Long>();
+	    for (final Integer user : users) {
+	      result.put(columns.getUser(user), counts[user]);
+	    }
+	    return Futures.immediateFuture(result);
+	}
+
+	@Override
+	public Future<Map<String, Object>> getHandoffs(String docType, long minCount,
+	        SecurityToken token) {
+	    return Futures.immediateFuture(getStore().getHandoffs(docType, minCount));
+	}
+
+	private ProcessCycleStore getStore() throws ProtocolException {
+	    if (this.fStore == null) {
+	      throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+	              "process cycle aggregates are not available");
+	    }
+	    return this.fStore;
+	}
 }
@@ -17,6 +17,8 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
@@ -28,6 +30,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.SortOrder;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.WebsockConfig;
@@ -46,16 +49,19 @@ import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
 import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
 
 /**
  * Implementation of the skill service retrieving skill data from a remote Neo4j graph database over
- * a websocket.
+ * a websocket. If enabled, users' skill sets are cached and updated as links are added and removed
+ * and skill names are completed locally, tolerating typos.
  */
 public class WsNativeSkillSPI implements ISkillService {
   private static final String EVENTS_ENABLED = "shindig.events.enabled";
 
   private static final String NAME_FIELD = "name";
+  private static final String PEOPLE_FIELD = "people";
 
   private final IQueryHandler fQueryHandler;
   
@@ -65,6 +71,10 @@ public class WsNativeSkillSPI implements ISkillService {
 
   private final boolean fFireEvents;
 
+  private final SkillCache fCache;
+
+  private final SkillIndex fIndex;
+
   /**
    * Creates a graph skill service using the given query handler to dispatch queries to a remote
    * server. Throws a NullPointerException if the given query handler ise null.
@@ -72,9 +82,49 @@ public class WsNativeSkillSPI implements ISkillService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsNativeSkillSPI(IQueryHandler qHandler, WebsockConfig config,
       ShindigEventBus eventBus) {
+    this(qHandler, config, eventBus, null);
+  }
+
+  /**
+   * Creates a graph skill service using the given query handler to dispatch queries to a remote
+   * server and the given cache for users' skill sets. Throws a NullPointerException if the query
+   * handler, configuration object or event bus is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to fire events on
+   * @param cache
+   *          skill cache to use, may be null
+   */
+  public WsNativeSkillSPI(IQueryHandler qHandler, WebsockConfig config,
+      ShindigEventBus eventBus, SkillCache cache) {
+    this(qHandler, config, eventBus, cache, null);
+  }
+
+  /**
+   * Creates a graph skill service using the given query handler to dispatch queries to a remote
+   * server, the given cache for users' skill sets and the given index to complete skill names.
+   * Throws a NullPointerException if the query handler, configuration object or event bus is null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param config
+   *          configuration object to use
+   * @param eventBus
+   *          event bus to fire events on
+   * @param cache
+   *          skill cache to use, may be null
+   * @param index
+   *          skill index to use, may be null
+   */
+  @Inject
+  public WsNativeSkillSPI(IQueryHandler qHandler, WebsockConfig config,
+      ShindigEventBus eventBus, SkillCache cache, SkillIndex index) {
     if (qHandler == null) {
       throw new NullPointerException("query handler was null");
     }
@@ -90,11 +140,34 @@ public class WsNativeSkillSPI implements ISkillService {
     this.fLogger = Logger.getLogger(this.getClass().getName());
 
     this.fFireEvents = Boolean.parseBoolean(config.getProperty(WsNativeSkillSPI.EVENTS_ENABLED));
+    this.fCache = cache;
+    this.fIndex = index;
   }
 
   @Override
   public Future<RestfulCollection<String>> getSkillAutocomp(String fragment,
           CollectionOptions options, SecurityToken token) throws ProtocolException {
+    // complete locally, tolerating typos
+    if (fragment != null && this.fIndex != null && this.fIndex.isReady()) {
+      final int first = Math.max(options.getFirst(), 0);
+      int limit = Integer.MAX_VALUE;
+      if (options.getMax() > 0) {
+        limit = (int) Math.min((long) first + options.getMax(), Integer.MAX_VALUE);
+      }
+
+      final List<String> completions = this.fIndex.complete(fragment, limit);
+      if (completions != null) {
+        final List<String> skills = new ArrayList<String>(completions.subList(
+                Math.min(first, completions.size()), completions.size()));
+
+        final RestfulCollection<String> skillColl = new RestfulCollection<String>(skills);
+        skillColl.setItemsPerPage(options.getMax() > 0 ? options.getMax() : skills.size());
+        skillColl.setStartIndex(first);
+        skillColl.setTotalResults(completions.size());
+        return Futures.immediateFuture(skillColl);
+      }
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_SKILL_AUTOCOMPLETION_QUERY);
@@ -141,6 +214,12 @@ public class WsNativeSkillSPI implements ISkillService {
       options.setSortBy(WsNativeSkillSPI.NAME_FIELD);
     }
 
+    // the cache holds complete lists sorted by name
+    if (this.fCache != null && this.fCache.isEnabled() && options.getFilter() == null
+            && WsNativeSkillSPI.NAME_FIELD.equals(options.getSortBy())) {
+      return Futures.immediateFuture(getCachedSkills(userId.getUserId(token), options));
+    }
+
     // create query
     final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
     query.setPayload(ShindigNativeQueries.GET_SKILLS_QUERY);
@@ -185,6 +264,77 @@ public class WsNativeSkillSPI implements ISkillService {
     return Futures.immediateFuture(skillColl);
   }
 
+  private RestfulCollection<ISkillSet> getCachedSkills(String userId, CollectionOptions options)
+          throws ProtocolException {
+    List<Map<String, Object>> mapList = this.fCache.getSkills(userId);
+
+    if (mapList == null) {
+      final long epoch = this.fCache.getEpoch();
+
+      // load all skill sets
+      final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+      query.setPayload(ShindigNativeQueries.GET_SKILLS_QUERY);
+      query.setParameter(ShindigNativeQueries.USER_ID, userId);
+      query.setParameter(WebsockConstants.SORT_FIELD, WsNativeSkillSPI.NAME_FIELD);
+
+      ListResult resultList = null;
+      try {
+        resultList = (ListResult) this.fQueryHandler.sendQuery(query).get();
+      } catch (final Exception e) {
+        this.fLogger.log(Level.SEVERE, "server error", e);
+        throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "could not retrieve results", e);
+      }
+
+      @SuppressWarnings("unchecked")
+      final List<Map<String, Object>> results = (List<Map<String, Object>>) resultList
+              .getResults();
+      mapList = results != null ? results : new ArrayList<Map<String, Object>>();
+      this.fCache.putSkills(userId, mapList, epoch);
+    }
+
+    final List<Map<String, Object>> ordered = new ArrayList<Map<String, Object>>(mapList);
+    if (options.getSortOrder() == SortOrder.descending) {
+      Collections.reverse(ordered);
+    }
+
+    // paginate locally
+    final int first = Math.min(Math.max(options.getFirst(), 0), ordered.size());
+    int last = ordered.size();
+    if (options.getMax() > 0) {
+      last = (int) Math.min((long) first + options.getMax(), last);
+    }
+
+    final List<ISkillSet> skills = new ArrayList<ISkillSet>();
+    for (final Map<String, Object> sMap : ordered.subList(first, last)) {
+      skills.add(new SkillSetDTO(copy(sMap)));
+    }
+
+    final RestfulCollection<ISkillSet> skillColl = new RestfulCollection<ISkillSet>(skills);
+    skillColl.setItemsPerPage(options.getMax() > 0 ? options.getMax() : skills.size());
+    skillColl.setStartIndex(first);
+    skillColl.setTotalResults(ordered.size());
+    return skillColl;
+  }
+
+  // cached maps are shared, callers get copies they can modify
+  private Map<String, Object> copy(Map<String, Object> skillSet) {
+    final Map<String, Object> copy = new HashMap<String, Object>(skillSet);
+
+    final Object people = skillSet.get(WsNativeSkillSPI.PEOPLE_FIELD);
+    if (people instanceof List) {
+      final List<Map<String, Object>> peopleCopy = new ArrayList<Map<String, Object>>();
+      for (final Object person : (List<?>) people) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> personMap = (Map<String, Object>) person;
+        peopleCopy.add(new HashMap<String, Object>(personMap));
+      }
+      copy.put(WsNativeSkillSPI.PEOPLE_FIELD, peopleCopy);
+    }
+
+    return copy;
+  }
+
   @Override
   public Future<Void> addSkill(UserId userId, String skill, SecurityToken token)
           throws ProtocolException {
@@ -215,6 +365,10 @@ public class WsNativeSkillSPI implements ISkillService {
       throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
               "failed to execute query", e);
     }
+
+    if (this.fCache != null) {
+      this.fCache.addLink(userId.getUserId(token), skill, token.getViewerId());
+    }
     
     // fire event
     if (this.fFireEvents) {
@@ -266,6 +420,10 @@ public class WsNativeSkillSPI implements ISkillService {
               "failed to execute query", e);
     }
 
+    if (this.fCache != null) {
+      this.fCache.removeLink(userId.getUserId(token), skill, token.getViewerId());
+    }
+
     // fire event
     if (this.fFireEvents) {
       try {
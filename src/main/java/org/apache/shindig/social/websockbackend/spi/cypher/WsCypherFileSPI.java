@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi.cypher;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.model.dto.FileMetadataDTO;
+import org.apache.shindig.social.websockbackend.spi.IFileService;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
+import de.hofuniversity.iisys.neo4j.websock.service.Neo4jServiceQueries;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+
+/**
+ * Implementation of the IFileService interface storing file metadata in a remote Neo4j graph
+ * database over a websocket using Cypher.
+ */
+@Singleton
+public class WsCypherFileSPI implements IFileService {
+  private static final String CREATE_FILE_QUERY_NAME = "cCreateFile";
+  private static final String CREATE_FILE_QUERY = "START owner=node:" + Constants.PERSON_NODES
+          + "(id = {id})\n" + "CREATE owner-[:UPLOADED]->(file {props})\n" + "RETURN ID(file)";
+
+  private static final String GET_FILE_QUERY_NAME = "cGetFile";
+  private static final String GET_FILE_QUERY = "START file=node:" + Constants.FILE_NODES
+          + "(id = {fileId})\n" + "RETURN file";
+
+  private static final String DEL_FILE_QUERY_NAME = "cDeleteFile";
+  private static final String DEL_FILE_QUERY = "START file=node:" + Constants.FILE_NODES
+          + "(id = {fileId})\n" + "MATCH file-[rel?]-()\n" + "DELETE rel, file";
+
+  private final IQueryHandler fQueryHandler;
+
+  private final Logger fLogger;
+
+  /**
+   * Creates a new Cypher file service using the given query handler to store data in a Neo4j
+   * instance over a websocket using Cypher. The given query handler must not be null.
+   *
+   * @param qHandler
+   *          query handler to use
+   */
+  @Inject
+  public WsCypherFileSPI(IQueryHandler qHandler) {
+    if (qHandler == null) {
+      throw new NullPointerException("Query handler was null");
+    }
+
+    this.fQueryHandler = qHandler;
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+
+    // initialize stored procedures
+    storeProcedure(WsCypherFileSPI.CREATE_FILE_QUERY_NAME, WsCypherFileSPI.CREATE_FILE_QUERY);
+    storeProcedure(WsCypherFileSPI.GET_FILE_QUERY_NAME, WsCypherFileSPI.GET_FILE_QUERY);
+    storeProcedure(WsCypherFileSPI.DEL_FILE_QUERY_NAME, WsCypherFileSPI.DEL_FILE_QUERY);
+  }
+
+  private void storeProcedure(String name, String query) {
+    final WebsockQuery wsQuery = new WebsockQuery(EQueryType.STORE_PROCEDURE);
+    wsQuery.setPayload(query);
+    wsQuery.setParameter(WebsockConstants.PROCEDURE_NAME, name);
+
+    try {
+      this.fQueryHandler.sendMessage(wsQuery).get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new RuntimeException("could not store procedure \"" + name, e);
+    }
+  }
+
+  @Override
+  public Future<FileMetadataDTO> createFile(FileMetadataDTO file, SecurityToken token) {
+    // request unique ID for new file
+    WebsockQuery wsQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    wsQuery.setPayload(Neo4jServiceQueries.GET_UID_QUERY);
+    wsQuery.setParameter(Neo4jServiceQueries.TYPE, Constants.FILE_NODES);
+
+    IQueryCallback callback = this.fQueryHandler.sendQuery(wsQuery);
+
+    try {
+      final SingleResult idRes = (SingleResult) callback.get();
+      file.setId(idRes.getResults().get("id").toString());
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve unique ID", e);
+    }
+
+    // create file node
+    final Map<String, Object> props = new HashMap<String, Object>(file.propertyMap());
+    new FileMetadataDTO(props).stripNullValues();
+
+    wsQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    wsQuery.setPayload(WsCypherFileSPI.CREATE_FILE_QUERY_NAME);
+    wsQuery.setParameter("id", file.getOwner());
+    wsQuery.setParameter("props", props);
+
+    callback = this.fQueryHandler.sendQuery(wsQuery);
+    TableResult result = null;
+
+    try {
+      result = (TableResult) callback.get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not store file metadata", e);
+    }
+
+    if (result.getResults().isEmpty()) {
+      throw new ProtocolException(HttpServletResponse.SC_NOT_FOUND, "owner not found");
+    }
+    final String nodeId = result.getResults().get(0).get(0).toString();
+
+    // create index entry
+    wsQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    wsQuery.setPayload(Neo4jServiceQueries.CREATE_INDEX_ENTRY_QUERY);
+    wsQuery.setParameter(Neo4jServiceQueries.INDEX, Constants.FILE_NODES);
+    wsQuery.setParameter(Neo4jServiceQueries.NODE_ID, Long.parseLong(nodeId));
+    wsQuery.setParameter(Neo4jServiceQueries.KEY, "id");
+    wsQuery.setParameter(Neo4jServiceQueries.VALUE, file.getId());
+
+    callback = this.fQueryHandler.sendQuery(wsQuery);
+    try {
+      callback.get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not create index entry", e);
+    }
+
+    return Futures.immediateFuture(file);
+  }
+
+  @Override
+  public Future<FileMetadataDTO> getFile(String fileId, SecurityToken token) {
+    if (token == null || token.getViewerId() == null || token.isAnonymous()) {
+      throw new ProtocolException(HttpServletResponse.SC_UNAUTHORIZED,
+              "authentication required");
+    }
+
+    final WebsockQuery wsQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    wsQuery.setPayload(WsCypherFileSPI.GET_FILE_QUERY_NAME);
+    wsQuery.setParameter("fileId", fileId);
+
+    // execute
+    final IQueryCallback callback = this.fQueryHandler.sendQuery(wsQuery);
+    TableResult result = null;
+
+    try {
+      result = (TableResult) callback.get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve result", e);
+    }
+
+    FileMetadataDTO file = null;
+
+    final List<List<Object>> rows = result.getResults();
+    if (rows != null && !rows.isEmpty()) {
+      @SuppressWarnings("unchecked")
+      final Map<String, Object> fileMap = (Map<String, Object>) rows.get(0).get(
+              result.getColumnIndex("file"));
+      file = new FileMetadataDTO(fileMap);
+
+      // only visible to its owner, directly or in the owner's context
+      if (!token.getViewerId().equals(file.getOwner())
+              && (token.getOwnerId() == null || !token.getOwnerId().equals(file.getOwner()))) {
+        throw new ProtocolException(HttpServletResponse.SC_FORBIDDEN,
+                "file belongs to another user");
+      }
+    }
+
+    return Futures.immediateFuture(file);
+  }
+
+  @Override
+  public Future<Void> deleteFile(String fileId, SecurityToken token) {
+    final WebsockQuery wsQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    wsQuery.setPayload(WsCypherFileSPI.DEL_FILE_QUERY_NAME);
+    wsQuery.setParameter("fileId", fileId);
+
+    // execute
+    try {
+      this.fQueryHandler.sendQuery(wsQuery).get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not delete file metadata", e);
+    }
+
+    return Futures.immediateFuture(null);
+  }
+}
@@ -35,6 +35,8 @@ import org.apache.shindig.social.opensocial.spi.GroupService;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.Constants;
 import org.apache.shindig.social.websockbackend.model.dto.GroupDTO;
+import org.apache.shindig.social.websockbackend.spi.GroupMembershipCache;
+import org.apache.shindig.social.websockbackend.spi.IGroupMembershipService;
 import org.apache.shindig.social.websockbackend.util.CollOptsConverter;
 
 import com.google.common.util.concurrent.Futures;
@@ -50,15 +52,27 @@ import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 
 /**
  * Implementation of the GroupService interface retrieving group data from a remote Neo4j graph
- * database over a websocket using Cypher.
+ * database over a websocket using Cypher. Users joining and leaving groups are recorded in the
+ * group membership cache.
  */
 @Singleton
-public class WsCypherGroupSPI implements GroupService {
+public class WsCypherGroupSPI implements GroupService, IGroupMembershipService {
   private static final String GROUPS_QUERY_NAME = "cGroups";
   private static final String GROUPS_QUERY = "START person=node:" + Constants.PERSON_NODES
           + "(id = {id})\n" + "MATCH person-[:MEMBER_OF]->group\n" + "RETURN group";
 
+  private static final String JOIN_QUERY_NAME = "cJoinGroup";
+  private static final String JOIN_QUERY = "START person=node:" + Constants.PERSON_NODES
+          + "(id = {id}), group=node:" + Constants.GROUP_NODES + "(id = {groupId})\n"
+          + "CREATE UNIQUE person-[:MEMBER_OF]->group\n" + "RETURN group.id";
+
+  private static final String LEAVE_QUERY_NAME = "cLeaveGroup";
+  private static final String LEAVE_QUERY = "START person=node:" + Constants.PERSON_NODES
+          + "(id = {id}), group=node:" + Constants.GROUP_NODES + "(id = {groupId})\n"
+          + "MATCH person-[membership:MEMBER_OF]->group\n" + "DELETE membership";
+
   private final IQueryHandler fQueryHandler;
+  private final GroupMembershipCache fCache;
 
   private final Logger fLogger;
 
@@ -69,28 +83,47 @@ public class WsCypherGroupSPI implements GroupService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsCypherGroupSPI(IQueryHandler qHandler) {
+    this(qHandler, null);
+  }
+
+  /**
+   * Creates a new Cypher group service using the given query handler to retrieve data from a Neo4j
+   * instance over a websocket using Cypher and recording membership changes in the given cache,
+   * which may be null. The given query handler must not be null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param cache
+   *          group membership cache to update
+   */
+  @Inject
+  public WsCypherGroupSPI(IQueryHandler qHandler, GroupMembershipCache cache) {
     if (qHandler == null) {
       throw new NullPointerException("Query handler was null");
     }
 
     this.fQueryHandler = qHandler;
+    this.fCache = cache;
     this.fLogger = Logger.getLogger(this.getClass().getName());
 
     // initialize stored procedures
-    // delete query
+    storeProcedure(WsCypherGroupSPI.GROUPS_QUERY_NAME, WsCypherGroupSPI.GROUPS_QUERY);
+    storeProcedure(WsCypherGroupSPI.JOIN_QUERY_NAME, WsCypherGroupSPI.JOIN_QUERY);
+    storeProcedure(WsCypherGroupSPI.LEAVE_QUERY_NAME, WsCypherGroupSPI.LEAVE_QUERY);
+  }
+
+  private void storeProcedure(String name, String query) {
     final WebsockQuery wsQuery = new WebsockQuery(EQueryType.STORE_PROCEDURE);
-    wsQuery.setPayload(WsCypherGroupSPI.GROUPS_QUERY);
-    wsQuery.setParameter(WebsockConstants.PROCEDURE_NAME, WsCypherGroupSPI.GROUPS_QUERY_NAME);
+    wsQuery.setPayload(query);
+    wsQuery.setParameter(WebsockConstants.PROCEDURE_NAME, name);
 
     try {
       this.fQueryHandler.sendMessage(wsQuery).get();
     } catch (final Exception e) {
       e.printStackTrace();
       this.fLogger.log(Level.SEVERE, "server error", e);
-      throw new RuntimeException("could not store procedure \""
-              + wsQuery.getParameter(WebsockConstants.PROCEDURE_NAME), e);
+      throw new RuntimeException("could not store procedure \"" + name, e);
     }
   }
 
@@ -135,4 +168,62 @@ public class WsCypherGroupSPI implements GroupService {
     rColl.setItemsPerPage(result.getMax());
     return Futures.immediateFuture(rColl);
   }
+
+  @Override
+  public Future<Void> joinGroup(UserId userId, String groupId, SecurityToken token)
+          throws ProtocolException {
+    final String user = checkSelf(userId, token);
+    final TableResult result = changeMembership(WsCypherGroupSPI.JOIN_QUERY_NAME, user, groupId);
+
+    if (result.getResults() == null || result.getResults().isEmpty()) {
+      throw new ProtocolException(HttpServletResponse.SC_NOT_FOUND, "user or group not found");
+    }
+
+    if (this.fCache != null) {
+      this.fCache.addMember(groupId, user);
+    }
+
+    return Futures.immediateFuture(null);
+  }
+
+  @Override
+  public Future<Void> leaveGroup(UserId userId, String groupId, SecurityToken token)
+          throws ProtocolException {
+    final String user = checkSelf(userId, token);
+    changeMembership(WsCypherGroupSPI.LEAVE_QUERY_NAME, user, groupId);
+
+    if (this.fCache != null) {
+      this.fCache.removeMember(groupId, user);
+    }
+
+    return Futures.immediateFuture(null);
+  }
+
+  private String checkSelf(UserId userId, SecurityToken token) throws ProtocolException {
+    final String user = userId.getUserId(token);
+
+    if (token == null || token.isAnonymous() || !user.equals(token.getViewerId())) {
+      throw new ProtocolException(HttpServletResponse.SC_FORBIDDEN,
+              "users can only join and leave groups themselves");
+    }
+
+    return user;
+  }
+
+  private TableResult changeMembership(String procedure, String userId, String groupId)
+          throws ProtocolException {
+    final WebsockQuery wsQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    wsQuery.setPayload(procedure);
+    wsQuery.setParameter("id", userId);
+    wsQuery.setParameter("groupId", groupId);
+
+    try {
+      return (TableResult) this.fQueryHandler.sendQuery(wsQuery).get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not change group membership", e);
+    }
+  }
 }
@@ -21,6 +21,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -42,7 +43,10 @@ import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.websockbackend.Constants;
 import org.apache.shindig.social.websockbackend.model.dto.MessageCollectionDTO;
 import org.apache.shindig.social.websockbackend.model.dto.MessageDTO;
+import org.apache.shindig.social.websockbackend.spi.IMessageThreadService;
+import org.apache.shindig.social.websockbackend.spi.MessageThreadCache;
 import org.apache.shindig.social.websockbackend.util.CollOptsConverter;
+import org.apache.shindig.social.websockbackend.util.MessageThread;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.inject.Inject;
@@ -62,7 +66,7 @@ import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
  * database over a websocket using Cypher.
  */
 @Singleton
-public class WsCypherMessageSPI implements MessageService {
+public class WsCypherMessageSPI implements MessageService, IMessageThreadService {
   private static final String TOTAL_FIELD = MessageCollection.Field.TOTAL.toString();
   private static final String UNREAD_FIELD = MessageCollection.Field.UNREAD.toString();
 
@@ -71,6 +75,9 @@ public class WsCypherMessageSPI implements MessageService {
   private static final String REPLIES_FIELD = Message.Field.REPLIES.toString();
 
   private static final String REPLY_FIELD = Message.Field.IN_REPLY_TO.toString();
+  private static final String SENDER_FIELD = Message.Field.SENDER_ID.toString();
+  private static final String RECIPIENTS_FIELD = Message.Field.RECIPIENTS.toString();
+  private static final String ID_FIELD = Message.Field.ID.toString();
 
   private static final String SEND_MESSAGE_QUERY_NAME = "cSendMessage";
   private static final String SEND_MESSAGE_QUERY = "START sender=node:" + Constants.PERSON_NODES
@@ -93,8 +100,19 @@ public class WsCypherMessageSPI implements MessageService {
           + "MATCH message<-[con:CONTAINS]-()<-[:OWNS]-person\n" + "DELETE con\n"
           + "WITH message\n" + "WHERE NOT (message--())\n" + "DELETE message\n";
 
+  // whole reply tree around a message: its root and all direct and indirect replies to the root
+  private static final String THREAD_QUERY = "START msg=node:" + Constants.MESSAGE_NODES
+          + "(id = {id})\n" + "MATCH msg-[:REPLY_TO*0..]->root\n"
+          + "WHERE NOT (root-[:REPLY_TO]->())\n" + "WITH root\n"
+          + "MATCH root<-[:REPLY_TO*0..]-reply, reply-[?:REPLY_TO]->parent,\n"
+          + "reply<-[?:SENT]-sender, reply-[?:SENT_TO]->recipient\n"
+          + "RETURN root.id as root, reply, parent.id? as parent, sender.id? as sender,"
+          + " collect(recipient.id) as recipients";
+
   private final IQueryHandler fQueryHandler;
 
+  private final MessageThreadCache fThreads;
+
   private final Logger fLogger;
 
   /**
@@ -104,13 +122,28 @@ public class WsCypherMessageSPI implements MessageService {
    * @param qHandler
    *          query handler to use
    */
-  @Inject
   public WsCypherMessageSPI(IQueryHandler qHandler) {
+    this(qHandler, null);
+  }
+
+  /**
+   * Creates a new Cypher message service using the given query handler to retrieve data from a
+   * Neo4j instance over a websocket using Cypher and the given cache for message threads. The
+   * given query handler must not be null.
+   *
+   * @param qHandler
+   *          query handler to use
+   * @param threads
+   *          message thread cache to use, may be null
+   */
+  @Inject
+  public WsCypherMessageSPI(IQueryHandler qHandler, MessageThreadCache threads) {
     if (qHandler == null) {
       throw new NullPointerException("Query handler was null");
     }
 
     this.fQueryHandler = qHandler;
+    this.fThreads = threads;
     this.fLogger = Logger.getLogger(this.getClass().getName());
 
     // initialize stored procedures
@@ -491,6 +524,15 @@ public class WsCypherMessageSPI implements MessageService {
       }
     }
 
+    // add replies to cached threads
+    if (this.fThreads != null) {
+      final Map<String, Object> cacheMap = new HashMap<String, Object>(mMap);
+      if (cacheMap.get(WsCypherMessageSPI.SENDER_FIELD) == null) {
+        cacheMap.put(WsCypherMessageSPI.SENDER_FIELD, userId.getUserId(token));
+      }
+      this.fThreads.messageCreated(cacheMap);
+    }
+
     return Futures.immediateFuture(null);
   }
 
@@ -528,4 +570,93 @@ public class WsCypherMessageSPI implements MessageService {
           Message message, SecurityToken token) throws ProtocolException {
     return null;
   }
+
+  @Override
+  public Future<RestfulCollection<Message>> getThread(UserId userId, String messageId,
+          SecurityToken token) throws ProtocolException {
+    MessageThread thread = null;
+    if (this.fThreads != null) {
+      thread = this.fThreads.getThread(messageId);
+    }
+
+    if (thread == null) {
+      final long epoch = this.fThreads != null ? this.fThreads.getEpoch() : 0;
+      thread = queryThread(messageId);
+
+      if (this.fThreads != null && thread != null) {
+        this.fThreads.putThread(thread, epoch);
+      }
+    }
+
+    // copies, cached maps are shared
+    final List<Message> messages = new ArrayList<Message>();
+    if (thread != null) {
+      for (final Map<String, Object> mMap : thread.getVisible(userId.getUserId(token))) {
+        messages.add(new MessageDTO(new HashMap<String, Object>(mMap)));
+      }
+    }
+
+    final RestfulCollection<Message> rColl = new RestfulCollection<Message>(messages);
+    rColl.setStartIndex(0);
+    rColl.setTotalResults(messages.size());
+    rColl.setItemsPerPage(messages.size());
+    return Futures.immediateFuture(rColl);
+  }
+
+  @SuppressWarnings("unchecked")
+  private MessageThread queryThread(String messageId) {
+    final WebsockQuery wsQuery = new WebsockQuery(EQueryType.DIRECT_CYPHER);
+    wsQuery.setPayload(WsCypherMessageSPI.THREAD_QUERY);
+    wsQuery.setParameter("id", messageId);
+
+    // execute
+    final IQueryCallback callback = this.fQueryHandler.sendQuery(wsQuery);
+    TableResult result = null;
+
+    try {
+      result = (TableResult) callback.get();
+    } catch (final Exception e) {
+      e.printStackTrace();
+      this.fLogger.log(Level.SEVERE, "server error", e);
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve result", e);
+    }
+
+    final int rootIndex = result.getColumnIndex("root");
+    final int nodeIndex = result.getColumnIndex("reply");
+    final int parentIndex = result.getColumnIndex("parent");
+    final int senderIndex = result.getColumnIndex("sender");
+    final int recipientsIndex = result.getColumnIndex("recipients");
+
+    // messages sent to several people may be stored once per recipient, merge them
+    final Map<String, Map<String, Object>> messages = new LinkedHashMap<>();
+    final Map<String, Set<String>> recipients = new HashMap<String, Set<String>>();
+    String rootId = null;
+
+    for (final List<Object> row : result.getResults()) {
+      rootId = row.get(rootIndex).toString();
+      final Map<String, Object> mMap = (Map<String, Object>) row.get(nodeIndex);
+      final String id = mMap.get(WsCypherMessageSPI.ID_FIELD).toString();
+
+      if (!messages.containsKey(id)) {
+        mMap.put(WsCypherMessageSPI.REPLY_FIELD, row.get(parentIndex));
+        mMap.put(WsCypherMessageSPI.SENDER_FIELD, row.get(senderIndex));
+        messages.put(id, mMap);
+        recipients.put(id, new LinkedHashSet<String>());
+      }
+      for (final Object recipient : (List<Object>) row.get(recipientsIndex)) {
+        recipients.get(id).add(recipient.toString());
+      }
+    }
+
+    if (rootId == null) {
+      return null;
+    }
+
+    for (final Map.Entry<String, Map<String, Object>> messageE : messages.entrySet()) {
+      messageE.getValue().put(WsCypherMessageSPI.RECIPIENTS_FIELD,
+              new ArrayList<String>(recipients.get(messageE.getKey())));
+    }
+    return new MessageThread(rootId, messages.values());
+  }
 }
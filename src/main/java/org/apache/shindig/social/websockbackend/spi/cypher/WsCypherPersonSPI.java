@@ -32,6 +32,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.social.opensocial.model.Name;
 import org.apache.shindig.social.opensocial.model.Organization;
 import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
@@ -42,6 +44,7 @@ import org.apache.shindig.social.websockbackend.Constants;
 import org.apache.shindig.social.websockbackend.model.IExtOrganization;
 import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
 import org.apache.shindig.social.websockbackend.spi.IExtPersonService;
+import org.apache.shindig.social.websockbackend.spi.PeopleNameIndex;
 import org.apache.shindig.social.websockbackend.util.CollOptsConverter;
 
 import com.google.common.collect.ImmutableSet;
@@ -508,6 +511,41 @@ public class WsCypherPersonSPI implements IExtPersonService {
     return convertTable(result);
   }
 
+  @Override
+  public Future<RestfulCollection<Map<String, Object>>> getPeopleAutocomp(String fragment,
+          CollectionOptions collectionOptions, SecurityToken token) throws ProtocolException {
+    collectionOptions.setFilter(Name.Field.FORMATTED.toString());
+    collectionOptions.setFilterOperation(FilterOperation.startsWith);
+    collectionOptions.setFilterValue(fragment != null ? fragment : "");
+    collectionOptions.setSortBy(Name.Field.FORMATTED.toString());
+
+    final Set<String> fields = ImmutableSet.of(Person.Field.ID.toString(),
+            Person.Field.DISPLAY_NAME.toString(), Person.Field.NAME.toString(),
+            Person.Field.THUMBNAIL_URL.toString());
+
+    RestfulCollection<Person> found = null;
+    try {
+      found = getAllPeople(collectionOptions, fields, token).get();
+    } catch (final ProtocolException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+              "could not retrieve results", e);
+    }
+
+    final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+    for (final Person person : found.getEntry()) {
+      people.add(PeopleNameIndex.toCompact(person));
+    }
+
+    final RestfulCollection<Map<String, Object>> peopleColl =
+            new RestfulCollection<Map<String, Object>>(people);
+    peopleColl.setItemsPerPage(found.getItemsPerPage());
+    peopleColl.setStartIndex(found.getStartIndex());
+    peopleColl.setTotalResults(found.getTotalResults());
+    return Futures.immediateFuture(peopleColl);
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public Future<Person> createPerson(Person person, SecurityToken token) throws ProtocolException {
@@ -0,0 +1,353 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed file store, storing each distinct content only once under its SHA-256 digest.
+ * Contents are hashed while they are streamed to disk. Every stored reference increments a
+ * reference count persisted next to the content, which is deleted once its last reference is
+ * released, along with all files derived from it such as thumbnails.
+ */
+public class ContentStore {
+  private static final String ALGORITHM = "SHA-256";
+  private static final Pattern DIGEST_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+  private static final String TEMP_DIR = "tmp";
+  private static final String DERIVED_DIR = "thumbs";
+  private static final String REFS_SUFFIX = ".refs";
+
+  private static final Charset REFS_CHARSET = Charset.forName("US-ASCII");
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // stores may share directories, reference counts are updated under a common lock
+  private static final Object LOCK = new Object();
+
+  private final File fRoot;
+  private final File fTempDir;
+
+  /**
+   * Creates a store keeping its contents in the given directory, which is created if necessary. The
+   * given directory must not be null.
+   *
+   * @param root
+   *          directory to store contents in
+   * @throws IOException
+   *           if the directory can't be created
+   */
+  public ContentStore(File root) throws IOException {
+    if (root == null) {
+      throw new NullPointerException("root directory was null");
+    }
+
+    this.fRoot = root;
+    this.fTempDir = new File(root, ContentStore.TEMP_DIR);
+
+    if (!this.fTempDir.isDirectory() && !this.fTempDir.mkdirs()) {
+      throw new IOException("could not create directory " + this.fTempDir);
+    }
+  }
+
+  /**
+   * Streams the given contents into the store and adds a reference to them. If the same contents
+   * are already stored, the new copy is discarded. Returns null without storing anything if the
+   * contents are larger than the given maximum size.
+   *
+   * @param in
+   *          stream to read contents from
+   * @param maxSize
+   *          maximum size in bytes
+   * @return stored blob's digest and size or null
+   * @throws IOException
+   *           if reading or writing fails
+   */
+  public Blob store(InputStream in, long maxSize) throws IOException {
+    final File temp = File.createTempFile("upload", null, this.fTempDir);
+
+    MessageDigest digest = null;
+    try {
+      digest = MessageDigest.getInstance(ContentStore.ALGORITHM);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    // stream to a temporary file, hashing on the way
+    long size = 0;
+    try (OutputStream out = new DigestOutputStream(new FileOutputStream(temp), digest)) {
+      final byte[] buffer = new byte[ContentStore.BUFFER_SIZE];
+
+      int read = in.read(buffer);
+      while (read != -1) {
+        size += read;
+        if (size > maxSize) {
+          break;
+        }
+
+        out.write(buffer, 0, read);
+        read = in.read(buffer);
+      }
+    } catch (final IOException e) {
+      temp.delete();
+      throw e;
+    }
+
+    if (size > maxSize) {
+      temp.delete();
+      return null;
+    }
+
+    final String hex = toHex(digest.digest());
+    final File target = getFile(hex);
+
+    synchronized (ContentStore.LOCK) {
+      if (target.isFile()) {
+        // already stored
+        temp.delete();
+      } else {
+        final File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+          temp.delete();
+          throw new IOException("could not create directory " + dir);
+        }
+
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      writeRefs(hex, readRefs(hex) + 1);
+    }
+
+    return new Blob(hex, size, getLocation(hex));
+  }
+
+  /**
+   * Adds a reference to already stored contents.
+   *
+   * @param digest
+   *          digest of the contents
+   * @return whether the contents exist
+   * @throws IOException
+   *           if the reference count can't be updated
+   */
+  public boolean acquire(String digest) throws IOException {
+    synchronized (ContentStore.LOCK) {
+      if (getFile(digest) == null || !getFile(digest).isFile()) {
+        return false;
+      }
+
+      writeRefs(digest, readRefs(digest) + 1);
+      return true;
+    }
+  }
+
+  /**
+   * Removes a reference to stored contents, deleting them if it was the last one.
+   *
+   * @param digest
+   *          digest of the contents
+   * @throws IOException
+   *           if the reference count can't be updated
+   */
+  public void release(String digest) throws IOException {
+    synchronized (ContentStore.LOCK) {
+      final File file = getFile(digest);
+      if (file == null || !file.isFile()) {
+        return;
+      }
+
+      final int refs = readRefs(digest) - 1;
+
+      if (refs > 0) {
+        writeRefs(digest, refs);
+      } else {
+        file.delete();
+        getRefsFile(digest).delete();
+        deleteDerived(digest);
+      }
+    }
+  }
+
+  private void deleteDerived(String digest) {
+    final File[] variants = new File(this.fRoot, ContentStore.DERIVED_DIR).listFiles();
+    if (variants == null) {
+      return;
+    }
+
+    final File location = new File(getLocation(digest));
+    final String prefix = location.getName() + '.';
+
+    for (final File variant : variants) {
+      final File[] files = new File(variant, location.getParent()).listFiles();
+      if (files == null) {
+        continue;
+      }
+
+      for (final File derived : files) {
+        if (derived.getName().startsWith(prefix)) {
+          derived.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param digest
+   *          digest of the contents
+   * @return current number of references to the contents
+   * @throws IOException
+   *           if the reference count can't be read
+   */
+  public int getReferences(String digest) throws IOException {
+    synchronized (ContentStore.LOCK) {
+      if (getFile(digest) == null) {
+        return 0;
+      }
+
+      return readRefs(digest);
+    }
+  }
+
+  /**
+   * Returns the file containing the contents with the given digest, which may not exist, or null if
+   * the given string is not a valid digest.
+   *
+   * @param digest
+   *          digest of the contents
+   * @return file containing the contents or null
+   */
+  public File getFile(String digest) {
+    if (digest == null || !ContentStore.DIGEST_PATTERN.matcher(digest).matches()) {
+      return null;
+    }
+
+    return new File(this.fRoot, getLocation(digest));
+  }
+
+  /**
+   * Returns the file a variant derived from the contents with the given digest, such as a
+   * thumbnail, is stored in, which may not exist, or null if the given string is not a valid
+   * digest. Derived files are deleted with the contents.
+   *
+   * @param digest
+   *          digest of the contents
+   * @param variant
+   *          name of the variant
+   * @param extension
+   *          file name extension of the derived file
+   * @return derived file or null
+   */
+  public File getDerivedFile(String digest, String variant, String extension) {
+    if (digest == null || !ContentStore.DIGEST_PATTERN.matcher(digest).matches()) {
+      return null;
+    }
+
+    return new File(this.fRoot, ContentStore.DERIVED_DIR + '/' + variant + '/'
+            + getLocation(digest) + '.' + extension);
+  }
+
+  /**
+   * @param digest
+   *          digest of the contents
+   * @return location of the contents relative to the store's root directory
+   */
+  public static String getLocation(String digest) {
+    return digest.substring(0, 2) + '/' + digest.substring(2, 4) + '/' + digest;
+  }
+
+  private File getRefsFile(String digest) {
+    return new File(this.fRoot, getLocation(digest) + ContentStore.REFS_SUFFIX);
+  }
+
+  private int readRefs(String digest) throws IOException {
+    final File refs = getRefsFile(digest);
+
+    if (!refs.isFile()) {
+      return 0;
+    }
+
+    final String count = new String(Files.readAllBytes(refs.toPath()), ContentStore.REFS_CHARSET);
+    return Integer.parseInt(count.trim());
+  }
+
+  private void writeRefs(String digest, int count) throws IOException {
+    final File refs = getRefsFile(digest);
+    final File temp = new File(refs.getPath() + ".tmp");
+
+    Files.write(temp.toPath(), Integer.toString(count).getBytes(ContentStore.REFS_CHARSET));
+    Files.move(temp.toPath(), refs.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String toHex(byte[] bytes) {
+    final StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+    for (final byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+      hex.append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return hex.toString();
+  }
+
+  /**
+   * Reference to stored contents.
+   */
+  public static class Blob {
+    private final String fDigest;
+    private final long fSize;
+    private final String fLocation;
+
+    private Blob(String digest, long size, String location) {
+      this.fDigest = digest;
+      this.fSize = size;
+      this.fLocation = location;
+    }
+
+    /**
+     * @return hexadecimal SHA-256 digest of the contents
+     */
+    public String getDigest() {
+      return this.fDigest;
+    }
+
+    /**
+     * @return size of the contents in bytes
+     */
+    public long getSize() {
+      return this.fSize;
+    }
+
+    /**
+     * @return location of the contents relative to the store's root directory
+     */
+    public String getLocation() {
+      return this.fLocation;
+    }
+  }
+}
@@ -0,0 +1,599 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Undirected graph over dense vertex numbers stored in compressed sparse row form: the sorted
+ * neighbors of all vertices are concatenated in one array, indexed by an array of offsets. Changes
+ * after construction are kept as replacement neighbor arrays for the affected vertices. Reading is
+ * thread-safe, changes are serialized.
+ */
+public class CsrGraph {
+  private final int[] fOffsets;
+  private final int[] fTargets;
+  private final int fBaseCount;
+
+  // neighbors of vertices changed after construction
+  private final ConcurrentHashMap<Integer, int[]> fPatches;
+  private volatile int fVertexCount;
+  private volatile int fModCount;
+
+  // reusable search state, allocated once per concurrent search instead of once per search
+  private final ConcurrentLinkedQueue<Scratch> fScratches;
+
+  /**
+   * Creates a graph from the given offsets and concatenated neighbor lists. The neighbors of vertex
+   * v are stored in the targets array from offsets[v] to offsets[v + 1], sorted in ascending order.
+   *
+   * @param offsets
+   *          start of each vertex's neighbors, followed by the total number of targets
+   * @param targets
+   *          concatenated neighbor lists
+   */
+  public CsrGraph(int[] offsets, int[] targets) {
+    if (offsets == null || offsets.length == 0) {
+      throw new IllegalArgumentException("no offsets given");
+    }
+    if (targets == null) {
+      throw new NullPointerException("targets were null");
+    }
+
+    this.fOffsets = offsets;
+    this.fTargets = targets;
+    this.fBaseCount = offsets.length - 1;
+    this.fVertexCount = this.fBaseCount;
+    this.fPatches = new ConcurrentHashMap<Integer, int[]>();
+    this.fScratches = new ConcurrentLinkedQueue<Scratch>();
+  }
+
+  /**
+   * @return number of vertices
+   */
+  public int getVertexCount() {
+    return this.fVertexCount;
+  }
+
+  /**
+   * @return number of changes made after construction
+   */
+  public int getModCount() {
+    return this.fModCount;
+  }
+
+  /**
+   * @param vertex
+   *          number of the vertex
+   * @return number of neighbors of the vertex
+   */
+  public int getDegree(int vertex) {
+    final int[] patch = patchOf(vertex);
+    return end(vertex, patch) - begin(vertex, patch);
+  }
+
+  /**
+   * @param vertex
+   *          number of the vertex
+   * @return copy of the sorted neighbors of the vertex
+   */
+  public int[] getNeighbors(int vertex) {
+    final int[] patch = patchOf(vertex);
+    if (patch != null) {
+      return patch.clone();
+    }
+    return Arrays.copyOfRange(this.fTargets, begin(vertex, null), end(vertex, null));
+  }
+
+  /**
+   * Replaces the neighbors of a vertex, updating the neighbor lists of vertices that were added or
+   * removed accordingly.
+   *
+   * @param vertex
+   *          number of the vertex
+   * @param neighbors
+   *          new neighbors of the vertex
+   */
+  public synchronized void setNeighbors(int vertex, int[] neighbors) {
+    final int[] sorted = neighbors.clone();
+    Arrays.sort(sorted);
+
+    final int[] old = getNeighbors(vertex);
+    for (final int neighbor : old) {
+      if (Arrays.binarySearch(sorted, neighbor) < 0) {
+        patch(neighbor, vertex, false);
+      }
+    }
+    for (final int neighbor : sorted) {
+      if (Arrays.binarySearch(old, neighbor) < 0) {
+        patch(neighbor, vertex, true);
+      }
+    }
+
+    grow(vertex);
+    this.fPatches.put(vertex, sorted);
+    ++this.fModCount;
+  }
+
+  /**
+   * Adds an edge between two vertices, adding vertices if necessary.
+   *
+   * @param first
+   *          first vertex
+   * @param second
+   *          second vertex
+   */
+  public synchronized void addEdge(int first, int second) {
+    patch(first, second, true);
+    patch(second, first, true);
+  }
+
+  /**
+   * Removes the edge between two vertices.
+   *
+   * @param first
+   *          first vertex
+   * @param second
+   *          second vertex
+   */
+  public synchronized void removeEdge(int first, int second) {
+    patch(first, second, false);
+    patch(second, first, false);
+  }
+
+  private void patch(int vertex, int neighbor, boolean add) {
+    final int[] neighbors = getNeighbors(vertex);
+    final int index = Arrays.binarySearch(neighbors, neighbor);
+
+    int[] patched = null;
+    if (add && index < 0) {
+      final int pos = -index - 1;
+      patched = new int[neighbors.length + 1];
+      System.arraycopy(neighbors, 0, patched, 0, pos);
+      patched[pos] = neighbor;
+      System.arraycopy(neighbors, pos, patched, pos + 1, neighbors.length - pos);
+    } else if (!add && index >= 0) {
+      patched = new int[neighbors.length - 1];
+      System.arraycopy(neighbors, 0, patched, 0, index);
+      System.arraycopy(neighbors, index + 1, patched, index, patched.length - index);
+    }
+
+    if (patched != null) {
+      grow(Math.max(vertex, neighbor));
+      this.fPatches.put(vertex, patched);
+      ++this.fModCount;
+    }
+  }
+
+  private void grow(int vertex) {
+    if (vertex >= this.fVertexCount) {
+      this.fVertexCount = vertex + 1;
+    }
+  }
+
+  private int[] patchOf(int vertex) {
+    // avoids boxing the vertex number as long as nothing has been changed
+    if (this.fModCount == 0) {
+      return null;
+    }
+    return this.fPatches.get(vertex);
+  }
+
+  private int begin(int vertex, int[] patch) {
+    if (patch != null || vertex >= this.fBaseCount) {
+      return 0;
+    }
+    return this.fOffsets[vertex];
+  }
+
+  private int end(int vertex, int[] patch) {
+    if (patch != null) {
+      return patch.length;
+    }
+    if (vertex >= this.fBaseCount) {
+      return 0;
+    }
+    return this.fOffsets[vertex + 1];
+  }
+
+  private int[] targets(int[] patch) {
+    return patch != null ? patch : this.fTargets;
+  }
+
+  /**
+   * Computes the number of edges on the shortest paths from a vertex to all other vertices.
+   *
+   * @param source
+   *          vertex to start at
+   * @return distances indexed by vertex, -1 for unreachable vertices
+   */
+  public int[] getDistances(int source) {
+    final int count = this.fVertexCount;
+    final int[] distances = new int[count];
+    Arrays.fill(distances, -1);
+    if (source < 0 || source >= count) {
+      return distances;
+    }
+
+    // the distance array doubles as the visited set, the queue as the frontier of all levels
+    final int[] queue = new int[count];
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = source;
+    distances[source] = 0;
+
+    while (head < tail) {
+      final int vertex = queue[head++];
+      final int next = distances[vertex] + 1;
+      final int[] patch = patchOf(vertex);
+      final int[] targets = targets(patch);
+
+      for (int j = begin(vertex, patch), end = end(vertex, patch); j < end; ++j) {
+        final int neighbor = targets[j];
+        if (neighbor < count && distances[neighbor] < 0) {
+          distances[neighbor] = next;
+          queue[tail++] = neighbor;
+        }
+      }
+    }
+
+    return distances;
+  }
+
+  /**
+   * Finds a shortest path between two vertices using a breadth-first search from both ends, always
+   * expanding the smaller frontier. Returns null if there is no path of at most the given length.
+   *
+   * @param source
+   *          vertex to start at
+   * @param target
+   *          vertex to reach
+   * @param maxLength
+   *          maximum number of edges
+   * @return vertices on the path including both ends or null
+   */
+  public int[] getShortestPath(int source, int target, int maxLength) {
+    final int count = this.fVertexCount;
+    if (source < 0 || target < 0 || source >= count || target >= count) {
+      return null;
+    }
+    if (source == target) {
+      return new int[] { source };
+    }
+
+    final Scratch scratch = takeScratch(count);
+    try {
+      return getShortestPath(source, target, maxLength, count, scratch);
+    } finally {
+      this.fScratches.offer(scratch);
+    }
+  }
+
+  private int[] getShortestPath(int source, int target, int maxLength, int count,
+          Scratch scratch) {
+    final int stamp = scratch.next();
+    final int[] forward = scratch.fForward;
+    final int[] backward = scratch.fBackward;
+    final int[] forwardSeen = scratch.fForwardSeen;
+    final int[] backwardSeen = scratch.fBackwardSeen;
+
+    // distances are only valid for vertices marked with the stamp of this search
+    forwardSeen[source] = stamp;
+    forward[source] = 0;
+    backwardSeen[target] = stamp;
+    backward[target] = 0;
+
+    IntList forwardFrontier = IntList.of(source);
+    IntList backwardFrontier = IntList.of(target);
+    int forwardDepth = 0;
+    int backwardDepth = 0;
+
+    int meeting = -1;
+    int best = Integer.MAX_VALUE;
+
+    while (!forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()
+            && forwardDepth + backwardDepth < maxLength) {
+      final boolean fromSource = forwardFrontier.size() <= backwardFrontier.size();
+      final IntList frontier = fromSource ? forwardFrontier : backwardFrontier;
+      final int[] own = fromSource ? forward : backward;
+      final int[] other = fromSource ? backward : forward;
+      final int[] ownSeen = fromSource ? forwardSeen : backwardSeen;
+      final int[] otherSeen = fromSource ? backwardSeen : forwardSeen;
+      final int depth = fromSource ? ++forwardDepth : ++backwardDepth;
+
+      final IntList next = new IntList();
+      for (int i = 0; i < frontier.size(); ++i) {
+        final int vertex = frontier.get(i);
+        final int[] patch = patchOf(vertex);
+        final int[] targets = targets(patch);
+
+        for (int j = begin(vertex, patch), end = end(vertex, patch); j < end; ++j) {
+          final int neighbor = targets[j];
+          if (neighbor >= count || ownSeen[neighbor] == stamp) {
+            continue;
+          }
+
+          ownSeen[neighbor] = stamp;
+          own[neighbor] = depth;
+          next.add(neighbor);
+
+          // complete the level, a later meeting may be closer to the other end
+          if (otherSeen[neighbor] == stamp && depth + other[neighbor] < best) {
+            best = depth + other[neighbor];
+            meeting = neighbor;
+          }
+        }
+      }
+
+      if (meeting >= 0) {
+        break;
+      }
+
+      if (fromSource) {
+        forwardFrontier = next;
+      } else {
+        backwardFrontier = next;
+      }
+    }
+
+    if (meeting < 0 || best > maxLength) {
+      return null;
+    }
+
+    // walk back to both ends along decreasing distances
+    final int[] path = new int[best + 1];
+    final int offset = forward[meeting];
+    path[offset] = meeting;
+
+    int vertex = meeting;
+    for (int d = offset - 1; d >= 0; --d) {
+      vertex = predecessor(vertex, forward, forwardSeen, stamp, d, count);
+      path[d] = vertex;
+    }
+
+    vertex = meeting;
+    for (int d = backward[meeting] - 1; d >= 0; --d) {
+      vertex = predecessor(vertex, backward, backwardSeen, stamp, d, count);
+      path[best - d] = vertex;
+    }
+
+    return path;
+  }
+
+  private int predecessor(int vertex, int[] distances, int[] seen, int stamp, int distance,
+          int count) {
+    final int[] patch = patchOf(vertex);
+    final int[] targets = targets(patch);
+
+    for (int j = begin(vertex, patch), end = end(vertex, patch); j < end; ++j) {
+      final int neighbor = targets[j];
+      if (neighbor < count && seen[neighbor] == stamp && distances[neighbor] == distance) {
+        return neighbor;
+      }
+    }
+
+    throw new IllegalStateException("graph changed during traversal");
+  }
+
+  private Scratch takeScratch(int count) {
+    Scratch scratch = this.fScratches.poll();
+    if (scratch == null || scratch.fForward.length < count) {
+      scratch = new Scratch(count);
+    }
+    return scratch;
+  }
+
+  /**
+   * Collects all vertices reachable from the given vertices over at most the given number of edges,
+   * excluding the given vertices and, if requested, their direct neighbors. Large frontiers are
+   * expanded in parallel using the given pool.
+   *
+   * @param sources
+   *          vertices to start from
+   * @param depth
+   *          maximum number of edges
+   * @param excludeNeighbors
+   *          whether to exclude direct neighbors of the sources
+   * @param pool
+   *          pool for parallel expansion, may be null
+   * @param threshold
+   *          minimum number of frontier vertices per parallel task
+   * @return vertices found in the order of their distance
+   */
+  public int[] getNeighborhood(int[] sources, int depth, boolean excludeNeighbors,
+          ForkJoinPool pool, int threshold) {
+    final int count = this.fVertexCount;
+    final AtomicIntegerArray visited = new AtomicIntegerArray(count);
+
+    IntList frontier = new IntList();
+    for (final int source : sources) {
+      if (source >= 0 && source < count && visited.compareAndSet(source, 0, 1)) {
+        frontier.add(source);
+      }
+    }
+
+    final IntList found = new IntList();
+    for (int level = 1; level <= depth && !frontier.isEmpty(); ++level) {
+      final int[] current = frontier.toArray();
+
+      IntList next = null;
+      if (pool != null && current.length > threshold) {
+        next = pool.invoke(new ExpandTask(current, 0, current.length, visited, count, threshold));
+      } else {
+        next = expand(current, 0, current.length, visited, count);
+      }
+
+      if (level > 1 || !excludeNeighbors) {
+        found.addAll(next);
+      }
+      frontier = next;
+    }
+
+    return found.toArray();
+  }
+
+  private IntList expand(int[] frontier, int from, int to, AtomicIntegerArray visited, int count) {
+    final IntList next = new IntList();
+
+    for (int i = from; i < to; ++i) {
+      final int vertex = frontier[i];
+      final int[] patch = patchOf(vertex);
+      final int[] targets = targets(patch);
+
+      for (int j = begin(vertex, patch), end = end(vertex, patch); j < end; ++j) {
+        final int neighbor = targets[j];
+
+        // claims each vertex for exactly one task
+        if (neighbor < count && visited.get(neighbor) == 0
+                && visited.compareAndSet(neighbor, 0, 1)) {
+          next.add(neighbor);
+        }
+      }
+    }
+
+    return next;
+  }
+
+  /**
+   * Expands a slice of a frontier, splitting it in half until it is small enough.
+   */
+  private final class ExpandTask extends RecursiveTask<IntList> {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fFrontier;
+    private final int fFrom;
+    private final int fTo;
+    private final AtomicIntegerArray fVisited;
+    private final int fCount;
+    private final int fThreshold;
+
+    ExpandTask(int[] frontier, int from, int to, AtomicIntegerArray visited, int count,
+            int threshold) {
+      this.fFrontier = frontier;
+      this.fFrom = from;
+      this.fTo = to;
+      this.fVisited = visited;
+      this.fCount = count;
+      this.fThreshold = Math.max(threshold, 1);
+    }
+
+    @Override
+    protected IntList compute() {
+      if (this.fTo - this.fFrom <= this.fThreshold) {
+        return expand(this.fFrontier, this.fFrom, this.fTo, this.fVisited, this.fCount);
+      }
+
+      final int middle = (this.fFrom + this.fTo) >>> 1;
+      final ExpandTask left = new ExpandTask(this.fFrontier, this.fFrom, middle, this.fVisited,
+              this.fCount, this.fThreshold);
+      final ExpandTask right = new ExpandTask(this.fFrontier, middle, this.fTo, this.fVisited,
+              this.fCount, this.fThreshold);
+
+      left.fork();
+      final IntList result = right.compute();
+      result.addAll(left.join());
+      return result;
+    }
+  }
+
+  /**
+   * Distance arrays for one search at a time. Instead of clearing them, each search marks the
+   * vertices it reaches with a new stamp, so it only touches the part of the graph it visits.
+   */
+  private static final class Scratch {
+    private final int[] fForward;
+    private final int[] fBackward;
+    private final int[] fForwardSeen;
+    private final int[] fBackwardSeen;
+    private int fStamp;
+
+    Scratch(int count) {
+      this.fForward = new int[count];
+      this.fBackward = new int[count];
+      this.fForwardSeen = new int[count];
+      this.fBackwardSeen = new int[count];
+    }
+
+    int next() {
+      if (++this.fStamp == Integer.MAX_VALUE) {
+        // start over before stamps repeat
+        Arrays.fill(this.fForwardSeen, 0);
+        Arrays.fill(this.fBackwardSeen, 0);
+        this.fStamp = 1;
+      }
+      return this.fStamp;
+    }
+  }
+
+  /**
+   * Builds a graph vertex by vertex, appending each vertex's neighbors to the shared target array.
+   */
+  public static class Builder {
+    private int[] fOffsets;
+    private int[] fTargets;
+    private int fCount;
+    private int fEdges;
+
+    /**
+     * Creates an empty builder.
+     */
+    public Builder() {
+      this.fOffsets = new int[1024];
+      this.fTargets = new int[4096];
+    }
+
+    /**
+     * Adds the next vertex with the given neighbors, which do not need to be sorted.
+     *
+     * @param neighbors
+     *          array containing the neighbors
+     * @param length
+     *          number of neighbors in the array
+     * @return number of the vertex
+     */
+    public int addVertex(int[] neighbors, int length) {
+      if (this.fCount + 1 >= this.fOffsets.length) {
+        this.fOffsets = Arrays.copyOf(this.fOffsets, this.fOffsets.length * 2);
+      }
+      if (this.fEdges + length > this.fTargets.length) {
+        this.fTargets = Arrays.copyOf(this.fTargets,
+                Math.max(this.fTargets.length * 2, this.fEdges + length));
+      }
+
+      System.arraycopy(neighbors, 0, this.fTargets, this.fEdges, length);
+      Arrays.sort(this.fTargets, this.fEdges, this.fEdges + length);
+
+      this.fOffsets[this.fCount] = this.fEdges;
+      this.fEdges += length;
+      this.fOffsets[this.fCount + 1] = this.fEdges;
+      return this.fCount++;
+    }
+
+    /**
+     * @return graph containing all vertices added so far
+     */
+    public CsrGraph build() {
+      return new CsrGraph(Arrays.copyOf(this.fOffsets, this.fCount + 1), Arrays.copyOf(
+              this.fTargets, this.fEdges));
+    }
+  }
+}
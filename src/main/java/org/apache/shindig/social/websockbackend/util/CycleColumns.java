@@ -0,0 +1,449 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Append-only columnar storage for the process cycles of one document type. Start and end dates
+ * are kept in primitive arrays and the users involved in each cycle as numbers into a dictionary of
+ * user IDs, concatenated in one array indexed by offsets. Aggregates are computed by scanning the
+ * columns, in parallel for large ranges. Appending is serialized; readers see a consistent prefix
+ * of the cycles without locking.
+ */
+public class CycleColumns {
+  /**
+   * Date stored for cycles without a start or end date.
+   */
+  public static final long NONE = Long.MIN_VALUE;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Map<String, Integer> fUserNumbers;
+  private final List<String> fUserNames;
+
+  private volatile Columns fColumns;
+
+  /**
+   * Creates an empty store.
+   */
+  public CycleColumns() {
+    this.fUserNumbers = new HashMap<String, Integer>();
+    this.fUserNames = new ArrayList<String>();
+    this.fColumns = new Columns(new long[CycleColumns.INITIAL_CAPACITY],
+            new long[CycleColumns.INITIAL_CAPACITY], new int[CycleColumns.INITIAL_CAPACITY + 1],
+            new int[CycleColumns.INITIAL_CAPACITY], 0);
+  }
+
+  /**
+   * Appends a cycle.
+   *
+   * @param start
+   *          start date in milliseconds or {@link #NONE}
+   * @param end
+   *          end date in milliseconds or {@link #NONE}
+   * @param users
+   *          IDs of the users involved in the order they were involved in, may be null
+   */
+  public synchronized void add(long start, long end, List<String> users) {
+    final Columns old = this.fColumns;
+    final int size = old.fSize;
+    final int userCount = users == null ? 0 : users.size();
+    final int userEnd = old.fOffsets[size] + userCount;
+
+    long[] starts = old.fStarts;
+    long[] ends = old.fEnds;
+    int[] offsets = old.fOffsets;
+    int[] userColumn = old.fUsers;
+
+    // grow into copies, readers keep using the old arrays
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, size * 2);
+      ends = Arrays.copyOf(ends, size * 2);
+      offsets = Arrays.copyOf(offsets, size * 2 + 1);
+    }
+    if (userEnd > userColumn.length) {
+      userColumn = Arrays.copyOf(userColumn, Math.max(userEnd, userColumn.length * 2));
+    }
+
+    starts[size] = start;
+    ends[size] = end;
+    for (int i = 0; i < userCount; ++i) {
+      userColumn[offsets[size] + i] = getUserNumber(users.get(i));
+    }
+    offsets[size + 1] = userEnd;
+
+    this.fColumns = new Columns(starts, ends, offsets, userColumn, size + 1);
+  }
+
+  private int getUserNumber(String userId) {
+    synchronized (this.fUserNumbers) {
+      Integer number = this.fUserNumbers.get(userId);
+      if (number == null) {
+        number = this.fUserNames.size();
+        this.fUserNumbers.put(userId, number);
+        this.fUserNames.add(userId);
+      }
+      return number;
+    }
+  }
+
+  /**
+   * @return number of cycles stored
+   */
+  public int size() {
+    return this.fColumns.fSize;
+  }
+
+  /**
+   * @return number of distinct users in the dictionary
+   */
+  public int getUserCount() {
+    synchronized (this.fUserNumbers) {
+      return this.fUserNames.size();
+    }
+  }
+
+  /**
+   * @param number
+   *          number of a user in the dictionary
+   * @return ID of the user
+   */
+  public String getUser(int number) {
+    synchronized (this.fUserNumbers) {
+      return this.fUserNames.get(number);
+    }
+  }
+
+  /**
+   * Returns the earliest and latest end date of all finished cycles or null if there are none.
+   *
+   * @return earliest and latest end date or null
+   */
+  public long[] getEndRange() {
+    final Columns columns = this.fColumns;
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+
+    for (int i = 0; i < columns.fSize; ++i) {
+      final long end = columns.fEnds[i];
+      if (end != CycleColumns.NONE) {
+        min = Math.min(min, end);
+        max = Math.max(max, end);
+      }
+    }
+
+    return min <= max ? new long[] { min, max } : null;
+  }
+
+  /**
+   * Collects the durations of all finished cycles that ended in the given period, in no particular
+   * order.
+   *
+   * @param from
+   *          beginning of the period, inclusive
+   * @param to
+   *          end of the period, exclusive
+   * @param pool
+   *          pool to scan large ranges in parallel with, may be null
+   * @param threshold
+   *          minimum number of cycles per parallel task
+   * @return durations in milliseconds
+   */
+  public long[] getDurations(final long from, final long to, ForkJoinPool pool, int threshold) {
+    final Columns columns = this.fColumns;
+
+    return scan(new Scan<long[]>(0, columns.fSize, threshold) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected long[] scan(int first, int last) {
+        final long[] durations = new long[last - first];
+        int count = 0;
+
+        for (int i = first; i < last; ++i) {
+          final long end = columns.fEnds[i];
+          final long start = columns.fStarts[i];
+          if (end != CycleColumns.NONE && start != CycleColumns.NONE && end >= from && end < to) {
+            durations[count++] = end - start;
+          }
+        }
+
+        return Arrays.copyOf(durations, count);
+      }
+
+      @Override
+      protected long[] merge(long[] left, long[] right) {
+        final long[] merged = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, merged, left.length, right.length);
+        return merged;
+      }
+    }, pool);
+  }
+
+  /**
+   * Counts the cycles that ended in each of the consecutive buckets of the given length, starting
+   * with the beginning of the given period.
+   *
+   * @param from
+   *          beginning of the period, inclusive
+   * @param to
+   *          end of the period, exclusive
+   * @param bucket
+   *          length of a bucket in milliseconds
+   * @param pool
+   *          pool to scan large ranges in parallel with, may be null
+   * @param threshold
+   *          minimum number of cycles per parallel task
+   * @return number of cycles per bucket
+   */
+  public long[] getThroughput(final long from, final long to, final long bucket,
+          ForkJoinPool pool, int threshold) {
+    if (bucket <= 0) {
+      throw new IllegalArgumentException("bucket length must be positive");
+    }
+
+    final Columns columns = this.fColumns;
+    final int buckets = (int) Math.max((to - from + bucket - 1) / bucket, 0);
+
+    return scan(new Scan<long[]>(0, columns.fSize, threshold) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected long[] scan(int first, int last) {
+        final long[] counts = new long[buckets];
+
+        for (int i = first; i < last; ++i) {
+          final long end = columns.fEnds[i];
+          if (end != CycleColumns.NONE && end >= from && end < to) {
+            ++counts[(int) ((end - from) / bucket)];
+          }
+        }
+
+        return counts;
+      }
+
+      @Override
+      protected long[] merge(long[] left, long[] right) {
+        for (int i = 0; i < left.length; ++i) {
+          left[i] += right[i];
+        }
+        return left;
+      }
+    }, pool);
+  }
+
+  /**
+   * Counts the cycles each user was involved in, considering cycles that ended in the given period
+   * and unfinished ones that started in it. Users involved several times in one cycle are counted
+   * for each time.
+   *
+   * @param from
+   *          beginning of the period, inclusive
+   * @param to
+   *          end of the period, exclusive
+   * @param pool
+   *          pool to scan large ranges in parallel with, may be null
+   * @param threshold
+   *          minimum number of cycles per parallel task
+   * @return number of involvements, indexed by the users' numbers in the dictionary
+   */
+  public long[] getParticipation(final long from, final long to, ForkJoinPool pool,
+          int threshold) {
+    final Columns columns = this.fColumns;
+    final int users = getUserCount();
+
+    return scan(new Scan<long[]>(0, columns.fSize, threshold) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected long[] scan(int first, int last) {
+        final long[] counts = new long[users];
+
+        for (int i = first; i < last; ++i) {
+          final long time = columns.fEnds[i] != CycleColumns.NONE ? columns.fEnds[i]
+                  : columns.fStarts[i];
+          if (time < from || time >= to) {
+            continue;
+          }
+
+          for (int j = columns.fOffsets[i]; j < columns.fOffsets[i + 1]; ++j) {
+            final int user = columns.fUsers[j];
+            // users added after the dictionary size was read belong to later cycles
+            if (user < users) {
+              ++counts[user];
+            }
+          }
+        }
+
+        return counts;
+      }
+
+      @Override
+      protected long[] merge(long[] left, long[] right) {
+        for (int i = 0; i < left.length; ++i) {
+          left[i] += right[i];
+        }
+        return left;
+      }
+    }, pool);
+  }
+
+  /**
+   * Builds the directly-follows graph of the cycles in the given range of positions, i.e. counts
+   * how often each user directly followed another one in a cycle. Since only the start and end of a
+   * cycle are known, the delay of each of its handoffs is estimated as its duration divided by its
+   * number of handoffs; handoffs of unfinished cycles have no delay.
+   *
+   * @param first
+   *          position of the first cycle, inclusive
+   * @param last
+   *          position of the last cycle, exclusive
+   * @param pool
+   *          pool to scan large ranges in parallel with, may be null
+   * @param threshold
+   *          minimum number of cycles per parallel task
+   * @return directly-follows graph of the cycles
+   */
+  public FollowsGraph getFollowsGraph(int first, int last, ForkJoinPool pool, int threshold) {
+    final Columns columns = this.fColumns;
+
+    return scan(new Scan<FollowsGraph>(Math.max(first, 0), Math.min(last, columns.fSize),
+            threshold) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected FollowsGraph scan(int first, int last) {
+        final FollowsGraph graph = new FollowsGraph();
+
+        for (int i = first; i < last; ++i) {
+          graph.addCycle();
+
+          final int from = columns.fOffsets[i];
+          final int to = columns.fOffsets[i + 1];
+          final int handoffs = to - from - 1;
+          if (handoffs <= 0) {
+            continue;
+          }
+
+          final long start = columns.fStarts[i];
+          final long end = columns.fEnds[i];
+          final boolean timed = start != CycleColumns.NONE && end != CycleColumns.NONE;
+          final long delay = timed ? (end - start) / handoffs : 0;
+
+          for (int j = from + 1; j < to; ++j) {
+            if (timed) {
+              graph.addHandoff(columns.fUsers[j - 1], columns.fUsers[j], delay);
+            } else {
+              graph.addHandoff(columns.fUsers[j - 1], columns.fUsers[j]);
+            }
+          }
+        }
+
+        return graph;
+      }
+
+      @Override
+      protected FollowsGraph merge(FollowsGraph left, FollowsGraph right) {
+        left.addAll(right);
+        return left;
+      }
+    }, pool);
+  }
+
+  private <T> T scan(Scan<T> scan, ForkJoinPool pool) {
+    if (pool == null) {
+      return scan.scan(scan.fFirst, scan.fLast);
+    }
+    return pool.invoke(scan);
+  }
+
+  /**
+   * Scan over a range of cycles, splitting it in half until it is small enough and merging the
+   * partial results.
+   *
+   * @param <T>
+   *          type of result
+   */
+  private abstract static class Scan<T> extends RecursiveTask<T> {
+    private static final long serialVersionUID = 1L;
+
+    private final int fFirst;
+    private final int fLast;
+    private final int fThreshold;
+
+    Scan(int first, int last, int threshold) {
+      this.fFirst = first;
+      this.fLast = last;
+      this.fThreshold = Math.max(threshold, 1);
+    }
+
+    protected abstract T scan(int first, int last);
+
+    protected abstract T merge(T left, T right);
+
+    @Override
+    protected T compute() {
+      return compute(this.fFirst, this.fLast);
+    }
+
+    private T compute(final int first, final int last) {
+      if (last - first <= this.fThreshold) {
+        return scan(first, last);
+      }
+
+      final int middle = (first + last) >>> 1;
+      final RecursiveTask<T> left = new RecursiveTask<T>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected T compute() {
+          return Scan.this.compute(first, middle);
+        }
+      };
+
+      left.fork();
+      final T right = compute(middle, last);
+      return merge(left.join(), right);
+    }
+  }
+
+  /**
+   * Published state of the columns; the arrays may be longer than the number of cycles.
+   */
+  private static final class Columns {
+    private final long[] fStarts;
+    private final long[] fEnds;
+    private final int[] fOffsets;
+    private final int[] fUsers;
+    private final int fSize;
+
+    Columns(long[] starts, long[] ends, int[] offsets, int[] users, int size) {
+      this.fStarts = starts;
+      this.fEnds = ends;
+      this.fOffsets = offsets;
+      this.fUsers = users;
+      this.fSize = size;
+    }
+  }
+}
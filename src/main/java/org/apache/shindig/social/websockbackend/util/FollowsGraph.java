@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directly-follows graph of process cycles: how often the work on a document was handed from one
+ * user to the next, with the accumulated delay of the handoffs whose delay is known. Users are
+ * identified by their numbers in a dictionary. Graphs over disjoint sets of cycles can be merged.
+ */
+public class FollowsGraph {
+  /**
+   * Mean delay reported for handoffs without a known delay.
+   */
+  public static final long NONE = Long.MIN_VALUE;
+
+  private final Map<Long, Edge> fEdges;
+  private long fCycles;
+
+  /**
+   * Creates an empty graph.
+   */
+  public FollowsGraph() {
+    this.fEdges = new HashMap<Long, Edge>();
+  }
+
+  /**
+   * Creates a copy of the given graph.
+   *
+   * @param other
+   *          graph to copy
+   */
+  public FollowsGraph(FollowsGraph other) {
+    this();
+    addAll(other);
+  }
+
+  /**
+   * Counts a cycle contributing to the graph, regardless of whether it contains any handoffs.
+   */
+  public void addCycle() {
+    ++this.fCycles;
+  }
+
+  /**
+   * Records a handoff between two users with an unknown delay.
+   *
+   * @param from
+   *          number of the user handing off
+   * @param to
+   *          number of the user taking over
+   */
+  public void addHandoff(int from, int to) {
+    getEdge(from, to).fCount++;
+  }
+
+  /**
+   * Records a handoff between two users with the given delay.
+   *
+   * @param from
+   *          number of the user handing off
+   * @param to
+   *          number of the user taking over
+   * @param delay
+   *          delay of the handoff in milliseconds
+   */
+  public void addHandoff(int from, int to, long delay) {
+    final Edge edge = getEdge(from, to);
+    edge.fCount++;
+    edge.fTimed++;
+    edge.fDelay += delay;
+  }
+
+  private Edge getEdge(int from, int to) {
+    final Long key = (long) from << 32 | to & 0xffffffffL;
+
+    Edge edge = this.fEdges.get(key);
+    if (edge == null) {
+      edge = new Edge(from, to);
+      this.fEdges.put(key, edge);
+    }
+    return edge;
+  }
+
+  /**
+   * Adds the cycles and handoffs of another graph to this one.
+   *
+   * @param other
+   *          graph to add
+   */
+  public void addAll(FollowsGraph other) {
+    this.fCycles += other.fCycles;
+
+    for (final Edge edge : other.fEdges.values()) {
+      final Edge own = getEdge(edge.fFrom, edge.fTo);
+      own.fCount += edge.fCount;
+      own.fTimed += edge.fTimed;
+      own.fDelay += edge.fDelay;
+    }
+  }
+
+  /**
+   * @return number of cycles the graph was built from
+   */
+  public long getCycleCount() {
+    return this.fCycles;
+  }
+
+  /**
+   * @return number of distinct pairs of users with handoffs
+   */
+  public int getEdgeCount() {
+    return this.fEdges.size();
+  }
+
+  /**
+   * @return all pairs of users with handoffs in no particular order
+   */
+  public List<Edge> getEdges() {
+    return new ArrayList<Edge>(this.fEdges.values());
+  }
+
+  /**
+   * Handoffs from one user to another.
+   */
+  public static class Edge {
+    private final int fFrom;
+    private final int fTo;
+    private long fCount;
+    private long fTimed;
+    private long fDelay;
+
+    Edge(int from, int to) {
+      this.fFrom = from;
+      this.fTo = to;
+    }
+
+    /**
+     * @return number of the user handing off
+     */
+    public int getFrom() {
+      return this.fFrom;
+    }
+
+    /**
+     * @return number of the user taking over
+     */
+    public int getTo() {
+      return this.fTo;
+    }
+
+    /**
+     * @return number of handoffs
+     */
+    public long getCount() {
+      return this.fCount;
+    }
+
+    /**
+     * @return mean delay of the handoffs with a known delay in milliseconds or {@link #NONE}
+     */
+    public long getMeanDelay() {
+      return this.fTimed > 0 ? this.fDelay / this.fTimed : FollowsGraph.NONE;
+    }
+  }
+}
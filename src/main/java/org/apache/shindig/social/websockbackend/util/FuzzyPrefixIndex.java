@@ -0,0 +1,285 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Vocabulary of keys with display names and popularities, completing fragments that may contain
+ * typos. Keys whose prefix is within a bounded edit distance of a fragment match; insertions,
+ * deletions, substitutions and transpositions of adjacent characters count as one edit each. The
+ * keys are kept in a sorted array, whose ranges of keys sharing a prefix form the nodes of an
+ * implicit trie; it is searched depth first, computing one row of the edit distance matrix per
+ * node like a Levenshtein automaton would and skipping subtrees that can't match anymore. As most
+ * of the work is spent near the root, a number of leading characters can be required to match
+ * exactly. Changes are collected and the array is rebuilt on the next search. All methods are
+ * thread-safe.
+ */
+public class FuzzyPrefixIndex {
+  private static final int MAX_POPULARITY = (1 << 26) - 1;
+
+  private final TreeMap<String, Entry> fEntries;
+
+  private volatile Snapshot fSnapshot;
+
+  /**
+   * Creates an empty vocabulary.
+   */
+  public FuzzyPrefixIndex() {
+    this.fEntries = new TreeMap<String, Entry>();
+    this.fSnapshot = new Snapshot(this.fEntries);
+  }
+
+  /**
+   * Adds or updates a key.
+   *
+   * @param key
+   *          key to match fragments against
+   * @param display
+   *          name to return for the key, null to keep the current one
+   * @param popularity
+   *          popularity of the key, removing it if below 1
+   */
+  public synchronized void put(String key, String display, int popularity) {
+    if (popularity < 1) {
+      remove(key);
+      return;
+    }
+
+    final Entry old = this.fEntries.get(key);
+    if (display == null) {
+      display = old != null ? old.fDisplay : key;
+    }
+    this.fEntries.put(key, new Entry(display, popularity));
+    this.fSnapshot = null;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key
+   *          key to remove
+   */
+  public synchronized void remove(String key) {
+    if (this.fEntries.remove(key) != null) {
+      this.fSnapshot = null;
+    }
+  }
+
+  /**
+   * @return number of keys
+   */
+  public synchronized int size() {
+    return this.fEntries.size();
+  }
+
+  private Snapshot getSnapshot() {
+    Snapshot snapshot = this.fSnapshot;
+
+    if (snapshot == null) {
+      synchronized (this) {
+        snapshot = this.fSnapshot;
+        if (snapshot == null) {
+          snapshot = new Snapshot(this.fEntries);
+          this.fSnapshot = snapshot;
+        }
+      }
+    }
+
+    return snapshot;
+  }
+
+  /**
+   * Returns the display names of the keys completing the given fragment, fewest edits first, then
+   * most popular first.
+   *
+   * @param fragment
+   *          fragment to complete
+   * @param maxDistance
+   *          maximum number of edits, below 32
+   * @param exactPrefix
+   *          number of leading characters that need to match exactly
+   * @param limit
+   *          maximum number of results
+   * @return display names of the completions
+   */
+  public List<String> complete(String fragment, int maxDistance, int exactPrefix, int limit) {
+    final Snapshot snapshot = getSnapshot();
+    final Search search = new Search(snapshot, fragment, maxDistance,
+            Math.min(exactPrefix, fragment.length()));
+
+    final int[] row = new int[fragment.length() + 1];
+    for (int j = 0; j < row.length; ++j) {
+      row[j] = j;
+    }
+    search.visit(0, snapshot.fKeys.length, 0, row, null, (char) 0, row[fragment.length()]);
+
+    return search.getResults(limit);
+  }
+
+  private static class Entry {
+    private final String fDisplay;
+    private final int fPopularity;
+
+    Entry(String display, int popularity) {
+      this.fDisplay = display;
+      this.fPopularity = popularity;
+    }
+  }
+
+  private static class Snapshot {
+    private final String[] fKeys;
+    private final String[] fDisplays;
+    private final int[] fPopularities;
+
+    Snapshot(TreeMap<String, Entry> entries) {
+      this.fKeys = new String[entries.size()];
+      this.fDisplays = new String[entries.size()];
+      this.fPopularities = new int[entries.size()];
+
+      int i = 0;
+      for (final Map.Entry<String, Entry> entryE : entries.entrySet()) {
+        this.fKeys[i] = entryE.getKey();
+        this.fDisplays[i] = entryE.getValue().fDisplay;
+        this.fPopularities[i++] = entryE.getValue().fPopularity;
+      }
+    }
+  }
+
+  private static class Search {
+    private final Snapshot fSnapshot;
+    private final String fFragment;
+    private final int fMaxDistance;
+    private final int fExactPrefix;
+
+    // distance, inverted popularity and index packed to sort by
+    private long[] fMatches;
+    private int fSize;
+
+    Search(Snapshot snapshot, String fragment, int maxDistance, int exactPrefix) {
+      this.fSnapshot = snapshot;
+      this.fFragment = fragment;
+      this.fMaxDistance = maxDistance;
+      this.fExactPrefix = exactPrefix;
+      this.fMatches = new long[16];
+    }
+
+    /**
+     * Visits the keys in the given range, which share a prefix of the given depth whose distance
+     * row is given; the best distance is the lowest distance of the whole fragment to the prefix
+     * or any shorter one.
+     */
+    void visit(int first, int last, int depth, int[] row, int[] previousRow, char previousChar,
+            int best) {
+      final String[] keys = this.fSnapshot.fKeys;
+
+      int min = Integer.MAX_VALUE;
+      for (final int distance : row) {
+        min = Math.min(min, distance);
+      }
+
+      // no longer prefix can get closer, complete with all keys or none
+      if (min > this.fMaxDistance) {
+        if (best <= this.fMaxDistance) {
+          for (int i = first; i < last; ++i) {
+            match(i, best);
+          }
+        }
+        return;
+      }
+
+      // keys ending here sort first
+      int start = first;
+      while (start < last && keys[start].length() == depth) {
+        if (best <= this.fMaxDistance) {
+          match(start, best);
+        }
+        ++start;
+      }
+
+      final int length = this.fFragment.length();
+      while (start < last) {
+        final char c = keys[start].charAt(depth);
+        final int end = endOf(start, last, depth, c);
+
+        if (depth < this.fExactPrefix && c != this.fFragment.charAt(depth)) {
+          start = end;
+          continue;
+        }
+
+        final int[] next = new int[length + 1];
+        next[0] = row[0] + 1;
+        for (int j = 1; j <= length; ++j) {
+          final char f = this.fFragment.charAt(j - 1);
+          int distance = Math.min(row[j] + 1, next[j - 1] + 1);
+          distance = Math.min(distance, row[j - 1] + (f == c ? 0 : 1));
+
+          // transposition of adjacent characters
+          if (previousRow != null && j > 1 && f == previousChar
+                  && this.fFragment.charAt(j - 2) == c) {
+            distance = Math.min(distance, previousRow[j - 2] + 1);
+          }
+          next[j] = distance;
+        }
+
+        visit(start, end, depth + 1, next, row, c, Math.min(best, next[length]));
+        start = end;
+      }
+    }
+
+    private int endOf(int start, int last, int depth, char c) {
+      // first key after the start with a different character at the depth
+      final String[] keys = this.fSnapshot.fKeys;
+      int low = start + 1;
+      int high = last;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (keys[mid].charAt(depth) == c) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    private void match(int index, int distance) {
+      if (this.fSize == this.fMatches.length) {
+        this.fMatches = Arrays.copyOf(this.fMatches, this.fSize * 2);
+      }
+
+      final int popularity = Math.min(this.fSnapshot.fPopularities[index],
+              FuzzyPrefixIndex.MAX_POPULARITY);
+      this.fMatches[this.fSize++] = (long) distance << 58
+              | (long) (FuzzyPrefixIndex.MAX_POPULARITY - popularity) << 32 | index;
+    }
+
+    List<String> getResults(int limit) {
+      Arrays.sort(this.fMatches, 0, this.fSize);
+
+      final List<String> results = new ArrayList<String>(Math.min(this.fSize, limit));
+      for (int i = 0; i < this.fSize && i < limit; ++i) {
+        results.add(this.fSnapshot.fDisplays[(int) this.fMatches[i]]);
+      }
+      return results;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable forest of "manager of" relations over dense vertex numbers. The Euler tour of each tree
+ * lists a vertex whenever the walk through the tree enters or returns to it; the lowest common
+ * manager of two vertices is the shallowest vertex between their first occurrences, found in a
+ * segment tree over the tour in logarithmic time. The same walk lists the vertices in preorder, so
+ * everyone managed by a vertex directly or indirectly follows it in one contiguous range. Cyclic
+ * manager relations are cut where the walk up from a vertex first returns to itself.
+ */
+public class HierarchyTree {
+  private final int[] fManagers;
+  private final int[] fDepths;
+  private final int[] fRoots;
+  private final int[] fFirst;
+
+  // vertices in preorder, the position of each vertex in it and the size of its subtree
+  private final int[] fOrder;
+  private final int[] fPositions;
+  private final int[] fSizes;
+
+  // Euler tour and segment tree holding the shallowest vertex of each range of it
+  private final int fTourLength;
+  private final int[] fSegments;
+
+  /**
+   * Creates a hierarchy from the manager of each vertex, -1 for vertices without a manager.
+   * Managers outside the range of vertices are ignored.
+   *
+   * @param managers
+   *          manager of each vertex or -1
+   */
+  public HierarchyTree(int[] managers) {
+    final int count = managers.length;
+    this.fManagers = managers.clone();
+    for (int v = 0; v < count; ++v) {
+      if (this.fManagers[v] < 0 || this.fManagers[v] >= count) {
+        this.fManagers[v] = -1;
+      }
+    }
+    breakCycles();
+
+    // children of each vertex in compressed form
+    final int[] offsets = new int[count + 1];
+    for (int v = 0; v < count; ++v) {
+      if (this.fManagers[v] >= 0) {
+        ++offsets[this.fManagers[v] + 1];
+      }
+    }
+    for (int v = 0; v < count; ++v) {
+      offsets[v + 1] += offsets[v];
+    }
+    final int[] fill = Arrays.copyOf(offsets, count);
+    final int[] children = new int[offsets[count]];
+    for (int v = 0; v < count; ++v) {
+      if (this.fManagers[v] >= 0) {
+        children[fill[this.fManagers[v]]++] = v;
+      }
+    }
+
+    this.fDepths = new int[count];
+    this.fRoots = new int[count];
+    this.fFirst = new int[count];
+    this.fOrder = new int[count];
+    this.fPositions = new int[count];
+    this.fSizes = new int[count];
+    int visited = 0;
+
+    // each tree of k vertices contributes 2k - 1 entries
+    final int[] tour = new int[Math.max(2 * count - 1, 1)];
+    int length = 0;
+
+    final int[] stack = new int[count];
+    final int[] next = new int[count];
+    for (int root = 0; root < count; ++root) {
+      if (this.fManagers[root] >= 0) {
+        continue;
+      }
+
+      int top = 0;
+      stack[0] = root;
+      next[root] = offsets[root];
+      this.fRoots[root] = root;
+      this.fFirst[root] = length;
+      tour[length++] = root;
+      this.fPositions[root] = visited;
+      this.fOrder[visited++] = root;
+
+      while (top >= 0) {
+        final int vertex = stack[top];
+        if (next[vertex] < offsets[vertex + 1]) {
+          final int child = children[next[vertex]++];
+          this.fDepths[child] = this.fDepths[vertex] + 1;
+          this.fRoots[child] = root;
+          this.fFirst[child] = length;
+          this.fPositions[child] = visited;
+          this.fOrder[visited++] = child;
+          next[child] = offsets[child];
+          tour[length++] = child;
+          stack[++top] = child;
+        } else if (--top >= 0) {
+          tour[length++] = stack[top];
+        }
+      }
+    }
+
+    // managers precede their subordinates in preorder
+    for (int i = count - 1; i >= 0; --i) {
+      final int vertex = this.fOrder[i];
+      this.fSizes[vertex] += 1;
+      if (this.fManagers[vertex] >= 0) {
+        this.fSizes[this.fManagers[vertex]] += this.fSizes[vertex];
+      }
+    }
+
+    this.fTourLength = length;
+    this.fSegments = new int[2 * length];
+    System.arraycopy(tour, 0, this.fSegments, length, length);
+    for (int i = length - 1; i > 0; --i) {
+      this.fSegments[i] = shallower(this.fSegments[2 * i], this.fSegments[2 * i + 1]);
+    }
+  }
+
+  private void breakCycles() {
+    // 0: unvisited, 1: on the current walk up, 2: leads to a root
+    final byte[] state = new byte[this.fManagers.length];
+    final IntList walk = new IntList();
+
+    for (int v = 0; v < this.fManagers.length; ++v) {
+      walk.clear();
+
+      int vertex = v;
+      while (vertex >= 0 && state[vertex] == 0) {
+        state[vertex] = 1;
+        walk.add(vertex);
+        vertex = this.fManagers[vertex];
+      }
+
+      if (vertex >= 0 && state[vertex] == 1) {
+        // returned to a vertex of this walk, cut the last step
+        this.fManagers[walk.get(walk.size() - 1)] = -1;
+      }
+
+      for (int i = 0; i < walk.size(); ++i) {
+        state[walk.get(i)] = 2;
+      }
+    }
+  }
+
+  private int shallower(int first, int second) {
+    return this.fDepths[second] < this.fDepths[first] ? second : first;
+  }
+
+  /**
+   * @return number of vertices
+   */
+  public int getVertexCount() {
+    return this.fManagers.length;
+  }
+
+  /**
+   * @param vertex
+   *          number of the vertex
+   * @return manager of the vertex or -1
+   */
+  public int getManager(int vertex) {
+    return this.fManagers[vertex];
+  }
+
+  /**
+   * @param vertex
+   *          number of the vertex
+   * @return number of managers above the vertex
+   */
+  public int getDepth(int vertex) {
+    return this.fDepths[vertex];
+  }
+
+  /**
+   * Determines the lowest vertex managing both given vertices directly or indirectly, which may be
+   * one of them. Returns -1 if they are not in the same hierarchy.
+   *
+   * @param first
+   *          number of the first vertex
+   * @param second
+   *          number of the second vertex
+   * @return lowest common manager or -1
+   */
+  public int getCommonManager(int first, int second) {
+    if (this.fRoots[first] != this.fRoots[second]) {
+      return -1;
+    }
+
+    int from = Math.min(this.fFirst[first], this.fFirst[second]) + this.fTourLength;
+    int to = Math.max(this.fFirst[first], this.fFirst[second]) + this.fTourLength + 1;
+
+    int result = first;
+    while (from < to) {
+      if ((from & 1) == 1) {
+        result = shallower(result, this.fSegments[from++]);
+      }
+      if ((to & 1) == 1) {
+        result = shallower(result, this.fSegments[--to]);
+      }
+      from >>= 1;
+      to >>= 1;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the vertices on the path from one vertex up to their lowest common manager and down to
+   * the other vertex, including both ends. Returns null if they are not in the same hierarchy.
+   *
+   * @param source
+   *          vertex to start at
+   * @param target
+   *          vertex to reach
+   * @return vertices on the path or null
+   */
+  public int[] getPath(int source, int target) {
+    final int common = getCommonManager(source, target);
+    if (common < 0) {
+      return null;
+    }
+
+    final int up = this.fDepths[source] - this.fDepths[common];
+    final int down = this.fDepths[target] - this.fDepths[common];
+    final int[] path = new int[up + down + 1];
+
+    int vertex = source;
+    for (int i = 0; i <= up; ++i) {
+      path[i] = vertex;
+      vertex = this.fManagers[vertex];
+    }
+
+    vertex = target;
+    for (int i = path.length - 1; i > up; --i) {
+      path[i] = vertex;
+      vertex = this.fManagers[vertex];
+    }
+
+    return path;
+  }
+
+  /**
+   * @param vertex
+   *          number of the vertex
+   * @return number of vertices managed by the vertex directly or indirectly
+   */
+  public int getSubordinateCount(int vertex) {
+    return this.fSizes[vertex] - 1;
+  }
+
+  /**
+   * Returns the vertices managed by a vertex directly or indirectly up to the given number of
+   * levels below it, in preorder, i.e. each vertex is followed by its own subordinates.
+   *
+   * @param vertex
+   *          number of the vertex
+   * @param depth
+   *          maximum number of levels below the vertex
+   * @return subordinates in preorder
+   */
+  public int[] getSubordinates(int vertex, int depth) {
+    final int from = this.fPositions[vertex] + 1;
+    final int to = this.fPositions[vertex] + this.fSizes[vertex];
+    final int maxDepth = (int) Math.min((long) this.fDepths[vertex] + depth, Integer.MAX_VALUE);
+
+    final IntList subordinates = new IntList();
+    for (int i = from; i < to; ++i) {
+      if (this.fDepths[this.fOrder[i]] <= maxDepth) {
+        subordinates.add(this.fOrder[i]);
+      }
+    }
+    return subordinates.toArray();
+  }
+}
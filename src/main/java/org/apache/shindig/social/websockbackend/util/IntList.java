@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive integers. Not thread-safe.
+ */
+public class IntList {
+  private int[] fValues;
+  private int fSize;
+
+  /**
+   * Creates an empty list.
+   */
+  public IntList() {
+    this.fValues = new int[16];
+  }
+
+  /**
+   * Creates a list containing the given values.
+   *
+   * @param values
+   *          values to add
+   * @return new list
+   */
+  public static IntList of(int... values) {
+    final IntList list = new IntList();
+    for (final int value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  /**
+   * @param value
+   *          value to append
+   */
+  public void add(int value) {
+    if (this.fSize == this.fValues.length) {
+      this.fValues = Arrays.copyOf(this.fValues, this.fSize * 2);
+    }
+    this.fValues[this.fSize++] = value;
+  }
+
+  /**
+   * @param other
+   *          list whose values to append
+   */
+  public void addAll(IntList other) {
+    if (this.fSize + other.fSize > this.fValues.length) {
+      this.fValues = Arrays.copyOf(this.fValues,
+              Math.max(this.fValues.length * 2, this.fSize + other.fSize));
+    }
+    System.arraycopy(other.fValues, 0, this.fValues, this.fSize, other.fSize);
+    this.fSize += other.fSize;
+  }
+
+  /**
+   * @param index
+   *          index of the value
+   * @return value at the index
+   */
+  public int get(int index) {
+    if (index >= this.fSize) {
+      throw new IndexOutOfBoundsException("index " + index + ", size " + this.fSize);
+    }
+    return this.fValues[index];
+  }
+
+  /**
+   * @return number of values
+   */
+  public int size() {
+    return this.fSize;
+  }
+
+  /**
+   * @return whether the list is empty
+   */
+  public boolean isEmpty() {
+    return this.fSize == 0;
+  }
+
+  /**
+   * Removes all values.
+   */
+  public void clear() {
+    this.fSize = 0;
+  }
+
+  /**
+   * @return copy of the values
+   */
+  public int[] toArray() {
+    return Arrays.copyOf(this.fValues, this.fSize);
+  }
+}
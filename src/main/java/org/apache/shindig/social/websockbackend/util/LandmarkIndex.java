@@ -0,0 +1,259 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed distances from a few well connected landmark vertices to all vertices of a graph.
+ * By the triangle inequality, the distance between two vertices lies between the largest
+ * difference and the smallest sum of their distances to any landmark, so both bounds take time
+ * proportional to the number of landmarks. If they meet, the path over the landmark achieving the
+ * upper bound is a shortest path and no search is needed. Distances are only valid for the state of
+ * the graph they were computed for.
+ */
+public class LandmarkIndex {
+  /**
+   * Distance returned for vertices that are not connected.
+   */
+  public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private final CsrGraph fGraph;
+  private final int fModCount;
+  private final int[] fLandmarks;
+  private final int[][] fDistances;
+
+  private LandmarkIndex(CsrGraph graph, int modCount, int[] landmarks, int[][] distances) {
+    this.fGraph = graph;
+    this.fModCount = modCount;
+    this.fLandmarks = landmarks;
+    this.fDistances = distances;
+  }
+
+  /**
+   * Selects up to the given number of landmarks among the vertices with the most neighbors,
+   * skipping neighbors of already selected landmarks to spread them out, and computes their
+   * distances to all vertices.
+   *
+   * @param graph
+   *          graph to index
+   * @param count
+   *          maximum number of landmarks
+   * @return new landmark index
+   */
+  public static LandmarkIndex build(CsrGraph graph, int count) {
+    final int modCount = graph.getModCount();
+    final int vertices = graph.getVertexCount();
+
+    // vertices sorted by descending degree
+    final long[] byDegree = new long[vertices];
+    for (int v = 0; v < vertices; ++v) {
+      byDegree[v] = (long) -graph.getDegree(v) << 32 | v;
+    }
+    Arrays.sort(byDegree);
+
+    final boolean[] excluded = new boolean[vertices];
+    final IntList landmarks = new IntList();
+
+    for (int i = 0; i < vertices && landmarks.size() < count; ++i) {
+      final int vertex = (int) byDegree[i];
+      if (excluded[vertex] || graph.getDegree(vertex) == 0) {
+        continue;
+      }
+
+      landmarks.add(vertex);
+      for (final int neighbor : graph.getNeighbors(vertex)) {
+        if (neighbor < vertices) {
+          excluded[neighbor] = true;
+        }
+      }
+    }
+
+    final int[] selected = landmarks.toArray();
+    final int[][] distances = new int[selected.length][];
+    for (int i = 0; i < selected.length; ++i) {
+      distances[i] = graph.getDistances(selected[i]);
+    }
+
+    return new LandmarkIndex(graph, modCount, selected, distances);
+  }
+
+  /**
+   * @return whether the graph has not been changed since the distances were computed
+   */
+  public boolean isCurrent() {
+    return this.fGraph.getModCount() == this.fModCount;
+  }
+
+  /**
+   * @return landmark vertices
+   */
+  public int[] getLandmarks() {
+    return this.fLandmarks.clone();
+  }
+
+  /**
+   * Computes a lower bound for the distance between two vertices. Returns {@link #UNREACHABLE} if
+   * a landmark reaches exactly one of them, which means they are not connected.
+   *
+   * @param source
+   *          first vertex
+   * @param target
+   *          second vertex
+   * @return lower bound for the distance
+   */
+  public int getLowerBound(int source, int target) {
+    if (source == target) {
+      return 0;
+    }
+    if (this.fDistances.length > 0
+            && Math.max(source, target) >= this.fDistances[0].length) {
+      // added later, no information
+      return 0;
+    }
+
+    int bound = 0;
+    for (final int[] distances : this.fDistances) {
+      final int toSource = distance(distances, source);
+      final int toTarget = distance(distances, target);
+
+      if ((toSource < 0) != (toTarget < 0)) {
+        return LandmarkIndex.UNREACHABLE;
+      }
+      bound = Math.max(bound, Math.abs(toSource - toTarget));
+    }
+
+    return bound;
+  }
+
+  /**
+   * Computes an upper bound for the distance between two vertices as the length of the shortest
+   * path over a landmark. Returns {@link #UNREACHABLE} if no landmark reaches both of them.
+   *
+   * @param source
+   *          first vertex
+   * @param target
+   *          second vertex
+   * @return upper bound for the distance
+   */
+  public int getUpperBound(int source, int target) {
+    final int landmark = bestLandmark(source, target);
+    if (landmark < 0) {
+      return LandmarkIndex.UNREACHABLE;
+    }
+
+    final int[] distances = this.fDistances[landmark];
+    return distances[source] + distances[target];
+  }
+
+  /**
+   * Returns the path between two vertices over the landmark achieving the upper bound, following
+   * decreasing distances towards the landmark from both ends. Returns null if no landmark reaches
+   * both vertices.
+   *
+   * @param source
+   *          vertex to start at
+   * @param target
+   *          vertex to reach
+   * @return vertices on the path including both ends or null
+   */
+  public int[] getPathVia(int source, int target) {
+    if (source == target) {
+      return new int[] { source };
+    }
+
+    final int landmark = bestLandmark(source, target);
+    if (landmark < 0) {
+      return null;
+    }
+
+    final int[] distances = this.fDistances[landmark];
+    final int toSource = distances[source];
+    final int toTarget = distances[target];
+    final int[] path = new int[toSource + toTarget + 1];
+
+    int vertex = source;
+    for (int i = 0; i <= toSource; ++i) {
+      path[i] = vertex;
+      if (i < toSource) {
+        vertex = closer(vertex, distances);
+      }
+    }
+
+    vertex = target;
+    for (int i = path.length - 1; i >= toSource; --i) {
+      path[i] = vertex;
+      if (i > toSource) {
+        vertex = closer(vertex, distances);
+      }
+    }
+
+    return path;
+  }
+
+  /**
+   * Returns the length of the shortest path between two vertices if the bounds determine it, i.e.
+   * they are equal or the vertices are known not to be connected. Returns -1 otherwise.
+   *
+   * @param source
+   *          first vertex
+   * @param target
+   *          second vertex
+   * @return exact distance, {@link #UNREACHABLE} or -1
+   */
+  public int getExactDistance(int source, int target) {
+    final int lower = getLowerBound(source, target);
+    if (lower == LandmarkIndex.UNREACHABLE || lower == getUpperBound(source, target)) {
+      return lower;
+    }
+    return -1;
+  }
+
+  private int bestLandmark(int source, int target) {
+    int best = -1;
+    int bestLength = Integer.MAX_VALUE;
+
+    for (int i = 0; i < this.fDistances.length; ++i) {
+      final int toSource = distance(this.fDistances[i], source);
+      final int toTarget = distance(this.fDistances[i], target);
+
+      if (toSource >= 0 && toTarget >= 0 && toSource + toTarget < bestLength) {
+        best = i;
+        bestLength = toSource + toTarget;
+      }
+    }
+
+    return best;
+  }
+
+  private int closer(int vertex, int[] distances) {
+    final int wanted = distances[vertex] - 1;
+
+    for (final int neighbor : this.fGraph.getNeighbors(vertex)) {
+      if (neighbor < distances.length && distances[neighbor] == wanted) {
+        return neighbor;
+      }
+    }
+
+    throw new IllegalStateException("graph changed since landmarks were computed");
+  }
+
+  private static int distance(int[] distances, int vertex) {
+    // vertices added later are not known to any landmark
+    return vertex < distances.length ? distances[vertex] : -1;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simple synchronized cache evicting the least recently used entries once its maximum size is
+ * exceeded. Entries can optionally expire after a fixed time to live.
+ *
+ * @param <K>
+ *          type of keys
+ * @param <V>
+ *          type of values
+ */
+public class LruCache<K, V> {
+  private final LinkedHashMap<K, CacheEntry<V>> fEntries;
+
+  private final long fTtl;
+
+  /**
+   * Creates an empty cache holding at most the given number of entries, which expire after the
+   * given time. A time to live of zero or less disables expiry.
+   *
+   * @param maxSize
+   *          maximum number of entries
+   * @param ttl
+   *          time to live in milliseconds
+   */
+  public LruCache(final int maxSize, long ttl) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maximum size must be positive");
+    }
+
+    this.fTtl = ttl;
+
+    this.fEntries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Returns the value cached for the given key or null if there is none or it has expired.
+   *
+   * @param key
+   *          key to look up
+   * @return cached value or null
+   */
+  public synchronized V get(K key) {
+    final CacheEntry<V> entry = this.fEntries.get(key);
+
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.fExpires > 0 && entry.fExpires < System.currentTimeMillis()) {
+      this.fEntries.remove(key);
+      return null;
+    }
+
+    return entry.fValue;
+  }
+
+  /**
+   * Caches a value for the given key, replacing any previous value.
+   *
+   * @param key
+   *          key to store the value under
+   * @param value
+   *          value to store
+   */
+  public synchronized void put(K key, V value) {
+    long expires = 0;
+    if (this.fTtl > 0) {
+      expires = System.currentTimeMillis() + this.fTtl;
+    }
+
+    this.fEntries.put(key, new CacheEntry<V>(value, expires));
+  }
+
+  /**
+   * Removes the value cached for the given key.
+   *
+   * @param key
+   *          key to remove
+   * @return removed value or null
+   */
+  public synchronized V remove(K key) {
+    final CacheEntry<V> entry = this.fEntries.remove(key);
+
+    if (entry == null) {
+      return null;
+    }
+    return entry.fValue;
+  }
+
+  /**
+   * @return copy of all keys currently in the cache, including expired ones
+   */
+  public synchronized List<K> keys() {
+    return new ArrayList<K>(this.fEntries.keySet());
+  }
+
+  /**
+   * @return number of entries currently in the cache, including expired ones
+   */
+  public synchronized int size() {
+    return this.fEntries.size();
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public synchronized void clear() {
+    this.fEntries.clear();
+  }
+
+  private static class CacheEntry<V> {
+    private final V fValue;
+    private final long fExpires;
+
+    public CacheEntry(V value, long expires) {
+      this.fValue = value;
+      this.fExpires = expires;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shindig.social.opensocial.model.Message;
+
+/**
+ * Immutable tree of a root message and all replies to it, given as message property maps linked
+ * by their "inReplyTo" field and kept in order of the time they were sent. Messages without a
+ * time stamp come first, messages sent at the same time are ordered by ID. The property maps are
+ * not modified and must not be modified by callers.
+ */
+public class MessageThread {
+  private static final String ID_FIELD = Message.Field.ID.toString();
+  private static final String REPLY_FIELD = Message.Field.IN_REPLY_TO.toString();
+  private static final String TIME_FIELD = Message.Field.TIME_SENT.toString();
+  private static final String SENDER_FIELD = Message.Field.SENDER_ID.toString();
+  private static final String RECIPIENTS_FIELD = Message.Field.RECIPIENTS.toString();
+
+  private static final Comparator<Map<String, Object>> BY_TIME = new TimeComparator();
+
+  private final String fRootId;
+  private final List<Map<String, Object>> fMessages;
+  private final Set<String> fIds;
+
+  /**
+   * Creates a thread from the given root message ID and messages, which should include the root
+   * message. Messages without an ID and repeated IDs are ignored.
+   *
+   * @param rootId
+   *          ID of the root message
+   * @param messages
+   *          property maps of the messages in the thread
+   */
+  public MessageThread(String rootId, Collection<Map<String, Object>> messages) {
+    if (rootId == null) {
+      throw new NullPointerException("root message ID was null");
+    }
+
+    this.fRootId = rootId;
+    this.fIds = new HashSet<String>();
+
+    final List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>();
+    for (final Map<String, Object> message : messages) {
+      final String id = MessageThread.getId(message);
+      if (id != null && this.fIds.add(id)) {
+        sorted.add(message);
+      }
+    }
+    Collections.sort(sorted, MessageThread.BY_TIME);
+    this.fMessages = Collections.unmodifiableList(sorted);
+  }
+
+  private MessageThread(String rootId, List<Map<String, Object>> messages, Set<String> ids) {
+    this.fRootId = rootId;
+    this.fMessages = Collections.unmodifiableList(messages);
+    this.fIds = ids;
+  }
+
+  private static String getId(Map<String, Object> message) {
+    final Object id = message.get(MessageThread.ID_FIELD);
+    return id != null ? id.toString() : null;
+  }
+
+  /**
+   * @return ID of the root message
+   */
+  public String getRootId() {
+    return this.fRootId;
+  }
+
+  /**
+   * @param messageId
+   *          ID of a message
+   * @return whether the message is part of this thread
+   */
+  public boolean contains(String messageId) {
+    return this.fIds.contains(messageId);
+  }
+
+  /**
+   * @return number of messages in this thread
+   */
+  public int size() {
+    return this.fMessages.size();
+  }
+
+  /**
+   * @return unmodifiable list of all messages in this thread, ordered by time
+   */
+  public List<Map<String, Object>> getMessages() {
+    return this.fMessages;
+  }
+
+  /**
+   * Returns the messages of this thread a user sent or received, ordered by time.
+   *
+   * @param userId
+   *          ID of the user
+   * @return list of messages visible to the user
+   */
+  public List<Map<String, Object>> getVisible(String userId) {
+    final List<Map<String, Object>> visible = new ArrayList<Map<String, Object>>();
+
+    for (final Map<String, Object> message : this.fMessages) {
+      if (userId.equals(message.get(MessageThread.SENDER_FIELD))
+              || MessageThread.isRecipient(message, userId)) {
+        visible.add(message);
+      }
+    }
+
+    return visible;
+  }
+
+  private static boolean isRecipient(Map<String, Object> message, String userId) {
+    final Object recipients = message.get(MessageThread.RECIPIENTS_FIELD);
+
+    if (recipients instanceof Collection<?>) {
+      return ((Collection<?>) recipients).contains(userId);
+    } else if (recipients instanceof Object[]) {
+      return Arrays.asList((Object[]) recipients).contains(userId);
+    }
+    return false;
+  }
+
+  /**
+   * Returns a copy of this thread including the given reply. If the message is already part of
+   * this thread, this thread is returned; if it does not reply to a message in this thread, null
+   * is returned.
+   *
+   * @param message
+   *          property map of the reply
+   * @return thread including the reply or null
+   */
+  public MessageThread withReply(Map<String, Object> message) {
+    final String id = MessageThread.getId(message);
+    final Object parentId = message.get(MessageThread.REPLY_FIELD);
+
+    if (id == null || parentId == null || !this.fIds.contains(parentId.toString())) {
+      return null;
+    }
+    if (this.fIds.contains(id)) {
+      return this;
+    }
+
+    // replies are usually the latest messages, so the position is searched from the end
+    final List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>(
+            this.fMessages.size() + 1);
+    messages.addAll(this.fMessages);
+
+    int index = messages.size();
+    while (index > 0 && MessageThread.BY_TIME.compare(messages.get(index - 1), message) > 0) {
+      --index;
+    }
+    messages.add(index, message);
+
+    final Set<String> ids = new HashSet<String>(this.fIds);
+    ids.add(id);
+
+    return new MessageThread(this.fRootId, messages, ids);
+  }
+
+  private static class TimeComparator implements Comparator<Map<String, Object>> {
+    @Override
+    public int compare(Map<String, Object> m1, Map<String, Object> m2) {
+      final Object t1 = m1.get(MessageThread.TIME_FIELD);
+      final Object t2 = m2.get(MessageThread.TIME_FIELD);
+
+      if (t1 instanceof Number && t2 instanceof Number) {
+        final int comp = Long.compare(((Number) t1).longValue(), ((Number) t2).longValue());
+        if (comp != 0) {
+          return comp;
+        }
+      } else if (t1 instanceof Number) {
+        return 1;
+      } else if (t2 instanceof Number) {
+        return -1;
+      }
+
+      return MessageThread.getId(m1).compareTo(MessageThread.getId(m2));
+    }
+  }
+}
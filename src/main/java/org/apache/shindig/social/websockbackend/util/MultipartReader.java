@@ -0,0 +1,342 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming reader for "multipart/form-data" request bodies. Parts are read one after the other
+ * directly from the underlying stream without buffering them as a whole, so large uploads can be
+ * written to their destination as they arrive.
+ */
+public class MultipartReader {
+  private static final Charset HEADER_CHARSET = Charset.forName("UTF-8");
+
+  private static final int MIN_BUFFER_SIZE = 8192;
+  private static final int MAX_HEADER_LINE = 8192;
+
+  private final InputStream fIn;
+  private final byte[] fDelimiter;
+  private final byte[] fBuffer;
+
+  private int fHead;
+  private int fTail;
+  private boolean fEof;
+
+  private boolean fFinished;
+  private PartInputStream fCurrent;
+  private Map<String, String> fHeaders;
+
+  /**
+   * Creates a reader for the given stream, using the given boundary to separate parts. The given
+   * stream and boundary must not be null.
+   *
+   * @param in
+   *          stream to read from
+   * @param boundary
+   *          boundary separating the parts
+   */
+  public MultipartReader(InputStream in, String boundary) {
+    if (in == null) {
+      throw new NullPointerException("input stream was null");
+    }
+    if (boundary == null || boundary.isEmpty()) {
+      throw new IllegalArgumentException("boundary was empty");
+    }
+
+    this.fIn = in;
+    this.fDelimiter = ("\r\n--" + boundary).getBytes(MultipartReader.HEADER_CHARSET);
+    this.fBuffer = new byte[Math.max(MultipartReader.MIN_BUFFER_SIZE,
+            this.fDelimiter.length * 2)];
+
+    // the first boundary is not preceded by a line break
+    this.fBuffer[0] = '\r';
+    this.fBuffer[1] = '\n';
+    this.fTail = 2;
+  }
+
+  /**
+   * Extracts the boundary parameter from a multipart content type header.
+   *
+   * @param contentType
+   *          value of the content type header
+   * @return boundary or null if there is none
+   */
+  public static String getBoundary(String contentType) {
+    if (contentType == null
+            || !contentType.toLowerCase(Locale.ENGLISH).startsWith("multipart/form-data")) {
+      return null;
+    }
+
+    return getParameter(contentType, "boundary");
+  }
+
+  /**
+   * Advances to the next part, skipping the rest of the current one.
+   *
+   * @return whether there is another part
+   * @throws IOException
+   *           if reading fails or the body is malformed
+   */
+  public boolean nextPart() throws IOException {
+    if (this.fFinished) {
+      return false;
+    }
+
+    // skip rest of the current part or the preamble
+    if (this.fCurrent == null) {
+      this.fCurrent = new PartInputStream();
+    }
+    final byte[] skip = new byte[4096];
+    while (this.fCurrent.read(skip, 0, skip.length) != -1) {
+      // discard
+    }
+
+    // closing delimiter or line break
+    final int first = readByte();
+    final int second = readByte();
+    if (first == '-' && second == '-') {
+      this.fFinished = true;
+      this.fCurrent = null;
+      this.fHeaders = null;
+      return false;
+    } else if (first != '\r' || second != '\n') {
+      throw new IOException("malformed multipart body");
+    }
+
+    // part headers
+    this.fHeaders = new HashMap<String, String>();
+    String line = readLine();
+    while (!line.isEmpty()) {
+      final int colon = line.indexOf(':');
+      if (colon > 0) {
+        this.fHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line
+                .substring(colon + 1).trim());
+      }
+      line = readLine();
+    }
+
+    this.fCurrent = new PartInputStream();
+    return true;
+  }
+
+  /**
+   * @return headers of the current part with lower case names
+   */
+  public Map<String, String> getHeaders() {
+    return this.fHeaders;
+  }
+
+  /**
+   * @return form field name of the current part or null
+   */
+  public String getFieldName() {
+    return getParameter(this.fHeaders.get("content-disposition"), "name");
+  }
+
+  /**
+   * @return original file name of the current part or null if it is not a file
+   */
+  public String getFileName() {
+    String name = getParameter(this.fHeaders.get("content-disposition"), "filename");
+
+    // some browsers send complete paths
+    if (name != null) {
+      name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+    }
+
+    return name;
+  }
+
+  /**
+   * @return content type of the current part or null
+   */
+  public String getContentType() {
+    return this.fHeaders.get("content-type");
+  }
+
+  /**
+   * Returns a stream of the current part's body, ending at the next boundary. Closing the stream has
+   * no effect on the underlying stream.
+   *
+   * @return stream of the current part's body
+   */
+  public InputStream getInputStream() {
+    return this.fCurrent;
+  }
+
+  private static String getParameter(String header, String name) {
+    if (header == null) {
+      return null;
+    }
+
+    for (final String param : header.split(";")) {
+      final int equals = param.indexOf('=');
+
+      if (equals > 0 && param.substring(0, equals).trim().equalsIgnoreCase(name)) {
+        String value = param.substring(equals + 1).trim();
+
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+          value = value.substring(1, value.length() - 1);
+        }
+        return value;
+      }
+    }
+
+    return null;
+  }
+
+  private int available() {
+    return this.fTail - this.fHead;
+  }
+
+  private void fill(int min) throws IOException {
+    // move remaining data to the front
+    if (this.fHead > 0) {
+      System.arraycopy(this.fBuffer, this.fHead, this.fBuffer, 0, available());
+      this.fTail -= this.fHead;
+      this.fHead = 0;
+    }
+
+    while (!this.fEof && available() < min) {
+      final int read = this.fIn.read(this.fBuffer, this.fTail, this.fBuffer.length - this.fTail);
+
+      if (read == -1) {
+        this.fEof = true;
+      } else {
+        this.fTail += read;
+      }
+    }
+  }
+
+  private int readByte() throws IOException {
+    if (available() == 0) {
+      fill(1);
+
+      if (available() == 0) {
+        return -1;
+      }
+    }
+
+    return this.fBuffer[this.fHead++] & 0xff;
+  }
+
+  private String readLine() throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    int b = readByte();
+    while (b != -1) {
+      if (b == '\r') {
+        b = readByte();
+        if (b == '\n') {
+          return new String(line.toByteArray(), MultipartReader.HEADER_CHARSET);
+        }
+        line.write('\r');
+        continue;
+      }
+
+      line.write(b);
+      if (line.size() > MultipartReader.MAX_HEADER_LINE) {
+        throw new IOException("part header too long");
+      }
+      b = readByte();
+    }
+
+    throw new IOException("unexpected end of multipart body");
+  }
+
+  private int indexOfDelimiter() {
+    final byte[] delim = this.fDelimiter;
+    final int last = this.fTail - delim.length;
+
+    outer: for (int i = this.fHead; i <= last; ++i) {
+      for (int j = 0; j < delim.length; ++j) {
+        if (this.fBuffer[i + j] != delim[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+
+    return -1;
+  }
+
+  private class PartInputStream extends InputStream {
+    private boolean fDone;
+
+    @Override
+    public int read() throws IOException {
+      final byte[] single = new byte[1];
+      if (read(single, 0, 1) == -1) {
+        return -1;
+      }
+      return single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (this.fDone) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+
+      final MultipartReader reader = MultipartReader.this;
+      final int delimLength = reader.fDelimiter.length;
+
+      if (reader.available() < delimLength) {
+        reader.fill(delimLength);
+
+        if (reader.available() < delimLength) {
+          throw new IOException("unexpected end of multipart body");
+        }
+      }
+
+      final int delim = reader.indexOfDelimiter();
+      int safe = 0;
+
+      if (delim == reader.fHead) {
+        // end of part, consume delimiter
+        reader.fHead += delimLength;
+        this.fDone = true;
+        return -1;
+      } else if (delim != -1) {
+        safe = delim - reader.fHead;
+      } else {
+        // the end of the buffer could contain the beginning of a delimiter
+        safe = reader.available() - delimLength + 1;
+      }
+
+      final int count = Math.min(safe, len);
+      System.arraycopy(reader.fBuffer, reader.fHead, b, off, count);
+      reader.fHead += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      // the underlying stream stays open
+    }
+  }
+}
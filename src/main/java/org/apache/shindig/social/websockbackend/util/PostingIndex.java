@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index from terms to the documents containing them, each with a positive weight.
+ * Documents are numbers; every term has a posting list of the documents sorted by number, so
+ * documents containing all of several terms are found by intersecting the lists, starting with
+ * the shortest one and skipping ahead exponentially in the longer ones. Results are ranked by the
+ * sum of the weights of the matched terms. All methods are thread-safe.
+ */
+public class PostingIndex {
+  private final Map<String, Postings> fPostings;
+  private final Map<Integer, Map<String, Integer>> fDocuments;
+
+  /**
+   * Creates an empty index.
+   */
+  public PostingIndex() {
+    this.fPostings = new HashMap<String, Postings>();
+    this.fDocuments = new HashMap<Integer, Map<String, Integer>>();
+  }
+
+  /**
+   * Replaces the terms of a document. Terms with weights below 1 are left out.
+   *
+   * @param document
+   *          number of the document
+   * @param terms
+   *          terms of the document and their weights, null or empty to remove it
+   * @return previous terms of the document and their weights or null
+   */
+  public synchronized Map<String, Integer> set(int document, Map<String, Integer> terms) {
+    final Map<String, Integer> old = this.fDocuments.remove(document);
+    if (old != null) {
+      for (final String term : old.keySet()) {
+        final Postings postings = this.fPostings.get(term);
+        postings.remove(document);
+        if (postings.fSize == 0) {
+          this.fPostings.remove(term);
+        }
+      }
+    }
+
+    if (terms == null) {
+      return old;
+    }
+
+    final Map<String, Integer> added = new HashMap<String, Integer>();
+    for (final Map.Entry<String, Integer> termE : terms.entrySet()) {
+      if (termE.getValue() == null || termE.getValue() < 1) {
+        continue;
+      }
+
+      Postings postings = this.fPostings.get(termE.getKey());
+      if (postings == null) {
+        postings = new Postings();
+        this.fPostings.put(termE.getKey(), postings);
+      }
+      postings.put(document, termE.getValue());
+      added.put(termE.getKey(), termE.getValue());
+    }
+
+    if (!added.isEmpty()) {
+      this.fDocuments.put(document, added);
+    }
+    return old;
+  }
+
+  /**
+   * @return number of documents with at least one term
+   */
+  public synchronized int getDocumentCount() {
+    return this.fDocuments.size();
+  }
+
+  /**
+   * @return number of distinct terms
+   */
+  public synchronized int getTermCount() {
+    return this.fPostings.size();
+  }
+
+  /**
+   * @param term
+   *          term to look up
+   * @return number of documents containing the term
+   */
+  public synchronized int getFrequency(String term) {
+    final Postings postings = this.fPostings.get(term);
+    return postings == null ? 0 : postings.fSize;
+  }
+
+  /**
+   * @param term
+   *          term to look up
+   * @return documents containing the term in ascending order
+   */
+  public synchronized int[] getDocuments(String term) {
+    final Postings postings = this.fPostings.get(term);
+    if (postings == null) {
+      return new int[0];
+    }
+    return Arrays.copyOf(postings.fDocuments, postings.fSize);
+  }
+
+  /**
+   * Finds the documents containing all or any of the given terms, ranked by the sum of the weights
+   * of the matched terms, highest first, and by number for equal sums.
+   *
+   * @param terms
+   *          terms to look for
+   * @param all
+   *          whether documents need to contain all terms rather than any of them
+   * @return matching documents in ranked order
+   */
+  public int[] find(Collection<String> terms, boolean all) {
+    final Postings[] lists = new Postings[terms.size()];
+    int count = 0;
+
+    synchronized (this) {
+      for (final String term : terms) {
+        final Postings postings = this.fPostings.get(term);
+        if (postings != null) {
+          lists[count++] = postings.copy();
+        } else if (all) {
+          return new int[0];
+        }
+      }
+    }
+
+    if (count == 0) {
+      return new int[0];
+    }
+
+    // the shortest lists first keep intermediate results small
+    Arrays.sort(lists, 0, count, new Comparator<Postings>() {
+      @Override
+      public int compare(Postings p1, Postings p2) {
+        return Integer.compare(p1.fSize, p2.fSize);
+      }
+    });
+
+    Postings result = lists[0];
+    for (int i = 1; i < count; ++i) {
+      result = all ? intersect(result, lists[i]) : union(result, lists[i]);
+    }
+
+    return rank(result);
+  }
+
+  private static Postings intersect(Postings shorter, Postings longer) {
+    final Postings result = new Postings();
+    int position = 0;
+
+    for (int i = 0; i < shorter.fSize && position < longer.fSize; ++i) {
+      final int document = shorter.fDocuments[i];
+
+      // skip ahead exponentially, then search within the last step
+      int step = 1;
+      int bound = position;
+      while (bound < longer.fSize && longer.fDocuments[bound] < document) {
+        position = bound + 1;
+        bound += step;
+        step <<= 1;
+      }
+      final int found = Arrays.binarySearch(longer.fDocuments, position,
+              Math.min(bound + 1, longer.fSize), document);
+
+      if (found >= 0) {
+        result.append(document, shorter.fWeights[i] + longer.fWeights[found]);
+        position = found + 1;
+      } else {
+        position = -found - 1;
+      }
+    }
+
+    return result;
+  }
+
+  private static Postings union(Postings first, Postings second) {
+    final Postings result = new Postings();
+    int i = 0;
+    int j = 0;
+
+    while (i < first.fSize || j < second.fSize) {
+      if (j == second.fSize
+              || (i < first.fSize && first.fDocuments[i] < second.fDocuments[j])) {
+        result.append(first.fDocuments[i], first.fWeights[i]);
+        ++i;
+      } else if (i == first.fSize || second.fDocuments[j] < first.fDocuments[i]) {
+        result.append(second.fDocuments[j], second.fWeights[j]);
+        ++j;
+      } else {
+        result.append(first.fDocuments[i], first.fWeights[i] + second.fWeights[j]);
+        ++i;
+        ++j;
+      }
+    }
+
+    return result;
+  }
+
+  private static int[] rank(Postings postings) {
+    // descending weight in the upper half, ascending number in the lower one
+    final long[] keys = new long[postings.fSize];
+    for (int i = 0; i < postings.fSize; ++i) {
+      keys[i] = (long) (Integer.MAX_VALUE - postings.fWeights[i]) << 32
+              | postings.fDocuments[i] & 0xFFFFFFFFL;
+    }
+    Arrays.sort(keys);
+
+    final int[] documents = new int[keys.length];
+    for (int i = 0; i < keys.length; ++i) {
+      documents[i] = (int) keys[i];
+    }
+    return documents;
+  }
+
+  /**
+   * Documents sorted by number with their weights.
+   */
+  private static class Postings {
+    private int[] fDocuments = new int[4];
+    private int[] fWeights = new int[4];
+    private int fSize;
+
+    void append(int document, int weight) {
+      if (this.fSize == this.fDocuments.length) {
+        this.fDocuments = Arrays.copyOf(this.fDocuments, this.fSize * 2);
+        this.fWeights = Arrays.copyOf(this.fWeights, this.fSize * 2);
+      }
+      this.fDocuments[this.fSize] = document;
+      this.fWeights[this.fSize++] = weight;
+    }
+
+    void put(int document, int weight) {
+      int index = Arrays.binarySearch(this.fDocuments, 0, this.fSize, document);
+      if (index >= 0) {
+        this.fWeights[index] = weight;
+        return;
+      }
+
+      index = -index - 1;
+      append(0, 0);
+      System.arraycopy(this.fDocuments, index, this.fDocuments, index + 1,
+              this.fSize - index - 1);
+      System.arraycopy(this.fWeights, index, this.fWeights, index + 1, this.fSize - index - 1);
+      this.fDocuments[index] = document;
+      this.fWeights[index] = weight;
+    }
+
+    void remove(int document) {
+      final int index = Arrays.binarySearch(this.fDocuments, 0, this.fSize, document);
+      if (index >= 0) {
+        System.arraycopy(this.fDocuments, index + 1, this.fDocuments, index,
+                this.fSize - index - 1);
+        System.arraycopy(this.fWeights, index + 1, this.fWeights, index, this.fSize - index - 1);
+        --this.fSize;
+      }
+    }
+
+    Postings copy() {
+      final Postings copy = new Postings();
+      copy.fDocuments = Arrays.copyOf(this.fDocuments, Math.max(this.fSize, 1));
+      copy.fWeights = Arrays.copyOf(this.fWeights, Math.max(this.fSize, 1));
+      copy.fSize = this.fSize;
+      return copy;
+    }
+  }
+}
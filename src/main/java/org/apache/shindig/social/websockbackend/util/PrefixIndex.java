@@ -0,0 +1,187 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Index from the words of short texts, such as names, to the documents containing them, finding
+ * the documents having a word starting with each word of a query. Words are kept in a sorted map,
+ * so all words starting with a prefix form one range; the documents for the longest query word are
+ * collected from its range and checked against the other words. All methods are thread-safe.
+ */
+public class PrefixIndex {
+  private static final String SEPARATORS = "[^\\p{L}\\p{N}]+";
+
+  private final TreeMap<String, int[]> fWords;
+  private final Map<Integer, String[]> fDocuments;
+
+  /**
+   * Creates an empty index.
+   */
+  public PrefixIndex() {
+    this.fWords = new TreeMap<String, int[]>();
+    this.fDocuments = new HashMap<Integer, String[]>();
+  }
+
+  /**
+   * Splits a text into lower case words, separated by anything but letters and digits.
+   *
+   * @param text
+   *          text to split
+   * @return words of the text
+   */
+  public static List<String> tokenize(String text) {
+    final List<String> words = new ArrayList<String>();
+
+    if (text != null) {
+      for (final String word : text.toLowerCase(Locale.ENGLISH).split(PrefixIndex.SEPARATORS)) {
+        if (!word.isEmpty()) {
+          words.add(word);
+        }
+      }
+    }
+
+    return words;
+  }
+
+  /**
+   * Replaces the texts of a document.
+   *
+   * @param document
+   *          number of the document
+   * @param texts
+   *          texts of the document, null ones are skipped, null to remove the document
+   */
+  public synchronized void set(int document, String... texts) {
+    final String[] old = this.fDocuments.remove(document);
+    if (old != null) {
+      for (final String word : old) {
+        final int[] documents = this.fWords.get(word);
+        final int index = Arrays.binarySearch(documents, document);
+
+        if (documents.length == 1) {
+          this.fWords.remove(word);
+        } else {
+          final int[] remaining = new int[documents.length - 1];
+          System.arraycopy(documents, 0, remaining, 0, index);
+          System.arraycopy(documents, index + 1, remaining, index, remaining.length - index);
+          this.fWords.put(word, remaining);
+        }
+      }
+    }
+
+    if (texts == null) {
+      return;
+    }
+
+    final TreeSet<String> words = new TreeSet<String>();
+    for (final String text : texts) {
+      words.addAll(tokenize(text));
+    }
+    if (words.isEmpty()) {
+      return;
+    }
+
+    for (final String word : words) {
+      final int[] documents = this.fWords.get(word);
+
+      if (documents == null) {
+        this.fWords.put(word, new int[] { document });
+      } else {
+        final int index = -Arrays.binarySearch(documents, document) - 1;
+        final int[] added = new int[documents.length + 1];
+        System.arraycopy(documents, 0, added, 0, index);
+        added[index] = document;
+        System.arraycopy(documents, index, added, index + 1, documents.length - index);
+        this.fWords.put(word, added);
+      }
+    }
+    this.fDocuments.put(document, words.toArray(new String[words.size()]));
+  }
+
+  /**
+   * @return number of documents with at least one word
+   */
+  public synchronized int getDocumentCount() {
+    return this.fDocuments.size();
+  }
+
+  /**
+   * Finds the documents that have a word starting with each word of the given query.
+   *
+   * @param query
+   *          query to split into words
+   * @return matching documents in ascending order, none if the query has no words
+   */
+  public synchronized int[] find(String query) {
+    final List<String> prefixes = tokenize(query);
+    if (prefixes.isEmpty()) {
+      return new int[0];
+    }
+
+    // the longest prefix probably matches the fewest words
+    String longest = prefixes.get(0);
+    for (final String prefix : prefixes) {
+      if (prefix.length() > longest.length()) {
+        longest = prefix;
+      }
+    }
+    prefixes.remove(longest);
+
+    final IntList candidates = new IntList();
+    for (final int[] documents : this.fWords.subMap(longest, true,
+            longest + Character.MAX_VALUE, false).values()) {
+      for (final int document : documents) {
+        candidates.add(document);
+      }
+    }
+
+    final int[] sorted = candidates.toArray();
+    Arrays.sort(sorted);
+
+    final IntList found = new IntList();
+    for (int i = 0; i < sorted.length; ++i) {
+      if ((i == 0 || sorted[i] != sorted[i - 1])
+              && hasPrefixes(this.fDocuments.get(sorted[i]), prefixes)) {
+        found.add(sorted[i]);
+      }
+    }
+    return found.toArray();
+  }
+
+  private boolean hasPrefixes(String[] words, List<String> prefixes) {
+    for (final String prefix : prefixes) {
+      int index = Arrays.binarySearch(words, prefix);
+      if (index < 0) {
+        index = -index - 1;
+      }
+
+      if (index == words.length || !words[index].startsWith(prefix)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
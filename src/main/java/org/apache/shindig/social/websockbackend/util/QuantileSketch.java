@@ -0,0 +1,300 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Mergeable sketch approximating the quantiles of a stream of values in the manner of KLL. Values
+ * enter the lowest of a stack of levels; a full level is sorted and every other value moves up one
+ * level, where each value stands for twice as many. Lower levels get geometrically smaller
+ * capacities, so the sketch holds about three times the accuracy parameter values in total and the
+ * rank error of a quantile is roughly 1.7 divided by it. The exact number of values, minimum and
+ * maximum are kept as well.
+ */
+public class QuantileSketch {
+  /**
+   * Accuracy parameter used if none is given.
+   */
+  public static final int DEFAULT_K = 200;
+
+  private static final double CAPACITY_FACTOR = 2.0 / 3.0;
+  private static final int MIN_CAPACITY = 2;
+
+  private final int fK;
+  private final Random fRandom;
+
+  private long[][] fLevels;
+  private int[] fSizes;
+  private int fHeight;
+  private int fRetained;
+  private int fMaxRetained;
+
+  private long fCount;
+  private long fMin;
+  private long fMax;
+
+  /**
+   * Creates an empty sketch with the default accuracy.
+   */
+  public QuantileSketch() {
+    this(QuantileSketch.DEFAULT_K);
+  }
+
+  /**
+   * Creates an empty sketch with the given accuracy parameter, the capacity of its highest level.
+   *
+   * @param k
+   *          accuracy parameter, at least 8
+   */
+  public QuantileSketch(int k) {
+    if (k < 8) {
+      throw new IllegalArgumentException("accuracy parameter must be at least 8");
+    }
+
+    this.fK = k;
+    this.fRandom = new Random();
+    this.fLevels = new long[0][];
+    this.fSizes = new int[0];
+    this.fMin = Long.MAX_VALUE;
+    this.fMax = Long.MIN_VALUE;
+    grow();
+  }
+
+  private int getCapacity(int level) {
+    final int depth = this.fHeight - level - 1;
+    return Math.max((int) Math.ceil(this.fK * Math.pow(QuantileSketch.CAPACITY_FACTOR, depth)),
+            QuantileSketch.MIN_CAPACITY);
+  }
+
+  private void grow() {
+    ++this.fHeight;
+    this.fLevels = Arrays.copyOf(this.fLevels, this.fHeight);
+    this.fSizes = Arrays.copyOf(this.fSizes, this.fHeight);
+    this.fLevels[this.fHeight - 1] = new long[QuantileSketch.MIN_CAPACITY];
+
+    this.fMaxRetained = 0;
+    for (int level = 0; level < this.fHeight; ++level) {
+      this.fMaxRetained += getCapacity(level);
+    }
+  }
+
+  private void append(int level, long value) {
+    if (this.fSizes[level] == this.fLevels[level].length) {
+      this.fLevels[level] = Arrays.copyOf(this.fLevels[level], this.fSizes[level] * 2);
+    }
+    this.fLevels[level][this.fSizes[level]++] = value;
+    ++this.fRetained;
+  }
+
+  /**
+   * Adds a value.
+   *
+   * @param value
+   *          value to add
+   */
+  public synchronized void update(long value) {
+    ++this.fCount;
+    this.fMin = Math.min(this.fMin, value);
+    this.fMax = Math.max(this.fMax, value);
+
+    append(0, value);
+    if (this.fRetained >= this.fMaxRetained) {
+      compress();
+    }
+  }
+
+  private void compress() {
+    for (int level = 0; level < this.fHeight; ++level) {
+      if (this.fSizes[level] < getCapacity(level)) {
+        continue;
+      }
+      if (level + 1 == this.fHeight) {
+        grow();
+      }
+
+      // promote every other value, starting at random, keeping an odd one out
+      final long[] values = this.fLevels[level];
+      final int size = this.fSizes[level];
+      Arrays.sort(values, 0, size);
+
+      final int odd = size & 1;
+      for (int i = odd + this.fRandom.nextInt(2); i < size; i += 2) {
+        append(level + 1, values[i]);
+      }
+      this.fRetained -= size - odd;
+      // the odd value is the first one
+      this.fSizes[level] = odd;
+
+      if (this.fRetained < this.fMaxRetained) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Adds all values of another sketch to this one.
+   *
+   * @param other
+   *          sketch to merge into this one
+   */
+  public void merge(QuantileSketch other) {
+    // copy first, avoiding holding both locks
+    final long[][] levels;
+    final int[] sizes;
+    final long count;
+    final long min;
+    final long max;
+    synchronized (other) {
+      levels = new long[other.fHeight][];
+      for (int level = 0; level < other.fHeight; ++level) {
+        levels[level] = Arrays.copyOf(other.fLevels[level], other.fSizes[level]);
+      }
+      sizes = Arrays.copyOf(other.fSizes, other.fHeight);
+      count = other.fCount;
+      min = other.fMin;
+      max = other.fMax;
+    }
+
+    synchronized (this) {
+      while (this.fHeight < levels.length) {
+        grow();
+      }
+
+      for (int level = 0; level < levels.length; ++level) {
+        for (int i = 0; i < sizes[level]; ++i) {
+          append(level, levels[level][i]);
+        }
+      }
+
+      this.fCount += count;
+      this.fMin = Math.min(this.fMin, min);
+      this.fMax = Math.max(this.fMax, max);
+
+      while (this.fRetained >= this.fMaxRetained) {
+        compress();
+      }
+    }
+  }
+
+  /**
+   * @return number of values added
+   */
+  public synchronized long getCount() {
+    return this.fCount;
+  }
+
+  /**
+   * @return smallest value added, undefined if there are none
+   */
+  public synchronized long getMin() {
+    return this.fMin;
+  }
+
+  /**
+   * @return largest value added, undefined if there are none
+   */
+  public synchronized long getMax() {
+    return this.fMax;
+  }
+
+  /**
+   * @return number of values retained in the sketch
+   */
+  public synchronized int getRetained() {
+    return this.fRetained;
+  }
+
+  /**
+   * Estimates the values at the given fractions of the sorted values, using nearest ranks.
+   *
+   * @param fractions
+   *          fractions between 0 and 1
+   * @return estimated values in the order of the fractions
+   * @throws IllegalStateException
+   *           if no values have been added
+   */
+  public synchronized long[] getQuantiles(double... fractions) {
+    if (this.fCount == 0) {
+      throw new IllegalStateException("no values added");
+    }
+
+    // retained values, each standing for 2^level values, in ascending order
+    final long[] values = new long[this.fRetained];
+    final long[] weights = new long[this.fRetained];
+    int count = 0;
+    for (int level = 0; level < this.fHeight; ++level) {
+      for (int i = 0; i < this.fSizes[level]; ++i) {
+        values[count] = this.fLevels[level][i];
+        weights[count++] = 1L << level;
+      }
+    }
+    sort(values, weights, count);
+
+    long total = 0;
+    for (int i = 0; i < count; ++i) {
+      total += weights[i];
+    }
+
+    final long[] quantiles = new long[fractions.length];
+    for (int q = 0; q < fractions.length; ++q) {
+      final double fraction = Math.min(Math.max(fractions[q], 0), 1);
+      final long rank = Math.max((long) Math.ceil(fraction * total), 1);
+
+      long seen = 0;
+      int i = 0;
+      while (i < count - 1 && seen + weights[i] < rank) {
+        seen += weights[i++];
+      }
+
+      // exact at the extremes
+      if (fraction == 0) {
+        quantiles[q] = this.fMin;
+      } else if (fraction == 1) {
+        quantiles[q] = this.fMax;
+      } else {
+        quantiles[q] = values[i];
+      }
+    }
+    return quantiles;
+  }
+
+  private static void sort(final long[] values, long[] weights, int count) {
+    // sort by value, carrying the weights along
+    final Integer[] order = new Integer[count];
+    for (int i = 0; i < count; ++i) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Long.compare(values[i1], values[i2]);
+      }
+    });
+
+    final long[] sortedValues = new long[count];
+    final long[] sortedWeights = new long[count];
+    for (int i = 0; i < count; ++i) {
+      sortedValues[i] = values[order[i]];
+      sortedWeights[i] = weights[order[i]];
+    }
+    System.arraycopy(sortedValues, 0, values, 0, count);
+    System.arraycopy(sortedWeights, 0, weights, 0, count);
+  }
+}
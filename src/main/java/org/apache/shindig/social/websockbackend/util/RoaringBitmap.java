@@ -0,0 +1,732 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative integers. Values are partitioned by their upper 16 bits into
+ * containers, which hold the lower 16 bits either as a sorted array if they are sparse or as a bit
+ * set if they are dense. Intersections and differences work on whole containers and words instead
+ * of single values. Not thread-safe; bitmaps shared between threads should not be modified.
+ */
+public class RoaringBitmap {
+  // containers with more values are stored as bit sets
+  private static final int ARRAY_MAX = 4096;
+  private static final int WORDS = 1024;
+
+  private char[] fKeys;
+  private Container[] fContainers;
+  private int fSize;
+
+  /**
+   * Creates an empty bitmap.
+   */
+  public RoaringBitmap() {
+    this(new char[4], new Container[4], 0);
+  }
+
+  private RoaringBitmap(char[] keys, Container[] containers, int size) {
+    this.fKeys = keys;
+    this.fContainers = containers;
+    this.fSize = size;
+  }
+
+  /**
+   * Creates a bitmap containing the given values.
+   *
+   * @param values
+   *          values to add
+   * @return new bitmap
+   */
+  public static RoaringBitmap of(int... values) {
+    final RoaringBitmap bitmap = new RoaringBitmap();
+    for (final int value : values) {
+      bitmap.add(value);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Adds a value to the bitmap. Throws an IllegalArgumentException if the value is negative.
+   *
+   * @param value
+   *          value to add
+   */
+  public void add(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("negative value: " + value);
+    }
+
+    final char high = (char) (value >>> 16);
+    final int index = Arrays.binarySearch(this.fKeys, 0, this.fSize, high);
+
+    if (index >= 0) {
+      this.fContainers[index] = this.fContainers[index].add((char) value);
+    } else {
+      final ArrayContainer container = new ArrayContainer();
+      container.add((char) value);
+      insert(-index - 1, high, container);
+    }
+  }
+
+  /**
+   * Removes a value from the bitmap.
+   *
+   * @param value
+   *          value to remove
+   */
+  public void remove(int value) {
+    if (value < 0) {
+      return;
+    }
+
+    final int index = Arrays.binarySearch(this.fKeys, 0, this.fSize, (char) (value >>> 16));
+    if (index < 0) {
+      return;
+    }
+
+    final Container container = this.fContainers[index].remove((char) value);
+    if (container.cardinality() == 0) {
+      System.arraycopy(this.fKeys, index + 1, this.fKeys, index, this.fSize - index - 1);
+      System.arraycopy(this.fContainers, index + 1, this.fContainers, index, this.fSize - index
+              - 1);
+      this.fContainers[--this.fSize] = null;
+    } else {
+      this.fContainers[index] = container;
+    }
+  }
+
+  /**
+   * @param value
+   *          value to look for
+   * @return whether the bitmap contains the value
+   */
+  public boolean contains(int value) {
+    if (value < 0) {
+      return false;
+    }
+
+    final int index = Arrays.binarySearch(this.fKeys, 0, this.fSize, (char) (value >>> 16));
+    return index >= 0 && this.fContainers[index].contains((char) value);
+  }
+
+  /**
+   * @return number of values in the bitmap
+   */
+  public int getCardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < this.fSize; ++i) {
+      cardinality += this.fContainers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  /**
+   * @return whether the bitmap contains no values
+   */
+  public boolean isEmpty() {
+    return this.fSize == 0;
+  }
+
+  /**
+   * @return all values in ascending order
+   */
+  public int[] toArray() {
+    final int[] values = new int[getCardinality()];
+
+    int offset = 0;
+    for (int i = 0; i < this.fSize; ++i) {
+      offset = this.fContainers[i].fill(values, offset, this.fKeys[i] << 16);
+    }
+
+    return values;
+  }
+
+  /**
+   * Creates an independent copy of this bitmap.
+   *
+   * @return copy of this bitmap
+   */
+  public RoaringBitmap copy() {
+    final Container[] containers = new Container[this.fContainers.length];
+    for (int i = 0; i < this.fSize; ++i) {
+      containers[i] = this.fContainers[i].copy();
+    }
+    return new RoaringBitmap(this.fKeys.clone(), containers, this.fSize);
+  }
+
+  /**
+   * Computes the intersection of two bitmaps without modifying them.
+   *
+   * @param first
+   *          first bitmap
+   * @param second
+   *          second bitmap
+   * @return new bitmap with all values contained in both bitmaps
+   */
+  public static RoaringBitmap and(RoaringBitmap first, RoaringBitmap second) {
+    final int max = Math.min(first.fSize, second.fSize);
+    final RoaringBitmap result = new RoaringBitmap(new char[Math.max(max, 1)],
+            new Container[Math.max(max, 1)], 0);
+
+    int i = 0;
+    int j = 0;
+    while (i < first.fSize && j < second.fSize) {
+      final char key1 = first.fKeys[i];
+      final char key2 = second.fKeys[j];
+
+      if (key1 < key2) {
+        ++i;
+      } else if (key1 > key2) {
+        ++j;
+      } else {
+        final Container container = first.fContainers[i++].and(second.fContainers[j++]);
+        if (container.cardinality() > 0) {
+          result.append(key1, container);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Counts the values contained in both bitmaps without materializing their intersection.
+   *
+   * @param first
+   *          first bitmap
+   * @param second
+   *          second bitmap
+   * @return size of the intersection
+   */
+  public static int andCardinality(RoaringBitmap first, RoaringBitmap second) {
+    int cardinality = 0;
+
+    int i = 0;
+    int j = 0;
+    while (i < first.fSize && j < second.fSize) {
+      final char key1 = first.fKeys[i];
+      final char key2 = second.fKeys[j];
+
+      if (key1 < key2) {
+        ++i;
+      } else if (key1 > key2) {
+        ++j;
+      } else {
+        cardinality += first.fContainers[i++].andCardinality(second.fContainers[j++]);
+      }
+    }
+
+    return cardinality;
+  }
+
+  /**
+   * Computes the difference of two bitmaps without modifying them.
+   *
+   * @param first
+   *          bitmap to subtract from
+   * @param second
+   *          bitmap to subtract
+   * @return new bitmap with all values of the first bitmap not contained in the second one
+   */
+  public static RoaringBitmap andNot(RoaringBitmap first, RoaringBitmap second) {
+    final RoaringBitmap result = new RoaringBitmap(new char[Math.max(first.fSize, 1)],
+            new Container[Math.max(first.fSize, 1)], 0);
+
+    int j = 0;
+    for (int i = 0; i < first.fSize; ++i) {
+      final char key = first.fKeys[i];
+      while (j < second.fSize && second.fKeys[j] < key) {
+        ++j;
+      }
+
+      if (j < second.fSize && second.fKeys[j] == key) {
+        final Container container = first.fContainers[i].andNot(second.fContainers[j]);
+        if (container.cardinality() > 0) {
+          result.append(key, container);
+        }
+      } else {
+        result.append(key, first.fContainers[i].copy());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Computes the union of two bitmaps without modifying them.
+   *
+   * @param first
+   *          first bitmap
+   * @param second
+   *          second bitmap
+   * @return new bitmap with all values contained in either bitmap
+   */
+  public static RoaringBitmap or(RoaringBitmap first, RoaringBitmap second) {
+    final int max = Math.max(first.fSize + second.fSize, 1);
+    final RoaringBitmap result = new RoaringBitmap(new char[max], new Container[max], 0);
+
+    int i = 0;
+    int j = 0;
+    while (i < first.fSize || j < second.fSize) {
+      if (j == second.fSize || i < first.fSize && first.fKeys[i] < second.fKeys[j]) {
+        result.append(first.fKeys[i], first.fContainers[i++].copy());
+      } else if (i == first.fSize || second.fKeys[j] < first.fKeys[i]) {
+        result.append(second.fKeys[j], second.fContainers[j++].copy());
+      } else {
+        result.append(first.fKeys[i], first.fContainers[i++].or(second.fContainers[j++]));
+      }
+    }
+
+    return result;
+  }
+
+  private void insert(int index, char key, Container container) {
+    if (this.fSize == this.fKeys.length) {
+      final int capacity = this.fSize * 2;
+      this.fKeys = Arrays.copyOf(this.fKeys, capacity);
+      this.fContainers = Arrays.copyOf(this.fContainers, capacity);
+    }
+
+    System.arraycopy(this.fKeys, index, this.fKeys, index + 1, this.fSize - index);
+    System.arraycopy(this.fContainers, index, this.fContainers, index + 1, this.fSize - index);
+    this.fKeys[index] = key;
+    this.fContainers[index] = container;
+    ++this.fSize;
+  }
+
+  private void append(char key, Container container) {
+    insert(this.fSize, key, container);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof RoaringBitmap)) {
+      return false;
+    }
+    return Arrays.equals(toArray(), ((RoaringBitmap) obj).toArray());
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(toArray());
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+
+  /**
+   * Set of the lower 16 bits of values sharing the same upper 16 bits. Modifying operations return
+   * the container to use afterwards, which may be of a different type.
+   */
+  private abstract static class Container {
+    abstract Container add(char value);
+
+    abstract Container remove(char value);
+
+    abstract boolean contains(char value);
+
+    abstract int cardinality();
+
+    abstract Container and(Container other);
+
+    abstract int andCardinality(Container other);
+
+    abstract Container andNot(Container other);
+
+    abstract Container or(Container other);
+
+    abstract int fill(int[] values, int offset, int high);
+
+    abstract Container copy();
+  }
+
+  /**
+   * Container for sparse values, stored as a sorted array.
+   */
+  private static final class ArrayContainer extends Container {
+    private char[] fValues;
+    private int fCardinality;
+
+    ArrayContainer() {
+      this(new char[4], 0);
+    }
+
+    ArrayContainer(char[] values, int cardinality) {
+      this.fValues = values;
+      this.fCardinality = cardinality;
+    }
+
+    @Override
+    Container add(char value) {
+      final int index = Arrays.binarySearch(this.fValues, 0, this.fCardinality, value);
+      if (index >= 0) {
+        return this;
+      }
+
+      if (this.fCardinality >= RoaringBitmap.ARRAY_MAX) {
+        return toBitmap().add(value);
+      }
+
+      final int pos = -index - 1;
+      if (this.fCardinality == this.fValues.length) {
+        this.fValues = Arrays.copyOf(this.fValues,
+                Math.min(Math.max(this.fCardinality * 2, 4), RoaringBitmap.ARRAY_MAX));
+      }
+      System.arraycopy(this.fValues, pos, this.fValues, pos + 1, this.fCardinality - pos);
+      this.fValues[pos] = value;
+      ++this.fCardinality;
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      final int index = Arrays.binarySearch(this.fValues, 0, this.fCardinality, value);
+      if (index >= 0) {
+        System.arraycopy(this.fValues, index + 1, this.fValues, index, this.fCardinality - index
+                - 1);
+        --this.fCardinality;
+      }
+      return this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(this.fValues, 0, this.fCardinality, value) >= 0;
+    }
+
+    @Override
+    int cardinality() {
+      return this.fCardinality;
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.and(this);
+      }
+
+      final ArrayContainer array = (ArrayContainer) other;
+      final char[] values = new char[Math.min(this.fCardinality, array.fCardinality)];
+      int count = 0;
+
+      int i = 0;
+      int j = 0;
+      while (i < this.fCardinality && j < array.fCardinality) {
+        final char value1 = this.fValues[i];
+        final char value2 = array.fValues[j];
+
+        if (value1 < value2) {
+          ++i;
+        } else if (value1 > value2) {
+          ++j;
+        } else {
+          values[count++] = value1;
+          ++i;
+          ++j;
+        }
+      }
+
+      return new ArrayContainer(values, count);
+    }
+
+    @Override
+    int andCardinality(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.andCardinality(this);
+      }
+
+      final ArrayContainer array = (ArrayContainer) other;
+      int count = 0;
+
+      int i = 0;
+      int j = 0;
+      while (i < this.fCardinality && j < array.fCardinality) {
+        final char value1 = this.fValues[i];
+        final char value2 = array.fValues[j];
+
+        if (value1 < value2) {
+          ++i;
+        } else if (value1 > value2) {
+          ++j;
+        } else {
+          ++count;
+          ++i;
+          ++j;
+        }
+      }
+
+      return count;
+    }
+
+    @Override
+    Container andNot(Container other) {
+      final char[] values = new char[this.fCardinality];
+      int count = 0;
+
+      for (int i = 0; i < this.fCardinality; ++i) {
+        if (!other.contains(this.fValues[i])) {
+          values[count++] = this.fValues[i];
+        }
+      }
+
+      return new ArrayContainer(values, count);
+    }
+
+    @Override
+    Container or(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.or(this);
+      }
+
+      final ArrayContainer array = (ArrayContainer) other;
+      if (this.fCardinality + array.fCardinality > RoaringBitmap.ARRAY_MAX) {
+        return toBitmap().or(array);
+      }
+
+      final char[] values = new char[Math.max(this.fCardinality + array.fCardinality, 1)];
+      int count = 0;
+
+      int i = 0;
+      int j = 0;
+      while (i < this.fCardinality || j < array.fCardinality) {
+        if (j == array.fCardinality || i < this.fCardinality
+                && this.fValues[i] < array.fValues[j]) {
+          values[count++] = this.fValues[i++];
+        } else if (i == this.fCardinality || array.fValues[j] < this.fValues[i]) {
+          values[count++] = array.fValues[j++];
+        } else {
+          values[count++] = this.fValues[i++];
+          ++j;
+        }
+      }
+
+      return new ArrayContainer(values, count);
+    }
+
+    @Override
+    int fill(int[] values, int offset, int high) {
+      for (int i = 0; i < this.fCardinality; ++i) {
+        values[offset++] = high | this.fValues[i];
+      }
+      return offset;
+    }
+
+    @Override
+    Container copy() {
+      return new ArrayContainer(Arrays.copyOf(this.fValues, Math.max(this.fCardinality, 1)),
+              this.fCardinality);
+    }
+
+    private BitmapContainer toBitmap() {
+      final BitmapContainer bitmap = new BitmapContainer(new long[RoaringBitmap.WORDS], 0);
+      for (int i = 0; i < this.fCardinality; ++i) {
+        bitmap.add(this.fValues[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  /**
+   * Container for dense values, stored as a bit set of 2^16 bits.
+   */
+  private static final class BitmapContainer extends Container {
+    private final long[] fWords;
+    private int fCardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+      this.fWords = words;
+      this.fCardinality = cardinality;
+    }
+
+    @Override
+    Container add(char value) {
+      final long word = this.fWords[value >>> 6];
+      final long bit = 1L << value;
+
+      if ((word & bit) == 0) {
+        this.fWords[value >>> 6] = word | bit;
+        ++this.fCardinality;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      final long word = this.fWords[value >>> 6];
+      final long bit = 1L << value;
+
+      if ((word & bit) != 0) {
+        this.fWords[value >>> 6] = word & ~bit;
+        --this.fCardinality;
+
+        if (this.fCardinality <= RoaringBitmap.ARRAY_MAX) {
+          return toArray();
+        }
+      }
+      return this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (this.fWords[value >>> 6] & 1L << value) != 0;
+    }
+
+    @Override
+    int cardinality() {
+      return this.fCardinality;
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) {
+        final ArrayContainer array = (ArrayContainer) other;
+        final char[] values = new char[array.fCardinality];
+        int count = 0;
+
+        for (int i = 0; i < array.fCardinality; ++i) {
+          if (contains(array.fValues[i])) {
+            values[count++] = array.fValues[i];
+          }
+        }
+
+        return new ArrayContainer(values, count);
+      }
+
+      final long[] otherWords = ((BitmapContainer) other).fWords;
+      final long[] words = new long[RoaringBitmap.WORDS];
+      int cardinality = 0;
+
+      for (int i = 0; i < RoaringBitmap.WORDS; ++i) {
+        words[i] = this.fWords[i] & otherWords[i];
+        cardinality += Long.bitCount(words[i]);
+      }
+
+      return normalize(words, cardinality);
+    }
+
+    @Override
+    int andCardinality(Container other) {
+      int cardinality = 0;
+
+      if (other instanceof ArrayContainer) {
+        final ArrayContainer array = (ArrayContainer) other;
+        for (int i = 0; i < array.fCardinality; ++i) {
+          if (contains(array.fValues[i])) {
+            ++cardinality;
+          }
+        }
+      } else {
+        final long[] otherWords = ((BitmapContainer) other).fWords;
+        for (int i = 0; i < RoaringBitmap.WORDS; ++i) {
+          cardinality += Long.bitCount(this.fWords[i] & otherWords[i]);
+        }
+      }
+
+      return cardinality;
+    }
+
+    @Override
+    Container andNot(Container other) {
+      final long[] words = this.fWords.clone();
+      int cardinality = this.fCardinality;
+
+      if (other instanceof ArrayContainer) {
+        final ArrayContainer array = (ArrayContainer) other;
+        for (int i = 0; i < array.fCardinality; ++i) {
+          final char value = array.fValues[i];
+          final long bit = 1L << value;
+
+          if ((words[value >>> 6] & bit) != 0) {
+            words[value >>> 6] &= ~bit;
+            --cardinality;
+          }
+        }
+      } else {
+        final long[] otherWords = ((BitmapContainer) other).fWords;
+        cardinality = 0;
+        for (int i = 0; i < RoaringBitmap.WORDS; ++i) {
+          words[i] &= ~otherWords[i];
+          cardinality += Long.bitCount(words[i]);
+        }
+      }
+
+      return normalize(words, cardinality);
+    }
+
+    @Override
+    Container or(Container other) {
+      final BitmapContainer result = new BitmapContainer(this.fWords.clone(), this.fCardinality);
+
+      if (other instanceof ArrayContainer) {
+        final ArrayContainer array = (ArrayContainer) other;
+        for (int i = 0; i < array.fCardinality; ++i) {
+          result.add(array.fValues[i]);
+        }
+      } else {
+        final long[] otherWords = ((BitmapContainer) other).fWords;
+        int cardinality = 0;
+        for (int i = 0; i < RoaringBitmap.WORDS; ++i) {
+          result.fWords[i] |= otherWords[i];
+          cardinality += Long.bitCount(result.fWords[i]);
+        }
+        result.fCardinality = cardinality;
+      }
+
+      return result;
+    }
+
+    @Override
+    int fill(int[] values, int offset, int high) {
+      for (int i = 0; i < RoaringBitmap.WORDS; ++i) {
+        long word = this.fWords[i];
+        while (word != 0) {
+          values[offset++] = high | i << 6 | Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+        }
+      }
+      return offset;
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(this.fWords.clone(), this.fCardinality);
+    }
+
+    private ArrayContainer toArray() {
+      final char[] values = new char[Math.max(this.fCardinality, 1)];
+      final int[] buffer = new int[this.fCardinality];
+      fill(buffer, 0, 0);
+
+      for (int i = 0; i < buffer.length; ++i) {
+        values[i] = (char) buffer[i];
+      }
+      return new ArrayContainer(values, this.fCardinality);
+    }
+
+    private static Container normalize(long[] words, int cardinality) {
+      final BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+      if (cardinality <= RoaringBitmap.ARRAY_MAX) {
+        return bitmap.toArray();
+      }
+      return bitmap;
+    }
+  }
+}
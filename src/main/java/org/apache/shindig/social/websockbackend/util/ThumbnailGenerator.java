@@ -0,0 +1,401 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Generates scaled down JPEG versions of uploaded images in a number of fixed sizes using a bounded
+ * pool of background workers. Thumbnails are cached on disk next to the stored contents and are
+ * generated on demand if they are requested before the background workers get to them. Images with
+ * more pixels than configured are not decoded, since they would be decompressed into memory as a
+ * whole.
+ */
+@Singleton
+public class ThumbnailGenerator {
+  /**
+   * Path prefix of thumbnail download URLs.
+   */
+  public static final String THUMB_PATH = "thumbs/";
+
+  private static final String ENABLED = "thumbnails_enabled";
+  private static final String SIZES = "thumbnail_sizes";
+  private static final String THREADS = "thumbnail_threads";
+  private static final String QUEUE_SIZE = "thumbnail_queue_size";
+  private static final String DEFAULT_SIZE = "thumbnail_default_size";
+  private static final String MAX_PIXELS = "thumbnail_max_pixels";
+
+  private static final int[] DEF_SIZES = { 64, 160, 320 };
+  private static final int DEF_THREADS = 2;
+  private static final int DEF_QUEUE_SIZE = 100;
+  private static final int DEF_DEFAULT_SIZE = 160;
+  private static final long DEF_MAX_PIXELS = 40000000;
+
+  private static final String FORMAT = "jpg";
+
+  private static final Pattern BLOB_PATTERN = Pattern.compile(Constants.BLOB_PATH
+          + "([0-9a-f]{64})");
+
+  private final Logger fLogger;
+
+  private final boolean fEnabled;
+  private final int[] fSizes;
+  private final int fDefaultSize;
+  private final long fMaxPixels;
+  private final String fDownloadPath;
+
+  private ContentStore fStore;
+  private ThreadPoolExecutor fExecutor;
+
+  /**
+   * Creates a thumbnail generator reading its settings and the upload directory from the given
+   * configuration object. Throws a NullPointerException if the configuration object is null.
+   *
+   * @param config
+   *          configuration object to use
+   */
+  @Inject
+  public ThumbnailGenerator(WebsockConfig config) {
+    if (config == null) {
+      throw new NullPointerException("configuration object was null");
+    }
+
+    this.fLogger = Logger.getLogger(this.getClass().getName());
+
+    final String sizes = config.getProperty(ThumbnailGenerator.SIZES);
+    if (sizes != null && !sizes.isEmpty()) {
+      final String[] parts = sizes.split(",");
+      this.fSizes = new int[parts.length];
+      for (int i = 0; i < parts.length; ++i) {
+        this.fSizes[i] = Integer.parseInt(parts[i].trim());
+      }
+      Arrays.sort(this.fSizes);
+    } else {
+      this.fSizes = ThumbnailGenerator.DEF_SIZES;
+    }
+
+    int defaultSize = ThumbnailGenerator.DEF_DEFAULT_SIZE;
+    final String defString = config.getProperty(ThumbnailGenerator.DEFAULT_SIZE);
+    if (defString != null && !defString.isEmpty()) {
+      defaultSize = Integer.parseInt(defString);
+    }
+    this.fDefaultSize = defaultSize;
+
+    long maxPixels = ThumbnailGenerator.DEF_MAX_PIXELS;
+    final String pixelString = config.getProperty(ThumbnailGenerator.MAX_PIXELS);
+    if (pixelString != null && !pixelString.isEmpty()) {
+      maxPixels = Long.parseLong(pixelString);
+    }
+    this.fMaxPixels = maxPixels;
+
+    String downloadPath = config.getProperty(Constants.DOWNLOAD_PATH);
+    if (downloadPath == null) {
+      downloadPath = "";
+    }
+    this.fDownloadPath = downloadPath;
+
+    final String uploadPath = config.getProperty(Constants.UPLOAD_PATH);
+    boolean enabled = Boolean.parseBoolean(config.getProperty(ThumbnailGenerator.ENABLED))
+            && uploadPath != null && !uploadPath.isEmpty();
+
+    if (enabled) {
+      try {
+        this.fStore = new ContentStore(new File(uploadPath));
+      } catch (final IOException e) {
+        this.fLogger.log(Level.SEVERE, "could not initialize upload directory", e);
+        enabled = false;
+      }
+    }
+    this.fEnabled = enabled;
+
+    if (this.fEnabled) {
+      int threads = ThumbnailGenerator.DEF_THREADS;
+      final String threadString = config.getProperty(ThumbnailGenerator.THREADS);
+      if (threadString != null && !threadString.isEmpty()) {
+        threads = Integer.parseInt(threadString);
+      }
+
+      int queueSize = ThumbnailGenerator.DEF_QUEUE_SIZE;
+      final String queueString = config.getProperty(ThumbnailGenerator.QUEUE_SIZE);
+      if (queueString != null && !queueString.isEmpty()) {
+        queueSize = Integer.parseInt(queueString);
+      }
+
+      // bounded queue, excess images get their thumbnails on demand
+      this.fExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  final Thread thread = new Thread(r, "thumbnail generator");
+                  thread.setDaemon(true);
+                  thread.setPriority(Thread.MIN_PRIORITY);
+                  return thread;
+                }
+              }, new ThreadPoolExecutor.DiscardPolicy());
+      this.fExecutor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  /**
+   * @return whether thumbnails are generated
+   */
+  public boolean isEnabled() {
+    return this.fEnabled;
+  }
+
+  /**
+   * @return thumbnail sizes in pixels in ascending order
+   */
+  public int[] getSizes() {
+    return this.fSizes.clone();
+  }
+
+  /**
+   * Queues the generation of all thumbnail sizes for the stored contents with the given digest if
+   * their content type is an image type. Does nothing if the generator is disabled or its queue is
+   * full.
+   *
+   * @param digest
+   *          digest of the stored contents
+   * @param contentType
+   *          content type of the contents
+   */
+  public void submit(final String digest, String contentType) {
+    if (!this.fEnabled || contentType == null || !contentType.startsWith("image/")) {
+      return;
+    }
+
+    try {
+      this.fExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            generate(digest, ThumbnailGenerator.this.fSizes);
+          } catch (final Exception e) {
+            ThumbnailGenerator.this.fLogger.log(Level.WARNING, "thumbnail generation failed", e);
+          }
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      // shut down
+    }
+  }
+
+  /**
+   * Returns the thumbnail file for the stored contents with the given digest and the given size,
+   * generating it if necessary. Returns null if the generator is disabled, the size is not
+   * supported, the contents don't exist or are not a readable image.
+   *
+   * @param digest
+   *          digest of the stored contents
+   * @param size
+   *          maximum width and height of the thumbnail
+   * @return thumbnail file or null
+   * @throws IOException
+   *           if reading or writing fails
+   */
+  public File getThumbnail(String digest, int size) throws IOException {
+    if (!this.fEnabled || Arrays.binarySearch(this.fSizes, size) < 0) {
+      return null;
+    }
+
+    final File thumb = getThumbnailFile(digest, size);
+    if (thumb == null || thumb.isFile()) {
+      return thumb;
+    }
+
+    generate(digest, new int[] { size });
+    return thumb.isFile() ? thumb : null;
+  }
+
+  private File getThumbnailFile(String digest, int size) {
+    final File source = this.fStore.getFile(digest);
+    if (source == null || !source.isFile()) {
+      return null;
+    }
+
+    return this.fStore.getDerivedFile(digest, Integer.toString(size), ThumbnailGenerator.FORMAT);
+  }
+
+  private void generate(String digest, int[] sizes) throws IOException {
+    BufferedImage image = null;
+
+    // decode the original only once for all missing sizes, largest first
+    for (int i = sizes.length - 1; i >= 0; --i) {
+      final File thumb = getThumbnailFile(digest, sizes[i]);
+      if (thumb == null || thumb.isFile()) {
+        continue;
+      }
+
+      if (image == null) {
+        image = read(this.fStore.getFile(digest));
+        if (image == null) {
+          // not a readable image or too large
+          return;
+        }
+      }
+
+      final File dir = thumb.getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("could not create directory " + dir);
+      }
+
+      // write to a temporary file first, concurrent requests may generate the same thumbnail
+      final File temp = File.createTempFile("thumb", null, dir);
+      try {
+        ImageIO.write(scale(image, sizes[i]), ThumbnailGenerator.FORMAT, temp);
+        Files.move(temp.toPath(), thumb.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        temp.delete();
+      }
+    }
+  }
+
+  private BufferedImage read(File file) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      final Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext()) {
+        return null;
+      }
+
+      final ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+
+        // check dimensions from the header before decoding the whole image
+        final long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+        if (pixels > this.fMaxPixels) {
+          this.fLogger.log(Level.WARNING, "image " + file.getName() + " has " + pixels
+                  + " pixels, not generating thumbnails");
+          return null;
+        }
+
+        return reader.read(0);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Derives the URL of the default size thumbnail for a download URL of stored contents. Returns
+   * null if the generator is disabled or the URL does not point to stored contents.
+   *
+   * @param url
+   *          download URL of the stored contents
+   * @return thumbnail URL or null
+   */
+  public String getThumbnailUrl(String url) {
+    return getThumbnailUrl(url, this.fDefaultSize);
+  }
+
+  /**
+   * Derives the URL of the smallest thumbnail that is at least as large as the given size for a
+   * download URL of stored contents. Returns null if the generator is disabled or the URL does not
+   * point to stored contents.
+   *
+   * @param url
+   *          download URL of the stored contents
+   * @param size
+   *          minimum thumbnail size
+   * @return thumbnail URL or null
+   */
+  public String getThumbnailUrl(String url, int size) {
+    if (!this.fEnabled || url == null) {
+      return null;
+    }
+
+    final Matcher matcher = ThumbnailGenerator.BLOB_PATTERN.matcher(url);
+    if (!matcher.find()) {
+      return null;
+    }
+
+    int thumbSize = this.fSizes[this.fSizes.length - 1];
+    for (final int s : this.fSizes) {
+      if (s >= size) {
+        thumbSize = s;
+        break;
+      }
+    }
+
+    return this.fDownloadPath + ThumbnailGenerator.THUMB_PATH + thumbSize + '/' + matcher.group(1)
+            + '.' + ThumbnailGenerator.FORMAT;
+  }
+
+  private static BufferedImage scale(BufferedImage image, int size) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+
+    final double factor = Math.min(1.0, (double) size / Math.max(width, height));
+    final int targetWidth = Math.max(1, (int) Math.round(width * factor));
+    final int targetHeight = Math.max(1, (int) Math.round(height * factor));
+
+    // JPEG has no alpha channel, draw on white
+    BufferedImage current = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = current.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, width, height);
+    g.drawImage(image, 0, 0, null);
+    g.dispose();
+
+    // halve repeatedly for better quality than a single bilinear step
+    while (width != targetWidth || height != targetHeight) {
+      width = Math.max(targetWidth, width / 2);
+      height = Math.max(targetHeight, height / 2);
+
+      final BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      g = next.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+              RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(current, 0, 0, width, height, null);
+      g.dispose();
+
+      current = next;
+    }
+
+    return current;
+  }
+}
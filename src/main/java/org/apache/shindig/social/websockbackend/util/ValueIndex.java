@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index over one string value per document, finding the documents whose value equals, starts with
+ * or contains a string, matching case-sensitively. Distinct values are kept in a sorted map, so
+ * values starting with a prefix form one range; for substrings, the documents containing all
+ * trigrams of the substring are looked up in a posting index and then checked. All methods are
+ * thread-safe.
+ */
+public class ValueIndex {
+  private static final int GRAM_LENGTH = 3;
+
+  private final TreeMap<String, int[]> fValues;
+  private final Map<Integer, String> fDocuments;
+  private final PostingIndex fGrams;
+
+  /**
+   * Creates an empty index.
+   */
+  public ValueIndex() {
+    this.fValues = new TreeMap<String, int[]>();
+    this.fDocuments = new HashMap<Integer, String>();
+    this.fGrams = new PostingIndex();
+  }
+
+  /**
+   * Replaces the value of a document.
+   *
+   * @param document
+   *          number of the document
+   * @param value
+   *          value of the document, null to remove it
+   */
+  public synchronized void set(int document, String value) {
+    final String old = this.fDocuments.remove(document);
+    if (old != null) {
+      final int[] documents = this.fValues.get(old);
+      if (documents.length == 1) {
+        this.fValues.remove(old);
+      } else {
+        final int index = Arrays.binarySearch(documents, document);
+        final int[] remaining = new int[documents.length - 1];
+        System.arraycopy(documents, 0, remaining, 0, index);
+        System.arraycopy(documents, index + 1, remaining, index, remaining.length - index);
+        this.fValues.put(old, remaining);
+      }
+    }
+
+    if (value == null) {
+      this.fGrams.set(document, null);
+      return;
+    }
+
+    final int[] documents = this.fValues.get(value);
+    if (documents == null) {
+      this.fValues.put(value, new int[] { document });
+    } else {
+      final int index = -Arrays.binarySearch(documents, document) - 1;
+      final int[] added = new int[documents.length + 1];
+      System.arraycopy(documents, 0, added, 0, index);
+      added[index] = document;
+      System.arraycopy(documents, index, added, index + 1, documents.length - index);
+      this.fValues.put(value, added);
+    }
+    this.fDocuments.put(document, value);
+
+    if (!value.equals(old)) {
+      this.fGrams.set(document, ValueIndex.grams(value));
+    }
+  }
+
+  private static Map<String, Integer> grams(String value) {
+    final Map<String, Integer> grams = new HashMap<String, Integer>();
+    for (int i = 0; i + ValueIndex.GRAM_LENGTH <= value.length(); ++i) {
+      grams.put(value.substring(i, i + ValueIndex.GRAM_LENGTH), 1);
+    }
+    return grams;
+  }
+
+  /**
+   * @param document
+   *          number of the document
+   * @return value of the document or null
+   */
+  public synchronized String get(int document) {
+    return this.fDocuments.get(document);
+  }
+
+  /**
+   * @return documents having a value in ascending order
+   */
+  public synchronized int[] present() {
+    final int[] documents = new int[this.fDocuments.size()];
+    int i = 0;
+    for (final int document : this.fDocuments.keySet()) {
+      documents[i++] = document;
+    }
+    Arrays.sort(documents);
+    return documents;
+  }
+
+  /**
+   * @param value
+   *          value to look for
+   * @return documents with exactly the given value in ascending order
+   */
+  public synchronized int[] equal(String value) {
+    final int[] documents = this.fValues.get(value);
+    return documents == null ? new int[0] : documents.clone();
+  }
+
+  /**
+   * @param prefix
+   *          prefix to look for
+   * @return documents whose value starts with the given prefix in ascending order
+   */
+  public synchronized int[] startsWith(String prefix) {
+    if (prefix.isEmpty()) {
+      return present();
+    }
+    return ValueIndex.merge(this.fValues.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+            .values());
+  }
+
+  /**
+   * @param fragment
+   *          substring to look for
+   * @return documents whose value contains the given substring in ascending order
+   */
+  public int[] contains(String fragment) {
+    // too short for trigrams, check every distinct value
+    if (fragment.length() < ValueIndex.GRAM_LENGTH) {
+      final List<int[]> lists = new ArrayList<int[]>();
+      synchronized (this) {
+        for (final Map.Entry<String, int[]> valueE : this.fValues.entrySet()) {
+          if (valueE.getKey().contains(fragment)) {
+            lists.add(valueE.getValue());
+          }
+        }
+      }
+      return ValueIndex.merge(lists);
+    }
+
+    // all candidates have equal weights, so they are ranked by number
+    final int[] candidates = this.fGrams.find(ValueIndex.grams(fragment).keySet(), true);
+
+    final IntList found = new IntList();
+    synchronized (this) {
+      for (final int document : candidates) {
+        final String value = this.fDocuments.get(document);
+        if (value != null && value.contains(fragment)) {
+          found.add(document);
+        }
+      }
+    }
+    return found.toArray();
+  }
+
+  private static int[] merge(Collection<int[]> lists) {
+    final IntList documents = new IntList();
+    for (final int[] list : lists) {
+      for (final int document : list) {
+        documents.add(document);
+      }
+    }
+
+    final int[] sorted = documents.toArray();
+    Arrays.sort(sorted);
+    return sorted;
+  }
+}
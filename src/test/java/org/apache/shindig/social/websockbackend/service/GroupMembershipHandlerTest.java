@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.service;
+
+import java.util.concurrent.Future;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.DefaultHandlerRegistry;
+import org.apache.shindig.protocol.HandlerExecutionListener;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.RestHandler;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.opensocial.spi.UserId.Type;
+import org.apache.shindig.social.websockbackend.spi.IGroupMembershipService;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test for the group membership service handler of the graph back-end.
+ */
+public class GroupMembershipHandlerTest {
+  private IGroupMembershipService fMembershipSPI;
+  private GroupMembershipHandler fMembers;
+  private HandlerRegistry fRegistry;
+  private BeanJsonConverter fConverter;
+
+  private SecurityToken fToken;
+
+  @Before
+  public void setup() {
+    this.fMembershipSPI = EasyMock.createNiceMock(IGroupMembershipService.class);
+    this.fMembers = new GroupMembershipHandler(this.fMembershipSPI);
+
+    this.fConverter = EasyMock.createNiceMock(BeanJsonConverter.class);
+    this.fRegistry = new DefaultHandlerRegistry(null, this.fConverter,
+            new HandlerExecutionListener.NoOpHandler());
+    this.fRegistry.addHandlers(ImmutableSet.<Object> of(this.fMembers));
+
+    this.fToken = new FakeGadgetToken();
+  }
+
+  /**
+   * Test routine for requests joining a group.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void joinTest() throws Exception {
+    final String path = "/groupMembers/john.doe/fam.doe.group";
+    final RestHandler operation = this.fRegistry.getRestHandler(path, "POST");
+
+    final Future<Void> future = Futures.immediateFuture(null);
+    EasyMock.expect(
+            this.fMembershipSPI.joinGroup(new UserId(Type.userId, "john.doe"), "fam.doe.group",
+                    this.fToken)).andReturn(future);
+
+    EasyMock.replay(this.fMembershipSPI);
+
+    Assert.assertNull(operation.execute(Maps.<String, String[]> newHashMap(), null, this.fToken,
+            this.fConverter).get());
+    EasyMock.verify(this.fMembershipSPI);
+  }
+
+  /**
+   * Test routine for requests leaving a group.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void leaveTest() throws Exception {
+    final String path = "/groupMembers/john.doe/fam.doe.group";
+    final RestHandler operation = this.fRegistry.getRestHandler(path, "DELETE");
+
+    final Future<Void> future = Futures.immediateFuture(null);
+    EasyMock.expect(
+            this.fMembershipSPI.leaveGroup(new UserId(Type.userId, "john.doe"), "fam.doe.group",
+                    this.fToken)).andReturn(future);
+
+    EasyMock.replay(this.fMembershipSPI);
+
+    Assert.assertNull(operation.execute(Maps.<String, String[]> newHashMap(), null, this.fToken,
+            this.fConverter).get());
+    EasyMock.verify(this.fMembershipSPI);
+  }
+}
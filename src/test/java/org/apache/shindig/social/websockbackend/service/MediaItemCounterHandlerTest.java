@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.service;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.DefaultHandlerRegistry;
+import org.apache.shindig.protocol.HandlerExecutionListener;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestHandler;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.opensocial.spi.UserId.Type;
+import org.apache.shindig.social.websockbackend.spi.IMediaItemCounterService;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test for the media item counter service handler of the graph back-end.
+ */
+public class MediaItemCounterHandlerTest {
+  private IMediaItemCounterService fCounterSPI;
+  private MediaItemCounterHandler fCounters;
+  private HandlerRegistry fRegistry;
+  private BeanJsonConverter fConverter;
+
+  private SecurityToken fToken;
+
+  @Before
+  public void setup() {
+    this.fCounterSPI = EasyMock.createNiceMock(IMediaItemCounterService.class);
+    this.fCounters = new MediaItemCounterHandler(this.fCounterSPI);
+
+    this.fConverter = EasyMock.createNiceMock(BeanJsonConverter.class);
+    this.fRegistry = new DefaultHandlerRegistry(null, this.fConverter,
+            new HandlerExecutionListener.NoOpHandler());
+    this.fRegistry.addHandlers(ImmutableSet.<Object> of(this.fCounters));
+
+    this.fToken = new FakeGadgetToken();
+  }
+
+  /**
+   * Test routine for requests incrementing a media item's counter.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void incrementTest() throws Exception {
+    final String path = "/mediaItemCounters/john.doe/album1/item1/numViews";
+    final RestHandler operation = this.fRegistry.getRestHandler(path, "POST");
+
+    final Future<Void> future = Futures.immediateFuture(null);
+    EasyMock.expect(
+            this.fCounterSPI.incrementCounter(new UserId(Type.userId, "john.doe"), null,
+                    "album1", "item1", "numViews", 3, this.fToken)).andReturn(future);
+
+    EasyMock.replay(this.fCounterSPI);
+
+    final Map<String, String[]> params = Maps.newHashMap();
+    params.put("delta", new String[] { "3" });
+    Assert.assertNull(operation.execute(params, null, this.fToken, this.fConverter).get());
+    EasyMock.verify(this.fCounterSPI);
+  }
+
+  /**
+   * Test routine for increments without a delta, which add one.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void defaultDeltaTest() throws Exception {
+    final String path = "/mediaItemCounters/john.doe/album1/item1/numVotes";
+    final RestHandler operation = this.fRegistry.getRestHandler(path, "POST");
+
+    final Future<Void> future = Futures.immediateFuture(null);
+    EasyMock.expect(
+            this.fCounterSPI.incrementCounter(new UserId(Type.userId, "john.doe"), null,
+                    "album1", "item1", "numVotes", 1, this.fToken)).andReturn(future);
+
+    EasyMock.replay(this.fCounterSPI);
+
+    Assert.assertNull(operation.execute(Maps.<String, String[]> newHashMap(), null, this.fToken,
+            this.fConverter).get());
+    EasyMock.verify(this.fCounterSPI);
+  }
+
+  /**
+   * Test routine for deltas that are malformed, not positive or too large, which are rejected
+   * without touching the counter.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void invalidDeltaTest() throws Exception {
+    final String path = "/mediaItemCounters/john.doe/album1/item1/numViews";
+    final RestHandler operation = this.fRegistry.getRestHandler(path, "POST");
+
+    EasyMock.replay(this.fCounterSPI);
+
+    for (final String delta : new String[] { "abc", "0", "-5", "101",
+        Long.toString(Long.MAX_VALUE) }) {
+      final Map<String, String[]> params = Maps.newHashMap();
+      params.put("delta", new String[] { delta });
+
+      try {
+        operation.execute(params, null, this.fToken, this.fConverter).get();
+        Assert.fail("invalid delta was accepted: " + delta);
+      } catch (final ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof ProtocolException);
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+                ((ProtocolException) e.getCause()).getCode());
+      }
+    }
+
+    EasyMock.verify(this.fCounterSPI);
+  }
+}
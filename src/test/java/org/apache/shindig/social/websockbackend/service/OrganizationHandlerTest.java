@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.DefaultHandlerRegistry;
+import org.apache.shindig.protocol.HandlerExecutionListener;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestHandler;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.opensocial.spi.UserId.Type;
+import org.apache.shindig.social.websockbackend.spi.IOrganizationService;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test for the organization service handler of the graph back-end.
+ */
+public class OrganizationHandlerTest {
+  private static final String PATH = "/organization/john.doe/subordinates";
+
+  private IOrganizationService fOrgSPI;
+  private OrganizationHandler fOrgs;
+  private HandlerRegistry fRegistry;
+  private BeanJsonConverter fConverter;
+
+  private SecurityToken fToken;
+
+  @Before
+  public void setup() {
+    this.fOrgSPI = EasyMock.createMock(IOrganizationService.class);
+    this.fOrgs = new OrganizationHandler(this.fOrgSPI);
+
+    this.fConverter = EasyMock.createNiceMock(BeanJsonConverter.class);
+    this.fRegistry = new DefaultHandlerRegistry(null, this.fConverter,
+            new HandlerExecutionListener.NoOpHandler());
+    this.fRegistry.addHandlers(ImmutableSet.<Object> of(this.fOrgs));
+
+    this.fToken = new FakeGadgetToken();
+  }
+
+  /**
+   * Tests that the depth of subordinate requests is passed on and unlimited if not given.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void depthTest() throws Exception {
+    final RestHandler operation = this.fRegistry.getRestHandler(OrganizationHandlerTest.PATH,
+            "GET");
+    final UserId john = new UserId(Type.userId, "john.doe");
+
+    final Future<RestfulCollection<Person>> future = Futures.immediateFuture(null);
+    EasyMock.expect(
+            this.fOrgSPI.getSubordinates(EasyMock.eq(john), EasyMock.eq(2),
+                    EasyMock.<CollectionOptions> anyObject(), EasyMock.<Set<String>> anyObject(),
+                    EasyMock.eq(this.fToken))).andReturn(future);
+    EasyMock.expect(
+            this.fOrgSPI.getSubordinates(EasyMock.eq(john), EasyMock.eq(Integer.MAX_VALUE),
+                    EasyMock.<CollectionOptions> anyObject(), EasyMock.<Set<String>> anyObject(),
+                    EasyMock.eq(this.fToken))).andReturn(future);
+    EasyMock.replay(this.fOrgSPI);
+
+    final Map<String, String[]> params = Maps.newHashMap();
+    params.put("depth", new String[] { "2" });
+    operation.execute(params, null, this.fToken, this.fConverter).get();
+
+    operation.execute(Maps.<String, String[]> newHashMap(), null, this.fToken, this.fConverter)
+            .get();
+    EasyMock.verify(this.fOrgSPI);
+  }
+
+  /**
+   * Tests that malformed and non-positive depths are rejected with a 400.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void invalidDepthTest() throws Exception {
+    final RestHandler operation = this.fRegistry.getRestHandler(OrganizationHandlerTest.PATH,
+            "GET");
+    EasyMock.replay(this.fOrgSPI);
+
+    for (final String depth : new String[] { "deep", "0", "-1", "99999999999" }) {
+      final Map<String, String[]> params = Maps.newHashMap();
+      params.put("depth", new String[] { depth });
+
+      try {
+        operation.execute(params, null, this.fToken, this.fConverter).get();
+        Assert.fail("invalid depth was accepted: " + depth);
+      } catch (final ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof ProtocolException);
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+                ((ProtocolException) e.getCause()).getCode());
+      }
+    }
+
+    EasyMock.verify(this.fOrgSPI);
+  }
+}
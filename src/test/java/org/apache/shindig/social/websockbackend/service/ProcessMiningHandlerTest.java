@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.DefaultHandlerRegistry;
+import org.apache.shindig.protocol.HandlerExecutionListener;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestHandler;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.apache.shindig.social.websockbackend.model.IProcessCycle;
+import org.apache.shindig.social.websockbackend.spi.IProcessMiningService;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test for the bulk submission of process cycles to the process mining service handler and for its
+ * handling of numeric parameters.
+ */
+public class ProcessMiningHandlerTest {
+  private static final String PATH = "/processmining/invoice/batch";
+
+  private IProcessMiningService fProcessMiningSPI;
+  private ProcessMiningHandler fProcessMining;
+  private HandlerRegistry fRegistry;
+  private BeanJsonConverter fConverter;
+
+  private SecurityToken fToken;
+
+  @Before
+  public void setup() {
+    this.fProcessMiningSPI = EasyMock.createMock(IProcessMiningService.class);
+    this.fProcessMining = new ProcessMiningHandler(this.fProcessMiningSPI);
+
+    this.fConverter = EasyMock.createNiceMock(BeanJsonConverter.class);
+    this.fRegistry = new DefaultHandlerRegistry(null, this.fConverter,
+            new HandlerExecutionListener.NoOpHandler());
+    this.fRegistry.addHandlers(ImmutableSet.<Object> of(this.fProcessMining));
+
+    this.fToken = new FakeGadgetToken();
+  }
+
+  private Object post(String body) throws Exception {
+    final RestHandler operation = this.fRegistry.getRestHandler(ProcessMiningHandlerTest.PATH,
+            "POST");
+
+    final Map<String, String[]> params = Maps.newHashMap();
+    params.put("cycles", new String[] { body });
+    return operation.execute(params, null, this.fToken, this.fConverter).get();
+  }
+
+  private Capture<List<IProcessCycle>> expectCycles() {
+    final Capture<List<IProcessCycle>> cycles = new Capture<List<IProcessCycle>>();
+
+    final Map<String, Object> accepted = new HashMap<String, Object>();
+    final Future<Map<String, Object>> future = Futures.immediateFuture(accepted);
+    EasyMock.expect(
+            this.fProcessMiningSPI.addProcessCycles(EasyMock.eq("invoice"),
+                    EasyMock.capture(cycles), EasyMock.<SecurityToken> anyObject())).andReturn(
+            future);
+
+    EasyMock.replay(this.fProcessMiningSPI);
+    return cycles;
+  }
+
+  private static int getCode(ExecutionException e) {
+    Assert.assertTrue(e.getCause() instanceof ProtocolException);
+    return ((ProtocolException) e.getCause()).getCode();
+  }
+
+  /**
+   * Tests parsing a JSON array of cycles with dates in milliseconds and ISO 8601 format.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void arrayTest() throws Exception {
+    final Capture<List<IProcessCycle>> cycles = expectCycles();
+
+    post("[{\"docId\":\"doc1\",\"startDate\":1000,\"endDate\":\"1970-01-01T00:00:02Z\","
+            + "\"userList\":[\"john.doe\",\"jane.doe\"]},{\"docId\":\"doc2\"}]");
+    EasyMock.verify(this.fProcessMiningSPI);
+
+    final List<IProcessCycle> list = cycles.getValue();
+    Assert.assertEquals(2, list.size());
+    Assert.assertEquals("doc1", list.get(0).getDocId());
+    Assert.assertEquals(1000, list.get(0).getStartDate().getTime());
+    Assert.assertEquals(2000, list.get(0).getEndDate().getTime());
+    Assert.assertEquals(2, list.get(0).getUserList().size());
+    Assert.assertEquals("doc2", list.get(1).getDocId());
+    Assert.assertNull(list.get(1).getStartDate());
+  }
+
+  /**
+   * Tests parsing newline delimited JSON with single cycles and arrays of cycles per line.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void ndjsonTest() throws Exception {
+    final Capture<List<IProcessCycle>> cycles = expectCycles();
+
+    post("{\"docId\":\"doc1\"}\n[{\"docId\":\"doc2\"},{\"docId\":\"doc3\"}]\n\n"
+            + "{\"docId\":\"doc4\"}\n");
+    EasyMock.verify(this.fProcessMiningSPI);
+
+    final List<IProcessCycle> list = cycles.getValue();
+    Assert.assertEquals(4, list.size());
+    for (int i = 0; i < 4; ++i) {
+      Assert.assertEquals("doc" + (i + 1), list.get(i).getDocId());
+    }
+  }
+
+  /**
+   * Tests that a body with a malformed line or an invalid date is rejected as a whole, without
+   * submitting the valid cycles before it.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void partialFailureTest() throws Exception {
+    EasyMock.replay(this.fProcessMiningSPI);
+
+    final String[] bodies = { "{\"docId\":\"doc1\"}\n{\"docId\":", "{\"docId\":\"doc1\"}\n42",
+        "{\"docId\":\"doc1\"}\n{\"docId\":\"doc2\",\"startDate\":\"yesterday\"}", " \n " };
+
+    for (final String body : bodies) {
+      try {
+        post(body);
+        Assert.fail("flawed body was accepted: " + body);
+      } catch (final ExecutionException e) {
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, ProcessMiningHandlerTest
+                .getCode(e));
+      }
+    }
+
+    EasyMock.verify(this.fProcessMiningSPI);
+  }
+
+  /**
+   * Tests that a full ingestion buffer is reported as temporarily unavailable.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void fullBufferTest() throws Exception {
+    EasyMock.expect(
+            this.fProcessMiningSPI.addProcessCycles(EasyMock.eq("invoice"),
+                    EasyMock.<List<IProcessCycle>> anyObject(),
+                    EasyMock.<SecurityToken> anyObject())).andThrow(
+            new ProtocolException(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "too many process cycles pending, try again later"));
+    EasyMock.replay(this.fProcessMiningSPI);
+
+    try {
+      post("[{\"docId\":\"doc1\"}]");
+      Assert.fail("cycles were accepted by a full buffer");
+    } catch (final ExecutionException e) {
+      Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ProcessMiningHandlerTest
+              .getCode(e));
+    }
+
+    EasyMock.verify(this.fProcessMiningSPI);
+  }
+
+  /**
+   * Tests that malformed numeric parameters of the aggregate operations are rejected with a 400.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void invalidParameterTest() throws Exception {
+    EasyMock.replay(this.fProcessMiningSPI);
+
+    final String[][] requests = { { "durations", "percentiles", "50,abc" },
+        { "quantiles", "percentiles", "NaN" }, { "durations", "from", "yesterday" },
+        { "throughput", "bucket", "1d" }, { "participation", "to", "12.5" },
+        { "handoffs", "minCount", "many" } };
+
+    for (final String[] request : requests) {
+      final RestHandler operation = this.fRegistry.getRestHandler("/processmining/invoice/"
+              + request[0], "GET");
+
+      final Map<String, String[]> params = Maps.newHashMap();
+      params.put(request[1], new String[] { request[2] });
+
+      try {
+        operation.execute(params, null, this.fToken, this.fConverter).get();
+        Assert.fail("invalid " + request[1] + " was accepted: " + request[2]);
+      } catch (final ExecutionException e) {
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, ProcessMiningHandlerTest
+                .getCode(e));
+      }
+    }
+
+    EasyMock.verify(this.fProcessMiningSPI);
+  }
+}
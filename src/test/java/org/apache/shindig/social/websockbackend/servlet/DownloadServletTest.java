@@ -0,0 +1,401 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.dto.FileMetadataDTO;
+import org.apache.shindig.social.websockbackend.spi.IFileService;
+import org.apache.shindig.social.websockbackend.util.ContentStore;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test for the download servlet's range, conditional and access handling.
+ */
+public class DownloadServletTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String CONTENTS = "0123456789";
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe";
+
+  @Rule
+  public TemporaryFolder fFolder = new TemporaryFolder();
+
+  private IFileService fFileSPI;
+  private DownloadServlet fServlet;
+  private ContentStore.Blob fBlob;
+  private String fBlobPath;
+
+  @Before
+  public void setup() throws Exception {
+    final ContentStore store = new ContentStore(this.fFolder.getRoot());
+    final byte[] contents = DownloadServletTest.CONTENTS.getBytes(DownloadServletTest.UTF8);
+    this.fBlob = store.store(new ByteArrayInputStream(contents), 1024);
+    this.fBlobPath = '/' + Constants.BLOB_PATH + this.fBlob.getDigest() + ".txt";
+
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty(DownloadServlet.DOWNLOADS_ENABLED, "true");
+    config.setProperty(Constants.UPLOAD_PATH, this.fFolder.getRoot().getPath());
+
+    this.fFileSPI = EasyMock.createNiceMock(IFileService.class);
+
+    this.fServlet = new DownloadServlet();
+    this.fServlet.setConfig(config);
+    this.fServlet.setFileSPI(this.fFileSPI);
+  }
+
+  private static HttpServletRequest request(String path, final Map<String, String> headers,
+          SecurityToken token) {
+    final HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+
+    EasyMock.expect(request.getPathInfo()).andStubReturn(path);
+    EasyMock.expect(request.getHeader(EasyMock.<String> anyObject())).andStubAnswer(
+            new IAnswer<String>() {
+              @Override
+              public String answer() {
+                return headers.get(EasyMock.getCurrentArguments()[0]);
+              }
+            });
+    EasyMock.expect(request.getDateHeader(EasyMock.<String> anyObject())).andStubReturn(-1L);
+    EasyMock.expect(request.getAttribute(EasyMock.<String> anyObject())).andStubReturn(token);
+
+    EasyMock.replay(request);
+    return request;
+  }
+
+  private static Map<String, String> range(String range) {
+    final Map<String, String> headers = new HashMap<String, String>();
+    headers.put("Range", range);
+    return headers;
+  }
+
+  private Response get(String range) throws Exception {
+    final Response response = new Response();
+    this.fServlet.doGet(request(this.fBlobPath, range(range), null), response.fResponse);
+    return response;
+  }
+
+  /**
+   * Tests regular byte ranges, open ranges and ranges exceeding the contents.
+   */
+  @Test
+  public void rangeTest() throws Exception {
+    Response response = get("bytes=2-4");
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.fStatus);
+    Assert.assertEquals("bytes 2-4/10", response.fHeaders.get("Content-Range"));
+    Assert.assertEquals("3", response.fHeaders.get("Content-Length"));
+    Assert.assertEquals("234", response.getBody());
+
+    response = get("bytes=7-");
+    Assert.assertEquals("bytes 7-9/10", response.fHeaders.get("Content-Range"));
+    Assert.assertEquals("789", response.getBody());
+
+    response = get("bytes=5-100");
+    Assert.assertEquals("bytes 5-9/10", response.fHeaders.get("Content-Range"));
+    Assert.assertEquals("56789", response.getBody());
+
+    // unsupported ranges are ignored
+    response = get("bytes=0-1,3-4");
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertNull(response.fHeaders.get("Content-Range"));
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+
+    response = get("items=0-1");
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+
+    response = get("bytes=4-2");
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+  }
+
+  /**
+   * Tests suffix ranges, including ones longer than the contents.
+   */
+  @Test
+  public void suffixRangeTest() throws Exception {
+    Response response = get("bytes=-3");
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.fStatus);
+    Assert.assertEquals("bytes 7-9/10", response.fHeaders.get("Content-Range"));
+    Assert.assertEquals("789", response.getBody());
+
+    response = get("bytes=-20");
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.fStatus);
+    Assert.assertEquals("bytes 0-9/10", response.fHeaders.get("Content-Range"));
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+  }
+
+  /**
+   * Tests that ranges beyond the contents and empty suffixes are rejected.
+   */
+  @Test
+  public void unsatisfiableRangeTest() throws Exception {
+    for (final String range : new String[] { "bytes=10-", "bytes=20-30", "bytes=-0" }) {
+      final Response response = get(range);
+      Assert.assertEquals(range, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+              response.fStatus);
+      Assert.assertEquals("bytes */10", response.fHeaders.get("Content-Range"));
+      Assert.assertEquals("", response.getBody());
+    }
+  }
+
+  /**
+   * Tests that ranges only apply if the If-Range validator matches and conditional requests.
+   */
+  @Test
+  public void conditionalTest() throws Exception {
+    final String etag = "\"" + this.fBlob.getDigest() + "\"";
+
+    // matching validator
+    final Map<String, String> headers = range("bytes=0-1");
+    headers.put("If-Range", etag);
+    Response response = new Response();
+    this.fServlet.doGet(request(this.fBlobPath, headers, null), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.fStatus);
+    Assert.assertEquals("01", response.getBody());
+
+    // changed contents send everything
+    headers.put("If-Range", "\"other\"");
+    response = new Response();
+    this.fServlet.doGet(request(this.fBlobPath, headers, null), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertNull(response.fHeaders.get("Content-Range"));
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+
+    // unknown modification date
+    headers.put("If-Range", "Thu, 01 Jan 2015 00:00:00 GMT");
+    response = new Response();
+    this.fServlet.doGet(request(this.fBlobPath, headers, null), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+
+    // cached copy still valid
+    headers.clear();
+    headers.put("If-None-Match", "\"other\", " + etag);
+    response = new Response();
+    this.fServlet.doGet(request(this.fBlobPath, headers, null), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.fStatus);
+    Assert.assertEquals("", response.getBody());
+
+    // headers only
+    response = new Response();
+    this.fServlet.doHead(request(this.fBlobPath, range("bytes=-3"), null), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.fStatus);
+    Assert.assertEquals("3", response.fHeaders.get("Content-Length"));
+    Assert.assertEquals("", response.getBody());
+  }
+
+  /**
+   * Tests that downloads by ID require authentication and the file service's permission.
+   */
+  @Test
+  public void accessTest() throws Exception {
+    final FakeGadgetToken john = new FakeGadgetToken();
+    john.setViewerId(DownloadServletTest.JOHN_ID);
+    final FakeGadgetToken jane = new FakeGadgetToken();
+    jane.setViewerId(DownloadServletTest.JANE_ID);
+
+    final FileMetadataDTO meta = new FileMetadataDTO();
+    meta.setId("file1");
+    meta.setName("numbers.txt");
+    meta.setContentType("text/plain");
+    meta.setOwner(DownloadServletTest.JOHN_ID);
+    meta.setLocation(this.fBlob.getLocation());
+    meta.setDigest(this.fBlob.getDigest());
+
+    EasyMock.expect(this.fFileSPI.getFile("file1", john)).andStubReturn(
+            Futures.immediateFuture(meta));
+    EasyMock.expect(this.fFileSPI.getFile("file1", jane)).andStubThrow(
+            new ProtocolException(HttpServletResponse.SC_FORBIDDEN, "not the owner"));
+    EasyMock.replay(this.fFileSPI);
+
+    final Map<String, String> headers = new HashMap<String, String>();
+
+    Response response = new Response();
+    this.fServlet.doGet(request("/file1", headers, null), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.fStatus);
+    Assert.assertEquals("", response.getBody());
+
+    response = new Response();
+    this.fServlet.doGet(request("/file1", headers, jane), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_FORBIDDEN, response.fStatus);
+    Assert.assertEquals("", response.getBody());
+
+    response = new Response();
+    this.fServlet.doGet(request("/file1", headers, john), response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertEquals(DownloadServletTest.CONTENTS, response.getBody());
+  }
+
+  private Response download(String contentType, String name) throws Exception {
+    final FakeGadgetToken john = new FakeGadgetToken();
+    john.setViewerId(DownloadServletTest.JOHN_ID);
+
+    final FileMetadataDTO meta = new FileMetadataDTO();
+    meta.setId("file1");
+    meta.setName(name);
+    meta.setContentType(contentType);
+    meta.setOwner(DownloadServletTest.JOHN_ID);
+    meta.setLocation(this.fBlob.getLocation());
+    meta.setDigest(this.fBlob.getDigest());
+
+    EasyMock.reset(this.fFileSPI);
+    EasyMock.expect(this.fFileSPI.getFile("file1", john)).andStubReturn(
+            Futures.immediateFuture(meta));
+    EasyMock.replay(this.fFileSPI);
+
+    final Response response = new Response();
+    this.fServlet.doGet(request("/file1", new HashMap<String, String>(), john),
+            response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertEquals("nosniff", response.fHeaders.get("X-Content-Type-Options"));
+    return response;
+  }
+
+  /**
+   * Tests that only images other than SVG are served inline with the type supplied by the
+   * uploader and that everything else is sent as an attachment.
+   */
+  @Test
+  public void contentTypeTest() throws Exception {
+    Response response = download("image/png", "image.png");
+    Assert.assertEquals("image/png", response.fHeaders.get("Content-Type"));
+    Assert.assertEquals("inline; filename=\"image.png\"",
+            response.fHeaders.get("Content-Disposition"));
+
+    response = download("text/html; charset=UTF-8", "page.html");
+    Assert.assertEquals("application/octet-stream", response.fHeaders.get("Content-Type"));
+    Assert.assertEquals("attachment; filename=\"page.html\"",
+            response.fHeaders.get("Content-Disposition"));
+
+    response = download("Image/SVG+XML", "image.svg");
+    Assert.assertEquals("application/octet-stream", response.fHeaders.get("Content-Type"));
+    Assert.assertEquals("attachment; filename=\"image.svg\"",
+            response.fHeaders.get("Content-Disposition"));
+
+    response = download(null, "a\"b\r\n.txt");
+    Assert.assertEquals("application/octet-stream", response.fHeaders.get("Content-Type"));
+    Assert.assertEquals("attachment; filename=\"ab.txt\"",
+            response.fHeaders.get("Content-Disposition"));
+  }
+
+  /**
+   * Tests that the extension of a blob URL can't make the contents display as markup.
+   */
+  @Test
+  public void blobTypeTest() throws Exception {
+    final String path = '/' + Constants.BLOB_PATH + this.fBlob.getDigest();
+
+    Response response = new Response();
+    this.fServlet.doGet(request(path + ".html", new HashMap<String, String>(), null),
+            response.fResponse);
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.fStatus);
+    Assert.assertEquals("application/octet-stream", response.fHeaders.get("Content-Type"));
+    Assert.assertEquals("attachment", response.fHeaders.get("Content-Disposition"));
+    Assert.assertEquals("nosniff", response.fHeaders.get("X-Content-Type-Options"));
+
+    response = new Response();
+    this.fServlet.doGet(request(path + ".png", new HashMap<String, String>(), null),
+            response.fResponse);
+    Assert.assertEquals("image/png", response.fHeaders.get("Content-Type"));
+    Assert.assertEquals("inline", response.fHeaders.get("Content-Disposition"));
+    Assert.assertEquals("nosniff", response.fHeaders.get("X-Content-Type-Options"));
+  }
+
+  /**
+   * Mock response recording the status, headers and body sent.
+   */
+  private static class Response {
+    private final HttpServletResponse fResponse;
+    private final Map<String, String> fHeaders;
+    private final ByteArrayOutputStream fBody;
+    private int fStatus;
+
+    public Response() throws Exception {
+      this.fResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+      this.fHeaders = new HashMap<String, String>();
+      this.fBody = new ByteArrayOutputStream();
+      this.fStatus = HttpServletResponse.SC_OK;
+
+      final IAnswer<Object> header = new IAnswer<Object>() {
+        @Override
+        public Object answer() {
+          final Object[] args = EasyMock.getCurrentArguments();
+          Response.this.fHeaders.put((String) args[0], (String) args[1]);
+          return null;
+        }
+      };
+      final IAnswer<Object> status = new IAnswer<Object>() {
+        @Override
+        public Object answer() {
+          Response.this.fStatus = (Integer) EasyMock.getCurrentArguments()[0];
+          return null;
+        }
+      };
+
+      this.fResponse.setHeader(EasyMock.<String> anyObject(), EasyMock.<String> anyObject());
+      EasyMock.expectLastCall().andStubAnswer(header);
+      this.fResponse.setContentType(EasyMock.<String> anyObject());
+      EasyMock.expectLastCall().andStubAnswer(new IAnswer<Object>() {
+        @Override
+        public Object answer() {
+          Response.this.fHeaders.put("Content-Type", (String) EasyMock.getCurrentArguments()[0]);
+          return null;
+        }
+      });
+      this.fResponse.setStatus(EasyMock.anyInt());
+      EasyMock.expectLastCall().andStubAnswer(status);
+      this.fResponse.sendError(EasyMock.anyInt());
+      EasyMock.expectLastCall().andStubAnswer(status);
+      this.fResponse.sendError(EasyMock.anyInt(), EasyMock.<String> anyObject());
+      EasyMock.expectLastCall().andStubAnswer(status);
+
+      EasyMock.expect(this.fResponse.getOutputStream()).andStubReturn(new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+          Response.this.fBody.write(b);
+        }
+      });
+
+      EasyMock.replay(this.fResponse);
+    }
+
+    public String getBody() {
+      return new String(this.fBody.toByteArray(), DownloadServletTest.UTF8);
+    }
+  }
+}
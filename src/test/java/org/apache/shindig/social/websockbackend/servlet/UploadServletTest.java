@@ -0,0 +1,271 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.dto.FileMetadataDTO;
+import org.apache.shindig.social.websockbackend.spi.IFileService;
+import org.apache.shindig.social.websockbackend.util.ContentStore;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test for the upload servlet's multipart handling and the removal of files of failed requests.
+ */
+public class UploadServletTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String BOUNDARY = "xYz-boundary";
+
+  @Rule
+  public TemporaryFolder fFolder = new TemporaryFolder();
+
+  private IFileService fFileSPI;
+  private UploadServlet fServlet;
+  private ContentStore fStore;
+  private FakeGadgetToken fToken;
+
+  private List<FileMetadataDTO> fCreated;
+  private int fFailAt;
+
+  @Before
+  public void setup() throws Exception {
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty(UploadServlet.UPLOADS_ENABLED, "true");
+    config.setProperty(UploadServlet.UPLOAD_TARGET, UploadServlet.FILESYSTEM_TARGET);
+    config.setProperty(Constants.UPLOAD_PATH, this.fFolder.getRoot().getPath());
+    config.setProperty(UploadServlet.MAX_UPLOAD_SIZE, "8");
+
+    this.fStore = new ContentStore(this.fFolder.getRoot());
+    this.fToken = new FakeGadgetToken();
+    this.fToken.setViewerId("john.doe");
+
+    // assign sequential IDs, failing at the configured call
+    this.fCreated = new ArrayList<FileMetadataDTO>();
+    this.fFailAt = -1;
+    this.fFileSPI = EasyMock.createNiceMock(IFileService.class);
+    EasyMock.expect(
+            this.fFileSPI.createFile(EasyMock.<FileMetadataDTO> anyObject(),
+                    EasyMock.<SecurityToken> anyObject())).andStubAnswer(
+            new IAnswer<Future<FileMetadataDTO>>() {
+              @Override
+              public Future<FileMetadataDTO> answer() {
+                final UploadServletTest test = UploadServletTest.this;
+                if (test.fCreated.size() == test.fFailAt) {
+                  throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                          "could not store file metadata");
+                }
+
+                final FileMetadataDTO file = (FileMetadataDTO) EasyMock.getCurrentArguments()[0];
+                file.setId("file" + test.fCreated.size());
+                test.fCreated.add(file);
+                return Futures.immediateFuture(file);
+              }
+            });
+
+    this.fServlet = new UploadServlet();
+    this.fServlet.setConfig(config);
+    this.fServlet.setFileSPI(this.fFileSPI);
+  }
+
+  private static String filePart(String name, String contents) {
+    return "--" + UploadServletTest.BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+            + "Content-Type: text/plain\r\n\r\n" + contents + "\r\n";
+  }
+
+  private static HttpServletRequest request(String body, SecurityToken token) {
+    final ByteArrayInputStream in = new ByteArrayInputStream(
+            (body + "--" + UploadServletTest.BOUNDARY + "--\r\n").getBytes(UploadServletTest.UTF8));
+
+    final HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    EasyMock.expect(request.getContentType()).andStubReturn(
+            "multipart/form-data; boundary=" + UploadServletTest.BOUNDARY);
+    EasyMock.expect(request.getAttribute(EasyMock.<String> anyObject())).andStubReturn(token);
+    try {
+      EasyMock.expect(request.getInputStream()).andStubReturn(new ServletInputStream() {
+        @Override
+        public int read() {
+          return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+          return in.read(b, off, len);
+        }
+      });
+    } catch (final Exception e) {
+      throw new RuntimeException(e);
+    }
+
+    EasyMock.replay(request);
+    return request;
+  }
+
+  private static HttpServletResponse response(StringWriter body, int error) throws Exception {
+    final HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+    EasyMock.expect(response.getWriter()).andStubReturn(new PrintWriter(body));
+
+    if (error != -1) {
+      response.sendError(EasyMock.eq(error), EasyMock.<String> anyObject());
+      EasyMock.expectLastCall().once();
+    }
+
+    EasyMock.replay(response);
+    return response;
+  }
+
+  private static int countFiles(File dir) {
+    int count = 0;
+
+    for (final File file : dir.listFiles()) {
+      if (file.isDirectory()) {
+        count += countFiles(file);
+      } else {
+        ++count;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Tests storing file parts while skipping form fields.
+   */
+  @Test
+  public void uploadTest() throws Exception {
+    EasyMock.replay(this.fFileSPI);
+
+    final String body = "--" + UploadServletTest.BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"title\"\r\n\r\nignored\r\n"
+            + filePart("a.txt", "abcd") + filePart("b.txt", "abcd");
+
+    final StringWriter json = new StringWriter();
+    final HttpServletResponse response = response(json, -1);
+    this.fServlet.doPost(request(body, this.fToken), response);
+    EasyMock.verify(response);
+
+    Assert.assertEquals(2, this.fCreated.size());
+    Assert.assertEquals("a.txt", this.fCreated.get(0).getName());
+    Assert.assertEquals("text/plain", this.fCreated.get(0).getContentType());
+    Assert.assertEquals(4, this.fCreated.get(0).getSize());
+    Assert.assertEquals("john.doe", this.fCreated.get(0).getOwner());
+
+    // identical contents are stored once
+    final String digest = this.fCreated.get(0).getDigest();
+    Assert.assertEquals(digest, this.fCreated.get(1).getDigest());
+    Assert.assertEquals(2, this.fStore.getReferences(digest));
+
+    Assert.assertTrue(json.toString().contains("\"file0\""));
+    Assert.assertTrue(json.toString().contains("\"b.txt\""));
+  }
+
+  /**
+   * Tests that files stored before an oversized part are removed again.
+   */
+  @Test
+  public void sizeRollbackTest() throws Exception {
+    EasyMock.expect(this.fFileSPI.deleteFile("file0", this.fToken)).andReturn(
+            Futures.<Void> immediateFuture(null));
+    EasyMock.replay(this.fFileSPI);
+
+    final String body = filePart("a.txt", "abcd") + filePart("b.txt", "much too large");
+
+    final HttpServletResponse response = response(new StringWriter(),
+            HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    this.fServlet.doPost(request(body, this.fToken), response);
+    EasyMock.verify(response, this.fFileSPI);
+
+    Assert.assertEquals(1, this.fCreated.size());
+    Assert.assertEquals(0, this.fStore.getReferences(this.fCreated.get(0).getDigest()));
+    Assert.assertEquals(0, countFiles(this.fFolder.getRoot()));
+  }
+
+  /**
+   * Tests that files stored before a part whose metadata can't be stored are removed again.
+   */
+  @Test
+  public void failureRollbackTest() throws Exception {
+    EasyMock.expect(this.fFileSPI.deleteFile("file0", this.fToken)).andReturn(
+            Futures.<Void> immediateFuture(null));
+    EasyMock.replay(this.fFileSPI);
+    this.fFailAt = 1;
+
+    final String body = filePart("a.txt", "abcd") + filePart("b.txt", "efgh");
+
+    final HttpServletResponse response = response(new StringWriter(), -1);
+    this.fServlet.doPost(request(body, this.fToken), response);
+    EasyMock.verify(this.fFileSPI);
+
+    Assert.assertEquals(1, this.fCreated.size());
+    Assert.assertEquals(0, countFiles(this.fFolder.getRoot()));
+  }
+
+  /**
+   * Tests that anonymous uploads and bodies without a boundary are rejected.
+   */
+  @Test
+  public void rejectionTest() throws Exception {
+    EasyMock.replay(this.fFileSPI);
+
+    HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+    response.sendError(EasyMock.eq(HttpServletResponse.SC_UNAUTHORIZED),
+            EasyMock.<String> anyObject());
+    EasyMock.replay(response);
+    this.fServlet.doPost(request(filePart("a.txt", "abcd"), null), response);
+    EasyMock.verify(response);
+
+    final HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+    EasyMock.expect(request.getContentType()).andStubReturn("text/plain");
+    EasyMock.expect(request.getAttribute(EasyMock.<String> anyObject())).andStubReturn(
+            this.fToken);
+    EasyMock.replay(request);
+
+    response = EasyMock.createNiceMock(HttpServletResponse.class);
+    response.sendError(EasyMock.eq(HttpServletResponse.SC_BAD_REQUEST),
+            EasyMock.<String> anyObject());
+    EasyMock.replay(response);
+    this.fServlet.doPost(request, response);
+    EasyMock.verify(response);
+
+    Assert.assertTrue(this.fCreated.isEmpty());
+    Assert.assertEquals(0, countFiles(this.fFolder.getRoot()));
+  }
+}
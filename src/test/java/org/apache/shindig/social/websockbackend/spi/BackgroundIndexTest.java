@@ -0,0 +1,359 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.social.opensocial.model.Name;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.BasicEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Test for the skill, name and filter indices loaded from all people in the background.
+ */
+public class BackgroundIndexTest {
+  static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", JACK_ID = "jack.doe",
+          HORST_ID = "horst";
+
+  static final String JAVA_SKILL = "Java", NEO_SKILL = "Neo4j";
+
+  private static final String PAGE_SIZE = "2";
+
+  private WebsockConfig fConfig;
+  private List<Map<String, Object>> fPeople;
+  private Map<String, List<Map<String, Object>>> fSkills;
+
+  /**
+   * Sets up four people, sorted by ID like the server's results, with John's and Jane's skills:
+   * Java linked by both of them and Neo4j by John. Indices request two people at once.
+   */
+  @Before
+  public void setup() {
+    this.fConfig = new WebsockConfig(true);
+    this.fConfig.setProperty("shindig.skills.index.page", BackgroundIndexTest.PAGE_SIZE);
+    this.fConfig.setProperty("shindig.people.autocomplete.page", BackgroundIndexTest.PAGE_SIZE);
+    this.fConfig.setProperty("shindig.people.filter.page", BackgroundIndexTest.PAGE_SIZE);
+
+    this.fPeople = BackgroundIndexTest.people();
+    this.fSkills = BackgroundIndexTest.skills();
+  }
+
+  static List<Map<String, Object>> people() {
+    final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+    people.add(BackgroundIndexTest.person(BackgroundIndexTest.HORST_ID, null, "Horst",
+            "Horstsen"));
+    people.add(BackgroundIndexTest.person(BackgroundIndexTest.JACK_ID, "Jack Doe", "Jack", "Doe"));
+    people.add(BackgroundIndexTest.person(BackgroundIndexTest.JANE_ID, "Jane Doe", "Jane", "Doe"));
+    people.add(BackgroundIndexTest.person(BackgroundIndexTest.JOHN_ID, "John Doe", "John", "Doe"));
+    return people;
+  }
+
+  private static Map<String, Object> person(String id, String displayName, String givenName,
+          String familyName) {
+    final Map<String, Object> person = new HashMap<String, Object>();
+    person.put(Person.Field.ID.toString(), id);
+    if (displayName != null) {
+      person.put(Person.Field.DISPLAY_NAME.toString(), displayName);
+    }
+    person.put(Name.Field.FORMATTED.toString(), givenName + " " + familyName);
+    person.put(Name.Field.GIVEN_NAME.toString(), givenName);
+    person.put(Name.Field.FAMILY_NAME.toString(), familyName);
+    return person;
+  }
+
+  static Map<String, List<Map<String, Object>>> skills() {
+    final Map<String, Object> java = new HashMap<String, Object>();
+    java.put("name", BackgroundIndexTest.JAVA_SKILL);
+    java.put("people", Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID));
+
+    final Map<String, Object> neo = new HashMap<String, Object>();
+    neo.put("name", BackgroundIndexTest.NEO_SKILL);
+    neo.put("people", Arrays.asList(BackgroundIndexTest.JOHN_ID));
+
+    final Map<String, List<Map<String, Object>>> skills =
+            new HashMap<String, List<Map<String, Object>>>();
+    skills.put(BackgroundIndexTest.JOHN_ID, Arrays.asList(java, neo));
+    skills.put(BackgroundIndexTest.JANE_ID, Arrays.asList(java));
+    return skills;
+  }
+
+  /**
+   * Creates a query handler answering requests for pages of all people, for a user's skills and
+   * for people by their IDs, which are returned in reverse order. The ID lists requested are added
+   * to the given list, the given task is run when the first page is requested.
+   */
+  static IQueryHandler handler(final List<Map<String, Object>> people,
+          final Map<String, List<Map<String, Object>>> skills, final List<List<String>> requests,
+          final Runnable onLoad) {
+    final IQueryHandler qHandler = EasyMock.createMock(IQueryHandler.class);
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andStubAnswer(
+            new IAnswer<IQueryCallback>() {
+              private boolean fLoading;
+
+              @SuppressWarnings("unchecked")
+              @Override
+              public IQueryCallback answer() throws Throwable {
+                final WebsockQuery query = (WebsockQuery) EasyMock.getCurrentArguments()[0];
+                final Object userId = query.getParameter(ShindigNativeQueries.USER_ID);
+                final Object userIds = query.getParameter(ShindigNativeQueries.USER_ID_LIST);
+
+                List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+                if (userId != null) {
+                  if (skills.containsKey(userId)) {
+                    result = skills.get(userId);
+                  }
+                } else if (userIds != null) {
+                  requests.add((List<String>) userIds);
+                  for (final Map<String, Object> person : people) {
+                    if (((List<String>) userIds).contains(person.get(Person.Field.ID
+                            .toString()))) {
+                      result.add(0, person);
+                    }
+                  }
+                } else {
+                  final int first = (Integer) query.getParameter(WebsockConstants.SUBSET_START);
+                  final int max = (Integer) query.getParameter(WebsockConstants.SUBSET_SIZE);
+                  result = people.subList(Math.min(first, people.size()),
+                          Math.min(first + max, people.size()));
+
+                  if (!this.fLoading && onLoad != null) {
+                    this.fLoading = true;
+                    onLoad.run();
+                  }
+                }
+
+                final IQueryCallback callback = EasyMock.createMock(IQueryCallback.class);
+                EasyMock.expect(callback.get()).andStubReturn(new ListResult(result));
+                EasyMock.replay(callback);
+                return callback;
+              }
+            });
+    EasyMock.replay(qHandler);
+    return qHandler;
+  }
+
+  private IQueryHandler handler() {
+    return BackgroundIndexTest.handler(this.fPeople, this.fSkills, null, null);
+  }
+
+  private static BasicEvent event(ShindigEventType type, Person person) {
+    final BasicEvent event = new BasicEvent(type);
+    event.setPayload(person);
+    return event;
+  }
+
+  private static List<String> ids(List<Map<String, Object>> people) {
+    final List<String> ids = new ArrayList<String>();
+    for (final Map<String, Object> person : people) {
+      ids.add(person.get(PeopleNameIndex.ID_FIELD).toString());
+    }
+    return ids;
+  }
+
+  /**
+   * Tests loading the skill index in pages, searching and completing skills and removing deleted
+   * people.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void skillIndexTest() throws Exception {
+    final SkillIndex index = new SkillIndex(handler(), this.fConfig, null);
+    Assert.assertFalse(index.isReady());
+    Assert.assertNull(index.find(BackgroundIndexTest.JAVA_SKILL));
+    Assert.assertNull(index.complete("ja", 10));
+
+    index.load();
+    Assert.assertTrue(index.isReady());
+
+    Assert.assertEquals(new HashSet<String>(Arrays.asList(BackgroundIndexTest.JOHN_ID,
+            BackgroundIndexTest.JANE_ID)), new HashSet<String>(index.find(" java ")));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JOHN_ID), index.find("Java,Neo4j"));
+
+    // John has more links to the alternatives
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID),
+            index.find("neo4j|java"));
+    Assert.assertTrue(index.find("cobol").isEmpty());
+
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JAVA_SKILL), index.complete("jav", 10));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.NEO_SKILL), index.complete("neo", 10));
+
+    final PersonDTO john = new PersonDTO();
+    john.setId(BackgroundIndexTest.JOHN_ID);
+    index.handleEvent(BackgroundIndexTest.event(ShindigEventType.PROFILE_DELETED, john));
+
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JANE_ID), index.find("java"));
+    Assert.assertTrue(index.find(BackgroundIndexTest.NEO_SKILL).isEmpty());
+  }
+
+  /**
+   * Tests completing names and updating them with profile events.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void nameIndexTest() throws Exception {
+    final PeopleNameIndex index = new PeopleNameIndex(handler(), this.fConfig, null);
+    Assert.assertNull(index.complete("doe", 10));
+
+    index.load();
+
+    // sorted by display name, falling back to the formatted name
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JANE_ID,
+            BackgroundIndexTest.JOHN_ID), BackgroundIndexTest.ids(index.complete("doe", 10)));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JANE_ID),
+            BackgroundIndexTest.ids(index.complete("j do", 2)));
+
+    final List<Map<String, Object>> horst = index.complete("hor", 10);
+    Assert.assertEquals(1, horst.size());
+    Assert.assertEquals("Horst Horstsen", horst.get(0).get(PeopleNameIndex.DISPLAY_NAME_FIELD));
+
+    // people whose name starts with the fragment come first
+    final PersonDTO jane = new PersonDTO();
+    jane.setId(BackgroundIndexTest.JANE_ID);
+    jane.setDisplayName("Doe, Jane");
+    index.handleEvent(BackgroundIndexTest.event(ShindigEventType.PROFILE_UPDATED, jane));
+
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JANE_ID, BackgroundIndexTest.JACK_ID,
+            BackgroundIndexTest.JOHN_ID), BackgroundIndexTest.ids(index.complete("doe", 10)));
+  }
+
+  /**
+   * Tests that deleted people are no longer completed and can be added again.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void nameDeletionTest() throws Exception {
+    final PeopleNameIndex index = new PeopleNameIndex(handler(), this.fConfig, null);
+    index.load();
+
+    final PersonDTO jane = new PersonDTO();
+    jane.setId(BackgroundIndexTest.JANE_ID);
+    index.handleEvent(BackgroundIndexTest.event(ShindigEventType.PROFILE_DELETED, jane));
+
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JOHN_ID),
+            BackgroundIndexTest.ids(index.complete("doe", 10)));
+    Assert.assertTrue(index.complete("jane", 10).isEmpty());
+
+    jane.setDisplayName("Jane Doe");
+    index.handleEvent(BackgroundIndexTest.event(ShindigEventType.PROFILE_CREATED, jane));
+
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JANE_ID),
+            BackgroundIndexTest.ids(index.complete("jane", 10)));
+  }
+
+  /**
+   * Tests resolving filters and sorting by indexed fields.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void filterIndexTest() throws Exception {
+    final PersonFilterIndex index = new PersonFilterIndex(handler(), this.fConfig, null);
+    Assert.assertTrue(index.isIndexed(Name.Field.FAMILY_NAME.toString()));
+    Assert.assertFalse(index.isIndexed(Person.Field.AGE.toString()));
+    Assert.assertNull(index.find(Name.Field.FAMILY_NAME.toString(), FilterOperation.equals,
+            "Doe"));
+
+    index.load();
+
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JANE_ID,
+            BackgroundIndexTest.JOHN_ID), index.find(Name.Field.FAMILY_NAME.toString(),
+            FilterOperation.equals, "Doe"));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.HORST_ID), index.find(
+            Name.Field.FAMILY_NAME.toString(), FilterOperation.startsWith, "Hor"));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JANE_ID), index.find(
+            Person.Field.DISPLAY_NAME.toString(), null, "ane"));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JANE_ID,
+            BackgroundIndexTest.JOHN_ID), index.find(Person.Field.DISPLAY_NAME.toString(),
+            FilterOperation.present, null));
+
+    // not resolvable locally
+    Assert.assertNull(index.find(Person.Field.AGE.toString(), FilterOperation.equals, "60"));
+    Assert.assertNull(index.find(Name.Field.FAMILY_NAME.toString(), FilterOperation.equals,
+            null));
+
+    // people without a value come last, equal values are sorted by ID
+    final List<String> ids = new ArrayList<String>(Arrays.asList(BackgroundIndexTest.JOHN_ID,
+            BackgroundIndexTest.HORST_ID, BackgroundIndexTest.JANE_ID,
+            BackgroundIndexTest.JACK_ID));
+    Assert.assertTrue(index.sort(ids, Person.Field.DISPLAY_NAME.toString(), true));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID,
+            BackgroundIndexTest.JACK_ID, BackgroundIndexTest.HORST_ID), ids);
+
+    Assert.assertTrue(index.sort(ids, Name.Field.FAMILY_NAME.toString(), false));
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JANE_ID,
+            BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.HORST_ID), ids);
+
+    Assert.assertFalse(index.sort(ids, Person.Field.AGE.toString(), false));
+  }
+
+  /**
+   * Tests that changes made while an index is loaded are applied to it afterwards.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void loadingChangesTest() throws Exception {
+    final List<PersonFilterIndex> indices = new ArrayList<PersonFilterIndex>();
+    final Runnable deleteJane = new Runnable() {
+      @Override
+      public void run() {
+        final PersonDTO jane = new PersonDTO();
+        jane.setId(BackgroundIndexTest.JANE_ID);
+        indices.get(0).handleEvent(
+                BackgroundIndexTest.event(ShindigEventType.PROFILE_DELETED, jane));
+      }
+    };
+
+    final PersonFilterIndex index = new PersonFilterIndex(BackgroundIndexTest.handler(
+            this.fPeople, this.fSkills, null, deleteJane), this.fConfig, null);
+    indices.add(index);
+    index.load();
+
+    // Jane is still part of the people loaded
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JACK_ID, BackgroundIndexTest.JOHN_ID),
+            index.find(Name.Field.FAMILY_NAME.toString(), FilterOperation.equals, "Doe"));
+  }
+}
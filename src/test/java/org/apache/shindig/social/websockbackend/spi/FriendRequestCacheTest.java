@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.BasicEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for the friend request cache and the friendship events it applies.
+ */
+public class FriendRequestCacheTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", HORST_ID = "horst";
+
+  private FriendRequestCache fCache;
+
+  @Before
+  public void setup() {
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.friends.requests.cache", "true");
+
+    this.fCache = new FriendRequestCache(config, null);
+
+    // jane and horst have sent requests to john
+    final Set<String> requests = new HashSet<String>();
+    requests.add(FriendRequestCacheTest.JANE_ID);
+    requests.add(FriendRequestCacheTest.HORST_ID);
+    this.fCache.putRequests(FriendRequestCacheTest.JOHN_ID, requests, this.fCache.getEpoch());
+  }
+
+  private static BasicEvent event(ShindigEventType type, String... params) {
+    final BasicEvent event = new BasicEvent(type);
+    event.setPayload(params);
+    return event;
+  }
+
+  /**
+   * Tests caching request sets and ignoring sets retrieved before a change.
+   */
+  @Test
+  public void putTest() {
+    Set<String> requests = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertEquals(2, requests.size());
+    Assert.assertTrue(requests.contains(FriendRequestCacheTest.JANE_ID));
+
+    try {
+      requests.clear();
+      Assert.fail("cached set was modifiable");
+    } catch (final UnsupportedOperationException e) {
+      // expected
+    }
+
+    Assert.assertNull(this.fCache.getRequests(FriendRequestCacheTest.JANE_ID));
+
+    // stale result
+    final long epoch = this.fCache.getEpoch();
+    this.fCache.addRequest(FriendRequestCacheTest.JOHN_ID, FriendRequestCacheTest.HORST_ID);
+    this.fCache.putRequests(FriendRequestCacheTest.JANE_ID, new HashSet<String>(), epoch);
+    Assert.assertNull(this.fCache.getRequests(FriendRequestCacheTest.JANE_ID));
+
+    // disabled cache
+    final FriendRequestCache disabled = new FriendRequestCache(new WebsockConfig(true), null);
+    disabled.putRequests(FriendRequestCacheTest.JOHN_ID, new HashSet<String>(),
+            disabled.getEpoch());
+    Assert.assertNull(disabled.getRequests(FriendRequestCacheTest.JOHN_ID));
+
+    requests = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertEquals(2, requests.size());
+  }
+
+  /**
+   * Tests applying requests, confirmations and denials to cached sets.
+   */
+  @Test
+  public void updateTest() {
+    final Set<String> before = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+
+    // john confirms jane's request
+    this.fCache.removeRequests(FriendRequestCacheTest.JOHN_ID, FriendRequestCacheTest.JANE_ID);
+    Set<String> requests = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertEquals(1, requests.size());
+    Assert.assertTrue(requests.contains(FriendRequestCacheTest.HORST_ID));
+
+    // previously returned sets are left unchanged
+    Assert.assertEquals(2, before.size());
+
+    // horst revokes his request
+    this.fCache.removeRequests(FriendRequestCacheTest.HORST_ID, FriendRequestCacheTest.JOHN_ID);
+    Assert.assertTrue(this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID).isEmpty());
+
+    // jane sends a request again, twice
+    this.fCache.addRequest(FriendRequestCacheTest.JANE_ID, FriendRequestCacheTest.JOHN_ID);
+    this.fCache.addRequest(FriendRequestCacheTest.JANE_ID, FriendRequestCacheTest.JOHN_ID);
+    requests = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertEquals(1, requests.size());
+    Assert.assertTrue(requests.contains(FriendRequestCacheTest.JANE_ID));
+
+    // requests to uncached users are not cached
+    this.fCache.addRequest(FriendRequestCacheTest.JOHN_ID, FriendRequestCacheTest.HORST_ID);
+    Assert.assertNull(this.fCache.getRequests(FriendRequestCacheTest.HORST_ID));
+
+    this.fCache.invalidate(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertNull(this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests applying friendship events carrying the IDs of the acting user and the target.
+   */
+  @Test
+  public void eventTest() {
+    // horst revokes his request
+    this.fCache.handleEvent(FriendRequestCacheTest.event(ShindigEventType.FRIENDSHIP_DENIED,
+            FriendRequestCacheTest.HORST_ID, FriendRequestCacheTest.JOHN_ID));
+    Set<String> requests = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertEquals(1, requests.size());
+    Assert.assertTrue(requests.contains(FriendRequestCacheTest.JANE_ID));
+
+    // john confirms jane's request
+    this.fCache.handleEvent(FriendRequestCacheTest.event(ShindigEventType.FRIENDSHIP_CONFIRMED,
+            FriendRequestCacheTest.JOHN_ID, FriendRequestCacheTest.JANE_ID));
+    Assert.assertTrue(this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID).isEmpty());
+
+    // horst sends a new request
+    this.fCache.handleEvent(FriendRequestCacheTest.event(ShindigEventType.FRIENDSHIP_REQUESTED,
+            FriendRequestCacheTest.HORST_ID, FriendRequestCacheTest.JOHN_ID));
+    requests = this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID);
+    Assert.assertEquals(1, requests.size());
+    Assert.assertTrue(requests.contains(FriendRequestCacheTest.HORST_ID));
+
+    // unknown target
+    this.fCache.handleEvent(FriendRequestCacheTest.event(ShindigEventType.FRIENDSHIP_REQUESTED,
+            FriendRequestCacheTest.JOHN_ID));
+    Assert.assertNull(this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID));
+
+    // deleted profiles clear everything
+    this.fCache.putRequests(FriendRequestCacheTest.JOHN_ID, new HashSet<String>(),
+            this.fCache.getEpoch());
+    this.fCache.handleEvent(new BasicEvent(ShindigEventType.PROFILE_DELETED));
+    Assert.assertNull(this.fCache.getRequests(FriendRequestCacheTest.JOHN_ID));
+  }
+}
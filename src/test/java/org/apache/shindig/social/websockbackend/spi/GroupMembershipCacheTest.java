@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.opensocial.model.Group;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.BasicEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+
+/**
+ * Test for the group membership cache and the member lists it shares with the membership index.
+ */
+public class GroupMembershipCacheTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", HORST_ID = "horst";
+
+  private static final String GROUP_ID = "fam.doe.group";
+
+  private WebsockConfig fConfig;
+
+  @Before
+  public void setup() {
+    this.fConfig = new WebsockConfig(true);
+    this.fConfig.setProperty("shindig.groups.cache", "true");
+  }
+
+  private static Map<String, Object> person(String id) {
+    final Map<String, Object> person = new HashMap<String, Object>();
+    person.put(Person.Field.ID.toString(), id);
+    return person;
+  }
+
+  // query handler expecting the given number of member list requests
+  private static IQueryHandler memberHandler(int loads) throws Exception {
+    final List<Map<String, Object>> members = new ArrayList<Map<String, Object>>();
+    members.add(GroupMembershipCacheTest.person(GroupMembershipCacheTest.JOHN_ID));
+    members.add(GroupMembershipCacheTest.person(GroupMembershipCacheTest.JANE_ID));
+
+    final IQueryCallback callback = EasyMock.createMock(IQueryCallback.class);
+    final IQueryHandler qHandler = EasyMock.createMock(IQueryHandler.class);
+
+    if (loads > 0) {
+      EasyMock.expect(callback.get()).andReturn(new ListResult(members)).times(loads);
+      EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andReturn(
+              callback).times(loads);
+    }
+
+    EasyMock.replay(callback, qHandler);
+    return qHandler;
+  }
+
+  private GroupMembershipCache cache(IQueryHandler qHandler) {
+    return new GroupMembershipCache(this.fConfig, new MembershipIndex(qHandler, this.fConfig,
+            null), null);
+  }
+
+  /**
+   * Tests that nothing is cached if the cache is disabled.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void disabledTest() throws Exception {
+    this.fConfig.setProperty("shindig.groups.cache", "false");
+    final GroupMembershipCache cache = cache(GroupMembershipCacheTest.memberHandler(0));
+
+    Assert.assertFalse(cache.isEnabled());
+    cache.putGroups(GroupMembershipCacheTest.JOHN_ID, "all", new RestfulCollection<Group>(
+            new ArrayList<Group>()), cache.getEpoch());
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.JOHN_ID, "all"));
+    Assert.assertNull(cache.getMembers(GroupMembershipCacheTest.GROUP_ID));
+    Assert.assertNull(cache.isMember(GroupMembershipCacheTest.GROUP_ID,
+            GroupMembershipCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests caching group lists per request and their invalidation.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void groupListTest() throws Exception {
+    final GroupMembershipCache cache = cache(GroupMembershipCacheTest.memberHandler(0));
+    final RestfulCollection<Group> groups = new RestfulCollection<Group>(new ArrayList<Group>());
+
+    cache.putGroups(GroupMembershipCacheTest.JOHN_ID, "all", groups, cache.getEpoch());
+    Assert.assertSame(groups, cache.getGroups(GroupMembershipCacheTest.JOHN_ID, "all"));
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.JOHN_ID, "title"));
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.JANE_ID, "all"));
+
+    // results of requests started before an invalidation are not cached
+    final long epoch = cache.getEpoch();
+    cache.invalidateUser(GroupMembershipCacheTest.JOHN_ID);
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.JOHN_ID, "all"));
+
+    cache.putGroups(GroupMembershipCacheTest.JOHN_ID, "all", groups, epoch);
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.JOHN_ID, "all"));
+  }
+
+  /**
+   * Tests that members are loaded once and joins and departures are applied without reloading.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void memberTest() throws Exception {
+    final IQueryHandler qHandler = GroupMembershipCacheTest.memberHandler(1);
+    final GroupMembershipCache cache = cache(qHandler);
+
+    Assert.assertEquals(2, cache.getMembers(GroupMembershipCacheTest.GROUP_ID).size());
+    Assert.assertTrue(cache.isMember(GroupMembershipCacheTest.GROUP_ID,
+            GroupMembershipCacheTest.JANE_ID));
+    Assert.assertFalse(cache.isMember(GroupMembershipCacheTest.GROUP_ID,
+            GroupMembershipCacheTest.HORST_ID));
+
+    final RestfulCollection<Group> groups = new RestfulCollection<Group>(new ArrayList<Group>());
+    cache.putGroups(GroupMembershipCacheTest.HORST_ID, "all", groups, cache.getEpoch());
+
+    cache.addMember(GroupMembershipCacheTest.GROUP_ID, GroupMembershipCacheTest.HORST_ID);
+    Assert.assertTrue(cache.isMember(GroupMembershipCacheTest.GROUP_ID,
+            GroupMembershipCacheTest.HORST_ID));
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.HORST_ID, "all"));
+
+    cache.removeMember(GroupMembershipCacheTest.GROUP_ID, GroupMembershipCacheTest.JOHN_ID);
+    Assert.assertFalse(cache.getMembers(GroupMembershipCacheTest.GROUP_ID).contains(
+            GroupMembershipCacheTest.JOHN_ID));
+    Assert.assertEquals(2, cache.getMembers(GroupMembershipCacheTest.GROUP_ID).size());
+
+    EasyMock.verify(qHandler);
+  }
+
+  /**
+   * Tests that deleted people are removed from member lists and their group lists are dropped.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void deletionTest() throws Exception {
+    final IQueryHandler qHandler = GroupMembershipCacheTest.memberHandler(1);
+    final MembershipIndex index = new MembershipIndex(qHandler, this.fConfig, null);
+    final GroupMembershipCache cache = new GroupMembershipCache(this.fConfig, index, null);
+
+    Assert.assertTrue(cache.isMember(GroupMembershipCacheTest.GROUP_ID,
+            GroupMembershipCacheTest.JANE_ID));
+    final RestfulCollection<Group> groups = new RestfulCollection<Group>(new ArrayList<Group>());
+    cache.putGroups(GroupMembershipCacheTest.JANE_ID, "all", groups, cache.getEpoch());
+
+    final PersonDTO jane = new PersonDTO();
+    jane.setId(GroupMembershipCacheTest.JANE_ID);
+    final BasicEvent event = new BasicEvent(ShindigEventType.PROFILE_DELETED);
+    event.setPayload(jane);
+
+    index.handleEvent(event);
+    cache.handleEvent(event);
+
+    Assert.assertFalse(cache.isMember(GroupMembershipCacheTest.GROUP_ID,
+            GroupMembershipCacheTest.JANE_ID));
+    Assert.assertNull(cache.getGroups(GroupMembershipCacheTest.JANE_ID, "all"));
+    EasyMock.verify(qHandler);
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.BasicEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
+
+/**
+ * Test for the membership index, its set operations and the numbering of user IDs.
+ */
+public class MembershipIndexTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", JACK_ID = "jack.doe",
+          HORST_ID = "horst", FRED_ID = "FRED";
+
+  private static final String GROUP_ID = "fam.doe.group";
+  private static final String FRIENDS_GROUP = "@friends";
+
+  private WebsockConfig fConfig;
+  private Map<String, List<String>> fLists;
+  private int fLoads;
+
+  /**
+   * Sets up an enabled index's configuration and the lists: John is friends with Jane, Jack and
+   * Horst, Jane and Jack are friends, Jane, Horst and Fred are members of the group.
+   */
+  @Before
+  public void setup() {
+    this.fConfig = new WebsockConfig(true);
+    this.fConfig.setProperty("shindig.membership.index", "true");
+
+    this.fLists = new HashMap<String, List<String>>();
+    this.fLists.put(MembershipIndexTest.JOHN_ID, Arrays.asList(MembershipIndexTest.JANE_ID,
+            MembershipIndexTest.JACK_ID, MembershipIndexTest.HORST_ID));
+    this.fLists.put(MembershipIndexTest.JANE_ID, Arrays.asList(MembershipIndexTest.JOHN_ID,
+            MembershipIndexTest.JACK_ID));
+    this.fLists.put(MembershipIndexTest.JACK_ID, Arrays.asList(MembershipIndexTest.JOHN_ID,
+            MembershipIndexTest.JANE_ID));
+    this.fLists.put(MembershipIndexTest.HORST_ID, Arrays.asList(MembershipIndexTest.JOHN_ID));
+    this.fLists.put(MembershipIndexTest.GROUP_ID, Arrays.asList(MembershipIndexTest.JANE_ID,
+            MembershipIndexTest.HORST_ID, MembershipIndexTest.FRED_ID));
+
+    this.fLoads = 0;
+  }
+
+  // query handler answering friend and member list requests, counting them
+  private IQueryHandler handler() {
+    final IQueryHandler qHandler = EasyMock.createMock(IQueryHandler.class);
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andStubAnswer(
+            new IAnswer<IQueryCallback>() {
+              @SuppressWarnings("unchecked")
+              @Override
+              public IQueryCallback answer() throws Throwable {
+                final WebsockQuery query = (WebsockQuery) EasyMock.getCurrentArguments()[0];
+                String key = (String) query.getParameter(ShindigNativeQueries.GROUP_ID);
+                if (MembershipIndexTest.FRIENDS_GROUP.equals(key)) {
+                  key = ((List<String>) query.getParameter(ShindigNativeQueries.USER_ID_LIST))
+                          .get(0);
+                }
+                ++MembershipIndexTest.this.fLoads;
+
+                final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+                for (final String id : MembershipIndexTest.this.fLists.get(key)) {
+                  final Map<String, Object> person = new HashMap<String, Object>();
+                  person.put(Person.Field.ID.toString(), id);
+                  people.add(person);
+                }
+
+                final IQueryCallback callback = EasyMock.createMock(IQueryCallback.class);
+                EasyMock.expect(callback.get()).andStubReturn(new ListResult(people));
+                EasyMock.replay(callback);
+                return callback;
+              }
+            });
+    EasyMock.replay(qHandler);
+    return qHandler;
+  }
+
+  /**
+   * Tests the intersections and differences of friend and member lists, which are only loaded
+   * once.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void setOperationsTest() throws Exception {
+    final MembershipIndex index = new MembershipIndex(handler(), this.fConfig, null);
+
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.JACK_ID), index.getMutualFriends(
+            MembershipIndexTest.JOHN_ID, MembershipIndexTest.JANE_ID));
+    Assert.assertEquals(1, index.countMutualFriends(MembershipIndexTest.JANE_ID,
+            MembershipIndexTest.JOHN_ID));
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.JOHN_ID), index.getMutualFriends(
+            MembershipIndexTest.JACK_ID, MembershipIndexTest.HORST_ID));
+
+    // results are in the order the IDs were numbered
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.JANE_ID, MembershipIndexTest.HORST_ID),
+            index.getFriendsInGroup(MembershipIndexTest.JOHN_ID, MembershipIndexTest.GROUP_ID));
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.FRED_ID), index.getMembersNotFriends(
+            MembershipIndexTest.JOHN_ID, MembershipIndexTest.GROUP_ID));
+
+    // the user is no stranger to themselves
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.HORST_ID, MembershipIndexTest.FRED_ID),
+            index.getMembersNotFriends(MembershipIndexTest.JANE_ID, MembershipIndexTest.GROUP_ID));
+
+    Assert.assertEquals(new HashSet<String>(this.fLists.get(MembershipIndexTest.GROUP_ID)),
+            index.getMemberIds(MembershipIndexTest.GROUP_ID));
+    Assert.assertTrue(index.isMember(MembershipIndexTest.GROUP_ID, MembershipIndexTest.FRED_ID));
+    Assert.assertFalse(index.isMember(MembershipIndexTest.GROUP_ID, MembershipIndexTest.JOHN_ID));
+    Assert.assertFalse(index.isMember(MembershipIndexTest.GROUP_ID, "unknown"));
+
+    // John, Jane, Jack, Horst and the group
+    Assert.assertEquals(5, this.fLoads);
+  }
+
+  /**
+   * Tests applying friendship, membership and profile changes to loaded lists without reloading
+   * them.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void updateTest() throws Exception {
+    final MembershipIndex index = new MembershipIndex(handler(), this.fConfig, null);
+    index.getMutualFriends(MembershipIndexTest.JANE_ID, MembershipIndexTest.HORST_ID);
+    index.getMemberIds(MembershipIndexTest.GROUP_ID);
+
+    index.addFriendship(MembershipIndexTest.JANE_ID, MembershipIndexTest.HORST_ID);
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.HORST_ID), index.getFriendsInGroup(
+            MembershipIndexTest.JANE_ID, MembershipIndexTest.GROUP_ID));
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.FRED_ID), index.getMembersNotFriends(
+            MembershipIndexTest.JANE_ID, MembershipIndexTest.GROUP_ID));
+
+    index.removeMember(MembershipIndexTest.GROUP_ID, MembershipIndexTest.FRED_ID);
+    index.addMember(MembershipIndexTest.GROUP_ID, MembershipIndexTest.JACK_ID);
+    Assert.assertEquals(new HashSet<String>(Arrays.asList(MembershipIndexTest.JANE_ID,
+            MembershipIndexTest.HORST_ID, MembershipIndexTest.JACK_ID)), index.getMemberIds(
+            MembershipIndexTest.GROUP_ID));
+    Assert.assertTrue(index.getMembersNotFriends(MembershipIndexTest.JANE_ID,
+            MembershipIndexTest.GROUP_ID).isEmpty());
+
+    index.removeFriendship(MembershipIndexTest.HORST_ID, MembershipIndexTest.JANE_ID);
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.HORST_ID), index.getMembersNotFriends(
+            MembershipIndexTest.JANE_ID, MembershipIndexTest.GROUP_ID));
+
+    // deleted people disappear from all lists
+    final PersonDTO john = new PersonDTO();
+    john.setId(MembershipIndexTest.JOHN_ID);
+    final BasicEvent event = new BasicEvent(ShindigEventType.PROFILE_DELETED);
+    event.setPayload(john);
+    index.handleEvent(event);
+
+    Assert.assertEquals(0, index.countMutualFriends(MembershipIndexTest.JANE_ID,
+            MembershipIndexTest.HORST_ID));
+
+    // Jane, Horst and the group
+    Assert.assertEquals(3, this.fLoads);
+  }
+
+  /**
+   * Tests that the numbering and all lists are discarded once too many IDs have been numbered,
+   * without affecting results.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void generationTest() throws Exception {
+    this.fConfig.setProperty("shindig.membership.index.ids", "3");
+    final MembershipIndex index = new MembershipIndex(handler(), this.fConfig, null);
+
+    // John's friends and John himself exceed the limit within a request
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.JACK_ID), index.getMutualFriends(
+            MembershipIndexTest.JOHN_ID, MembershipIndexTest.JANE_ID));
+    Assert.assertEquals(2, this.fLoads);
+
+    // the next request starts a new numbering and reloads the lists
+    Assert.assertEquals(Arrays.asList(MembershipIndexTest.JACK_ID), index.getMutualFriends(
+            MembershipIndexTest.JOHN_ID, MembershipIndexTest.JANE_ID));
+    Assert.assertEquals(4, this.fLoads);
+
+    // lists numbering fewer IDs are kept
+    index.clear();
+    Assert.assertTrue(index.isMember(MembershipIndexTest.GROUP_ID, MembershipIndexTest.FRED_ID));
+    Assert.assertTrue(index.isMember(MembershipIndexTest.GROUP_ID, MembershipIndexTest.JANE_ID));
+    Assert.assertEquals(5, this.fLoads);
+  }
+
+  /**
+   * Tests that a disabled index loads lists for every request and leaves traversals to the
+   * server.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void disabledTest() throws Exception {
+    this.fConfig.setProperty("shindig.membership.index", "false");
+    final MembershipIndex index = new MembershipIndex(handler(), this.fConfig, null);
+    Assert.assertFalse(index.isEnabled());
+
+    for (int i = 0; i < 2; ++i) {
+      Assert.assertEquals(Arrays.asList(MembershipIndexTest.JACK_ID), index.getMutualFriends(
+              MembershipIndexTest.JOHN_ID, MembershipIndexTest.JANE_ID));
+      Assert.assertEquals(Arrays.asList(MembershipIndexTest.FRED_ID),
+              index.getMembersNotFriends(MembershipIndexTest.JOHN_ID,
+                      MembershipIndexTest.GROUP_ID));
+    }
+    Assert.assertEquals(8, this.fLoads);
+
+    Assert.assertNull(index.getFriendsOfFriends(new HashSet<String>(Arrays
+            .asList(MembershipIndexTest.HORST_ID)), 2, false));
+  }
+}
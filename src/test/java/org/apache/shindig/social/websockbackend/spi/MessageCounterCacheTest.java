@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.social.core.model.MessageImpl;
+import org.apache.shindig.social.opensocial.model.Message;
+import org.apache.shindig.social.opensocial.model.MessageCollection;
+import org.apache.shindig.social.websockbackend.Constants;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for the message counter cache and the incremental updates of its counters.
+ */
+public class MessageCounterCacheTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe";
+
+  private static final String WORK_ID = "work";
+
+  private static final String ID_FIELD = MessageCollection.Field.ID.toString();
+  private static final String TITLE_FIELD = MessageCollection.Field.TITLE.toString();
+  private static final String TOTAL_FIELD = MessageCollection.Field.TOTAL.toString();
+  private static final String UNREAD_FIELD = MessageCollection.Field.UNREAD.toString();
+
+  private MessageCounterCache fCache;
+
+  @Before
+  public void setup() {
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.messages.counters", "true");
+
+    this.fCache = new MessageCounterCache(config);
+    putCollections();
+  }
+
+  private void putCollections() {
+    // john's inbox with one unread message and a work collection with a read message
+    final List<Map<String, Object>> collections = new ArrayList<Map<String, Object>>();
+    collections.add(MessageCounterCacheTest.collection(MessageCollection.INBOX,
+            Constants.INBOX_NAME, 2, 1));
+    collections.add(MessageCounterCacheTest.collection(MessageCounterCacheTest.WORK_ID,
+            MessageCounterCacheTest.WORK_ID, 1, 0));
+    this.fCache.putCollections(MessageCounterCacheTest.JOHN_ID, collections,
+            this.fCache.getEpoch());
+  }
+
+  private static Map<String, Object> collection(String id, String title, int total, int unread) {
+    final Map<String, Object> collection = new HashMap<String, Object>();
+    collection.put(MessageCounterCacheTest.ID_FIELD, id);
+    collection.put(MessageCounterCacheTest.TITLE_FIELD, title);
+    collection.put(MessageCounterCacheTest.TOTAL_FIELD, total);
+    collection.put(MessageCounterCacheTest.UNREAD_FIELD, unread);
+    return collection;
+  }
+
+  private static Message message(Message.Status status, String... recipients) {
+    final Message message = new MessageImpl();
+    message.setStatus(status);
+
+    final List<String> recipientList = new ArrayList<String>();
+    for (final String recipient : recipients) {
+      recipientList.add(recipient);
+    }
+    message.setRecipients(recipientList);
+
+    return message;
+  }
+
+  private void assertCounters(int index, int total, int unread) {
+    final Map<String, Object> collection = this.fCache.getCollections(
+            MessageCounterCacheTest.JOHN_ID).get(index);
+    Assert.assertEquals(total, collection.get(MessageCounterCacheTest.TOTAL_FIELD));
+    Assert.assertEquals(unread, collection.get(MessageCounterCacheTest.UNREAD_FIELD));
+  }
+
+  /**
+   * Tests that new messages are added to the recipients' inboxes and that the sender's collections
+   * are reloaded.
+   */
+  @Test
+  public void createdTest() {
+    final List<Map<String, Object>> before = this.fCache
+            .getCollections(MessageCounterCacheTest.JOHN_ID);
+
+    final List<Map<String, Object>> janes = new ArrayList<Map<String, Object>>();
+    janes.add(MessageCounterCacheTest.collection(MessageCollection.INBOX, Constants.INBOX_NAME, 0,
+            0));
+    this.fCache.putCollections(MessageCounterCacheTest.JANE_ID, janes, this.fCache.getEpoch());
+
+    this.fCache.messageCreated(MessageCounterCacheTest.JANE_ID, MessageCounterCacheTest.message(
+            null, MessageCounterCacheTest.JOHN_ID, MessageCounterCacheTest.JANE_ID));
+
+    assertCounters(0, 3, 2);
+    assertCounters(1, 1, 0);
+    Assert.assertNull(this.fCache.getCollections(MessageCounterCacheTest.JANE_ID));
+
+    // previously returned lists are left unchanged
+    Assert.assertEquals(2, before.get(0).get(MessageCounterCacheTest.TOTAL_FIELD));
+  }
+
+  /**
+   * Tests that deleted messages are subtracted from their collection's counters.
+   */
+  @Test
+  public void deletedTest() {
+    this.fCache.messageDeleted(MessageCounterCacheTest.JOHN_ID, null,
+            MessageCounterCacheTest.message(Message.Status.NEW));
+    assertCounters(0, 1, 0);
+
+    this.fCache.messageDeleted(MessageCounterCacheTest.JOHN_ID, MessageCounterCacheTest.WORK_ID,
+            MessageCounterCacheTest.message(Message.Status.FLAGGED));
+    assertCounters(1, 0, 0);
+
+    // unknown status
+    this.fCache.messageDeleted(MessageCounterCacheTest.JOHN_ID, null,
+            MessageCounterCacheTest.message(null));
+    Assert.assertNull(this.fCache.getCollections(MessageCounterCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests that messages being read or marked as new update the unread counters.
+   */
+  @Test
+  public void statusTest() {
+    this.fCache.statusChanged(MessageCounterCacheTest.JOHN_ID, null, Message.Status.NEW,
+            Message.Status.FLAGGED);
+    assertCounters(0, 2, 0);
+
+    this.fCache.statusChanged(MessageCounterCacheTest.JOHN_ID, null, Message.Status.FLAGGED,
+            Message.Status.FLAGGED);
+    assertCounters(0, 2, 0);
+
+    this.fCache.statusChanged(MessageCounterCacheTest.JOHN_ID, MessageCounterCacheTest.WORK_ID,
+            Message.Status.FLAGGED, Message.Status.NEW);
+    assertCounters(1, 1, 1);
+
+    // unknown previous status
+    this.fCache.statusChanged(MessageCounterCacheTest.JOHN_ID, null, null, Message.Status.NEW);
+    Assert.assertNull(this.fCache.getCollections(MessageCounterCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests that collections are reloaded if counters would go out of range or a collection is
+   * unknown, and that results retrieved before a change are not cached.
+   */
+  @Test
+  public void reloadTest() {
+    // no unread messages in the work collection
+    this.fCache.statusChanged(MessageCounterCacheTest.JOHN_ID, MessageCounterCacheTest.WORK_ID,
+            Message.Status.NEW, Message.Status.FLAGGED);
+    Assert.assertNull(this.fCache.getCollections(MessageCounterCacheTest.JOHN_ID));
+
+    putCollections();
+    this.fCache.messageDeleted(MessageCounterCacheTest.JOHN_ID, "unknown",
+            MessageCounterCacheTest.message(Message.Status.NEW));
+    Assert.assertNull(this.fCache.getCollections(MessageCounterCacheTest.JOHN_ID));
+
+    // stale result
+    final long epoch = this.fCache.getEpoch();
+    this.fCache.invalidate(MessageCounterCacheTest.JANE_ID);
+    this.fCache.putCollections(MessageCounterCacheTest.JOHN_ID,
+            new ArrayList<Map<String, Object>>(), epoch);
+    Assert.assertNull(this.fCache.getCollections(MessageCounterCacheTest.JOHN_ID));
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+
+/**
+ * Test for the ingestion buffer sending process cycles added in bulk.
+ */
+public class ProcessCycleIngestBufferTest {
+  private static final String DOC_TYPE = "invoice";
+
+  private WebsockConfig fConfig;
+
+  @Before
+  public void setup() {
+    // flush manually, the worker only wakes up after the interval
+    this.fConfig = new WebsockConfig(true);
+    this.fConfig.setProperty("shindig.processmining.ingest.batch", "100");
+    this.fConfig.setProperty("shindig.processmining.ingest.interval", "600000");
+    this.fConfig.setProperty("shindig.processmining.ingest.capacity", "3");
+  }
+
+  private static List<Map<String, Object>> cycles(int count) {
+    final List<Map<String, Object>> cycles = new ArrayList<Map<String, Object>>();
+
+    for (int i = 0; i < count; ++i) {
+      final Map<String, Object> cycle = new HashMap<String, Object>();
+      cycle.put("docId", "doc" + i);
+      cycle.put("type", ProcessCycleIngestBufferTest.DOC_TYPE);
+      cycles.add(cycle);
+    }
+
+    return cycles;
+  }
+
+  private static IQueryCallback callback(boolean fails) throws Exception {
+    final IQueryCallback callback = EasyMock.createMock(IQueryCallback.class);
+
+    if (fails) {
+      EasyMock.expect(callback.get()).andThrow(new RuntimeException("could not create cycle"));
+    } else {
+      EasyMock.expect(callback.get()).andReturn(new SingleResult(null));
+    }
+
+    EasyMock.replay(callback);
+    return callback;
+  }
+
+  // query handler answering the dispatched queries in order
+  private static IQueryHandler handler(boolean... failures) throws Exception {
+    final IQueryHandler qHandler = EasyMock.createMock(IQueryHandler.class);
+
+    for (final boolean fails : failures) {
+      EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andReturn(
+              ProcessCycleIngestBufferTest.callback(fails));
+    }
+
+    EasyMock.replay(qHandler);
+    return qHandler;
+  }
+
+  /**
+   * Tests that all pending cycles are sent on a flush.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void flushTest() throws Exception {
+    final IQueryHandler qHandler = ProcessCycleIngestBufferTest.handler(false, false, false);
+    final ProcessCycleIngestBuffer buffer = new ProcessCycleIngestBuffer(qHandler, this.fConfig,
+            null);
+
+    Assert.assertEquals(3, buffer.add(ProcessCycleIngestBufferTest.DOC_TYPE,
+            ProcessCycleIngestBufferTest.cycles(3)));
+    Assert.assertEquals(3, buffer.getPending());
+
+    buffer.flush();
+    Assert.assertEquals(0, buffer.getPending());
+    EasyMock.verify(qHandler);
+  }
+
+  /**
+   * Tests that only failed cycles of a batch are queued again and sent with the next flush.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void requeueTest() throws Exception {
+    final IQueryHandler qHandler = ProcessCycleIngestBufferTest
+            .handler(false, true, false, false);
+    final ProcessCycleIngestBuffer buffer = new ProcessCycleIngestBuffer(qHandler, this.fConfig,
+            null);
+
+    buffer.add(ProcessCycleIngestBufferTest.DOC_TYPE, ProcessCycleIngestBufferTest.cycles(3));
+
+    buffer.flush();
+    Assert.assertEquals(1, buffer.getPending());
+
+    buffer.flush();
+    Assert.assertEquals(0, buffer.getPending());
+    EasyMock.verify(qHandler);
+  }
+
+  /**
+   * Tests that cycles are dropped after failing repeatedly.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void dropTest() throws Exception {
+    final IQueryHandler qHandler = ProcessCycleIngestBufferTest.handler(true, true, true);
+    final ProcessCycleIngestBuffer buffer = new ProcessCycleIngestBuffer(qHandler, this.fConfig,
+            null);
+
+    buffer.add(ProcessCycleIngestBufferTest.DOC_TYPE, ProcessCycleIngestBufferTest.cycles(1));
+
+    buffer.flush();
+    buffer.flush();
+    Assert.assertEquals(1, buffer.getPending());
+
+    buffer.flush();
+    Assert.assertEquals(0, buffer.getPending());
+
+    // nothing left to send
+    buffer.flush();
+    EasyMock.verify(qHandler);
+  }
+
+  /**
+   * Tests that cycles which could not be dispatched are queued again instead of being lost.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void dispatchFailureTest() throws Exception {
+    final IQueryHandler qHandler = EasyMock.createMock(IQueryHandler.class);
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andReturn(
+            ProcessCycleIngestBufferTest.callback(false));
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andThrow(
+            new RuntimeException("connection lost"));
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andReturn(
+            ProcessCycleIngestBufferTest.callback(false));
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andReturn(
+            ProcessCycleIngestBufferTest.callback(false));
+    EasyMock.replay(qHandler);
+
+    final ProcessCycleIngestBuffer buffer = new ProcessCycleIngestBuffer(qHandler, this.fConfig,
+            null);
+    buffer.add(ProcessCycleIngestBufferTest.DOC_TYPE, ProcessCycleIngestBufferTest.cycles(3));
+
+    buffer.flush();
+    Assert.assertEquals(2, buffer.getPending());
+
+    buffer.flush();
+    Assert.assertEquals(0, buffer.getPending());
+    EasyMock.verify(qHandler);
+  }
+
+  /**
+   * Tests that cycles exceeding the capacity are rejected as a whole with a 503.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void capacityTest() throws Exception {
+    // accepted cycles are only sent on shutdown
+    final IQueryHandler qHandler = EasyMock.createNiceMock(IQueryHandler.class);
+    EasyMock.replay(qHandler);
+    final ProcessCycleIngestBuffer buffer = new ProcessCycleIngestBuffer(qHandler, this.fConfig,
+            null);
+
+    buffer.add(ProcessCycleIngestBufferTest.DOC_TYPE, ProcessCycleIngestBufferTest.cycles(2));
+
+    try {
+      buffer.add(ProcessCycleIngestBufferTest.DOC_TYPE, ProcessCycleIngestBufferTest.cycles(2));
+      Assert.fail("cycles exceeding the capacity were accepted");
+    } catch (final ProtocolException e) {
+      Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getCode());
+    }
+
+    Assert.assertEquals(2, buffer.getPending());
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.BasicEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for the cache of users' skill sets and the changes applied to it.
+ */
+public class SkillCacheTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", HORST_ID = "horst";
+
+  private static final String NEO_SKILL = "Neo4j", JAVA_SKILL = "Java Programming";
+
+  private SkillCache fCache;
+
+  private List<Map<String, Object>> fSkills;
+
+  /**
+   * Sets up an enabled cache and John's skills: Java linked by John and Jane, Neo4j by Jane.
+   */
+  @Before
+  public void setup() {
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.skills.cache", "true");
+    this.fCache = new SkillCache(config, null);
+
+    this.fSkills = new ArrayList<Map<String, Object>>();
+    this.fSkills.add(SkillCacheTest.skill(SkillCacheTest.JAVA_SKILL, SkillCacheTest.JOHN_ID,
+            SkillCacheTest.JANE_ID));
+    this.fSkills.add(SkillCacheTest.skill(SkillCacheTest.NEO_SKILL, SkillCacheTest.JANE_ID));
+  }
+
+  private static Map<String, Object> skill(String name, String... linkerIds) {
+    final List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+    for (final String id : linkerIds) {
+      final Map<String, Object> person = new HashMap<String, Object>();
+      person.put(Person.Field.ID.toString(), id);
+      people.add(person);
+    }
+
+    final Map<String, Object> skill = new HashMap<String, Object>();
+    skill.put("name", name);
+    skill.put("people", people);
+    return skill;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, Object>> people(List<Map<String, Object>> skills, int index) {
+    return (List<Map<String, Object>>) skills.get(index).get("people");
+  }
+
+  private void putSkills() {
+    this.fCache.putSkills(SkillCacheTest.JOHN_ID, this.fSkills, this.fCache.getEpoch());
+  }
+
+  /**
+   * Tests that nothing is cached if the cache is disabled.
+   */
+  @Test
+  public void disabledTest() {
+    this.fCache = new SkillCache(new WebsockConfig(true), null);
+    Assert.assertFalse(this.fCache.isEnabled());
+
+    putSkills();
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests caching skill sets and ignoring results requested before a change.
+   */
+  @Test
+  public void cachingTest() {
+    putSkills();
+    Assert.assertEquals(2, this.fCache.getSkills(SkillCacheTest.JOHN_ID).size());
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JANE_ID));
+
+    final long epoch = this.fCache.getEpoch();
+    this.fCache.invalidate(SkillCacheTest.JOHN_ID);
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+
+    this.fCache.putSkills(SkillCacheTest.JOHN_ID, this.fSkills, epoch);
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests that links by known people to known skills replace the cached list with an updated copy
+   * and that other links invalidate it.
+   */
+  @Test
+  public void addLinkTest() {
+    putSkills();
+    final List<Map<String, Object>> before = this.fCache.getSkills(SkillCacheTest.JOHN_ID);
+
+    // John is known from the Java skill
+    this.fCache.addLink(SkillCacheTest.JOHN_ID, SkillCacheTest.NEO_SKILL, SkillCacheTest.JOHN_ID);
+    List<Map<String, Object>> skills = this.fCache.getSkills(SkillCacheTest.JOHN_ID);
+    Assert.assertEquals(2, SkillCacheTest.people(skills, 1).size());
+    Assert.assertEquals(1, SkillCacheTest.people(before, 1).size());
+
+    // applying it twice has no effect
+    this.fCache.addLink(SkillCacheTest.JOHN_ID, SkillCacheTest.NEO_SKILL, SkillCacheTest.JOHN_ID);
+    skills = this.fCache.getSkills(SkillCacheTest.JOHN_ID);
+    Assert.assertEquals(2, SkillCacheTest.people(skills, 1).size());
+
+    // unknown person
+    this.fCache.addLink(SkillCacheTest.JOHN_ID, SkillCacheTest.NEO_SKILL,
+            SkillCacheTest.HORST_ID);
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+
+    // new skill
+    putSkills();
+    this.fCache.addLink(SkillCacheTest.JOHN_ID, "Cypher", SkillCacheTest.JANE_ID);
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests that removed links are applied unless a skill loses its last link.
+   */
+  @Test
+  public void removeLinkTest() {
+    putSkills();
+
+    this.fCache.removeLink(SkillCacheTest.JOHN_ID, SkillCacheTest.JAVA_SKILL,
+            SkillCacheTest.JANE_ID);
+    List<Map<String, Object>> skills = this.fCache.getSkills(SkillCacheTest.JOHN_ID);
+    Assert.assertEquals(1, SkillCacheTest.people(skills, 0).size());
+    Assert.assertEquals(2, SkillCacheTest.people(this.fSkills, 0).size());
+
+    // unknown skill or link
+    this.fCache.removeLink(SkillCacheTest.JOHN_ID, "Cypher", SkillCacheTest.JANE_ID);
+    this.fCache.removeLink(SkillCacheTest.JOHN_ID, SkillCacheTest.JAVA_SKILL,
+            SkillCacheTest.JANE_ID);
+    skills = this.fCache.getSkills(SkillCacheTest.JOHN_ID);
+    Assert.assertEquals(2, skills.size());
+
+    // last link
+    this.fCache.removeLink(SkillCacheTest.JOHN_ID, SkillCacheTest.NEO_SKILL,
+            SkillCacheTest.JANE_ID);
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+  }
+
+  /**
+   * Tests applying skill events, invalidating if the linking person is unknown.
+   */
+  @Test
+  public void eventTest() {
+    putSkills();
+
+    final FakeGadgetToken token = new FakeGadgetToken();
+    token.setViewerId(SkillCacheTest.JOHN_ID);
+
+    final BasicEvent removed = new BasicEvent(ShindigEventType.SKILL_REMOVED);
+    removed.setPayload(new String[] { SkillCacheTest.JOHN_ID, SkillCacheTest.JAVA_SKILL });
+    removed.setToken(token);
+    this.fCache.handleEvent(removed);
+    Assert.assertEquals(1, SkillCacheTest.people(
+            this.fCache.getSkills(SkillCacheTest.JOHN_ID), 0).size());
+
+    final BasicEvent added = new BasicEvent(ShindigEventType.SKILL_ADDED);
+    added.setPayload(new String[] { SkillCacheTest.JOHN_ID, SkillCacheTest.NEO_SKILL });
+    this.fCache.handleEvent(added);
+    Assert.assertNull(this.fCache.getSkills(SkillCacheTest.JOHN_ID));
+  }
+}
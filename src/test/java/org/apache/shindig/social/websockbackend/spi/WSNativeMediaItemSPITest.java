@@ -31,6 +31,7 @@ import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -406,4 +407,53 @@ public class WSNativeMediaItemSPITest {
             null, WSNativeMediaItemSPITest.HORST_ALB_ID, WSNativeMediaItemSPITest.MEDIA_ITEM_7_ID,
             null);
   }
+
+  /**
+   * Tests whether buffered counter increments are reflected in retrieved media items.
+   */
+  @Test
+  public void counterOverlayTest() throws Exception {
+    // construct expected query
+    final WebsockQuery exQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    exQuery.setPayload(ShindigNativeQueries.GET_MEDIA_ITEM_QUERY);
+
+    exQuery.setParameter(ShindigNativeQueries.USER_ID, WSNativeMediaItemSPITest.JOHN_ID);
+    exQuery.setParameter(ShindigNativeQueries.ALBUM_ID, WSNativeMediaItemSPITest.JOHN_ALB_1_ID);
+    exQuery.setParameter(ShindigNativeQueries.MEDIA_ITEM_ID,
+            WSNativeMediaItemSPITest.MEDIA_ITEM_1_ID);
+
+    // construct expected result with stored counts
+    final Map<String, Object> item = this.fJohnIts.get(0);
+    item.put(MediaItem.Field.NUM_VIEWS.toString(), "5");
+    final SingleResult exResult = new SingleResult(item);
+
+    // create single use handler and media item service without periodic flushing
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.mediaitems.counters", "true");
+    config.setProperty("shindig.mediaitems.counters.interval", "60000");
+
+    final IQueryHandler qHandler = new TestQueryHandler(exQuery, exResult);
+    final WsNativeMediaItemSPI mediaItemSPI = new WsNativeMediaItemSPI(qHandler, null, config);
+
+    // buffer increments
+    final UserId johnId = new UserId(UserId.Type.userId, WSNativeMediaItemSPITest.JOHN_ID);
+    mediaItemSPI.incrementCounter(johnId, null, WSNativeMediaItemSPITest.JOHN_ALB_1_ID,
+            WSNativeMediaItemSPITest.MEDIA_ITEM_1_ID, MediaItem.Field.NUM_VIEWS.toString(), 1,
+            null);
+    mediaItemSPI.incrementCounter(johnId, null, WSNativeMediaItemSPITest.JOHN_ALB_1_ID,
+            WSNativeMediaItemSPITest.MEDIA_ITEM_1_ID, MediaItem.Field.NUM_VIEWS.toString(), 2,
+            null);
+    mediaItemSPI.incrementCounter(johnId, null, WSNativeMediaItemSPITest.JOHN_ALB_1_ID,
+            WSNativeMediaItemSPITest.MEDIA_ITEM_1_ID, MediaItem.Field.NUM_VOTES.toString(), 1,
+            null);
+
+    // retrieve and check
+    final MediaItem mediaItem = mediaItemSPI.getMediaItem(johnId, null,
+            WSNativeMediaItemSPITest.JOHN_ALB_1_ID, WSNativeMediaItemSPITest.MEDIA_ITEM_1_ID, null,
+            null).get();
+
+    Assert.assertEquals("8", mediaItem.getNumViews());
+    Assert.assertEquals("1", mediaItem.getNumVotes());
+    Assert.assertNull(mediaItem.getNumComments());
+  }
 }
@@ -26,6 +26,7 @@ import java.util.Set;
 import org.apache.shindig.protocol.DataCollection;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.opensocial.spi.UserId.Type;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -302,4 +303,107 @@ public class WsNativeAppDataSPITest {
     // execute
     appDataSPI.deletePersonData(horstId, null, WsNativeAppDataSPITest.APP3_ID, null, null);
   }
+
+  /**
+   * Test for the buffered storage of application data, merging multiple updates.
+   *
+   * @throws Exception
+   *           if the test fails
+   */
+  @Test
+  public void writeBehindTest() throws Exception {
+    // construct expected query
+    final WebsockQuery exQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    exQuery.setPayload(ShindigNativeQueries.UPDATE_APP_DATA_QUERY);
+
+    exQuery.setParameter(ShindigNativeQueries.APP_ID, WsNativeAppDataSPITest.APP3_ID);
+    exQuery.setParameter(ShindigNativeQueries.USER_ID, WsNativeAppDataSPITest.HORST_ID);
+
+    final Map<String, Object> data = new HashMap<String, Object>();
+    data.put(WsNativeAppDataSPITest.ATT3_ID, "secondValue");
+    data.put(WsNativeAppDataSPITest.ATT4_ID, "firstValue");
+    exQuery.setParameter(ShindigNativeQueries.APP_DATA, data);
+
+    // construct expected result
+    final SingleResult exResult = new SingleResult(null);
+
+    // create single-use handler and buffering service
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.appdata.writebehind", "true");
+    config.setProperty("shindig.appdata.writebehind.interval", "60000");
+
+    final IQueryHandler qHandler = new TestQueryHandler(exQuery, exResult);
+    final WsNativeAppDataSPI appDataSPI = new WsNativeAppDataSPI(qHandler, config);
+
+    // execute
+    final UserId horstId = new UserId(Type.userId, WsNativeAppDataSPITest.HORST_ID);
+
+    // multiple updates for the same user and application
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put(WsNativeAppDataSPITest.ATT3_ID, "firstValue");
+    values.put(WsNativeAppDataSPITest.ATT4_ID, "firstValue");
+    appDataSPI.updatePersonData(horstId, null, WsNativeAppDataSPITest.APP3_ID, null, values, null);
+
+    values = new HashMap<String, Object>();
+    values.put(WsNativeAppDataSPITest.ATT3_ID, "secondValue");
+    appDataSPI.updatePersonData(horstId, null, WsNativeAppDataSPITest.APP3_ID, null, values, null);
+
+    // single merged update
+    appDataSPI.flush();
+  }
+
+  /**
+   * Test for the cached retrieval of application data with field projection.
+   *
+   * @throws Exception
+   *           if the test fails
+   */
+  @Test
+  public void cachedRetrievalTest() throws Exception {
+    // construct expected query for complete data
+    final WebsockQuery exQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    exQuery.setPayload(ShindigNativeQueries.GET_APP_DATA_QUERY);
+
+    exQuery.setParameter(ShindigNativeQueries.APP_ID, WsNativeAppDataSPITest.APP1_ID);
+
+    final List<String> uidList = new ArrayList<String>();
+    uidList.add(WsNativeAppDataSPITest.JOHN_ID);
+    exQuery.setParameter(ShindigNativeQueries.USER_ID_LIST, uidList);
+
+    // construct expected result
+    final Map<String, Map<String, Object>> appDataMap = new HashMap<String, Map<String, Object>>();
+    appDataMap.put(WsNativeAppDataSPITest.JOHN_ID,
+            this.fDataByUser.get(WsNativeAppDataSPITest.JOHN_ID)
+                    .get(WsNativeAppDataSPITest.APP1_ID));
+    final SingleResult exResult = new SingleResult(appDataMap);
+
+    // create single-use handler and caching service
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.appdata.cache", "true");
+
+    final IQueryHandler qHandler = new TestQueryHandler(exQuery, exResult);
+    final WsNativeAppDataSPI appDataSPI = new WsNativeAppDataSPI(qHandler, config);
+
+    // execute
+    final Set<UserId> userIds = new HashSet<UserId>();
+    userIds.add(new UserId(Type.userId, WsNativeAppDataSPITest.JOHN_ID));
+
+    // subset of fields, complete data is retrieved and cached
+    Map<String, Object> appData = appDataSPI
+            .getPersonData(userIds, null, WsNativeAppDataSPITest.APP1_ID,
+                    ImmutableSet.of(WsNativeAppDataSPITest.ATT1_ID), null).get().getEntry()
+            .get(WsNativeAppDataSPITest.JOHN_ID);
+
+    Assert.assertEquals(1, appData.size());
+    Assert.assertEquals("johndoe", appData.get(WsNativeAppDataSPITest.ATT1_ID));
+
+    // other subset, served from the cache
+    appData = appDataSPI
+            .getPersonData(userIds, null, WsNativeAppDataSPITest.APP1_ID,
+                    ImmutableSet.of(WsNativeAppDataSPITest.ATT2_ID), null).get().getEntry()
+            .get(WsNativeAppDataSPITest.JOHN_ID);
+
+    Assert.assertEquals(1, appData.size());
+    Assert.assertEquals("father", appData.get(WsNativeAppDataSPITest.ATT2_ID));
+  }
 }
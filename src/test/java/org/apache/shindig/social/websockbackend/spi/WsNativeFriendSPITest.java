@@ -18,8 +18,10 @@ package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 import org.apache.shindig.protocol.RestfulCollection;
@@ -28,6 +30,11 @@ import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.UserId;
 import org.apache.shindig.social.opensocial.spi.UserId.Type;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.events.IEventListener;
+import org.apache.shindig.social.websockbackend.events.IShindigEvent;
+import org.apache.shindig.social.websockbackend.events.ShindigEventBus;
+import org.apache.shindig.social.websockbackend.events.ShindigEventType;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -180,4 +187,82 @@ public class WsNativeFriendSPITest {
     // deny request
     friendSPI.denyFriendship(horstId, jane, null);
   }
+
+  private static WebsockQuery friendshipQuery(String payload, String userId, String targetId) {
+    final WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    query.setPayload(payload);
+    query.setParameter(ShindigNativeQueries.USER_ID, userId);
+    query.setParameter(ShindigNativeQueries.TARGET_USER_ID, targetId);
+    return query;
+  }
+
+  /**
+   * Test routine for the friendship events fired and for confirmations being recognized using
+   * cached requests instead of a query.
+   *
+   * @throws Exception
+   *           if a test fails
+   */
+  @Test
+  public void eventTest() throws Exception {
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.events.enabled", "true");
+    config.setProperty("shindig.friends.requests.cache", "true");
+
+    final ShindigEventBus eventBus = new ShindigEventBus(config);
+    final List<IShindigEvent> events = new ArrayList<IShindigEvent>();
+    eventBus.addListener(ShindigEventType.ALL, new IEventListener() {
+      @Override
+      public void handleEvent(IShindigEvent event) {
+        events.add(event);
+      }
+    });
+
+    // fred has sent a request to horst
+    final FriendRequestCache cache = new FriendRequestCache(config, eventBus);
+    final Set<String> requests = new HashSet<String>();
+    requests.add(WsNativeFriendSPITest.FRED_ID);
+    cache.putRequests(WsNativeFriendSPITest.HORST_ID, requests, cache.getEpoch());
+
+    final UserId horstId = new UserId(Type.userId, WsNativeFriendSPITest.HORST_ID);
+    final Person fred = new PersonImpl();
+    fred.setId(WsNativeFriendSPITest.FRED_ID);
+    final Person jane = new PersonImpl();
+    jane.setId(WsNativeFriendSPITest.JANE_ID);
+    final ListResult exResult = new ListResult((List<?>) null);
+
+    // confirmation, recognized without querying requests
+    IQueryHandler qHandler = new TestQueryHandler(WsNativeFriendSPITest.friendshipQuery(
+            ShindigNativeQueries.REQUEST_FRIENDSHIP_QUERY, WsNativeFriendSPITest.HORST_ID,
+            WsNativeFriendSPITest.FRED_ID), exResult);
+    new WsNativeFriendSPI(qHandler, null, null, config, eventBus, cache).requestFriendship(
+            horstId, fred, null);
+
+    // new request
+    qHandler = new TestQueryHandler(WsNativeFriendSPITest.friendshipQuery(
+            ShindigNativeQueries.REQUEST_FRIENDSHIP_QUERY, WsNativeFriendSPITest.HORST_ID,
+            WsNativeFriendSPITest.JANE_ID), exResult);
+    new WsNativeFriendSPI(qHandler, null, null, config, eventBus, cache).requestFriendship(
+            horstId, jane, null);
+
+    // revocation
+    qHandler = new TestQueryHandler(WsNativeFriendSPITest.friendshipQuery(
+            ShindigNativeQueries.DENY_FRIENDSHIP_QUERY, WsNativeFriendSPITest.HORST_ID,
+            WsNativeFriendSPITest.JANE_ID), exResult);
+    new WsNativeFriendSPI(qHandler, null, null, config, eventBus, cache).denyFriendship(horstId,
+            jane, null);
+
+    Assert.assertEquals(3, events.size());
+    Assert.assertEquals(ShindigEventType.FRIENDSHIP_CONFIRMED, events.get(0).getType());
+    Assert.assertArrayEquals(new String[] { WsNativeFriendSPITest.HORST_ID,
+            WsNativeFriendSPITest.FRED_ID }, (String[]) events.get(0).getPayload());
+    Assert.assertEquals(ShindigEventType.FRIENDSHIP_REQUESTED, events.get(1).getType());
+    Assert.assertArrayEquals(new String[] { WsNativeFriendSPITest.HORST_ID,
+            WsNativeFriendSPITest.JANE_ID }, (String[]) events.get(1).getPayload());
+    Assert.assertEquals(ShindigEventType.FRIENDSHIP_DENIED, events.get(2).getType());
+    Assert.assertArrayEquals(new String[] { WsNativeFriendSPITest.HORST_ID,
+            WsNativeFriendSPITest.JANE_ID }, (String[]) events.get(2).getPayload());
+
+    Assert.assertTrue(cache.getRequests(WsNativeFriendSPITest.HORST_ID).isEmpty());
+  }
 }
@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.apache.shindig.social.opensocial.spi.UserId.Type;
+import org.apache.shindig.social.websockbackend.WebsockConfig;
+import org.apache.shindig.social.websockbackend.model.IExtOrganization;
+import org.apache.shindig.social.websockbackend.model.dto.PersonDTO;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryCallback;
+import de.hofuniversity.iisys.neo4j.websock.queries.IQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+
+/**
+ * Test for the subordinate retrieval of the organization service using the hierarchy index.
+ */
+public class WsNativeOrganizationServiceTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", JACK_ID = "jack.doe",
+          HORST_ID = "horst", HANS_ID = "hans";
+
+  private static final UserId JOHN = new UserId(Type.userId,
+          WsNativeOrganizationServiceTest.JOHN_ID);
+  private static final Set<String> FIELDS = Collections.singleton(Person.Field.ID.toString());
+
+  private List<Map<String, Object>> fPeople;
+  private IExtPersonService fPersonSPI;
+
+  /**
+   * Sets up the hierarchy: John manages Jane and Jack, Jane manages Horst, who manages Hans.
+   */
+  @Before
+  public void setupData() {
+    this.fPeople = new ArrayList<Map<String, Object>>();
+    addPerson(WsNativeOrganizationServiceTest.JOHN_ID, null);
+    addPerson(WsNativeOrganizationServiceTest.JANE_ID, WsNativeOrganizationServiceTest.JOHN_ID);
+    addPerson(WsNativeOrganizationServiceTest.JACK_ID, WsNativeOrganizationServiceTest.JOHN_ID);
+    addPerson(WsNativeOrganizationServiceTest.HORST_ID, WsNativeOrganizationServiceTest.JANE_ID);
+    addPerson(WsNativeOrganizationServiceTest.HANS_ID, WsNativeOrganizationServiceTest.HORST_ID);
+
+    this.fPersonSPI = EasyMock.createMock(IExtPersonService.class);
+    EasyMock.expect(
+            this.fPersonSPI.convertPerson(EasyMock.<Map<String, Object>> anyObject(),
+                    EasyMock.<Set<String>> anyObject(), EasyMock.<SecurityToken> anyObject()))
+            .andStubAnswer(new IAnswer<PersonDTO>() {
+              @SuppressWarnings("unchecked")
+              @Override
+              public PersonDTO answer() {
+                return new PersonDTO((Map<String, Object>) EasyMock.getCurrentArguments()[0]);
+              }
+            });
+    EasyMock.replay(this.fPersonSPI);
+  }
+
+  private void addPerson(String id, String managerId) {
+    final Map<String, Object> person = new HashMap<String, Object>();
+    person.put(Person.Field.ID.toString(), id);
+
+    if (managerId != null) {
+      final Map<String, Object> org = new HashMap<String, Object>();
+      org.put(IExtOrganization.MANAGER_ID_FIELD, managerId);
+
+      final List<Map<String, Object>> orgs = new ArrayList<Map<String, Object>>();
+      orgs.add(org);
+      person.put(Person.Field.ORGANIZATIONS.toString(), orgs);
+    }
+
+    this.fPeople.add(person);
+  }
+
+  // query handler answering every query with all people
+  private IQueryHandler handler() throws Exception {
+    final IQueryCallback callback = EasyMock.createMock(IQueryCallback.class);
+    EasyMock.expect(callback.get()).andStubReturn(new ListResult(this.fPeople));
+    EasyMock.replay(callback);
+
+    final IQueryHandler qHandler = EasyMock.createMock(IQueryHandler.class);
+    EasyMock.expect(qHandler.sendQuery(EasyMock.<WebsockQuery> anyObject())).andStubReturn(
+            callback);
+    EasyMock.replay(qHandler);
+    return qHandler;
+  }
+
+  private WsNativeOrganizationService service() throws Exception {
+    final HierarchyIndex index = new HierarchyIndex(handler(), new WebsockConfig(true), null);
+    index.load();
+
+    return new WsNativeOrganizationService(handler(), this.fPersonSPI, index);
+  }
+
+  private static CollectionOptions options(int first, int max) {
+    final CollectionOptions options = new CollectionOptions();
+    options.setFirst(first);
+    options.setMax(max);
+    return options;
+  }
+
+  private static List<String> ids(RestfulCollection<Person> people) {
+    final List<String> ids = new ArrayList<String>();
+    for (final Person person : people.getList()) {
+      ids.add(person.getId());
+    }
+    return ids;
+  }
+
+  /**
+   * Tests that subordinates are returned in preorder up to the requested depth.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void depthTest() throws Exception {
+    final WsNativeOrganizationService orgSPI = service();
+
+    RestfulCollection<Person> people = orgSPI.getSubordinates(
+            WsNativeOrganizationServiceTest.JOHN, Integer.MAX_VALUE,
+            WsNativeOrganizationServiceTest.options(0, 20),
+            WsNativeOrganizationServiceTest.FIELDS, null).get();
+    Assert.assertEquals(4, people.getTotalResults());
+    Assert.assertEquals(Arrays.asList(WsNativeOrganizationServiceTest.JANE_ID,
+            WsNativeOrganizationServiceTest.HORST_ID, WsNativeOrganizationServiceTest.HANS_ID,
+            WsNativeOrganizationServiceTest.JACK_ID), WsNativeOrganizationServiceTest.ids(people));
+
+    people = orgSPI.getSubordinates(WsNativeOrganizationServiceTest.JOHN, 1,
+            WsNativeOrganizationServiceTest.options(0, 20),
+            WsNativeOrganizationServiceTest.FIELDS, null).get();
+    Assert.assertEquals(2, people.getTotalResults());
+    Assert.assertEquals(Arrays.asList(WsNativeOrganizationServiceTest.JANE_ID,
+            WsNativeOrganizationServiceTest.JACK_ID), WsNativeOrganizationServiceTest.ids(people));
+
+    people = orgSPI.getSubordinates(WsNativeOrganizationServiceTest.JOHN, 2,
+            WsNativeOrganizationServiceTest.options(0, 20),
+            WsNativeOrganizationServiceTest.FIELDS, null).get();
+    Assert.assertEquals(Arrays.asList(WsNativeOrganizationServiceTest.JANE_ID,
+            WsNativeOrganizationServiceTest.HORST_ID, WsNativeOrganizationServiceTest.JACK_ID),
+            WsNativeOrganizationServiceTest.ids(people));
+
+    // no subordinates
+    people = orgSPI.getSubordinates(new UserId(Type.userId,
+            WsNativeOrganizationServiceTest.HANS_ID), Integer.MAX_VALUE,
+            WsNativeOrganizationServiceTest.options(0, 20),
+            WsNativeOrganizationServiceTest.FIELDS, null).get();
+    Assert.assertEquals(0, people.getTotalResults());
+    Assert.assertTrue(people.getList().isEmpty());
+  }
+
+  /**
+   * Tests that only the requested page of subordinates is returned, with the total of all of them.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void pagingTest() throws Exception {
+    final WsNativeOrganizationService orgSPI = service();
+
+    RestfulCollection<Person> people = orgSPI.getSubordinates(
+            WsNativeOrganizationServiceTest.JOHN, Integer.MAX_VALUE,
+            WsNativeOrganizationServiceTest.options(1, 2),
+            WsNativeOrganizationServiceTest.FIELDS, null).get();
+    Assert.assertEquals(4, people.getTotalResults());
+    Assert.assertEquals(1, people.getStartIndex());
+    Assert.assertEquals(Arrays.asList(WsNativeOrganizationServiceTest.HORST_ID,
+            WsNativeOrganizationServiceTest.HANS_ID), WsNativeOrganizationServiceTest.ids(people));
+
+    // beyond the end
+    people = orgSPI.getSubordinates(WsNativeOrganizationServiceTest.JOHN, Integer.MAX_VALUE,
+            WsNativeOrganizationServiceTest.options(10, 2),
+            WsNativeOrganizationServiceTest.FIELDS, null).get();
+    Assert.assertEquals(4, people.getTotalResults());
+    Assert.assertTrue(people.getList().isEmpty());
+  }
+
+  /**
+   * Tests that subordinates can't be requested without a loaded hierarchy index.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void unavailableTest() throws Exception {
+    final HierarchyIndex unloaded = new HierarchyIndex(handler(), new WebsockConfig(true), null);
+
+    for (final HierarchyIndex index : new HierarchyIndex[] { null, unloaded }) {
+      final WsNativeOrganizationService orgSPI = new WsNativeOrganizationService(handler(),
+              this.fPersonSPI, index);
+
+      try {
+        orgSPI.getSubordinates(WsNativeOrganizationServiceTest.JOHN, Integer.MAX_VALUE,
+                WsNativeOrganizationServiceTest.options(0, 20),
+                WsNativeOrganizationServiceTest.FIELDS, null);
+        Assert.fail("subordinates were returned without an index");
+      } catch (final ProtocolException e) {
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getCode());
+      }
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package org.apache.shindig.social.websockbackend.spi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,6 +26,8 @@ import java.util.Set;
 import java.util.concurrent.Future;
 
 import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.protocol.model.SortOrder;
 import org.apache.shindig.social.core.model.NameImpl;
 import org.apache.shindig.social.core.model.PersonImpl;
 import org.apache.shindig.social.opensocial.model.Name;
@@ -489,4 +492,105 @@ public class WsNativePersonSPITest {
     // execute
     personSPI.deletePerson(new UserId(UserId.Type.userId, WsNativePersonSPITest.HORST_ID), null);
   }
+
+  private static List<String> ids(RestfulCollection<Person> people) {
+    final List<String> ids = new ArrayList<String>();
+    for (final Person person : people.getList()) {
+      ids.add(person.getId());
+    }
+    return ids;
+  }
+
+  /**
+   * Tests searching people by skill using the skill index, only requesting the people on the
+   * requested page in the order found unless the server has to sort them.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void skillIndexTest() throws Exception {
+    final List<List<String>> requests = new ArrayList<List<String>>();
+    final IQueryHandler qHandler = BackgroundIndexTest.handler(BackgroundIndexTest.people(),
+            BackgroundIndexTest.skills(), requests, null);
+    final WebsockConfig config = new WebsockConfig(true);
+
+    final SkillIndex index = new SkillIndex(qHandler, config, null);
+    index.load();
+    final WsNativePersonSPI personSPI = new WsNativePersonSPI(qHandler, config,
+            new ShindigEventBus(config), null, index, null, null);
+
+    // John has more links to the skills than Jane
+    CollectionOptions options = new CollectionOptions();
+    options.setFilter("@skills");
+    options.setFilterValue("Neo4j|Java");
+    options.setMax(10);
+
+    RestfulCollection<Person> people = personSPI.getAllPeople(options, null, null).get();
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID),
+            WsNativePersonSPITest.ids(people));
+    Assert.assertEquals(2, people.getTotalResults());
+
+    options = new CollectionOptions();
+    options.setFilter("@skills");
+    options.setFilterValue("Neo4j|Java");
+    options.setFirst(1);
+    options.setMax(1);
+
+    people = personSPI.getAllPeople(options, null, null).get();
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JANE_ID),
+            WsNativePersonSPITest.ids(people));
+    Assert.assertEquals(1, people.getStartIndex());
+    Assert.assertEquals(2, people.getTotalResults());
+
+    // sorting by another field is left to the server, which needs all people found
+    options = new CollectionOptions();
+    options.setFilter("@skills");
+    options.setFilterValue("Neo4j|Java");
+    options.setSortBy(Person.Field.DISPLAY_NAME.toString());
+    options.setMax(1);
+    personSPI.getAllPeople(options, null, null).get();
+
+    Assert.assertEquals(Arrays.asList(
+            Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID),
+            Arrays.asList(BackgroundIndexTest.JANE_ID),
+            Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID)), requests);
+  }
+
+  /**
+   * Tests resolving filters and sorting using the filter index, only requesting the people on the
+   * requested page.
+   *
+   * @throws Exception
+   *           if an exception occurs
+   */
+  @Test
+  public void filterIndexTest() throws Exception {
+    final List<List<String>> requests = new ArrayList<List<String>>();
+    final IQueryHandler qHandler = BackgroundIndexTest.handler(BackgroundIndexTest.people(),
+            BackgroundIndexTest.skills(), requests, null);
+    final WebsockConfig config = new WebsockConfig(true);
+
+    final PersonFilterIndex index = new PersonFilterIndex(qHandler, config, null);
+    index.load();
+    final WsNativePersonSPI personSPI = new WsNativePersonSPI(qHandler, config,
+            new ShindigEventBus(config), null, null, null, index);
+
+    final CollectionOptions options = new CollectionOptions();
+    options.setFilter(Name.Field.FAMILY_NAME.toString());
+    options.setFilterOperation(FilterOperation.equals);
+    options.setFilterValue("Doe");
+    options.setSortBy(Person.Field.DISPLAY_NAME.toString());
+    options.setSortOrder(SortOrder.descending);
+    options.setMax(2);
+
+    final RestfulCollection<Person> people = personSPI.getAllPeople(options, null, null).get();
+    Assert.assertEquals(Arrays.asList(BackgroundIndexTest.JOHN_ID, BackgroundIndexTest.JANE_ID),
+            WsNativePersonSPITest.ids(people));
+    Assert.assertEquals(0, people.getStartIndex());
+    Assert.assertEquals(3, people.getTotalResults());
+
+    Assert.assertEquals(Arrays.asList(Arrays.asList(BackgroundIndexTest.JOHN_ID,
+            BackgroundIndexTest.JANE_ID)), requests);
+  }
 }
@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.SortOrder;
 import org.apache.shindig.social.opensocial.model.Person;
 import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.UserId;
@@ -38,6 +40,7 @@ import de.hofuniversity.iisys.neo4j.websock.queries.TestQueryHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
 import de.hofuniversity.iisys.neo4j.websock.result.ListResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.shindig.ShindigNativeQueries;
 
 /**
@@ -164,6 +167,66 @@ public class WsNativeSkillSPITest {
     Assert.assertFalse(skillSet.getConfirmed());
   }
 
+  /**
+   * Tests that complete skill lists are loaded once, paginated and reversed locally and that
+   * modifying returned skill sets doesn't affect the cached lists.
+   *
+   * @throws Exception
+   *           if the test fails
+   */
+  @Test
+  public void cachedRetrievalTest() throws Exception {
+    // construct expected query, requested only once
+    final WebsockQuery exQuery = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+    exQuery.setPayload(ShindigNativeQueries.GET_SKILLS_QUERY);
+    exQuery.setParameter(ShindigNativeQueries.USER_ID, WsNativeSkillSPITest.JOHN_ID);
+    exQuery.setParameter(WebsockConstants.SORT_FIELD, "name");
+
+    final List<Map<String, Object>> resList = new ArrayList<Map<String, Object>>();
+    resList.add(this.fJava);
+    resList.add(this.fNeo);
+    final ListResult exResult = new ListResult(resList);
+
+    final IQueryHandler qHandler = new TestQueryHandler(exQuery, exResult);
+    final WebsockConfig config = new WebsockConfig(true);
+    config.setProperty("shindig.skills.cache", "true");
+    final WsNativeSkillSPI skillSPI = new WsNativeSkillSPI(qHandler, config,
+            new ShindigEventBus(config), new SkillCache(config, null));
+
+    final UserId john = new UserId(Type.userId, WsNativeSkillSPITest.JOHN_ID);
+
+    // first page
+    CollectionOptions options = new CollectionOptions();
+    options.setSortBy("name");
+    options.setFirst(0);
+    options.setMax(1);
+    RestfulCollection<ISkillSet> result = skillSPI.getSkills(john, options, null).get();
+
+    Assert.assertEquals(2, result.getTotalResults());
+    Assert.assertEquals(1, result.getList().size());
+    ISkillSet skillSet = result.getList().get(0);
+    Assert.assertEquals(WsNativeSkillSPITest.JAVA_SKILL, skillSet.getName());
+
+    // modify the returned skill set and its linker
+    skillSet.setName("changed");
+    skillSet.setConfirmed(false);
+    skillSet.getPeople().get(0).setDisplayName("changed");
+
+    // second request, reversed, from the cache
+    options = new CollectionOptions();
+    options.setSortBy("name");
+    options.setSortOrder(SortOrder.descending);
+    result = skillSPI.getSkills(john, options, null).get();
+
+    Assert.assertEquals(2, result.getList().size());
+    Assert.assertEquals(WsNativeSkillSPITest.NEO_SKILL, result.getList().get(0).getName());
+
+    skillSet = result.getList().get(1);
+    Assert.assertEquals(WsNativeSkillSPITest.JAVA_SKILL, skillSet.getName());
+    Assert.assertTrue(skillSet.getConfirmed());
+    Assert.assertNull(skillSet.getPeople().get(0).getDisplayName());
+  }
+
   /**
    * Tests requests to add skills to people.
    *
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test for the content-addressed file store.
+ */
+public class ContentStoreTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Rule
+  public TemporaryFolder fFolder = new TemporaryFolder();
+
+  /**
+   * Tests whether identical contents are only stored once and deleted with their last reference.
+   */
+  @Test
+  public void deduplicationTest() throws Exception {
+    final ContentStore store = new ContentStore(this.fFolder.getRoot());
+    final byte[] contents = "test contents".getBytes(ContentStoreTest.UTF8);
+
+    final ContentStore.Blob first = store.store(new ByteArrayInputStream(contents), 1024);
+    final ContentStore.Blob second = store.store(new ByteArrayInputStream(contents), 1024);
+
+    Assert.assertEquals(first.getDigest(), second.getDigest());
+    Assert.assertEquals(contents.length, first.getSize());
+    Assert.assertEquals(2, store.getReferences(first.getDigest()));
+
+    final File file = store.getFile(first.getDigest());
+    Assert.assertTrue(file.isFile());
+    Assert.assertEquals(new File(this.fFolder.getRoot(), first.getLocation()), file);
+
+    // different contents
+    final ContentStore.Blob other = store.store(
+            new ByteArrayInputStream("other".getBytes(ContentStoreTest.UTF8)), 1024);
+    Assert.assertNotEquals(first.getDigest(), other.getDigest());
+    Assert.assertEquals(1, store.getReferences(other.getDigest()));
+
+    // release
+    store.release(first.getDigest());
+    Assert.assertTrue(file.isFile());
+    Assert.assertEquals(1, store.getReferences(first.getDigest()));
+
+    store.release(first.getDigest());
+    Assert.assertFalse(file.exists());
+    Assert.assertEquals(0, store.getReferences(first.getDigest()));
+
+    Assert.assertTrue(store.getFile(other.getDigest()).isFile());
+  }
+
+  /**
+   * Tests whether oversized contents are rejected and invalid digests are not resolved.
+   */
+  @Test
+  public void limitTest() throws Exception {
+    final ContentStore store = new ContentStore(this.fFolder.getRoot());
+
+    final ContentStore.Blob blob = store.store(new ByteArrayInputStream(new byte[2048]), 1024);
+    Assert.assertNull(blob);
+    Assert.assertEquals(0, new File(this.fFolder.getRoot(), "tmp").list().length);
+
+    Assert.assertNull(store.getFile("../../etc/passwd"));
+    Assert.assertNull(store.getDerivedFile("../../etc/passwd", "64", "jpg"));
+    Assert.assertFalse(store.acquire("0123"));
+  }
+
+  /**
+   * Tests whether derived files are deleted with the last reference to their contents.
+   */
+  @Test
+  public void derivedTest() throws Exception {
+    final ContentStore store = new ContentStore(this.fFolder.getRoot());
+    final ContentStore.Blob first = store.store(
+            new ByteArrayInputStream("image".getBytes(ContentStoreTest.UTF8)), 1024);
+    final ContentStore.Blob other = store.store(
+            new ByteArrayInputStream("other".getBytes(ContentStoreTest.UTF8)), 1024);
+    store.acquire(first.getDigest());
+
+    final File small = store.getDerivedFile(first.getDigest(), "64", "jpg");
+    final File large = store.getDerivedFile(first.getDigest(), "320", "jpg");
+    final File unrelated = store.getDerivedFile(other.getDigest(), "64", "jpg");
+    for (final File file : new File[] { small, large, unrelated }) {
+      file.getParentFile().mkdirs();
+      Assert.assertTrue(file.createNewFile());
+    }
+
+    store.release(first.getDigest());
+    Assert.assertTrue(small.isFile());
+    Assert.assertTrue(large.isFile());
+
+    store.release(first.getDigest());
+    Assert.assertFalse(small.exists());
+    Assert.assertFalse(large.exists());
+    Assert.assertTrue(unrelated.isFile());
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the compressed sparse row graph and its traversals.
+ */
+public class CsrGraphTest {
+  /**
+   * Builds an undirected graph with the given edges.
+   */
+  private static CsrGraph build(int vertices, int[][] edges) {
+    final List<IntList> adjacency = new ArrayList<IntList>();
+    for (int i = 0; i < vertices; ++i) {
+      adjacency.add(new IntList());
+    }
+    for (final int[] edge : edges) {
+      adjacency.get(edge[0]).add(edge[1]);
+      adjacency.get(edge[1]).add(edge[0]);
+    }
+
+    final CsrGraph.Builder builder = new CsrGraph.Builder();
+    for (final IntList neighbors : adjacency) {
+      builder.addVertex(neighbors.toArray(), neighbors.size());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Tests shortest paths and their updates after changes.
+   */
+  @Test
+  public void shortestPathTest() {
+    // 0 - 1 - 2 - 3 - 4, shortcut 1 - 5 - 4
+    final CsrGraph graph = build(7, new int[][] { { 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 4 },
+            { 1, 5 }, { 5, 4 } });
+
+    Assert.assertArrayEquals(new int[] { 0, 1, 5, 4 }, graph.getShortestPath(0, 4, 10));
+    Assert.assertArrayEquals(new int[] { 3 }, graph.getShortestPath(3, 3, 10));
+    Assert.assertNull(graph.getShortestPath(0, 6, 10));
+    Assert.assertNull(graph.getShortestPath(0, 4, 2));
+
+    graph.removeEdge(5, 4);
+    Assert.assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, graph.getShortestPath(0, 4, 10));
+
+    // new vertex
+    graph.addEdge(0, 7);
+    graph.addEdge(7, 4);
+    Assert.assertEquals(8, graph.getVertexCount());
+    Assert.assertArrayEquals(new int[] { 0, 7, 4 }, graph.getShortestPath(0, 4, 10));
+
+    graph.setNeighbors(7, new int[0]);
+    Assert.assertEquals(0, graph.getDegree(7));
+    Assert.assertArrayEquals(new int[] { 1 }, graph.getNeighbors(0));
+  }
+
+  /**
+   * Tests whether path lengths and neighborhoods match a simple breadth-first search on a random
+   * graph, with and without parallel expansion.
+   */
+  @Test
+  public void traversalTest() {
+    final Random random = new Random(7);
+    final int vertices = 2000;
+    final int[][] edges = new int[6000][];
+    for (int i = 0; i < edges.length; ++i) {
+      edges[i] = new int[] { random.nextInt(vertices), random.nextInt(vertices) };
+    }
+    final CsrGraph graph = build(vertices, edges);
+    final ForkJoinPool pool = new ForkJoinPool(4);
+
+    for (int round = 0; round < 20; ++round) {
+      final int source = random.nextInt(vertices);
+      final int[] distances = distances(graph, source);
+
+      final int target = random.nextInt(vertices);
+      final int[] path = graph.getShortestPath(source, target, Integer.MAX_VALUE);
+      if (distances[target] < 0) {
+        Assert.assertNull(path);
+      } else {
+        Assert.assertEquals(distances[target] + 1, path.length);
+        for (int i = 1; i < path.length; ++i) {
+          Assert.assertTrue(Arrays.binarySearch(graph.getNeighbors(path[i - 1]), path[i]) >= 0);
+        }
+      }
+
+      final List<Integer> expected = new ArrayList<Integer>();
+      for (int v = 0; v < vertices; ++v) {
+        if (distances[v] >= 2 && distances[v] <= 3) {
+          expected.add(v);
+        }
+      }
+
+      final int[] sequential = graph.getNeighborhood(new int[] { source }, 3, true, null, 0);
+      final int[] parallel = graph.getNeighborhood(new int[] { source }, 3, true, pool, 8);
+      Arrays.sort(sequential);
+      Arrays.sort(parallel);
+
+      Assert.assertEquals(expected.size(), sequential.length);
+      for (int i = 0; i < sequential.length; ++i) {
+        Assert.assertEquals(expected.get(i).intValue(), sequential[i]);
+      }
+      Assert.assertArrayEquals(sequential, parallel);
+    }
+
+    pool.shutdown();
+  }
+
+  private static int[] distances(CsrGraph graph, int source) {
+    final int[] distances = new int[graph.getVertexCount()];
+    Arrays.fill(distances, -1);
+    distances[source] = 0;
+
+    final IntList queue = IntList.of(source);
+    for (int i = 0; i < queue.size(); ++i) {
+      final int vertex = queue.get(i);
+      for (final int neighbor : graph.getNeighbors(vertex)) {
+        if (distances[neighbor] < 0) {
+          distances[neighbor] = distances[vertex] + 1;
+          queue.add(neighbor);
+        }
+      }
+    }
+
+    return distances;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the columnar process cycle storage.
+ */
+public class CycleColumnsTest {
+  /**
+   * Tests aggregates over a few cycles including unfinished ones.
+   */
+  @Test
+  public void aggregateTest() {
+    final CycleColumns columns = new CycleColumns();
+    columns.add(0, 100, Arrays.asList("anna", "bob"));
+    columns.add(50, 250, Arrays.asList("bob", "carl", "bob"));
+    columns.add(120, CycleColumns.NONE, Arrays.asList("anna"));
+    columns.add(200, 260, null);
+
+    Assert.assertEquals(4, columns.size());
+    Assert.assertEquals(3, columns.getUserCount());
+    Assert.assertArrayEquals(new long[] { 100, 260 }, columns.getEndRange());
+
+    final long[] durations = columns.getDurations(0, 1000, null, 1);
+    Arrays.sort(durations);
+    Assert.assertArrayEquals(new long[] { 60, 100, 200 }, durations);
+    Assert.assertArrayEquals(new long[] { 100 }, columns.getDurations(0, 250, null, 1));
+
+    Assert.assertArrayEquals(new long[] { 1, 0, 2 }, columns.getThroughput(100, 300, 70, null, 1));
+
+    final long[] participation = columns.getParticipation(0, 1000, null, 1);
+    Assert.assertEquals(2, participation[0]);
+    Assert.assertEquals(3, participation[1]);
+    Assert.assertEquals(1, participation[2]);
+    Assert.assertEquals("carl", columns.getUser(2));
+
+    // only the unfinished cycle started in this period
+    Assert.assertArrayEquals(new long[] { 1, 0, 0 }, columns.getParticipation(110, 130, null, 1));
+  }
+
+  /**
+   * Tests the directly-follows graph, including building it incrementally.
+   */
+  @Test
+  public void followsTest() {
+    final CycleColumns columns = new CycleColumns();
+    columns.add(0, 100, Arrays.asList("anna", "bob", "carl"));
+    columns.add(0, 30, Arrays.asList("anna", "bob"));
+    columns.add(10, CycleColumns.NONE, Arrays.asList("bob", "carl"));
+    columns.add(20, 40, Arrays.asList("carl"));
+
+    final FollowsGraph graph = columns.getFollowsGraph(0, 2, null, 1);
+    Assert.assertEquals(2, graph.getCycleCount());
+    graph.addAll(columns.getFollowsGraph(2, 10, null, 1));
+    Assert.assertEquals(4, graph.getCycleCount());
+    Assert.assertEquals(2, graph.getEdgeCount());
+
+    for (final FollowsGraph.Edge edge : graph.getEdges()) {
+      final String from = columns.getUser(edge.getFrom());
+      final String to = columns.getUser(edge.getTo());
+
+      if (from.equals("anna") && to.equals("bob")) {
+        Assert.assertEquals(2, edge.getCount());
+        Assert.assertEquals(40, edge.getMeanDelay());
+      } else if (from.equals("bob") && to.equals("carl")) {
+        // the unfinished cycle has no delay
+        Assert.assertEquals(2, edge.getCount());
+        Assert.assertEquals(50, edge.getMeanDelay());
+      } else {
+        Assert.fail("unexpected handoff " + from + " -> " + to);
+      }
+    }
+  }
+
+  /**
+   * Tests whether parallel scans return the same results as sequential ones.
+   */
+  @Test
+  public void parallelTest() {
+    final CycleColumns columns = new CycleColumns();
+    for (int i = 0; i < 10000; ++i) {
+      columns.add(i, i * 3 + 7, Arrays.asList("user" + i % 13, "user" + i % 7));
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      final long[] sequential = columns.getDurations(100, 20000, null, 1);
+      final long[] parallel = columns.getDurations(100, 20000, pool, 64);
+      Arrays.sort(sequential);
+      Arrays.sort(parallel);
+      Assert.assertArrayEquals(sequential, parallel);
+
+      Assert.assertArrayEquals(columns.getThroughput(0, 30007, 1000, null, 1),
+              columns.getThroughput(0, 30007, 1000, pool, 64));
+      Assert.assertArrayEquals(columns.getParticipation(0, 40000, null, 1),
+              columns.getParticipation(0, 40000, pool, 64));
+
+      final FollowsGraph sequentialGraph = columns.getFollowsGraph(0, columns.size(), null, 1);
+      final FollowsGraph parallelGraph = columns.getFollowsGraph(0, columns.size(), pool, 64);
+      Assert.assertEquals(sequentialGraph.getCycleCount(), parallelGraph.getCycleCount());
+      Assert.assertEquals(sequentialGraph.getEdgeCount(), parallelGraph.getEdgeCount());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
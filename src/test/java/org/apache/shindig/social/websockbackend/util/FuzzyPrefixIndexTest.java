@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the fuzzy prefix completion of a vocabulary.
+ */
+public class FuzzyPrefixIndexTest {
+  private FuzzyPrefixIndex createIndex() {
+    final FuzzyPrefixIndex index = new FuzzyPrefixIndex();
+    index.put("java", "Java", 50);
+    index.put("javascript", "JavaScript", 80);
+    index.put("java ee", "Java EE", 10);
+    index.put("jazz", "Jazz", 5);
+    index.put("neo4j", "Neo4j", 20);
+    index.put("python", "Python", 60);
+    return index;
+  }
+
+  /**
+   * Tests completion without edits, ranked by popularity.
+   */
+  @Test
+  public void prefixTest() {
+    final FuzzyPrefixIndex index = createIndex();
+
+    Assert.assertEquals(Arrays.asList("JavaScript", "Java", "Java EE"),
+            index.complete("jav", 0, 0, 10));
+    Assert.assertEquals(Arrays.asList("JavaScript", "Java"), index.complete("ja", 0, 0, 2));
+    Assert.assertEquals(6, index.complete("", 0, 0, 10).size());
+    Assert.assertTrue(index.complete("cobol", 0, 0, 10).isEmpty());
+  }
+
+  /**
+   * Tests completion of fragments with typos, exact matches ranked first.
+   */
+  @Test
+  public void typoTest() {
+    final FuzzyPrefixIndex index = createIndex();
+
+    // substitution, insertion and transposition
+    Assert.assertEquals(Arrays.asList("Python"), index.complete("pyhton", 1, 0, 10));
+    Assert.assertEquals(Arrays.asList("Neo4j"), index.complete("neo44", 1, 0, 10));
+    Assert.assertEquals(Arrays.asList("JavaScript", "Java", "Java EE"),
+            index.complete("jvaa", 1, 0, 10));
+
+    // the exact completion comes before more popular ones with an edit
+    Assert.assertEquals(Arrays.asList("Jazz", "JavaScript", "Java", "Java EE"),
+            index.complete("jaz", 1, 0, 10));
+    Assert.assertTrue(index.complete("jvaa", 0, 0, 10).isEmpty());
+
+    // typos in the leading characters can be ruled out
+    Assert.assertEquals(Arrays.asList("JavaScript", "Java", "Java EE"),
+            index.complete("kava", 1, 0, 10));
+    Assert.assertTrue(index.complete("kava", 1, 1, 10).isEmpty());
+  }
+
+  /**
+   * Tests updating and removing keys.
+   */
+  @Test
+  public void updateTest() {
+    final FuzzyPrefixIndex index = createIndex();
+    Assert.assertEquals(Arrays.asList("JavaScript", "Java", "Java EE"),
+            index.complete("java", 0, 0, 10));
+
+    index.put("java", "Java", 100);
+    index.remove("javascript");
+    index.put("java ee", "Java EE", 0);
+
+    Assert.assertEquals(4, index.size());
+    Assert.assertEquals(Arrays.asList("Java"), index.complete("java", 0, 0, 10));
+  }
+
+  /**
+   * Compares completions of random fragments with a direct computation.
+   */
+  @Test
+  public void randomTest() {
+    final Random random = new Random(23);
+    final FuzzyPrefixIndex index = new FuzzyPrefixIndex();
+    final Set<String> keys = new TreeSet<String>();
+
+    for (int i = 0; i < 2000; ++i) {
+      final String key = randomWord(random, 3 + random.nextInt(8));
+      keys.add(key);
+      index.put(key, key, 1);
+    }
+
+    for (int i = 0; i < 200; ++i) {
+      final String fragment = randomWord(random, 2 + random.nextInt(4));
+
+      int expected = 0;
+      for (final String key : keys) {
+        if (prefixDistance(fragment, key) <= 1) {
+          ++expected;
+        }
+      }
+      Assert.assertEquals(expected, index.complete(fragment, 1, 0, Integer.MAX_VALUE).size());
+    }
+  }
+
+  private static String randomWord(Random random, int length) {
+    final StringBuilder word = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      word.append((char) ('a' + random.nextInt(4)));
+    }
+    return word.toString();
+  }
+
+  private static int prefixDistance(String fragment, String key) {
+    // lowest edit distance between the fragment and any prefix of the key
+    final int[][] d = new int[key.length() + 1][fragment.length() + 1];
+    int best = fragment.length();
+
+    for (int i = 0; i <= key.length(); ++i) {
+      for (int j = 0; j <= fragment.length(); ++j) {
+        if (i == 0 || j == 0) {
+          d[i][j] = i + j;
+          continue;
+        }
+
+        final boolean same = key.charAt(i - 1) == fragment.charAt(j - 1);
+        d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1]
+                + (same ? 0 : 1));
+        if (i > 1 && j > 1 && key.charAt(i - 1) == fragment.charAt(j - 2)
+                && key.charAt(i - 2) == fragment.charAt(j - 1)) {
+          d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+        }
+      }
+      best = Math.min(best, d[i][fragment.length()]);
+    }
+
+    return best;
+  }
+}
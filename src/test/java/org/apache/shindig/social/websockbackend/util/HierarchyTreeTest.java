@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the management hierarchy tree.
+ */
+public class HierarchyTreeTest {
+  /**
+   * Tests paths in a small hierarchy with two trees and a cycle.
+   */
+  @Test
+  public void pathTest() {
+    // 0 manages 1 and 2, 1 manages 3 and 4, 2 manages 5; 6 is alone; 7 and 8 manage each other
+    final HierarchyTree tree = new HierarchyTree(new int[] { -1, 0, 0, 1, 1, 2, -1, 8, 7 });
+
+    Assert.assertArrayEquals(new int[] { 3, 1, 4 }, tree.getPath(3, 4));
+    Assert.assertArrayEquals(new int[] { 3, 1, 0, 2, 5 }, tree.getPath(3, 5));
+    Assert.assertArrayEquals(new int[] { 0, 1, 4 }, tree.getPath(0, 4));
+    Assert.assertArrayEquals(new int[] { 4, 1, 0 }, tree.getPath(4, 0));
+    Assert.assertArrayEquals(new int[] { 2 }, tree.getPath(2, 2));
+    Assert.assertNull(tree.getPath(6, 0));
+
+    // cycle cut into a tree of two
+    Assert.assertEquals(1, tree.getDepth(7) + tree.getDepth(8));
+    Assert.assertEquals(2, tree.getPath(7, 8).length);
+    Assert.assertEquals(2, tree.getDepth(5));
+  }
+
+  /**
+   * Tests retrieving subordinates with and without a depth limit.
+   */
+  @Test
+  public void subordinateTest() {
+    final HierarchyTree tree = new HierarchyTree(new int[] { -1, 0, 0, 1, 1, 2, -1, 3 });
+
+    Assert.assertEquals(6, tree.getSubordinateCount(0));
+    Assert.assertArrayEquals(new int[] { 1, 3, 7, 4, 2, 5 },
+            tree.getSubordinates(0, Integer.MAX_VALUE));
+    Assert.assertArrayEquals(new int[] { 1, 2 }, tree.getSubordinates(0, 1));
+    Assert.assertArrayEquals(new int[] { 3, 4 }, tree.getSubordinates(1, 1));
+    Assert.assertArrayEquals(new int[] { 3, 7, 4 }, tree.getSubordinates(1, 2));
+    Assert.assertArrayEquals(new int[0], tree.getSubordinates(6, Integer.MAX_VALUE));
+    Assert.assertEquals(0, tree.getSubordinateCount(7));
+  }
+
+  /**
+   * Tests common managers against walking up the hierarchy on a random forest.
+   */
+  @Test
+  public void commonManagerTest() {
+    final Random random = new Random(7);
+    final int count = 2000;
+
+    final int[] managers = new int[count];
+    for (int v = 0; v < count; ++v) {
+      managers[v] = v == 0 || random.nextInt(50) == 0 ? -1 : random.nextInt(v);
+    }
+    final HierarchyTree tree = new HierarchyTree(managers);
+
+    for (int round = 0; round < 1000; ++round) {
+      final int first = random.nextInt(count);
+      final int second = random.nextInt(count);
+
+      final List<Integer> above = new ArrayList<Integer>();
+      for (int v = first; v >= 0; v = managers[v]) {
+        above.add(v);
+      }
+      int expected = -1;
+      for (int v = second; v >= 0 && expected < 0; v = managers[v]) {
+        if (above.contains(v)) {
+          expected = v;
+        }
+      }
+
+      Assert.assertEquals(expected, tree.getCommonManager(first, second));
+    }
+  }
+}
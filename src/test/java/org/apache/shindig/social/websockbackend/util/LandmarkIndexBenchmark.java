@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Benchmark comparing shortest path searches with and without landmark distances on a synthetic
+ * social graph. Skipped unless "landmark.benchmark" is set to "true", and not picked up by the
+ * default test run anyway; start it with
+ * "mvn test -Dtest=LandmarkIndexBenchmark -Dlandmark.benchmark=true". The number of people,
+ * friendships per new person, landmarks and queries can be set using "landmark.people",
+ * "landmark.edges", "landmark.landmarks" and "landmark.queries".
+ */
+public class LandmarkIndexBenchmark {
+  /**
+   * Runs the benchmark if enabled.
+   */
+  @Test
+  public void benchmark() {
+    Assume.assumeTrue(Boolean.getBoolean("landmark.benchmark"));
+
+    final int vertices = Integer.getInteger("landmark.people", 1000000);
+    final int edgesPerVertex = Integer.getInteger("landmark.edges", 4);
+    final int landmarkCount = Integer.getInteger("landmark.landmarks", 8);
+    final int queries = Integer.getInteger("landmark.queries", 2000);
+
+    final Random random = new Random(42);
+
+    long time = System.nanoTime();
+    final CsrGraph graph = LandmarkIndexTest.generate(vertices, edgesPerVertex, random);
+    System.out.println("generated " + vertices + " people, " + vertices * edgesPerVertex
+            + " friendships in " + millis(time) + "ms");
+
+    time = System.nanoTime();
+    final LandmarkIndex landmarks = LandmarkIndex.build(graph, landmarkCount);
+    System.out.println("computed distances from " + landmarkCount + " landmarks in "
+            + millis(time) + "ms");
+
+    final int[] sources = new int[queries];
+    final int[] targets = new int[queries];
+    for (int i = 0; i < queries; ++i) {
+      sources[i] = random.nextInt(vertices);
+      targets[i] = random.nextInt(vertices);
+    }
+
+    // warm up both variants
+    for (int round = 0; round < 2; ++round) {
+      long searchTotal = 0;
+      long landmarkTotal = 0;
+      long separationTotal = 0;
+      int exact = 0;
+      int mismatches = 0;
+      final int[] lengths = new int[queries];
+
+      time = System.nanoTime();
+      for (int i = 0; i < queries; ++i) {
+        lengths[i] = graph.getShortestPath(sources[i], targets[i], Integer.MAX_VALUE).length;
+      }
+      searchTotal = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      for (int i = 0; i < queries; ++i) {
+        final int lower = landmarks.getLowerBound(sources[i], targets[i]);
+        final int[] via = landmarks.getPathVia(sources[i], targets[i]);
+
+        int[] path = null;
+        if (via.length - 1 == lower) {
+          path = via;
+          ++exact;
+        } else {
+          path = graph.getShortestPath(sources[i], targets[i], via.length - 1);
+        }
+        if (path.length != lengths[i]) {
+          ++mismatches;
+        }
+      }
+      landmarkTotal = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      for (int i = 0; i < queries; ++i) {
+        final int distance = landmarks.getExactDistance(sources[i], targets[i]);
+        if (distance >= 0 && distance != lengths[i] - 1) {
+          ++mismatches;
+        }
+      }
+      separationTotal = System.nanoTime() - time;
+
+      if (round == 1) {
+        System.out.println("bidirectional search: " + searchTotal / queries / 1000
+                + "us per path");
+        System.out.println("with landmarks:       " + landmarkTotal / queries / 1000
+                + "us per path, " + exact * 100 / queries + "% answered from bounds");
+        System.out.println("separation bounds:    " + separationTotal / queries
+                + "ns per pair");
+        System.out.println("wrong path lengths:   " + mismatches);
+      }
+      Assert.assertEquals(0, mismatches);
+    }
+  }
+
+  private static long millis(long start) {
+    return (System.nanoTime() - start) / 1000000;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the landmark distance index.
+ */
+public class LandmarkIndexTest {
+  /**
+   * Generates a connected graph by preferential attachment: each new vertex is connected to the
+   * given number of existing vertices, chosen with a probability proportional to their degree,
+   * resulting in the skewed degree distribution typical for social networks.
+   *
+   * @param vertices
+   *          number of vertices
+   * @param edgesPerVertex
+   *          number of edges added with each vertex
+   * @param random
+   *          source of randomness
+   * @return generated graph
+   */
+  static CsrGraph generate(int vertices, int edgesPerVertex, Random random) {
+    // every edge contributes both ends, so picking a random end is proportional to degree
+    final int[] ends = new int[2 * vertices * edgesPerVertex];
+    int endCount = 0;
+
+    for (int v = 1; v < vertices; ++v) {
+      for (int e = 0; e < edgesPerVertex; ++e) {
+        final int other = endCount == 0 ? 0 : ends[random.nextInt(endCount)];
+        if (other != v) {
+          ends[endCount++] = v;
+          ends[endCount++] = other;
+        }
+      }
+    }
+
+    // count sort edge ends into compressed rows
+    final int[] offsets = new int[vertices + 1];
+    for (int i = 0; i < endCount; ++i) {
+      ++offsets[ends[i] + 1];
+    }
+    for (int v = 0; v < vertices; ++v) {
+      offsets[v + 1] += offsets[v];
+    }
+
+    final int[] fill = offsets.clone();
+    final int[] targets = new int[endCount];
+    for (int i = 0; i < endCount; i += 2) {
+      targets[fill[ends[i]]++] = ends[i + 1];
+      targets[fill[ends[i + 1]]++] = ends[i];
+    }
+    for (int v = 0; v < vertices; ++v) {
+      Arrays.sort(targets, offsets[v], offsets[v + 1]);
+    }
+
+    return new CsrGraph(offsets, targets);
+  }
+
+  /**
+   * Tests whether the bounds enclose the actual distances and exact answers and landmark paths are
+   * correct on a random graph with two components.
+   */
+  @Test
+  public void boundTest() {
+    final CsrGraph graph = LandmarkIndexTest.generate(3000, 3, new Random(11));
+
+    // separate component
+    graph.addEdge(3000, 3001);
+    graph.addEdge(3001, 3002);
+
+    final LandmarkIndex landmarks = LandmarkIndex.build(graph, 4);
+    Assert.assertEquals(4, landmarks.getLandmarks().length);
+    Assert.assertTrue(landmarks.isCurrent());
+
+    final Random random = new Random(3);
+    int exact = 0;
+    for (int round = 0; round < 200; ++round) {
+      final int source = random.nextInt(3000);
+      final int target = random.nextInt(3000);
+      final int distance = graph.getDistances(source)[target];
+
+      final int lower = landmarks.getLowerBound(source, target);
+      final int upper = landmarks.getUpperBound(source, target);
+      Assert.assertTrue(lower <= distance);
+      Assert.assertTrue(upper >= distance);
+
+      final int[] path = landmarks.getPathVia(source, target);
+      Assert.assertEquals(upper + 1, path.length);
+      Assert.assertEquals(source, path[0]);
+      Assert.assertEquals(target, path[path.length - 1]);
+      for (int i = 1; i < path.length; ++i) {
+        Assert.assertTrue(Arrays.binarySearch(graph.getNeighbors(path[i - 1]), path[i]) >= 0);
+      }
+
+      final int known = landmarks.getExactDistance(source, target);
+      if (known >= 0) {
+        Assert.assertEquals(distance, known);
+        ++exact;
+      }
+    }
+    Assert.assertTrue(exact > 0);
+
+    // not connected
+    Assert.assertEquals(LandmarkIndex.UNREACHABLE, landmarks.getLowerBound(0, 3001));
+    Assert.assertEquals(LandmarkIndex.UNREACHABLE, landmarks.getExactDistance(3002, 5));
+
+    graph.removeEdge(3000, 3001);
+    Assert.assertFalse(landmarks.isCurrent());
+  }
+}
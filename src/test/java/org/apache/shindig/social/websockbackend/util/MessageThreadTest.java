@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shindig.social.opensocial.model.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the message thread tree.
+ */
+public class MessageThreadTest {
+  private static final String JOHN_ID = "john.doe", JANE_ID = "jane.doe", HORST_ID = "horst";
+
+  private Map<String, Object> message(String id, String parentId, Long time, String senderId,
+          String... recipients) {
+    final Map<String, Object> message = new HashMap<String, Object>();
+    message.put(Message.Field.ID.toString(), id);
+    message.put(Message.Field.IN_REPLY_TO.toString(), parentId);
+    message.put(Message.Field.TIME_SENT.toString(), time);
+    message.put(Message.Field.SENDER_ID.toString(), senderId);
+    message.put(Message.Field.RECIPIENTS.toString(), recipients);
+    return message;
+  }
+
+  private MessageThread createThread() {
+    final List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
+    messages.add(message("3", "1", 300L, MessageThreadTest.JANE_ID, MessageThreadTest.JOHN_ID));
+    messages.add(message("1", null, 100L, MessageThreadTest.JOHN_ID, MessageThreadTest.JANE_ID,
+            MessageThreadTest.HORST_ID));
+    messages.add(message("2", "1", 200L, MessageThreadTest.HORST_ID, MessageThreadTest.JOHN_ID));
+    messages.add(message("3", "1", 300L, MessageThreadTest.JANE_ID, MessageThreadTest.HORST_ID));
+    return new MessageThread("1", messages);
+  }
+
+  private String ids(List<Map<String, Object>> messages) {
+    final StringBuilder ids = new StringBuilder();
+    for (final Map<String, Object> message : messages) {
+      ids.append(message.get(Message.Field.ID.toString()));
+    }
+    return ids.toString();
+  }
+
+  /**
+   * Tests ordering by time and the removal of duplicates.
+   */
+  @Test
+  public void orderTest() {
+    final MessageThread thread = createThread();
+
+    Assert.assertEquals("1", thread.getRootId());
+    Assert.assertEquals(3, thread.size());
+    Assert.assertEquals("123", ids(thread.getMessages()));
+    Assert.assertTrue(thread.contains("2"));
+    Assert.assertFalse(thread.contains("4"));
+
+    // untimed messages first, equal times by ID
+    final List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
+    messages.add(message("b", null, 5L, MessageThreadTest.JOHN_ID));
+    messages.add(message("c", "b", null, MessageThreadTest.JOHN_ID));
+    messages.add(message("a", "b", 5L, MessageThreadTest.JOHN_ID));
+    Assert.assertEquals("cab", ids(new MessageThread("b", messages).getMessages()));
+  }
+
+  /**
+   * Tests adding replies.
+   */
+  @Test
+  public void replyTest() {
+    final MessageThread thread = createThread();
+
+    final MessageThread added = thread.withReply(message("4", "2", 250L,
+            MessageThreadTest.JOHN_ID, MessageThreadTest.HORST_ID));
+    Assert.assertEquals("1243", ids(added.getMessages()));
+    Assert.assertTrue(added.contains("4"));
+
+    // original unchanged
+    Assert.assertEquals("123", ids(thread.getMessages()));
+    Assert.assertFalse(thread.contains("4"));
+
+    Assert.assertEquals("12435", ids(added.withReply(
+            message("5", "4", 400L, MessageThreadTest.HORST_ID)).getMessages()));
+
+    // known messages and foreign replies
+    Assert.assertSame(thread,
+            thread.withReply(message("3", "1", 300L, MessageThreadTest.JANE_ID)));
+    Assert.assertNull(thread.withReply(message("6", "9", 500L, MessageThreadTest.JOHN_ID)));
+    Assert.assertNull(thread.withReply(message("7", null, 500L, MessageThreadTest.JOHN_ID)));
+  }
+
+  /**
+   * Tests restricting messages to the ones a user sent or received.
+   */
+  @Test
+  public void visibilityTest() {
+    final MessageThread thread = createThread();
+
+    Assert.assertEquals("123", ids(thread.getVisible(MessageThreadTest.JOHN_ID)));
+    Assert.assertEquals("13", ids(thread.getVisible(MessageThreadTest.JANE_ID)));
+    Assert.assertEquals("12", ids(thread.getVisible(MessageThreadTest.HORST_ID)));
+    Assert.assertEquals("", ids(thread.getVisible("nobody")));
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the streaming multipart reader.
+ */
+public class MultipartReaderTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String BOUNDARY = "----boundary42";
+
+  private static byte[] body(String... parts) {
+    final StringBuilder body = new StringBuilder();
+    for (final String part : parts) {
+      body.append("--").append(MultipartReaderTest.BOUNDARY).append("\r\n").append(part)
+              .append("\r\n");
+    }
+    body.append("--").append(MultipartReaderTest.BOUNDARY).append("--\r\n");
+    return body.toString().getBytes(MultipartReaderTest.UTF8);
+  }
+
+  private static String read(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[100];
+
+    int read = in.read(buffer);
+    while (read != -1) {
+      out.write(buffer, 0, read);
+      read = in.read(buffer);
+    }
+    return new String(out.toByteArray(), MultipartReaderTest.UTF8);
+  }
+
+  /**
+   * Tests the extraction of the boundary from a content type.
+   */
+  @Test
+  public void boundaryTest() {
+    Assert.assertEquals("abc", MultipartReader.getBoundary("multipart/form-data; boundary=abc"));
+    Assert.assertEquals("a=b c",
+            MultipartReader.getBoundary("Multipart/Form-Data; charset=UTF-8; boundary=\"a=b c\""));
+    Assert.assertNull(MultipartReader.getBoundary("multipart/form-data"));
+    Assert.assertNull(MultipartReader.getBoundary("application/json; boundary=abc"));
+    Assert.assertNull(MultipartReader.getBoundary(null));
+  }
+
+  /**
+   * Tests reading form fields and files, including their headers.
+   */
+  @Test
+  public void partsTest() throws Exception {
+    final byte[] body = body("Content-Disposition: form-data; name=\"title\"\r\n\r\nHello",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"C:\\\\dir\\\\a.txt\"\r\n"
+                    + "Content-Type: text/plain\r\n\r\nline 1\r\nline 2\r\n",
+            "Content-Disposition: form-data; name=\"empty\"; filename=\"e.bin\"\r\n\r\n");
+    final MultipartReader reader = new MultipartReader(new ByteArrayInputStream(body),
+            MultipartReaderTest.BOUNDARY);
+
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals("title", reader.getFieldName());
+    Assert.assertNull(reader.getFileName());
+    Assert.assertNull(reader.getContentType());
+    Assert.assertEquals("Hello", read(reader.getInputStream()));
+
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals("file", reader.getFieldName());
+    Assert.assertEquals("a.txt", reader.getFileName());
+    Assert.assertEquals("text/plain", reader.getContentType());
+    Assert.assertEquals("text/plain", reader.getHeaders().get("content-type"));
+    Assert.assertEquals("line 1\r\nline 2\r\n", read(reader.getInputStream()));
+
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals("e.bin", reader.getFileName());
+    Assert.assertEquals("", read(reader.getInputStream()));
+
+    Assert.assertFalse(reader.nextPart());
+    Assert.assertFalse(reader.nextPart());
+  }
+
+  /**
+   * Tests that partial boundaries in contents are kept and that delimiters split across reads from
+   * the underlying stream are recognized.
+   */
+  @Test
+  public void boundaryHandlingTest() throws Exception {
+    // large enough to span several buffer fills
+    final StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 3000; ++i) {
+      contents.append("--").append(MultipartReaderTest.BOUNDARY.substring(0, i % 14))
+              .append("\r\n-");
+    }
+    contents.append("\r\n--").append(MultipartReaderTest.BOUNDARY.substring(0, 13));
+
+    final byte[] body = body("Content-Disposition: form-data; name=\"f\"; filename=\"f\"\r\n\r\n"
+            + contents, "Content-Disposition: form-data; name=\"g\"\r\n\r\nnext");
+
+    // underlying stream returning at most 7 bytes at once
+    final InputStream trickle = new ByteArrayInputStream(body) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+    final MultipartReader reader = new MultipartReader(trickle, MultipartReaderTest.BOUNDARY);
+
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals(contents.toString(), read(reader.getInputStream()));
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals("next", read(reader.getInputStream()));
+    Assert.assertFalse(reader.nextPart());
+  }
+
+  /**
+   * Tests skipping unread parts and a preamble before the first boundary.
+   */
+  @Test
+  public void skipTest() throws Exception {
+    final byte[] parts = body("Content-Disposition: form-data; name=\"a\"\r\n\r\nfirst",
+            "Content-Disposition: form-data; name=\"b\"\r\n\r\nsecond");
+    final byte[] preamble = "ignored preamble\r\n".getBytes(MultipartReaderTest.UTF8);
+    final byte[] body = new byte[preamble.length + parts.length];
+    System.arraycopy(preamble, 0, body, 0, preamble.length);
+    System.arraycopy(parts, 0, body, preamble.length, parts.length);
+
+    final MultipartReader reader = new MultipartReader(new ByteArrayInputStream(body),
+            MultipartReaderTest.BOUNDARY);
+
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals("a", reader.getFieldName());
+    Assert.assertTrue(reader.nextPart());
+    Assert.assertEquals("b", reader.getFieldName());
+    Assert.assertEquals("second", read(reader.getInputStream()));
+    Assert.assertFalse(reader.nextPart());
+  }
+
+  /**
+   * Tests that truncated and malformed bodies are rejected.
+   */
+  @Test
+  public void malformedTest() throws Exception {
+    final byte[] body = body("Content-Disposition: form-data; name=\"a\"\r\n\r\ncontents");
+
+    // missing closing delimiter
+    final byte[] truncated = new byte[body.length - 30];
+    System.arraycopy(body, 0, truncated, 0, truncated.length);
+    MultipartReader reader = new MultipartReader(new ByteArrayInputStream(truncated),
+            MultipartReaderTest.BOUNDARY);
+    Assert.assertTrue(reader.nextPart());
+    try {
+      read(reader.getInputStream());
+      Assert.fail("truncated body accepted");
+    } catch (final IOException e) {
+      // expected
+    }
+
+    // garbage after a delimiter
+    final byte[] garbage = ("--" + MultipartReaderTest.BOUNDARY + "xx\r\n\r\n")
+            .getBytes(MultipartReaderTest.UTF8);
+    reader = new MultipartReader(new ByteArrayInputStream(garbage), MultipartReaderTest.BOUNDARY);
+    try {
+      reader.nextPart();
+      Assert.fail("malformed body accepted");
+    } catch (final IOException e) {
+      // expected
+    }
+  }
+}
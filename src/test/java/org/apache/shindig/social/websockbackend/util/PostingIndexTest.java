@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the weighted inverted index.
+ */
+public class PostingIndexTest {
+  private static Map<String, Integer> terms(Object... termWeights) {
+    final Map<String, Integer> terms = new HashMap<String, Integer>();
+    for (int i = 0; i < termWeights.length; i += 2) {
+      terms.put((String) termWeights[i], (Integer) termWeights[i + 1]);
+    }
+    return terms;
+  }
+
+  /**
+   * Tests queries for all and any of several terms and their ranking.
+   */
+  @Test
+  public void findTest() {
+    final PostingIndex index = new PostingIndex();
+    index.set(0, terms("java", 1, "sql", 4));
+    index.set(1, terms("java", 3));
+    index.set(2, terms("java", 2, "sql", 2, "neo4j", 1));
+    index.set(3, terms("neo4j", 5));
+
+    Assert.assertEquals(4, index.getDocumentCount());
+    Assert.assertEquals(3, index.getTermCount());
+    Assert.assertArrayEquals(new int[] { 0, 1, 2 }, index.getDocuments("java"));
+    Assert.assertEquals(2, index.getFrequency("sql"));
+
+    Assert.assertArrayEquals(new int[] { 1, 2, 0 }, index.find(Arrays.asList("java"), true));
+    Assert.assertArrayEquals(new int[] { 0, 2 }, index.find(Arrays.asList("java", "sql"), true));
+    Assert.assertArrayEquals(new int[] { 2 },
+            index.find(Arrays.asList("sql", "java", "neo4j"), true));
+    Assert.assertArrayEquals(new int[0], index.find(Arrays.asList("java", "cobol"), true));
+
+    Assert.assertArrayEquals(new int[] { 3, 0, 2 },
+            index.find(Arrays.asList("sql", "neo4j", "cobol"), false));
+    // ties are ranked by number
+    Assert.assertArrayEquals(new int[] { 3, 1, 2, 0 },
+            index.find(Arrays.asList("neo4j", "java"), false));
+  }
+
+  /**
+   * Tests replacing and removing the terms of documents.
+   */
+  @Test
+  public void updateTest() {
+    final PostingIndex index = new PostingIndex();
+    index.set(5, terms("java", 1, "sql", 1));
+    index.set(7, terms("java", 1));
+
+    Assert.assertEquals(terms("java", 1, "sql", 1),
+            index.set(5, terms("java", 4, "cobol", 1, "sql", 0)));
+    Assert.assertArrayEquals(new int[] { 5, 7 }, index.find(Arrays.asList("java"), true));
+    Assert.assertArrayEquals(new int[0], index.getDocuments("sql"));
+    Assert.assertEquals(2, index.getTermCount());
+
+    index.set(5, null);
+    Assert.assertEquals(1, index.getDocumentCount());
+    Assert.assertArrayEquals(new int[0], index.getDocuments("cobol"));
+    Assert.assertArrayEquals(new int[] { 7 }, index.find(Arrays.asList("java"), false));
+  }
+
+  /**
+   * Compares intersections of lists of very different lengths with a direct computation.
+   */
+  @Test
+  public void intersectionTest() {
+    final Random random = new Random(17);
+    final PostingIndex index = new PostingIndex();
+    final int count = 20000;
+
+    final int[][] weights = new int[count][3];
+    for (int document = count - 1; document >= 0; --document) {
+      weights[document][0] = random.nextInt(2) == 0 ? random.nextInt(5) + 1 : 0;
+      weights[document][1] = random.nextInt(50) == 0 ? random.nextInt(5) + 1 : 0;
+      weights[document][2] = random.nextInt(500) == 0 ? random.nextInt(5) + 1 : 0;
+      index.set(document, terms("a", weights[document][0], "b", weights[document][1], "c",
+              weights[document][2]));
+    }
+
+    final int[] found = index.find(Arrays.asList("a", "b"), true);
+    int expected = 0;
+    for (int document = 0; document < count; ++document) {
+      if (weights[document][0] > 0 && weights[document][1] > 0) {
+        ++expected;
+      }
+    }
+    Assert.assertEquals(expected, found.length);
+
+    int last = Integer.MAX_VALUE;
+    for (final int document : found) {
+      final int weight = weights[document][0] + weights[document][1];
+      Assert.assertTrue(weights[document][0] > 0 && weights[document][1] > 0);
+      Assert.assertTrue(weight <= last);
+      last = weight;
+    }
+
+    Assert.assertEquals(index.getDocuments("b").length + index.getDocuments("c").length
+            - index.find(Arrays.asList("b", "c"), true).length,
+            index.find(Arrays.asList("b", "c"), false).length);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the word prefix index.
+ */
+public class PrefixIndexTest {
+  private PrefixIndex createIndex() {
+    final PrefixIndex index = new PrefixIndex();
+    index.set(0, "Horst Jordan", "horst");
+    index.set(1, "Johannes M\u00fcller", "john.mueller");
+    index.set(2, "Jo-Anne Horstmann", "jo");
+    index.set(3, null, "anonymous");
+    return index;
+  }
+
+  /**
+   * Tests splitting texts into words.
+   */
+  @Test
+  public void tokenizeTest() {
+    Assert.assertEquals(Arrays.asList("jo", "anne", "m\u00fcller"),
+            PrefixIndex.tokenize(" Jo-Anne  M\u00dcLLER"));
+    Assert.assertTrue(PrefixIndex.tokenize(null).isEmpty());
+    Assert.assertTrue(PrefixIndex.tokenize(" .- ").isEmpty());
+  }
+
+  /**
+   * Tests queries of one or more prefixes.
+   */
+  @Test
+  public void findTest() {
+    final PrefixIndex index = createIndex();
+    Assert.assertEquals(4, index.getDocumentCount());
+
+    Assert.assertArrayEquals(new int[] { 0, 1, 2 }, index.find("jo"));
+    Assert.assertArrayEquals(new int[] { 0, 2 }, index.find("Horst"));
+    Assert.assertArrayEquals(new int[] { 0, 2 }, index.find("hor jo"));
+    Assert.assertArrayEquals(new int[] { 2 }, index.find("jo horstm"));
+    Assert.assertArrayEquals(new int[] { 1 }, index.find("m\u00fc jo"));
+    Assert.assertArrayEquals(new int[] { 1 }, index.find("mueller"));
+    Assert.assertArrayEquals(new int[] { 3 }, index.find("anon"));
+    Assert.assertArrayEquals(new int[0], index.find("jox"));
+    Assert.assertArrayEquals(new int[0], index.find(" "));
+  }
+
+  /**
+   * Tests replacing and removing the texts of documents.
+   */
+  @Test
+  public void updateTest() {
+    final PrefixIndex index = createIndex();
+
+    index.set(0, "Horst Meier", "horst");
+    Assert.assertArrayEquals(new int[] { 1, 2 }, index.find("jo"));
+    Assert.assertArrayEquals(new int[] { 0 }, index.find("mei"));
+
+    index.set(2, (String[]) null);
+    Assert.assertEquals(3, index.getDocumentCount());
+    Assert.assertArrayEquals(new int[] { 0 }, index.find("horst"));
+  }
+}
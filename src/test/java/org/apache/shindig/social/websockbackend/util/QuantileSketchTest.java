@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the mergeable quantile sketch.
+ */
+public class QuantileSketchTest {
+  private static final double[] FRACTIONS = { 0.01, 0.1, 0.5, 0.9, 0.99 };
+
+  /**
+   * Tests that small inputs are answered exactly.
+   */
+  @Test
+  public void exactTest() {
+    final QuantileSketch sketch = new QuantileSketch();
+    for (long value = 100; value > 0; --value) {
+      sketch.update(value);
+    }
+
+    Assert.assertEquals(100, sketch.getCount());
+    Assert.assertEquals(1, sketch.getMin());
+    Assert.assertEquals(100, sketch.getMax());
+    Assert.assertArrayEquals(new long[] { 1, 50, 90, 99, 100 },
+            sketch.getQuantiles(0, 0.5, 0.9, 0.99, 1));
+  }
+
+  /**
+   * Tests the rank error and size of a sketch over many skewed values.
+   */
+  @Test
+  public void accuracyTest() {
+    final Random random = new Random(11);
+    final int count = 200000;
+
+    final QuantileSketch sketch = new QuantileSketch();
+    final long[] values = new long[count];
+    for (int i = 0; i < count; ++i) {
+      values[i] = (long) (Math.exp(random.nextGaussian() * 2) * 1000);
+      sketch.update(values[i]);
+    }
+    Arrays.sort(values);
+
+    Assert.assertEquals(count, sketch.getCount());
+    Assert.assertTrue(sketch.getRetained() < 4 * QuantileSketch.DEFAULT_K);
+    assertRanks(values, sketch.getQuantiles(QuantileSketchTest.FRACTIONS), 0.02);
+  }
+
+  /**
+   * Tests merging sketches over parts of the values.
+   */
+  @Test
+  public void mergeTest() {
+    final Random random = new Random(13);
+    final int count = 100000;
+
+    final QuantileSketch merged = new QuantileSketch();
+    final long[] values = new long[count];
+    for (int part = 0; part < 4; ++part) {
+      final QuantileSketch sketch = new QuantileSketch();
+      for (int i = part; i < count; i += 4) {
+        values[i] = random.nextInt(1000000) + part * 100000;
+        sketch.update(values[i]);
+      }
+      merged.merge(sketch);
+    }
+    Arrays.sort(values);
+
+    Assert.assertEquals(count, merged.getCount());
+    Assert.assertEquals(values[0], merged.getMin());
+    Assert.assertEquals(values[count - 1], merged.getMax());
+    assertRanks(values, merged.getQuantiles(QuantileSketchTest.FRACTIONS), 0.02);
+  }
+
+  private void assertRanks(long[] sorted, long[] quantiles, double maxError) {
+    for (int q = 0; q < quantiles.length; ++q) {
+      // fraction of the values below the estimate
+      int rank = Arrays.binarySearch(sorted, quantiles[q]);
+      rank = rank < 0 ? -rank - 1 : rank;
+      final double error = Math.abs((double) rank / sorted.length
+              - QuantileSketchTest.FRACTIONS[q]);
+
+      Assert.assertTrue("rank error " + error + " at " + QuantileSketchTest.FRACTIONS[q],
+              error <= maxError);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the compressed bitmap.
+ */
+public class RoaringBitmapTest {
+  /**
+   * Tests adding, removing and looking up values in sparse and dense containers.
+   */
+  @Test
+  public void modificationTest() {
+    final RoaringBitmap bitmap = RoaringBitmap.of(3, 1, 70000, 2);
+    Assert.assertArrayEquals(new int[] { 1, 2, 3, 70000 }, bitmap.toArray());
+    Assert.assertTrue(bitmap.contains(70000));
+    Assert.assertFalse(bitmap.contains(4));
+
+    bitmap.remove(70000);
+    bitmap.remove(5);
+    Assert.assertEquals(3, bitmap.getCardinality());
+
+    // switch to a bit set and back
+    for (int i = 0; i < 10000; ++i) {
+      bitmap.add(i * 2);
+    }
+    Assert.assertEquals(10002, bitmap.getCardinality());
+    Assert.assertTrue(bitmap.contains(19998));
+    Assert.assertFalse(bitmap.contains(19999));
+
+    for (int i = 0; i < 10000; ++i) {
+      bitmap.remove(i * 2);
+    }
+    Assert.assertArrayEquals(new int[] { 1, 3 }, bitmap.toArray());
+
+    bitmap.remove(1);
+    bitmap.remove(3);
+    Assert.assertTrue(bitmap.isEmpty());
+  }
+
+  /**
+   * Tests set operations against a reference implementation.
+   */
+  @Test
+  public void operationTest() {
+    final Random random = new Random(42);
+
+    for (int round = 0; round < 20; ++round) {
+      final int range = round % 2 == 0 ? 200000 : 20000;
+      final TreeSet<Integer> set1 = new TreeSet<Integer>();
+      final TreeSet<Integer> set2 = new TreeSet<Integer>();
+      final RoaringBitmap bitmap1 = new RoaringBitmap();
+      final RoaringBitmap bitmap2 = new RoaringBitmap();
+
+      for (int i = 0; i < 10000; ++i) {
+        final int value1 = random.nextInt(range);
+        set1.add(value1);
+        bitmap1.add(value1);
+
+        final int value2 = random.nextInt(range);
+        set2.add(value2);
+        bitmap2.add(value2);
+      }
+
+      final TreeSet<Integer> and = new TreeSet<Integer>(set1);
+      and.retainAll(set2);
+      assertEquals(and, RoaringBitmap.and(bitmap1, bitmap2));
+      Assert.assertEquals(and.size(), RoaringBitmap.andCardinality(bitmap1, bitmap2));
+
+      final TreeSet<Integer> andNot = new TreeSet<Integer>(set1);
+      andNot.removeAll(set2);
+      assertEquals(andNot, RoaringBitmap.andNot(bitmap1, bitmap2));
+
+      final TreeSet<Integer> or = new TreeSet<Integer>(set1);
+      or.addAll(set2);
+      assertEquals(or, RoaringBitmap.or(bitmap1, bitmap2));
+
+      // operands unchanged
+      assertEquals(set1, bitmap1);
+      assertEquals(set2, bitmap2);
+    }
+  }
+
+  private void assertEquals(TreeSet<Integer> expected, RoaringBitmap actual) {
+    final int[] values = actual.toArray();
+    Assert.assertEquals(expected.size(), values.length);
+
+    int i = 0;
+    for (final Integer value : expected) {
+      Assert.assertEquals(value.intValue(), values[i++]);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2015 Institute of Information Systems, Hof University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package org.apache.shindig.social.websockbackend.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the string value index.
+ */
+public class ValueIndexTest {
+  private ValueIndex createIndex() {
+    final ValueIndex index = new ValueIndex();
+    index.set(0, "Horst Jordan");
+    index.set(1, "Johannes Mueller");
+    index.set(2, "Jo");
+    index.set(3, "Horst Jordan");
+    index.set(5, "Anna Horstmann");
+    return index;
+  }
+
+  /**
+   * Tests the different filter operations.
+   */
+  @Test
+  public void filterTest() {
+    final ValueIndex index = createIndex();
+
+    Assert.assertArrayEquals(new int[] { 0, 1, 2, 3, 5 }, index.present());
+    Assert.assertArrayEquals(new int[] { 0, 3 }, index.equal("Horst Jordan"));
+    Assert.assertArrayEquals(new int[0], index.equal("horst jordan"));
+
+    Assert.assertArrayEquals(new int[] { 1, 2 }, index.startsWith("Jo"));
+    Assert.assertArrayEquals(new int[] { 0, 3 }, index.startsWith("Horst"));
+    Assert.assertArrayEquals(new int[] { 0, 1, 2, 3, 5 }, index.startsWith(""));
+
+    Assert.assertArrayEquals(new int[] { 0, 3, 5 }, index.contains("Horst"));
+    Assert.assertArrayEquals(new int[] { 0, 1, 2, 3 }, index.contains("Jo"));
+    Assert.assertArrayEquals(new int[] { 0, 3 }, index.contains("st Jo"));
+    Assert.assertArrayEquals(new int[0], index.contains("jordan"));
+    Assert.assertArrayEquals(new int[0], index.contains("Horst Jordan Jr"));
+  }
+
+  /**
+   * Tests replacing and removing values.
+   */
+  @Test
+  public void updateTest() {
+    final ValueIndex index = createIndex();
+
+    index.set(0, "Horst Meier");
+    Assert.assertArrayEquals(new int[] { 3 }, index.equal("Horst Jordan"));
+    Assert.assertArrayEquals(new int[] { 0 }, index.contains("Meier"));
+    Assert.assertEquals("Horst Meier", index.get(0));
+
+    index.set(3, null);
+    index.set(5, null);
+    Assert.assertArrayEquals(new int[0], index.contains("rdan"));
+    Assert.assertArrayEquals(new int[] { 0 }, index.startsWith("Horst"));
+    Assert.assertArrayEquals(new int[] { 0, 1, 2 }, index.present());
+    Assert.assertNull(index.get(3));
+  }
+
+  /**
+   * Compares substring searches in random values with checking every value.
+   */
+  @Test
+  public void randomTest() {
+    final Random random = new Random(42);
+    final String[] values = new String[500];
+    final ValueIndex index = new ValueIndex();
+
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = randomString(random, 1 + random.nextInt(12));
+      index.set(i, values[i]);
+    }
+
+    for (int i = 0; i < 200; ++i) {
+      final String fragment = randomString(random, 1 + random.nextInt(4));
+
+      final IntList expected = new IntList();
+      for (int j = 0; j < values.length; ++j) {
+        if (values[j].contains(fragment)) {
+          expected.add(j);
+        }
+      }
+      Assert.assertArrayEquals(expected.toArray(), index.contains(fragment));
+    }
+  }
+
+  private String randomString(Random random, int length) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      builder.append((char) ('a' + random.nextInt(4)));
+    }
+    return builder.toString();
+  }
+}